@@ -0,0 +1,650 @@
+package cosc202.andie;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.ConvolveOp;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Kernel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.UnaryOperator;
+
+/**
+ * <p>
+ * Timings of image operations on a large image.
+ * </p>
+ *
+ * <p>
+ * Run with <code>gradle benchmark</code>, or <code>gradle benchmark -Pbenchmarks=pixels</code>
+ * to run only some of the suites. Each suite compares the current implementation of some
+ * operations with the straightforward implementation it replaced, on a synthetic image of
+ * about 20 megapixels, and prints the best of several runs of each.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @version 1.0
+ */
+public class Benchmarks {
+
+    /** The width of the test image, that of a 20 megapixel camera. */
+    static final int WIDTH = 5472;
+    /** The height of the test image. */
+    static final int HEIGHT = 3648;
+    /** The number of timed runs of each operation. */
+    static final int RUNS = 3;
+
+    /** The suites that can be run, by name. */
+    private static final Map<String, Runnable> SUITES = new LinkedHashMap<String, Runnable>();
+
+    static {
+        SUITES.put("pixels", Benchmarks::pixels);
+        SUITES.put("median", Benchmarks::median);
+        SUITES.put("box", Benchmarks::box);
+        SUITES.put("gaussian", Benchmarks::gaussian);
+        SUITES.put("convolution", Benchmarks::convolution);
+        SUITES.put("fft", Benchmarks::fft);
+        SUITES.put("gradient", Benchmarks::gradient);
+        SUITES.put("lookup", Benchmarks::lookup);
+        SUITES.put("matrix", Benchmarks::matrix);
+        SUITES.put("simd", Benchmarks::simd);
+        SUITES.put("rotate", Benchmarks::rotate);
+        SUITES.put("resize", Benchmarks::resize);
+        SUITES.put("crop", Benchmarks::crop);
+    }
+
+    /**
+     * <p>
+     * Run the benchmarks.
+     * </p>
+     *
+     * @param args The names of the suites to run, or none to run them all.
+     */
+    public static void main(String[] args) {
+        List<String> names = args.length == 0 ? new ArrayList<String>(SUITES.keySet()) : Arrays.asList(args);
+        for (String name: names) {
+            Runnable suite = SUITES.get(name);
+            if (suite == null) {
+                System.out.println("Unknown benchmark " + name + ", expected one of " + SUITES.keySet());
+                continue;
+            }
+            System.out.println("== " + name + " (" + WIDTH + "x" + HEIGHT + ")");
+            suite.run();
+        }
+    }
+
+    /**
+     * <p>
+     * Make the test image.
+     * </p>
+     *
+     * @param type The image type, such as {@link BufferedImage#TYPE_INT_ARGB}.
+     * @return A new image filled with smooth gradients and some noise.
+     */
+    static BufferedImage testImage(int type) {
+        BufferedImage argb = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = ((DataBufferInt) argb.getRaster().getDataBuffer()).getData();
+        Random rand = new Random(202);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int r = (x * 255 / WIDTH + rand.nextInt(16)) & 0xFF;
+                int g = (y * 255 / HEIGHT + rand.nextInt(16)) & 0xFF;
+                int b = ((x + y) * 127 / HEIGHT) & 0xFF;
+                pixels[y * WIDTH + x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        if (type == BufferedImage.TYPE_INT_ARGB) {
+            return argb;
+        }
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, type);
+        image.setRGB(0, 0, WIDTH, HEIGHT, pixels, 0, WIDTH);
+        return image;
+    }
+
+    /**
+     * <p>
+     * Make an independent copy of an image, of the same type.
+     * </p>
+     *
+     * @param image The image to copy.
+     * @return The copy.
+     */
+    static BufferedImage copy(BufferedImage image) {
+        return new BufferedImage(image.getColorModel(), image.copyData(null), image.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * <p>
+     * Time an operation and print the best time.
+     * </p>
+     *
+     * <p>
+     * Each run works on a fresh copy of the input, made before the clock starts. One
+     * untimed run is made first to let the JIT compiler settle.
+     * </p>
+     *
+     * @param label What is being timed.
+     * @param input The image to give the operation.
+     * @param op The operation.
+     * @return The best time in milliseconds.
+     */
+    static double time(String label, BufferedImage input, UnaryOperator<BufferedImage> op) {
+        op.apply(copy(input));
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            BufferedImage image = copy(input);
+            long began = System.nanoTime();
+            op.apply(image);
+            best = Math.min(best, System.nanoTime() - began);
+        }
+        double millis = best / 1e6;
+        System.out.printf("  %-40s %9.1f ms%n", label, millis);
+        return millis;
+    }
+
+    /**
+     * <p>
+     * Time an operation against the implementation it replaced, and print the speed-up.
+     * </p>
+     *
+     * @param label The name of the operation.
+     * @param input The image to give the operations.
+     * @param before The old implementation.
+     * @param after The current implementation.
+     */
+    static void compare(String label, BufferedImage input, UnaryOperator<BufferedImage> before, UnaryOperator<BufferedImage> after) {
+        double old = time(label + " (before)", input, before);
+        double now = time(label, input, after);
+        System.out.printf("  %-40s %9.1fx%n", label + " speed-up", old / now);
+    }
+
+    /**
+     * <p>
+     * Compare per-pixel operations using {@link PixelAccess} with pixel-at-a-time
+     * {@link BufferedImage#getRGB(int, int)} and {@link BufferedImage#setRGB(int, int, int)}.
+     * </p>
+     */
+    static void pixels() {
+        BufferedImage input = testImage(BufferedImage.TYPE_INT_ARGB);
+        PixelOperation[] pixelOps = {
+            new ConvertToGrey(), new InvertColour(), new BrightnessContrast(20, 30), new ColourChannelCycle(1)
+        };
+        for (PixelOperation op: pixelOps) {
+            compare(op.getClass().getSimpleName(), input, image -> {
+                for (int y = 0; y < image.getHeight(); ++y) {
+                    for (int x = 0; x < image.getWidth(); ++x) {
+                        image.setRGB(x, y, op.filterRGB(image.getRGB(x, y)));
+                    }
+                }
+                return image;
+            }, op::apply);
+        }
+        compare("RotateLeft", input, image -> {
+            BufferedImage output = new BufferedImage(image.getHeight(), image.getWidth(), BufferedImage.TYPE_INT_ARGB);
+            for (int x = 0; x < image.getWidth(); x++) {
+                for (int y = 0; y < image.getHeight(); y++) {
+                    output.setRGB(y, image.getWidth() - 1 - x, image.getRGB(x, y));
+                }
+            }
+            return output;
+        }, new RotateLeft()::apply);
+        compare("FlipHorizontal", input, image -> {
+            BufferedImage output = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+            for (int x = 0; x < image.getWidth(); x++) {
+                for (int y = 0; y < image.getHeight(); y++) {
+                    output.setRGB(image.getWidth() - 1 - x, y, image.getRGB(x, y));
+                }
+            }
+            return output;
+        }, new FlipHorizontal()::apply);
+        compare("BlockAveraging 8x8", input, image -> legacyBlockAveraging(image, 8, 8), new BlockAveraging(8, 8)::apply);
+        compare("RandomNoise", input, image -> {
+            BufferedImage output = new BufferedImage(image.getColorModel(), image.getRaster().createCompatibleWritableRaster(), image.isAlphaPremultiplied(), null);
+            Random rand = new Random();
+            for (int x = 0; x < output.getWidth(); x++) {
+                for (int y = 0; y < output.getHeight(); y++) {
+                    int r = rand.nextInt(256);
+                    int g = rand.nextInt(256);
+                    int b = rand.nextInt(256);
+                    int a = rand.nextInt(256);
+                    output.setRGB(x, y, (a << 24) | (r << 16) | (g << 8) | b);
+                }
+            }
+            return output;
+        }, new RandomNoise()::apply);
+    }
+
+    /**
+     * <p>
+     * Time the median filter at several radii.
+     * </p>
+     *
+     * <p>
+     * The old implementation sorted boxed lists for every pixel and would take many minutes
+     * on an image this size, so only the current one is timed. Its time should barely
+     * change with the radius.
+     * </p>
+     */
+    static void median() {
+        BufferedImage input = testImage(BufferedImage.TYPE_INT_ARGB);
+        for (int radius: new int[] {1, 5, 20}) {
+            time("MedianFilter radius " + radius, input, new MedianFilter(radius)::apply);
+        }
+    }
+
+    /**
+     * <p>
+     * Compare the summed-area table Mean filter with convolution, and time it at several radii.
+     * </p>
+     */
+    static void box() {
+        BufferedImage input = testImage(BufferedImage.TYPE_INT_ARGB);
+        compare("MeanFilter radius 5", input, image -> {
+            float[] kernel = new float[11 * 11];
+            Arrays.fill(kernel, 1.0f / kernel.length);
+            BufferedImage output = copy(image);
+            new ConvolveOp(new Kernel(11, 11, kernel)).filter(image, output);
+            return output;
+        }, new MeanFilter(5)::apply);
+        for (int radius: new int[] {1, 25, 100}) {
+            time("MeanFilter radius " + radius, input, new MeanFilter(radius)::apply);
+        }
+        time("BlockAveraging 200x200", input, new BlockAveraging(200, 200)::apply);
+    }
+
+    /**
+     * <p>
+     * Compare the separable Gaussian filter with two-dimensional convolution, and time it at
+     * several radii, either side of the switch to the recursive approximation.
+     * </p>
+     */
+    static void gaussian() {
+        BufferedImage input = testImage(BufferedImage.TYPE_INT_ARGB);
+        compare("GaussianFilter radius 5", input, image -> {
+            float[] kernel = new float[11 * 11];
+            float total = 0;
+            for (int i = 0; i < kernel.length; i++) {
+                int x = i % 11 - 5;
+                int y = i / 11 - 5;
+                kernel[i] = (float) Math.exp(-(x * x + y * y) / (2 * (5 / 3.0) * (5 / 3.0)));
+                total += kernel[i];
+            }
+            for (int i = 0; i < kernel.length; i++) {
+                kernel[i] /= total;
+            }
+            BufferedImage output = copy(image);
+            new ConvolveOp(new Kernel(11, 11, kernel)).filter(image, output);
+            return output;
+        }, new GaussianFilter(5)::apply);
+        for (int radius: new int[] {1, GaussianFilter.RECURSIVE_RADIUS - 1, GaussianFilter.RECURSIVE_RADIUS, 50, 200}) {
+            time("GaussianFilter radius " + radius, input, new GaussianFilter(radius)::apply);
+        }
+    }
+
+    /**
+     * <p>
+     * Compare the 3x3 filters on {@link Convolution} with {@link ConvolveOp}, which skips
+     * the border pixels and clamps negative responses.
+     * </p>
+     */
+    static void convolution() {
+        BufferedImage input = testImage(BufferedImage.TYPE_INT_ARGB);
+        float[] sharpen = {0, -1 / 2.0f, 0, -1 / 2.0f, 3.0f, -1 / 2.0f, 0, -1 / 2.0f, 0};
+        float[] emboss = {1, 0, -1, 0, 0, 0, -1, 0, 0};
+        float[] sobel = {-1, 0, 1, -2, 0, 2, -1, 0, 1};
+        compare("SharpenFilter", input, image -> convolveOp(image, sharpen), new SharpenFilter()::apply);
+        compare("EmbossFilter", input, image -> convolveOp(image, emboss), new EmbossFilter(emboss)::apply);
+        compare("SobelFilter", input, image -> convolveOp(image, sobel), new SobelFilter(true)::apply);
+    }
+
+    /**
+     * <p>
+     * Compare the direct and FFT methods of {@link Convolution} on a kernel that is not
+     * separable, and time the method it chooses for itself on larger kernels.
+     * </p>
+     */
+    static void fft() {
+        BufferedImage input = testImage(BufferedImage.TYPE_INT_ARGB);
+        Random rand = new Random(202);
+        for (int size: new int[] {11, 31, 63}) {
+            float[] weights = new float[size * size];
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] = rand.nextFloat() * 2 / weights.length;
+            }
+            Convolution convolution = new Convolution(size, size, weights, Convolution.Border.CLAMP);
+            String label = size + "x" + size + " kernel";
+            if (size == 11) {
+                compare(label, input, image -> convolution.apply(image, Convolution.Method.DIRECT), convolution::apply);
+            } else {
+                time(label + " (" + convolution.choose(WIDTH, HEIGHT) + ")", input, convolution::apply);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Compare an edge map made with both {@link SobelFilter} directions in turn with the
+     * single pass of {@link GradientFilter}, and time its other outputs.
+     * </p>
+     */
+    static void gradient() {
+        BufferedImage input = testImage(BufferedImage.TYPE_INT_ARGB);
+        compare("Sobel X and Y", input, image -> {
+            new SobelFilter(true).apply(image);
+            return new SobelFilter(false).apply(image);
+        }, new GradientFilter(GradientFilter.Output.SIGNED)::apply);
+        for (GradientFilter.Output output: new GradientFilter.Output[] {GradientFilter.Output.MAGNITUDE, GradientFilter.Output.ORIENTATION}) {
+            time("GradientFilter " + output, input, new GradientFilter(output)::apply);
+        }
+    }
+
+    /**
+     * <p>
+     * Compare tone adjustments worked out pixel by pixel with their {@link LookupTable}s,
+     * and a run of them applied one at a time with the single table they compose into.
+     * </p>
+     */
+    static void lookup() {
+        BufferedImage input = testImage(BufferedImage.TYPE_INT_ARGB);
+        BrightnessContrast adjust = new BrightnessContrast(20, 30);
+        compare("BrightnessContrast", input, image -> PixelAccess.filter(image, argb -> {
+            int r = legacyBrightnessContrast((argb >> 16) & 0xFF, 20, 30);
+            int g = legacyBrightnessContrast((argb >> 8) & 0xFF, 20, 30);
+            int b = legacyBrightnessContrast(argb & 0xFF, 20, 30);
+            return (argb & 0xFF000000) | (r << 16) | (g << 8) | b;
+        }), adjust::apply);
+        List<ImageOperation> run = List.of(new BrightnessContrast(10, 0), new InvertColour(), new BrightnessContrast(0, 25), new InvertColour());
+        compare("4 tone adjustments", input, image -> {
+            for (ImageOperation op: run) {
+                image = op.apply(image);
+            }
+            return image;
+        }, new FusedOperation(run)::apply);
+    }
+
+    /**
+     * <p>
+     * Compare a chain of colour adjustments applied one at a time with the single
+     * {@link ColourMatrix} they multiply into.
+     * </p>
+     */
+    static void matrix() {
+        BufferedImage input = testImage(BufferedImage.TYPE_INT_ARGB);
+        List<ImageOperation> run = List.of(new ColourChannelCycle(1), new InvertColour(), new ConvertToGrey(),
+                new ColourChannelCycle(3), new InvertColour());
+        compare("5 colour adjustments", input, image -> {
+            for (ImageOperation op: run) {
+                image = op.apply(image);
+            }
+            return image;
+        }, new FusedOperation(run)::apply);
+    }
+
+    /**
+     * <p>
+     * Compare the per-pixel loops in plain Java with the same loops on the vector units,
+     * through {@link Simd}. The benchmark task adds the incubator module they need.
+     * </p>
+     */
+    static void simd() {
+        if (!Simd.AVAILABLE) {
+            System.out.println("  The Vector API is not available; run with --add-modules jdk.incubator.vector");
+            return;
+        }
+        BufferedImage input = testImage(BufferedImage.TYPE_INT_ARGB);
+        float[] weights = new float[81];
+        Arrays.fill(weights, 1 / 81f);
+        weights[40] += 0.5f;
+        Convolution convolution = new Convolution(9, 9, weights, Convolution.Border.CLAMP);
+        ImageOperation[] ops = {
+            new ConvertToGrey(), new InvertColour(), new ColourChannelCycle(1), new SharpenFilter(), new GaussianFilter(5),
+            image -> convolution.apply(image, Convolution.Method.DIRECT)
+        };
+        String[] labels = {"ConvertToGrey", "InvertColour", "ColourChannelCycle", "SharpenFilter", "GaussianFilter radius 5", "9x9 kernel, direct"};
+        for (int i = 0; i < ops.length; i++) {
+            ImageOperation op = ops[i];
+            compare(labels[i], input, image -> {
+                Simd.setEnabled(false);
+                try {
+                    return op.apply(image);
+                } finally {
+                    Simd.setEnabled(true);
+                }
+            }, op::apply);
+        }
+    }
+
+    /**
+     * <p>
+     * Compare the blocked flips and rotations with copying pixel by pixel along the source
+     * rows into a new {@link BufferedImage#TYPE_INT_ARGB} image. A plain copy of the pixel
+     * array shows how close they come to the speed of memory.
+     * </p>
+     */
+    static void rotate() {
+        for (int type: new int[] {BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR}) {
+            BufferedImage input = testImage(type);
+            String suffix = type == BufferedImage.TYPE_INT_ARGB ? "" : ", 3BYTE_BGR";
+            time("Copy" + suffix, input, image -> copy(image));
+            compare("RotateLeft" + suffix, input, image -> legacyOrientation(image, 0, 1, -1, 0), new RotateLeft()::apply);
+            compare("RotateRight" + suffix, input, image -> legacyOrientation(image, 0, -1, 1, 0), new RotateRight()::apply);
+            compare("FlipHorizontal" + suffix, input, image -> legacyOrientation(image, -1, 0, 0, 1), new FlipHorizontal()::apply);
+            compare("FlipVertical" + suffix, input, image -> legacyOrientation(image, 1, 0, 0, -1), new FlipVertical()::apply);
+        }
+    }
+
+    /**
+     * <p>
+     * Compare {@link ResizeImage} through the {@link Resampler} with
+     * {@link Image#getScaledInstance}, which it replaced, and time the other filters.
+     * </p>
+     */
+    static void resize() {
+        for (int type: new int[] {BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR}) {
+            BufferedImage input = testImage(type);
+            String suffix = type == BufferedImage.TYPE_INT_ARGB ? "" : ", 3BYTE_BGR";
+            compare("Resize to 25%" + suffix, input, image -> legacyResize(image, 25), new ResizeImage(25)::apply);
+        }
+        BufferedImage input = testImage(BufferedImage.TYPE_INT_ARGB);
+        for (Resampler.Filter filter: Resampler.Filter.values()) {
+            time("Resize to 25%, " + filter, input, new ResizeImage(25, filter)::apply);
+        }
+        BufferedImage small = new ResizeImage(50).apply(input);
+        compare("Resize 50% to 150%", small, image -> legacyResize(image, 150), new ResizeImage(150)::apply);
+    }
+
+    /**
+     * <p>
+     * Compare {@link OvalCrop} with masking the whole image and cutting the oval's bounding
+     * box out afterwards, for an oval covering most of the image and a small one.
+     * </p>
+     */
+    static void crop() {
+        BufferedImage input = testImage(BufferedImage.TYPE_INT_ARGB);
+        Rectangle large = new Rectangle(WIDTH / 8, HEIGHT / 8, WIDTH * 3 / 4, HEIGHT * 3 / 4);
+        Rectangle small = new Rectangle(WIDTH / 2, HEIGHT / 2, 256, 256);
+        for (Rectangle oval: new Rectangle[] {large, small}) {
+            String label = "OvalCrop " + oval.width + "x" + oval.height;
+            OvalCrop crop = new OvalCrop(oval.getLocation(), new Point(oval.x + oval.width, oval.y + oval.height));
+            compare(label, input, image -> legacyOvalCrop(image, oval), crop::apply);
+        }
+        time("ShapeCrop triangle", input, new ShapeCrop(new Polygon(new int[] {0, WIDTH, WIDTH / 2},
+                new int[] {HEIGHT, HEIGHT, 0}, 3))::apply);
+    }
+
+    /**
+     * <p>
+     * Convolve an image with a 3x3 kernel using {@link ConvolveOp}.
+     * </p>
+     *
+     * @param image The image to convolve.
+     * @param weights The weights of the kernel.
+     * @return The convolved image.
+     */
+    private static BufferedImage convolveOp(BufferedImage image, float[] weights) {
+        BufferedImage output = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+        new ConvolveOp(new Kernel(3, 3, weights)).filter(image, output);
+        return output;
+    }
+
+    /**
+     * <p>
+     * Block averaging as it was implemented before {@link PixelAccess}, boxing every channel value.
+     * </p>
+     *
+     * @param image The image to pixelate.
+     * @param blockWidth The width of the blocks.
+     * @param blockHeight The height of the blocks.
+     * @return The pixelated image.
+     */
+    private static BufferedImage legacyBlockAveraging(BufferedImage image, int blockWidth, int blockHeight) {
+        for (int y1 = 0; y1 < image.getHeight(); y1 += blockHeight) {
+            for (int x1 = 0; x1 < image.getWidth(); x1 += blockWidth) {
+                int x2 = Math.min(image.getWidth(), x1 + blockWidth);
+                int y2 = Math.min(image.getHeight(), y1 + blockHeight);
+                List<Integer> reds = new ArrayList<Integer>();
+                List<Integer> greens = new ArrayList<Integer>();
+                List<Integer> blues = new ArrayList<Integer>();
+                for (int x = x1; x < x2; x++) {
+                    for (int y = y1; y < y2; y++) {
+                        Color color = new Color(image.getRGB(x, y));
+                        reds.add(color.getRed());
+                        greens.add(color.getGreen());
+                        blues.add(color.getBlue());
+                    }
+                }
+                int mean = new Color(mean(reds), mean(greens), mean(blues)).getRGB();
+                for (int x = x1; x < x2; x++) {
+                    for (int y = y1; y < y2; y++) {
+                        image.setRGB(x, y, mean);
+                    }
+                }
+            }
+        }
+        return image;
+    }
+
+    /**
+     * <p>
+     * Flip or rotate an image as {@link Orientation#transform} did before it worked in blocks.
+     * </p>
+     *
+     * @param image The image to transform.
+     * @param a The top left entry of the orientation's matrix.
+     * @param b The top right entry.
+     * @param c The bottom left entry.
+     * @param d The bottom right entry.
+     * @return A new {@link BufferedImage#TYPE_INT_ARGB} image holding the transformed pixels.
+     */
+    private static BufferedImage legacyOrientation(BufferedImage image, int a, int b, int c, int d) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int outWidth = a == 0 ? height : width;
+        int outHeight = a == 0 ? width : height;
+        BufferedImage output = new BufferedImage(outWidth, outHeight, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = ((DataBufferInt) output.getRaster().getDataBuffer()).getData();
+        PixelAccess source = PixelAccess.of(image);
+        int[] in = source.getPixels();
+        int step = a + c * outWidth;
+        for (int y = 0; y < height; y++) {
+            int cy = 2 * y - (height - 1);
+            int cx = -(width - 1);
+            int o = (c * cx + d * cy + outHeight - 1) / 2 * outWidth + (a * cx + b * cy + outWidth - 1) / 2;
+            int start = source.getIndex(0, y);
+            for (int i = start; i < start + width; i++) {
+                pixels[o] = in[i];
+                o += step;
+            }
+        }
+        return output;
+    }
+
+    /**
+     * <p>
+     * Resize an image as {@link ResizeImage} did before it used the {@link Resampler}.
+     * </p>
+     *
+     * @param image The image to resize.
+     * @param percentage The new size as a percentage of the old.
+     * @return A new {@link BufferedImage#TYPE_INT_ARGB} image.
+     */
+    private static BufferedImage legacyResize(BufferedImage image, int percentage) {
+        double scale = percentage / 100.0;
+        int width = (int) (image.getWidth() * scale);
+        int height = (int) (image.getHeight() * scale);
+        int method = scale < 1 ? Image.SCALE_AREA_AVERAGING : Image.SCALE_SMOOTH;
+        Image scaled = image.getScaledInstance(width, height, method);
+        BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        output.getGraphics().drawImage(scaled, 0, 0, null);
+        return output;
+    }
+
+    /**
+     * <p>
+     * Crop an oval as {@link OvalCrop} did before {@link ShapeCrop}, through a full-size mask.
+     * </p>
+     *
+     * @param image The image to crop.
+     * @param oval The bounding box of the oval, within the image.
+     * @return The masked bounding box of the oval.
+     */
+    private static BufferedImage legacyOvalCrop(BufferedImage image, Rectangle oval) {
+        BufferedImage mask = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = mask.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setColor(Color.BLACK);
+        g2d.fillOval(oval.x, oval.y, oval.width, oval.height);
+        g2d.dispose();
+        BufferedImage output = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        g2d = output.createGraphics();
+        g2d.drawImage(image, 0, 0, null);
+        g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.DST_IN));
+        g2d.drawImage(mask, 0, 0, null);
+        g2d.dispose();
+        return output.getSubimage(oval.x, oval.y, oval.width, oval.height);
+    }
+
+    /**
+     * <p>
+     * Brightness and contrast as BrightnessContrast worked them out before lookup tables.
+     * </p>
+     *
+     * @param p The value of a colour channel.
+     * @param brightness The percentage change to the brightness.
+     * @param contrast The percentage change to the contrast.
+     * @return The adjusted value.
+     */
+    private static int legacyBrightnessContrast(int p, double brightness, double contrast) {
+        double a = (1 + (contrast / 100)) * (p - 127.5) + (127.5 * (1 + (brightness / 100)));
+        return (int) Math.max(0, Math.min(255, a));
+    }
+
+    /**
+     * <p>
+     * Get the rounded mean of a list of values.
+     * </p>
+     *
+     * @param values The values.
+     * @return Their mean, rounded to the nearest integer.
+     */
+    private static int mean(List<Integer> values) {
+        double sum = 0;
+        for (int value: values) {
+            sum += value;
+        }
+        return (int) Math.round(sum / values.size());
+    }
+}
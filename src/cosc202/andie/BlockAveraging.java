@@ -1,8 +1,7 @@
 package cosc202.andie;
 
-import java.awt.Color;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * <p>
@@ -24,7 +23,10 @@ import java.util.ArrayList;
  *
  * 
  */
-public class BlockAveraging implements ImageOperation, java.io.Serializable {
+public class BlockAveraging implements ScalableOperation, java.io.Serializable {
+
+    /** The serial version of earlier releases, so that operations they saved can still be read. */
+    private static final long serialVersionUID = -4473635733530297407L;
 
     //User defined block sizes
     private int blockSizeX;
@@ -48,6 +50,11 @@ public class BlockAveraging implements ImageOperation, java.io.Serializable {
      * Apply the averaging operation to an image.
      * </p>
      * 
+     * <p>
+     * The mean of each block is found from a summed-area table in constant time,
+     * however large the blocks are. The input image is left unchanged.
+     * </p>
+     * 
      * @param input The image to be pixelated.
      * @return The pixelated image.
      */
@@ -57,6 +64,11 @@ public class BlockAveraging implements ImageOperation, java.io.Serializable {
         int width = input.getWidth();
         int height = input.getHeight();
 
+        BufferedImage output = PixelAccess.blankLike(input);
+        PixelAccess pixels = PixelAccess.of(output);
+        IntegralImage table = new IntegralImage(PixelAccess.of(input), width, height, blockSizeY);
+        long[] sums = new long[3];
+
         //Set the block width and height to the user defined block sizes
         int blockWidth = blockSizeX;
         int blockHeight = blockSizeY;
@@ -65,6 +77,8 @@ public class BlockAveraging implements ImageOperation, java.io.Serializable {
         int y = 0;
 
         while (y < height) {
+            OperationWorker.checkCancelled();
+            OperationWorker.reportProgress(y, height);
 
             for (int x = 0; x < width; x += blockWidth) {
 
@@ -81,39 +95,34 @@ public class BlockAveraging implements ImageOperation, java.io.Serializable {
                 }
 
                 //Set the mean pixel value of the block
-                setMeanPixel(input, x, y, x + blockWidth, y + blockHeight);
+                table.sum(x, y, x + blockWidth, y + blockHeight, sums);
+                setBlock(pixels, x, y, x + blockWidth, y + blockHeight, getMeanPixel(sums, (long) blockWidth * blockHeight));
 
             }  
 
             y += blockHeight;
         }
 
-        return input;
+        pixels.commit();
+        return output;
     }
 
     /**
      * <p>
-     * Set the mean pixel value of a block.
+     * Set every pixel of a block to one value.
      * </p>
-     * @param input The image to set the mean pixel value to.
+     * @param pixels The pixels to set the block in.
      * @param x1 The x coordinate of the top left corner of the block.
      * @param y1 The y coordinate of the top left corner of the block.
      * @param x2 The x coordinate of the bottom right corner of the block.
      * @param y2 The y coordinate of the bottom right corner of the block.
+     * @param color The value to set.
      */
-    private static void setMeanPixel(BufferedImage input, int x1, int y1, int x2, int y2) {
-
-        //Get the mean pixel value of the block
-        int color = getMeanPixel(input, x1, y1, x2, y2);
-
-        //Nested for loop looping through the block
-        for (int x = x1; x < x2; x++) {
-            for (int y = y1; y < y2; y++) {
-
-                //Set the mean pixel value to the block
-                input.setRGB(x, y, color);
-
-            }
+    private static void setBlock(PixelAccess pixels, int x1, int y1, int x2, int y2, int color) {
+        int[] data = pixels.getPixels();
+        for (int y = y1; y < y2; y++) {
+            int start = pixels.getIndex(x1, y);
+            Arrays.fill(data, start, start + (x2 - x1), color);
         }
     }   
 
@@ -122,64 +131,32 @@ public class BlockAveraging implements ImageOperation, java.io.Serializable {
      * Get the mean pixel value of a block.
      * </p>
      * 
-     * @param input The image to get the mean pixel value from.
-     * @param x1 The x coordinate of the top left corner of the block.
-     * @param y1 The y coordinate of the top left corner of the block.
-     * @param x2 The x coordinate of the bottom right corner of the block.
-     * @param y2 The y coordinate of the bottom right corner of the block.
+     * <p>
+     * As the block is averaged as opaque colours, the mean is always fully opaque.
+     * </p>
+     * 
+     * @param sums The sums of the red, green, and blue values over the block.
+     * @param count The number of pixels in the block.
      * @return The mean pixel value of the block.
      */
-    private static int getMeanPixel(BufferedImage input, int x1, int y1, int x2, int y2) {
-
-        //Create an array list for the red, green, blue, and alpha values
-        ArrayList<Integer> reds = new ArrayList<>();
-        ArrayList<Integer> greens = new ArrayList<>();
-        ArrayList<Integer> blues = new ArrayList<>();
-        ArrayList<Integer> alphas = new ArrayList<>();
-
-        //Nested for loop looping through the block
-        for (int x = x1; x < x2; x++) {
-            for (int y = y1; y < y2; y++) {
-
-                //Add colours to an array list
-                Color color = new Color(input.getRGB(x, y));
-                reds.add(color.getRed());
-                greens.add(color.getGreen());
-                blues.add(color.getBlue());
-                alphas.add(color.getAlpha());
-
-            }
-        }
-
-        //Get the mean red, green, blue, and alpha values
-        int meanRed = getMeanArrayList(reds);
-        int meanGreen = getMeanArrayList(greens);
-        int meanBlue = getMeanArrayList(blues);
-        int meanAlpha = getMeanArrayList(alphas);
+    private static int getMeanPixel(long[] sums, long count) {
+        int meanRed = (int) Math.round(sums[0] / (double) count);
+        int meanGreen = (int) Math.round(sums[1] / (double) count);
+        int meanBlue = (int) Math.round(sums[2] / (double) count);
 
-        return new Color(meanRed, meanGreen, meanBlue, meanAlpha).getRGB();
+        return 0xFF000000 | (meanRed << 16) | (meanGreen << 8) | meanBlue;
     }
 
     /**
      * <p>
-     * Method to return the mean of an array list
+     * Get the equivalent of this operation for a copy of the image scaled by a given factor.
      * </p>
-     * 
-     * @param arr The array list to get the mean value from
-     * @return The mean value of the array list
+     *
+     * @param factor The size of the scaled image relative to the full-size one.
+     * @return A new BlockAveraging with its block sizes scaled, but at least 1.
      */
-    private static int getMeanArrayList(ArrayList<Integer> arr) {
-
-        double meanValue = 0;
-
-        //Loop through the array list and add the values
-        for (int i = 0; i < arr.size(); i++) {
-            meanValue += arr.get(i);
-        }
-
-        //Divide the sum of the values by the size of the array list
-        meanValue = meanValue / arr.size();
-
-        return (int) Math.round(meanValue);
+    public ImageOperation scaled(double factor) {
+        return new BlockAveraging(Math.max(1, (int) Math.round(blockSizeX * factor)),
+                Math.max(1, (int) Math.round(blockSizeY * factor)));
     }
 }
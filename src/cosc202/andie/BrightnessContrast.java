@@ -16,12 +16,18 @@ import java.awt.image.*;
  * @author Jarrad Marshall
  * @version 1.0
  */
-public class BrightnessContrast implements ImageOperation, java.io.Serializable{
+public class BrightnessContrast implements LookupOperation, java.io.Serializable{
+
+    /** The serial version of earlier releases, so that operations they saved can still be read. */
+    private static final long serialVersionUID = 5225013963739113285L;
 
     //percentage changes to brightness and contrast
     private double brightness;
     private double contrast;
 
+    /** The adjustment as a lookup table, made when first needed. */
+    private transient LookupTable table;
+
     /**
      * <p>
      * Create a new BrightnessContrast operation.
@@ -40,31 +46,41 @@ public class BrightnessContrast implements ImageOperation, java.io.Serializable{
      * </p>
      * 
      * <p>
-     * This method iterates over each pixel in the input image, extracts the ARGB values, 
-     * and applies the brightness and contrast adjustments to each of the RGB components.
+     * The adjustment to each of the RGB components depends only on its value, so it is
+     * worked out once for each of the 256 values and looked up for every pixel.
      * </p>
      *
      * @param input The input image to which the brightness and contrast adjustments should be applied
      * @return The image after applying the brightness and contrast adjustments
      */
     public BufferedImage apply(BufferedImage input) {
-        for (int y = 0; y < input.getHeight(); ++y) {
-            for (int x = 0; x < input.getWidth(); ++x) {
-                int argb = input.getRGB(x, y);
-                int a = (argb & 0xFF000000) >> 24;
-                int r = (argb & 0x00FF0000) >> 16;
-                int g = (argb & 0x0000FF00) >> 8;
-                int b = (argb & 0x000000FF);
+        return getLookupTable().apply(input);
+    }
 
-                r = updatePixel(r);
-                g = updatePixel(g);
-                b = updatePixel(b);
+    /**
+     * <p>
+     * Apply the brightness and contrast adjustments to a single pixel.
+     * </p>
+     *
+     * @param argb The pixel's value, in the default ARGB colour model.
+     * @return The adjusted pixel, with the same alpha.
+     */
+    public int filterRGB(int argb) {
+        return getLookupTable().filterRGB(argb);
+    }
 
-                argb = (a << 24) | (r << 16) | (g << 8) | b;
-                input.setRGB(x, y, argb);
-            }
+    /**
+     * <p>
+     * Get the brightness and contrast adjustments as a lookup table.
+     * </p>
+     *
+     * @return The table giving each component's adjusted value, leaving alpha alone.
+     */
+    public LookupTable getLookupTable() {
+        if (table == null) {
+            table = LookupTable.of(this::updatePixel);
         }
-        return input;
+        return table;
     }
 
 
@@ -0,0 +1,433 @@
+package cosc202.andie;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>
+ * Rendered snapshots of an {@link EditableImage} part way through its operation stack.
+ * </p>
+ *
+ * <p>
+ * Without checkpoints every undo has to start again from the original image and replay
+ * every {@link ImageOperation}, so the cost of an undo grows with the length of the history.
+ * A CheckpointStore keeps a copy of the rendered image after every N operations, and also
+ * after any single operation that was slow to apply, so that a replay only ever needs to
+ * start from the nearest checkpoint below the target depth.
+ * </p>
+ *
+ * <p>
+ * Checkpoints are keyed by depth, the number of operations that had been applied to the
+ * original image to produce them. The original image itself is kept as the checkpoint at
+ * depth 0, so there is always somewhere to start a replay from.
+ * </p>
+ *
+ * <p>
+ * Once the store is full, checkpoints above the top of the operation stack, which undo
+ * leaves behind, are dropped first, deepest first. After that the store is thinned out
+ * rather than emptied from the bottom: the checkpoint dropped is the one whose neighbours
+ * are closest together for their distance below the top, which leaves the checkpoints
+ * close together near the top and further apart below it. A long run of undos then only
+ * pays for a long replay once per gap, because the checkpoints that replay records on
+ * its way up are kept, and the undos after it start from them.
+ * </p>
+ *
+ * <p>
+ * Checkpoints are stored as {@link TiledImage}s, each sharing its unchanged tiles with the
+ * checkpoint below it, so a run of local edits costs little more memory than one copy.
+ * A run of edits that each change the whole image costs a full copy per checkpoint, though,
+ * so the store also has a budget of bytes of tile data. The tiles counted are those only
+ * the checkpoints keep alive, as {@link TiledImage#retainedBytes(Collection)} measures
+ * them, and the store is thinned in the same way whenever they exceed the budget.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @version 1.0
+ */
+class CheckpointStore {
+
+    /** The default number of operations between regular checkpoints. */
+    static final int DEFAULT_INTERVAL = 8;
+    /** The default time (in milliseconds) after which an operation counts as expensive. */
+    static final long DEFAULT_EXPENSIVE_MILLIS = 250;
+    /** The default maximum number of checkpoints kept at once, not counting the original. */
+    static final int DEFAULT_CAPACITY = 6;
+    /** The default maximum number of bytes of tile data kept alive by the checkpoints. */
+    static final long DEFAULT_BUDGET = Runtime.getRuntime().maxMemory() / 8;
+
+    /** The checkpoints, keyed by the depth of the operation stack they were taken at. */
+    private final TreeMap<Integer, TiledImage> checkpoints;
+    /** The number of operations between regular checkpoints. */
+    private int interval;
+    /** Operations taking at least this long (in nanoseconds) are followed by a checkpoint. */
+    private long expensiveNanos;
+    /** The maximum number of checkpoints kept at once, not counting the original. */
+    private int capacity;
+    /** The maximum number of bytes of tile data kept alive by the checkpoints. */
+    private long budget;
+    /** The depth of the top of the operation stack. */
+    private int top;
+
+    /**
+     * <p>
+     * Create a new CheckpointStore with the default settings and no original image.
+     * </p>
+     */
+    CheckpointStore() {
+        this(DEFAULT_INTERVAL, DEFAULT_EXPENSIVE_MILLIS, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * <p>
+     * Create a new CheckpointStore with no original image.
+     * </p>
+     *
+     * @param interval The number of operations between regular checkpoints.
+     * @param expensiveMillis The time (in milliseconds) after which an operation counts as expensive.
+     * @param capacity The maximum number of checkpoints kept at once.
+     */
+    CheckpointStore(int interval, long expensiveMillis, int capacity) {
+        this.checkpoints = new TreeMap<Integer, TiledImage>();
+        this.budget = DEFAULT_BUDGET;
+        setInterval(interval);
+        setExpensiveMillis(expensiveMillis);
+        setCapacity(capacity);
+    }
+
+    /**
+     * <p>
+     * Offer the image produced at a given depth as a checkpoint.
+     * </p>
+     *
+     * <p>
+     * The image is only kept if the depth falls on the checkpoint interval, or the operation
+     * that produced it took long enough to count as expensive. A snapshot is taken, since
+     * {@link ImageOperation}s are free to modify their input in place, sharing unchanged tiles
+     * with the nearest checkpoint below. An image larger than the whole budget is not kept.
+     * </p>
+     *
+     * <p>
+     * If the last operation reported the region it changed, and the checkpoint below is the
+     * one immediately before it, tiles outside that region are shared without being compared.
+     * </p>
+     *
+     * @param depth The number of operations applied to the original to produce the image.
+     * @param image The rendered image at that depth.
+     * @param elapsedNanos How long the last operation took to apply, in nanoseconds.
+     * @param changed The region the last operation changed, or null if unknown.
+     */
+    void record(int depth, BufferedImage image, long elapsedNanos, Rectangle changed) {
+        if (checkpoints.containsKey(depth) || !wants(depth, image, elapsedNanos)) {
+            return;
+        }
+        Map.Entry<Integer, TiledImage> below = checkpoints.floorEntry(depth);
+        if (below == null) {
+            checkpoints.put(depth, TiledImage.of(image));
+        } else {
+            Rectangle hint = below.getKey() == depth - 1 ? changed : null;
+            checkpoints.put(depth, TiledImage.of(image, below.getValue(), hint));
+        }
+        trim();
+    }
+
+    /**
+     * <p>
+     * Check whether an image would be kept as a checkpoint, leaving aside whether there is one at its depth already.
+     * </p>
+     *
+     * <p>
+     * This lets a replay on another thread decide which of the images it passes through
+     * to take snapshots of, and hand them over with {@link #adopt(int, TiledImage)}.
+     * </p>
+     *
+     * @param depth The number of operations applied to the original to produce the image.
+     * @param image The rendered image at that depth.
+     * @param elapsedNanos How long the last operation took to apply, in nanoseconds.
+     * @return True if the depth falls on the interval or the operation was expensive, and the image fits in the budget.
+     */
+    boolean wants(int depth, BufferedImage image, long elapsedNanos) {
+        if (depth <= 0 || (depth % interval != 0 && elapsedNanos < expensiveNanos)) {
+            return false;
+        }
+        return HistoryCache.sizeOf(image) <= budget;
+    }
+
+    /**
+     * <p>
+     * Keep a snapshot taken elsewhere as the checkpoint at a given depth.
+     * </p>
+     *
+     * <p>
+     * The store takes over the snapshot. If there is already a checkpoint at that depth,
+     * or the depth is above the top of the stack, the snapshot is released instead.
+     * </p>
+     *
+     * @param depth The number of operations applied to the original to produce the snapshot.
+     * @param snapshot A snapshot of the rendered image at that depth.
+     */
+    void adopt(int depth, TiledImage snapshot) {
+        if (depth <= 0 || depth > top || checkpoints.containsKey(depth)) {
+            snapshot.release();
+            return;
+        }
+        checkpoints.put(depth, snapshot);
+        trim();
+    }
+
+    /**
+     * <p>
+     * Find the deepest checkpoint at or below a given depth.
+     * </p>
+     *
+     * <p>
+     * The snapshot in the returned entry belongs to the store and must not be released.
+     * </p>
+     *
+     * @param depth The depth that is to be rendered.
+     * @return The nearest checkpoint, or null if there is no original image.
+     */
+    Map.Entry<Integer, TiledImage> nearest(int depth) {
+        return checkpoints.floorEntry(depth);
+    }
+
+    /**
+     * <p>
+     * Discard all checkpoints deeper than the given depth.
+     * </p>
+     *
+     * <p>
+     * This is needed whenever the operation stack is changed below its old top, as the
+     * deeper checkpoints then describe a history that no longer exists.
+     * </p>
+     *
+     * @param depth The deepest depth that is still valid.
+     */
+    void discardAfter(int depth) {
+        Iterator<TiledImage> deeper = checkpoints.tailMap(depth, false).values().iterator();
+        while (deeper.hasNext()) {
+            deeper.next().release();
+            deeper.remove();
+        }
+    }
+
+    /**
+     * <p>
+     * Discard all checkpoints and start again from a new original image.
+     * </p>
+     *
+     * <p>
+     * The original image still belongs to the caller and is never released by the store,
+     * since an {@link EditableImage} may switch between originals of different resolutions.
+     * </p>
+     *
+     * @param original A snapshot of the new original image, kept as the checkpoint at depth 0.
+     */
+    void reset(TiledImage original) {
+        discardAfter(0);
+        checkpoints.put(0, original);
+        top = 0;
+    }
+
+    /**
+     * <p>
+     * Set the depth of the top of the operation stack.
+     * </p>
+     *
+     * <p>
+     * Checkpoints above the top are kept while there is room, but are the first to go
+     * once the store is full.
+     * </p>
+     *
+     * @param depth The number of operations on the stack.
+     */
+    void setTop(int depth) {
+        top = depth;
+    }
+
+    /**
+     * <p>
+     * Drop checkpoints, other than the original, until the store is within its capacity and budget.
+     * </p>
+     *
+     * <p>
+     * Checkpoints above the top of the stack go first. Otherwise the deepest checkpoint at
+     * or below the top is kept while there are others to drop, and of the others the one
+     * dropped is the one whose neighbours are closest together relative to how far below
+     * the top they are. Only if the deepest checkpoint alone is over the budget is it dropped too.
+     * </p>
+     *
+     * <p>
+     * Releasing a checkpoint frees exactly the tiles that only it kept alive, so the bytes
+     * held only need counting once. Tiles shared with another snapshot, such as a history
+     * cache entry, are not counted until that snapshot is released, so the owner of the
+     * other snapshot should call this again once it has.
+     * </p>
+     */
+    void trim() {
+        long held = getBytesHeld();
+        while (size() > 0 && (size() > capacity || held > budget)) {
+            Map.Entry<Integer, TiledImage> dropped = checkpoints.lastEntry();
+            if (dropped.getKey() <= top && size() > 1) {
+                dropped = mostCrowded();
+            }
+            checkpoints.remove(dropped.getKey());
+            held -= dropped.getValue().release();
+        }
+    }
+
+    /**
+     * <p>
+     * Find the checkpoint whose loss would leave the smallest gap for its distance below the top.
+     * </p>
+     *
+     * <p>
+     * Dropping a checkpoint joins the gaps on either side of it, and a replay that starts
+     * at the bottom of the joined gap costs its length. That cost matters less the further
+     * below the top it is, since undo reaches it later, if at all.
+     * </p>
+     *
+     * @return The checkpoint to drop, never the original or the deepest checkpoint.
+     */
+    private Map.Entry<Integer, TiledImage> mostCrowded() {
+        Map.Entry<Integer, TiledImage> best = null;
+        double bestCost = Double.POSITIVE_INFINITY;
+        int below = 0;
+        Map.Entry<Integer, TiledImage> candidate = checkpoints.higherEntry(0);
+        Map.Entry<Integer, TiledImage> above = checkpoints.higherEntry(candidate.getKey());
+        while (above != null) {
+            double cost = (double) (above.getKey() - below) / (top - below);
+            if (cost < bestCost) {
+                best = candidate;
+                bestCost = cost;
+            }
+            below = candidate.getKey();
+            candidate = above;
+            above = checkpoints.higherEntry(candidate.getKey());
+        }
+        return best;
+    }
+
+    /**
+     * <p>
+     * Get the number of checkpoints currently held, not counting the original.
+     * </p>
+     *
+     * @return The number of checkpoints.
+     */
+    int size() {
+        return checkpoints.containsKey(0) ? checkpoints.size() - 1 : checkpoints.size();
+    }
+
+    /**
+     * <p>
+     * Get the checkpoints, not counting the original.
+     * </p>
+     *
+     * <p>
+     * The snapshots belong to the store and must not be released. The collection is a live
+     * view, so it changes as checkpoints are recorded and dropped.
+     * </p>
+     *
+     * @return The checkpoint snapshots, shallowest first.
+     */
+    Collection<TiledImage> snapshots() {
+        return checkpoints.tailMap(0, false).values();
+    }
+
+    /**
+     * <p>
+     * Get the number of bytes of tile data that only the checkpoints keep alive.
+     * </p>
+     *
+     * <p>
+     * The original image is not counted, since it belongs to the caller, and neither are
+     * tiles shared with it or with any other live snapshot.
+     * </p>
+     *
+     * @return The number of bytes that releasing every checkpoint but the original would free.
+     */
+    long getBytesHeld() {
+        return TiledImage.retainedBytes(snapshots());
+    }
+
+    /**
+     * <p>
+     * Set the maximum number of bytes of tile data kept alive by the checkpoints.
+     * </p>
+     *
+     * @param budget The new budget, in bytes.
+     */
+    void setBudget(long budget) {
+        this.budget = budget;
+        trim();
+    }
+
+    /**
+     * <p>
+     * Get the maximum number of bytes of tile data kept alive by the checkpoints.
+     * </p>
+     *
+     * @return The budget, in bytes.
+     */
+    long getBudget() {
+        return budget;
+    }
+
+    /**
+     * <p>
+     * Set the number of operations between regular checkpoints.
+     * </p>
+     *
+     * @param interval The new interval, at least 1.
+     */
+    void setInterval(int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Checkpoint interval must be at least 1");
+        }
+        this.interval = interval;
+    }
+
+    /**
+     * <p>
+     * Get the number of operations between regular checkpoints.
+     * </p>
+     *
+     * @return The interval.
+     */
+    int getInterval() {
+        return interval;
+    }
+
+    /**
+     * <p>
+     * Set the time after which an operation counts as expensive.
+     * </p>
+     *
+     * @param expensiveMillis The new threshold, in milliseconds.
+     */
+    void setExpensiveMillis(long expensiveMillis) {
+        this.expensiveNanos = expensiveMillis * 1_000_000L;
+    }
+
+    /**
+     * <p>
+     * Set the maximum number of checkpoints kept at once, not counting the original.
+     * </p>
+     *
+     * @param capacity The new capacity, at least 1.
+     */
+    void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Checkpoint capacity must be at least 1");
+        }
+        this.capacity = capacity;
+        trim();
+    }
+}
@@ -158,9 +158,7 @@ public class ColourActions {
          * @param e The event triggering this callback.
          */
         public void actionPerformed(ActionEvent e) {
-            target.getImage().apply(new ConvertToGrey());
-            target.repaint();
-            target.getParent().revalidate();
+            target.applyInBackground(new ConvertToGrey());
         }
 
     }
@@ -201,9 +199,7 @@ public class ColourActions {
          * @param e The event triggering this callback
          */
         public void actionPerformed(ActionEvent e) {
-            target.getImage().apply(new InvertColour());
-            target.repaint();
-            target.getParent().revalidate();
+            target.applyInBackground(new InvertColour());
         }
 
     }
@@ -266,9 +262,7 @@ public class ColourActions {
                 con = conModel.getNumber().intValue();
             }
 
-            target.getImage().apply(new BrightnessContrast(bright, con));
-            target.repaint();
-            target.getParent().revalidate();
+            target.applyInBackground(new BrightnessContrast(bright, con));
         }
     }
 
@@ -375,9 +369,7 @@ public class ColourActions {
          */
         @Override
         public void actionPerformed(ActionEvent e){
-            target.getImage().apply(new ColourChannelCycle(operation));
-            target.repaint();
-            target.getParent().revalidate();
+            target.applyInBackground(new ColourChannelCycle(operation));
         }
     }
 
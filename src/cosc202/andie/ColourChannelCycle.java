@@ -29,7 +29,20 @@ import java.awt.image.*;
  * The operation to be performed is determined by the `operation` instance variable.
  * </p>
  */
-public class ColourChannelCycle implements ImageOperation, java.io.Serializable {
+public class ColourChannelCycle implements InvertibleOperation, ColourMatrixOperation, java.io.Serializable {
+
+    /** The serial version of earlier releases, so that operations they saved can still be read. */
+    private static final long serialVersionUID = 7336992689202786503L;
+
+    /** The colour matrix for each operation, by number, with the identity for any other number. */
+    private static final ColourMatrix[] MATRICES = {
+        ColourMatrix.IDENTITY,
+        channels(2, 0, 1),
+        channels(1, 2, 0),
+        channels(1, 0, 2),
+        channels(0, 2, 1),
+        channels(2, 1, 0)
+    };
 
     /** 
      * The chosen operation to perform on the RGB values out of 5
@@ -76,26 +89,67 @@ public class ColourChannelCycle implements ImageOperation, java.io.Serializable
      * @return The image after performing the operation
      */
     public BufferedImage apply(BufferedImage input) {
-  
-        for (int y = 0; y < input.getHeight(); ++y) {
-            for (int x = 0; x < input.getWidth(); ++x) {
-                int argb = input.getRGB(x, y);
-                int a = (argb & 0xFF000000) >> 24;
-                int r = (argb & 0x00FF0000) >> 16;
-                int g = (argb & 0x0000FF00) >> 8;
-                int b = (argb & 0x000000FF);
+        return getColourMatrix().apply(input);
+    }
+
+    /**
+     * <p>
+     * Reorder the colour channels of a single pixel.
+     * </p>
+     *
+     * @param argb The pixel's value, in the default ARGB colour model.
+     * @return The pixel with its channels reordered, with the same alpha.
+     */
+    public int filterRGB(int argb) {
+        return getColourMatrix().filterRGB(argb);
+    }
 
-                if(operation==1) argb = (a << 24) | (b << 16) | (r << 8) | g; 
-                if(operation==2) argb = (a << 24) | (g << 16) | (b << 8) | r;
-                if(operation==3) argb = (a << 24) | (g << 16) | (r << 8) | b;
-                if(operation==4) argb = (a << 24) | (r << 16) | (b << 8) | g;
-                if(operation==5) argb = (a << 24) | (b << 16) | (g << 8) | r;
+    /**
+     * <p>
+     * Get the reordering of the colour channels as a colour matrix.
+     * </p>
+     *
+     * @return The matrix that copies each colour channel from its new source.
+     */
+    public ColourMatrix getColourMatrix() {
+        return operation >= 1 && operation <= 5 ? MATRICES[operation] : ColourMatrix.IDENTITY;
+    }
 
-                input.setRGB(x, y, argb);
-            }
-        }
-        
-        return input;
+    /**
+     * <p>
+     * Make the colour matrix that reorders the colour channels.
+     * </p>
+     *
+     * @param red The old channel the new red is taken from: 0 for red, 1 for green, 2 for blue.
+     * @param green The old channel the new green is taken from.
+     * @param blue The old channel the new blue is taken from.
+     * @return The colour matrix, which leaves alpha alone.
+     */
+    private static ColourMatrix channels(int red, int green, int blue) {
+        int[] weights = new int[20];
+        weights[red] = 1;
+        weights[5 + green] = 1;
+        weights[10 + blue] = 1;
+        weights[18] = 1;
+        return new ColourMatrix(weights, 1);
+    }
+
+    /**
+     * <p>
+     * Get the operation that undoes this one.
+     * </p>
+     * 
+     * <p>
+     * Shifting left and shifting right undo each other, while the three swaps
+     * each undo themselves.
+     * </p>
+     * 
+     * @return The ColourChannelCycle that puts the channels back in their original order.
+     */
+    public ImageOperation inverse() {
+        if (operation == 1) return new ColourChannelCycle(2);
+        if (operation == 2) return new ColourChannelCycle(1);
+        return this;
     }
     
 }
@@ -0,0 +1,424 @@
+package cosc202.andie;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * <p>
+ * An affine colour transform, given by a 4x5 matrix.
+ * </p>
+ *
+ * <p>
+ * Each new channel of a pixel is a weighted sum of its old red, green, blue and alpha,
+ * plus an offset, divided by a common divisor, rounded to the nearest whole number with
+ * halves rounded up, and clamped to 0 to 255. The rows of the matrix give the new red,
+ * green, blue and alpha in turn, and the columns the weights of the old red, green, blue
+ * and alpha followed by the offset. Greyscale conversion, reordering the colour
+ * channels and inversion are all transforms of this kind.
+ * </p>
+ *
+ * <p>
+ * All the arithmetic is on whole numbers, so it is exact and does not depend on the order
+ * of the sums. This makes it possible to combine two transforms into one that gives
+ * exactly the same result as applying them one after the other, whenever one of them is
+ * a channel map: a transform that only reorders channels or replaces them with 255 minus
+ * their value, and so never needs rounding or clamping. Two transforms that both round
+ * cannot be combined without changing the result, and are kept apart.
+ * </p>
+ *
+ * <p>
+ * Matrices never change once made and may be shared between threads.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @see ColourMatrixOperation
+ * @version 1.0
+ */
+final class ColourMatrix implements PixelOperation {
+
+    /** The matrix that leaves every pixel as it was. */
+    static final ColourMatrix IDENTITY = new ColourMatrix(new int[] {
+        1, 0, 0, 0, 0,
+        0, 1, 0, 0, 0,
+        0, 0, 1, 0, 0,
+        0, 0, 0, 1, 0
+    }, 1);
+
+    /** The number of rows processed together as one part of a pass. */
+    private static final int PART_ROWS = 64;
+    /** The most entries a row's table of rounded results may have. */
+    private static final int MAX_ROUNDED = 1 << 16;
+
+    /** The weights and offsets, five for each new channel: red, green, blue and alpha. */
+    private final int[] weights;
+    /** The common divisor of the weights and offsets. */
+    private final int divisor;
+    /** What is added to each row's sum before dividing, to round it to the nearest whole number. */
+    private final int[] bias;
+    /** Whether this only reorders and inverts channels. */
+    private final boolean channelMap;
+    /** For a channel map, how far each row's old channel is shifted in an ARGB int. */
+    private final int[] sourceShift;
+    /** For a channel map, 0xFF for each row that inverts its channel, otherwise 0. */
+    private final int[] invert;
+    /** The smallest weighted sum each row can have, without the offset. */
+    private final int[] lowest;
+    /** Each row's new channel for each weighted sum from the lowest, or null if there are too many sums. */
+    private final int[][] rounded;
+    /** Whether the new red, green and blue are always the same, as for a greyscale conversion. */
+    private final boolean grey;
+    /** Whether the new alpha is always the old alpha. */
+    private final boolean keepsAlpha;
+    /** What {@link Simd#transformColours} adds to each row's sum, or null if it cannot divide exactly. */
+    private final int[] vectorAdd;
+    /** What {@link Simd#transformColours} multiplies each row's sum by to divide it. */
+    private final int[] vectorMagic;
+    /** How far {@link Simd#transformColours} shifts each row's product down to divide it. */
+    private final int[] vectorShift;
+    /** What {@link Simd#transformColours} subtracts from each row's quotient. */
+    private final int[] vectorMinus;
+
+    /**
+     * <p>
+     * Create a colour matrix.
+     * </p>
+     *
+     * @param weights The 20 entries of the matrix, row by row: for each of the new red,
+     *        green, blue and alpha, the weights of the old red, green, blue and alpha and
+     *        then the offset.
+     * @param divisor What every sum is divided by, at least 1.
+     * @throws IllegalArgumentException If there are not 20 weights or the divisor is less than 1.
+     */
+    ColourMatrix(int[] weights, int divisor) {
+        this(weights, divisor, halfUp(divisor));
+    }
+
+    /**
+     * <p>
+     * Create a colour matrix with given rounding.
+     * </p>
+     *
+     * @param weights The 20 entries of the matrix, row by row.
+     * @param divisor What every sum is divided by, at least 1.
+     * @param bias What is added to each row's sum before dividing and rounding down.
+     * @throws IllegalArgumentException If there are not 20 weights or the divisor is less than 1.
+     */
+    private ColourMatrix(int[] weights, int divisor, int[] bias) {
+        if (weights.length != 20 || divisor < 1) {
+            throw new IllegalArgumentException("A colour matrix needs 20 weights and a positive divisor");
+        }
+        this.weights = weights.clone();
+        this.divisor = divisor;
+        this.bias = bias;
+        boolean map = divisor == 1;
+        for (int row = 0; row < 4 && map; row++) {
+            map = source(row) >= 0;
+        }
+        this.channelMap = map;
+
+        // Work out the new channels once for every weighted sum, to save dividing for every pixel.
+        this.sourceShift = new int[4];
+        this.invert = new int[4];
+        this.lowest = new int[4];
+        this.rounded = new int[4][];
+        for (int row = 0; row < 4; row++) {
+            if (map) {
+                int from = source(row);
+                sourceShift[row] = from == 3 ? 24 : 16 - 8 * from;
+                invert[row] = this.weights[row * 5 + from] < 0 ? 0xFF : 0;
+                continue;
+            }
+            long low = 0;
+            long high = 0;
+            for (int column = 0; column < 4; column++) {
+                int w = this.weights[row * 5 + column];
+                low += Math.min(0, w) * 255L;
+                high += Math.max(0, w) * 255L;
+            }
+            lowest[row] = (int) low;
+            if (high - low < MAX_ROUNDED) {
+                rounded[row] = new int[(int) (high - low) + 1];
+                for (int i = 0; i < rounded[row].length; i++) {
+                    rounded[row][i] = channel(row, (int) low + i);
+                }
+            }
+        }
+        boolean same = true;
+        for (int column = 0; column < 5; column++) {
+            int w = this.weights[column];
+            same &= this.weights[5 + column] == w && this.weights[10 + column] == w;
+        }
+        this.grey = same && bias[0] == bias[1] && bias[0] == bias[2];
+        boolean keeps = this.weights[15] == 0 && this.weights[16] == 0 && this.weights[17] == 0;
+        for (int v = 0; v < 256 && keeps; v++) {
+            keeps = channel(3, this.weights[18] * v) == v;
+        }
+        this.keepsAlpha = keeps;
+
+        // Division by multiplying and shifting, for the vector units, which cannot divide ints.
+        int[] add = new int[4];
+        int[] magic = new int[4];
+        int[] shift = new int[4];
+        int[] minus = new int[4];
+        boolean exact = !map;
+        for (int row = 0; row < 4 && exact; row++) {
+            long low = weights[row * 5 + 4] + bias[row];
+            long high = low;
+            for (int column = 0; column < 4; column++) {
+                int w = this.weights[row * 5 + column];
+                low += Math.min(0, w) * 255L;
+                high += Math.max(0, w) * 255L;
+            }
+            // Add a multiple of the divisor so that every sum is positive, and take it off the quotient.
+            long times = low < 0 ? (-low + divisor - 1) / divisor : 0;
+            long largest = high + times * divisor;
+            exact = largest < Integer.MAX_VALUE && times < Integer.MAX_VALUE;
+            add[row] = (int) (weights[row * 5 + 4] + bias[row] + times * divisor);
+            minus[row] = (int) times;
+            if (divisor == 1) {
+                magic[row] = 1;
+                continue;
+            }
+            // With m = floor(2^s / d) + 1, n m >> s is floor(n / d) while n (m d - 2^s) < 2^s.
+            exact = false;
+            for (int s = 1; s < 31 && !exact; s++) {
+                long m = (1L << s) / divisor + 1;
+                long error = m * divisor - (1L << s);
+                if (largest * m <= Integer.MAX_VALUE && largest * error < (1L << s)) {
+                    magic[row] = (int) m;
+                    shift[row] = s;
+                    exact = true;
+                }
+            }
+        }
+        this.vectorAdd = exact ? add : null;
+        this.vectorMagic = magic;
+        this.vectorShift = shift;
+        this.vectorMinus = minus;
+    }
+
+    /**
+     * <p>
+     * Get the rounding that rounds halves up.
+     * </p>
+     *
+     * @param divisor The divisor.
+     * @return The bias for each row.
+     */
+    private static int[] halfUp(int divisor) {
+        int half = divisor / 2;
+        return new int[] {half, half, half, half};
+    }
+
+    /**
+     * <p>
+     * Find which old channel a row of a channel map copies or inverts.
+     * </p>
+     *
+     * @param row The row.
+     * @return The column of the old channel, or -1 if the row does more than copy one
+     *         channel or replace it with 255 minus its value.
+     */
+    private int source(int row) {
+        int found = -1;
+        for (int column = 0; column < 4; column++) {
+            int w = weights[row * 5 + column];
+            if (w != 0) {
+                if (found >= 0 || (w != 1 && w != -1)) {
+                    return -1;
+                }
+                found = column;
+            }
+        }
+        if (found < 0) {
+            return -1;
+        }
+        int offset = weights[row * 5 + 4];
+        boolean inverted = weights[row * 5 + found] < 0;
+        return offset == (inverted ? 255 : 0) ? found : -1;
+    }
+
+    /**
+     * <p>
+     * Check whether this matrix only reorders channels and replaces them with 255 minus their value.
+     * </p>
+     *
+     * @return True if every new channel is an old channel or 255 minus one.
+     */
+    boolean isChannelMap() {
+        return channelMap;
+    }
+
+    /**
+     * <p>
+     * Combine this matrix with one applied after it, if that gives exactly the same result.
+     * </p>
+     *
+     * @param next The matrix applied to the results of this one.
+     * @return A matrix giving the same result as this one followed by the next, or null
+     *         if neither of them is a channel map.
+     */
+    ColourMatrix then(ColourMatrix next) {
+        if (channelMap) {
+            // Put the old channels that this one picks into the next one's sums.
+            int[] combined = new int[20];
+            for (int row = 0; row < 4; row++) {
+                combined[row * 5 + 4] = next.weights[row * 5 + 4];
+                for (int column = 0; column < 4; column++) {
+                    int w = next.weights[row * 5 + column];
+                    int from = source(column);
+                    combined[row * 5 + from] += w * weights[column * 5 + from];
+                    combined[row * 5 + 4] += w * weights[column * 5 + 4];
+                }
+            }
+            return new ColourMatrix(combined, next.divisor, next.bias);
+        }
+        if (next.channelMap) {
+            // Pick and invert the rows of this one as the next one picks and inverts channels.
+            int[] combined = new int[20];
+            int[] rounding = new int[4];
+            for (int row = 0; row < 4; row++) {
+                int from = next.source(row);
+                boolean inverted = next.weights[row * 5 + from] < 0;
+                for (int column = 0; column < 5; column++) {
+                    int w = weights[from * 5 + column];
+                    combined[row * 5 + column] = inverted ? -w : w;
+                }
+                if (inverted) {
+                    // 255 - floor((n + b) / d) is floor((255 d - n + d - 1 - b) / d).
+                    combined[row * 5 + 4] += 255 * divisor;
+                    rounding[row] = divisor - 1 - bias[from];
+                } else {
+                    rounding[row] = bias[from];
+                }
+            }
+            return new ColourMatrix(combined, divisor, rounding);
+        }
+        return null;
+    }
+
+    /**
+     * <p>
+     * Get this matrix as a lookup table, if each new channel depends only on the same old one.
+     * </p>
+     *
+     * @return An equivalent {@link LookupTable}, or null if any channel depends on another.
+     */
+    LookupTable toLookupTable() {
+        int[][] tables = new int[4][256];
+        for (int row = 0; row < 4; row++) {
+            for (int column = 0; column < 4; column++) {
+                if (column != row && weights[row * 5 + column] != 0) {
+                    return null;
+                }
+            }
+            for (int v = 0; v < 256; v++) {
+                tables[row][v] = channel(row, weights[row * 5 + row] * v);
+            }
+        }
+        return new LookupTable(tables[3], tables[0], tables[1], tables[2]);
+    }
+
+    /**
+     * <p>
+     * Finish working out a new channel from its weighted sum.
+     * </p>
+     *
+     * @param row The new channel's row.
+     * @param sum The weighted sum of the old channels, without the offset.
+     * @return The new channel, from 0 to 255.
+     */
+    private int channel(int row, int sum) {
+        int value = sum + weights[row * 5 + 4] + bias[row];
+        if (divisor != 1) {
+            value = Math.floorDiv(value, divisor);
+        }
+        return Math.max(0, Math.min(255, value));
+    }
+
+    /**
+     * <p>
+     * Transform the colour of a single pixel.
+     * </p>
+     *
+     * @param argb The pixel's value, in the default ARGB colour model.
+     * @return The pixel's new value.
+     */
+    public int filterRGB(int argb) {
+        if (channelMap) {
+            return ((argb >>> sourceShift[3] & 0xFF) ^ invert[3]) << 24
+                    | ((argb >>> sourceShift[0] & 0xFF) ^ invert[0]) << 16
+                    | ((argb >>> sourceShift[1] & 0xFF) ^ invert[1]) << 8
+                    | ((argb >>> sourceShift[2] & 0xFF) ^ invert[2]);
+        }
+        int a = argb >>> 24;
+        int r = (argb >> 16) & 0xFF;
+        int g = (argb >> 8) & 0xFF;
+        int b = argb & 0xFF;
+        int[] w = weights;
+        int alpha = keepsAlpha ? argb & 0xFF000000 : round(3, w[15] * r + w[16] * g + w[17] * b + w[18] * a) << 24;
+        if (grey) {
+            return alpha | round(0, w[0] * r + w[1] * g + w[2] * b + w[3] * a) * 0x010101;
+        }
+        return alpha
+                | round(0, w[0] * r + w[1] * g + w[2] * b + w[3] * a) << 16
+                | round(1, w[5] * r + w[6] * g + w[7] * b + w[8] * a) << 8
+                | round(2, w[10] * r + w[11] * g + w[12] * b + w[13] * a);
+    }
+
+    /**
+     * <p>
+     * Finish working out a new channel from its weighted sum, using the table of rounded results if there is one.
+     * </p>
+     *
+     * @param row The new channel's row.
+     * @param sum The weighted sum of the old channels, without the offset.
+     * @return The new channel, from 0 to 255.
+     */
+    private int round(int row, int sum) {
+        int[] table = rounded[row];
+        return table != null ? table[sum - lowest[row]] : channel(row, sum);
+    }
+
+    /**
+     * <p>
+     * Apply the matrix to every pixel of an image in one pass.
+     * </p>
+     *
+     * <p>
+     * Like {@link PixelAccess#filter}, the image is normalised first and then changed in
+     * place, so the result may be a new image. Large images are processed in parallel,
+     * and each row on the processor's vector units through {@link Simd} where possible.
+     * </p>
+     *
+     * @param input The image to change.
+     * @return The changed image.
+     */
+    public BufferedImage apply(BufferedImage input) {
+        BufferedImage output = PixelAccess.normalise(input);
+        PixelAccess pixels = PixelAccess.of(output);
+        int[] data = pixels.getPixels();
+        int width = output.getWidth();
+        int height = output.getHeight();
+        TileExecutor.parallelFor((height + PART_ROWS - 1) / PART_ROWS, part -> {
+            int bottom = Math.min(height, (part + 1) * PART_ROWS);
+            for (int y = part * PART_ROWS; y < bottom; y++) {
+                int start = pixels.getIndex(0, y);
+                int end = start + width;
+                int i = start;
+                if (channelMap) {
+                    i = Simd.mapChannels(data, start, end, sourceShift, invert);
+                } else if (vectorAdd != null) {
+                    i = Simd.transformColours(data, start, end, weights, vectorAdd, vectorMagic, vectorShift, vectorMinus);
+                }
+                for (; i < end; i++) {
+                    data[i] = filterRGB(data[i]);
+                }
+            }
+        });
+        pixels.commit();
+        return output;
+    }
+}
@@ -0,0 +1,36 @@
+package cosc202.andie;
+
+/**
+ * <p>
+ * Interface for {@link PixelOperation}s that are affine colour transforms.
+ * </p>
+ *
+ * <p>
+ * Such an operation can be described completely by a {@link ColourMatrix}. When a run of
+ * these operations is replayed, the {@link OperationPlanner} multiplies neighbouring
+ * matrices into one wherever that gives exactly the same result, so a chain of colour
+ * adjustments costs a single pass over the image.
+ * </p>
+ *
+ * <p>
+ * Implementations must give the same result from {@link #apply} and {@link #filterRGB}
+ * as the matrix does.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @version 1.0
+ */
+interface ColourMatrixOperation extends PixelOperation {
+
+    /**
+     * <p>
+     * Get the colour matrix equivalent to this operation.
+     * </p>
+     *
+     * @return The colour matrix.
+     */
+    ColourMatrix getColourMatrix();
+}
@@ -20,7 +20,18 @@ import java.awt.image.*;
  * @author Steven Mills
  * @version 1.0
  */
-public class ConvertToGrey implements ImageOperation, java.io.Serializable {
+public class ConvertToGrey implements ColourMatrixOperation, java.io.Serializable {
+
+    /** The serial version of earlier releases, so that operations they saved can still be read. */
+    private static final long serialVersionUID = -6551968746842527704L;
+
+    /** Greyscale conversion as a colour matrix: 0.3 red, 0.6 green and 0.1 blue, leaving alpha alone. */
+    private static final ColourMatrix MATRIX = new ColourMatrix(new int[] {
+        3, 6, 1, 0, 0,
+        3, 6, 1, 0, 0,
+        3, 6, 1, 0, 0,
+        0, 0, 0, 10, 0
+    }, 10);
 
     /**
      * <p>
@@ -40,30 +51,38 @@ public class ConvertToGrey implements ImageOperation, java.io.Serializable {
      * The conversion from red, green, and blue values to greyscale uses a 
      * weighted average that reflects the human visual system's sensitivity 
      * to different wavelengths -- we are most sensitive to green light and 
-     * least to blue.
+     * least to blue. The average is worked out exactly and rounded to the
+     * nearest shade, halves rounding up.
      * </p>
      * 
      * @param input The image to be converted to greyscale
      * @return The resulting greyscale image.
      */
     public BufferedImage apply(BufferedImage input) {
-  
-        for (int y = 0; y < input.getHeight(); ++y) {
-            for (int x = 0; x < input.getWidth(); ++x) {
-                int argb = input.getRGB(x, y);
-                int a = (argb & 0xFF000000) >> 24;
-                int r = (argb & 0x00FF0000) >> 16;
-                int g = (argb & 0x0000FF00) >> 8;
-                int b = (argb & 0x000000FF);
+        return MATRIX.apply(input);
+    }
 
-                int grey = (int) Math.round(0.3*r + 0.6*g + 0.1*b);
+    /**
+     * <p>
+     * Convert a single pixel to greyscale.
+     * </p>
+     * 
+     * @param argb The pixel's value, in the default ARGB colour model.
+     * @return The grey pixel, with the same alpha.
+     */
+    public int filterRGB(int argb) {
+        return MATRIX.filterRGB(argb);
+    }
 
-                argb = (a << 24) | (grey << 16) | (grey << 8) | grey;
-                input.setRGB(x, y, argb);
-            }
-        }
-        
-        return input;
+    /**
+     * <p>
+     * Get greyscale conversion as a colour matrix.
+     * </p>
+     *
+     * @return The matrix giving each colour channel the weighted average of the old ones.
+     */
+    public ColourMatrix getColourMatrix() {
+        return MATRIX;
     }
     
 }
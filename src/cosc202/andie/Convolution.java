@@ -0,0 +1,846 @@
+package cosc202.andie;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Convolves images with a kernel, reading the image's pixels directly.
+ * </p>
+ *
+ * <p>
+ * Every output pixel is the sum of the pixels around it weighted by the kernel, just as
+ * with {@link java.awt.image.ConvolveOp}. Unlike ConvolveOp, every pixel near the border
+ * is filtered too, reading the pixels beyond the border as given by a {@link Border}, and
+ * the image is never copied into a padded one to do so. Each row of the image is split
+ * into its channels once, padded at each end, and kept only while the kernel covers it.
+ * </p>
+ *
+ * <p>
+ * Kernels whose weights sum to 1, such as blurs and sharpening, convolve all four channels.
+ * Kernels whose weights sum to 0, such as edge detection and emboss, give negative as well
+ * as positive responses. For these an offset can be added to the colour channels, so that
+ * a response of 0 comes out as mid grey rather than negative responses being lost to
+ * black, and the alpha channel is left as it was.
+ * </p>
+ *
+ * <p>
+ * Like ConvolveOp, the stored values are convolved: an 8-bit grey image has its samples
+ * convolved as they are, rather than after converting them to sRGB, through
+ * {@link PixelAccess#ofSamples(BufferedImage)}.
+ * </p>
+ *
+ * <p>
+ * Unlike ConvolveOp, each result is rounded to the nearest level rather than truncated.
+ * Truncating made every filter darken the image by half a level on average, which builds
+ * up when a filter is applied again and again, so results here are often one level
+ * brighter than ConvolveOp's were, on about half the pixels for a sharpen or soft blur.
+ * </p>
+ *
+ * <p>
+ * Small kernels are applied in integer fixed-point arithmetic. Larger ones, and separable
+ * kernels, which are applied as one pass down the columns and one along the rows, use
+ * floating point. Rows are shared among the processor cores in bands, and the weighted
+ * rows are summed on the processor's vector units through {@link Simd} where possible.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @see PixelAccess
+ * @version 1.0
+ */
+final class Convolution {
+
+    /**
+     * <p>
+     * How pixels beyond the border of an image are read.
+     * </p>
+     */
+    enum Border {
+        /** Pixels beyond the border repeat the nearest edge pixel. */
+        CLAMP,
+        /** The image is reflected at the border, so the edge pixel is repeated once and then the pixels inside it. */
+        MIRROR,
+        /** The image repeats, so pixels beyond one edge come from the opposite edge. */
+        WRAP;
+
+        /**
+         * <p>
+         * Find the pixel read for a row or column that may be beyond the border.
+         * </p>
+         *
+         * @param i The row or column, which may be negative or past the end.
+         * @param size The height or width of the image.
+         * @return The row or column within the image that is read in its place.
+         */
+        int index(int i, int size) {
+            if (i >= 0 && i < size) {
+                return i;
+            }
+            switch (this) {
+                case CLAMP:
+                    return i < 0 ? 0 : size - 1;
+                case MIRROR:
+                    int m = Math.floorMod(i, 2 * size);
+                    return m < size ? m : 2 * size - 1 - m;
+                default:
+                    return Math.floorMod(i, size);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * The ways a convolution can be computed.
+     * </p>
+     */
+    enum Method {
+        /** Summing the weighted pixels under the whole kernel. */
+        DIRECT,
+        /** A pass down the columns with one factor of the kernel, then along the rows with the other. */
+        SEPARABLE,
+        /** Multiplying Fourier transforms of tiles of the image by that of the kernel. */
+        FFT
+    }
+
+    /** The number of fractional bits in fixed-point weights. */
+    private static final int FIXED_BITS = 14;
+    /** The largest number of weights a kernel may have to be applied in fixed point. */
+    private static final int FIXED_MAX_WEIGHTS = 49;
+    /** The fewest rows a band may have, to keep the rows read twice by neighbouring bands few. */
+    private static final int MIN_BAND_HEIGHT = 64;
+    /** The smallest size of tile transformed for the FFT method. */
+    private static final int MIN_FFT_SIZE = 32;
+    /** The largest size of tile transformed for the FFT method, unless the kernel needs more. */
+    private static final int MAX_FFT_SIZE = 1024;
+
+    /*
+     * The estimated costs of each method, in nanoseconds per pixel, used to choose between them.
+     * They were measured on a single core and only their ratios matter.
+     */
+    /** The cost of splitting rows into channels and packing the result, for the direct method. */
+    private static final double DIRECT_COST = 4.0;
+    /** The cost of one fixed-point weight. */
+    private static final double FIXED_TAP_COST = 1.65;
+    /** The cost of one floating point weight. */
+    private static final double FLOAT_TAP_COST = 1.5;
+    /** The cost of splitting rows into channels and packing the result, for the separable method. */
+    private static final double SEPARABLE_COST = 8.0;
+    /** The cost of one weight of either factor of a separable kernel. */
+    private static final double SEPARABLE_TAP_COST = 1.15;
+    /** The cost of one butterfly stage of an FFT, per point transformed. */
+    private static final double FFT_POINT_COST = 1.65;
+
+    /** The width of the kernel. */
+    private final int kernelWidth;
+    /** The height of the kernel. */
+    private final int kernelHeight;
+    /** The weights, flipped so that they line up with the pixels they are applied to, row by row. */
+    private final float[] weights;
+    /** The weights in fixed point, or null to use floating point. */
+    private final int[] fixedWeights;
+    /** The number of non-zero weights. */
+    private final int taps;
+    /** The weights along a row, flipped, if the kernel is separable, or null. */
+    private final float[] horizontal;
+    /** The weights down a column, flipped, if the kernel is separable, or null. */
+    private final float[] vertical;
+    /** How pixels beyond the border are read. */
+    private final Border border;
+    /** The offset added to the colour channels, or 0. */
+    private final int offset;
+    /** Whether the alpha channel is left as it was rather than convolved. */
+    private final boolean keepAlpha;
+    /** The transform of the kernel for the FFT method, or null if not yet made. */
+    private double[][] spectrum;
+
+    /**
+     * <p>
+     * Create a convolution that applies a kernel to all four channels.
+     * </p>
+     *
+     * @param width The width of the kernel, which must be odd.
+     * @param height The height of the kernel, which must be odd.
+     * @param weights The weights, row by row, in the same order as for {@link java.awt.image.Kernel}.
+     * @param border How pixels beyond the border are read.
+     */
+    Convolution(int width, int height, float[] weights, Border border) {
+        this(width, height, weights, null, null, border, 0, false);
+    }
+
+    /**
+     * <p>
+     * Create a convolution with signed responses, which applies a kernel to the colour channels only.
+     * </p>
+     *
+     * @param width The width of the kernel, which must be odd.
+     * @param height The height of the kernel, which must be odd.
+     * @param weights The weights, row by row, in the same order as for {@link java.awt.image.Kernel}.
+     * @param border How pixels beyond the border are read.
+     * @param offset The value added to each colour channel's response, such as 128 to show
+     *        a response of 0 as mid grey.
+     */
+    Convolution(int width, int height, float[] weights, Border border, int offset) {
+        this(width, height, weights, null, null, border, offset, true);
+    }
+
+    /**
+     * <p>
+     * Create a convolution.
+     * </p>
+     *
+     * <p>
+     * A full kernel is checked for being separable, in which case its factors are found.
+     * </p>
+     *
+     * @param width The width of the kernel.
+     * @param height The height of the kernel.
+     * @param weights The weights of a full kernel, row by row, or null for a separable one.
+     * @param horizontal The weights along a row of a separable kernel, or null for a full one.
+     * @param vertical The weights down a column of a separable kernel, or null for a full one.
+     * @param border How pixels beyond the border are read.
+     * @param offset The value added to each colour channel's response.
+     * @param keepAlpha Whether the alpha channel is left as it was.
+     */
+    private Convolution(int width, int height, float[] weights, float[] horizontal, float[] vertical,
+            Border border, int offset, boolean keepAlpha) {
+        if (width % 2 == 0 || height % 2 == 0) {
+            throw new IllegalArgumentException("Kernel size must be odd: " + width + "x" + height);
+        }
+        if (weights == null) {
+            weights = new float[width * height];
+            for (int j = 0; j < height; j++) {
+                for (int i = 0; i < width; i++) {
+                    weights[j * width + i] = vertical[j] * horizontal[i];
+                }
+            }
+        } else {
+            float[][] factors = factorise(width, height, weights);
+            if (factors != null) {
+                horizontal = factors[0];
+                vertical = factors[1];
+            }
+        }
+        this.kernelWidth = width;
+        this.kernelHeight = height;
+        this.horizontal = horizontal == null ? null : reversed(horizontal);
+        this.vertical = vertical == null ? null : reversed(vertical);
+        this.weights = reversed(weights);
+        this.border = border;
+        this.offset = offset;
+        this.keepAlpha = keepAlpha;
+        this.fixedWeights = toFixed(this.weights, offset);
+        int nonZero = 0;
+        for (float weight: weights) {
+            if (weight != 0) {
+                nonZero++;
+            }
+        }
+        this.taps = nonZero;
+    }
+
+    /**
+     * <p>
+     * Create a convolution with a separable kernel, applied to all four channels.
+     * </p>
+     *
+     * <p>
+     * The kernel is the product of a row of weights and a column of weights, such as a
+     * Gaussian, and costs only as much as the two of them.
+     * </p>
+     *
+     * @param horizontal The weights along a row, of odd length.
+     * @param vertical The weights down a column, of odd length.
+     * @param border How pixels beyond the border are read.
+     * @return The convolution.
+     */
+    static Convolution separable(float[] horizontal, float[] vertical, Border border) {
+        return new Convolution(horizontal.length, vertical.length, null, horizontal, vertical, border, 0, false);
+    }
+
+    /**
+     * <p>
+     * Convolve an image.
+     * </p>
+     *
+     * <p>
+     * The method expected to be quickest for the size of kernel and image is used.
+     * </p>
+     *
+     * @param input The image to convolve. It is not changed.
+     * @return A new image of the same size, of type {@link BufferedImage#TYPE_INT_ARGB} unless
+     *         the input's pixels could not be held exactly in that type, in which case it is
+     *         of the same type as the input.
+     * @see #choose(int, int)
+     */
+    BufferedImage apply(BufferedImage input) {
+        return apply(input, choose(input.getWidth(), input.getHeight()));
+    }
+
+    /**
+     * <p>
+     * Convolve an image by a given method.
+     * </p>
+     *
+     * <p>
+     * All methods give the same result, apart from rounding.
+     * </p>
+     *
+     * @param input The image to convolve. It is not changed.
+     * @param method The method to use. {@link Method#SEPARABLE} may only be used for a separable kernel.
+     * @return A new image of the same size, of the same type as from {@link #apply(BufferedImage)}.
+     */
+    BufferedImage apply(BufferedImage input, Method method) {
+        if (method == Method.SEPARABLE && horizontal == null) {
+            throw new IllegalArgumentException("Kernel is not separable");
+        }
+        int width = input.getWidth();
+        int height = input.getHeight();
+        PixelAccess source = PixelAccess.ofSamples(input);
+        BufferedImage output = PixelAccess.blankLike(input);
+        PixelAccess target = PixelAccess.ofSamples(output);
+
+        if (method == Method.FFT) {
+            convolveFFT(source, target, width, height, fftSize(width, height));
+        } else {
+            int cores = TileExecutor.parallelism();
+            int bands = cores < 2 ? 1 : Math.max(1, Math.min(height / MIN_BAND_HEIGHT, cores * TileExecutor.BANDS_PER_CORE));
+            TileExecutor.parallelFor(bands, band -> {
+                int top = (int) ((long) height * band / bands);
+                int bottom = (int) ((long) height * (band + 1) / bands);
+                if (method == Method.DIRECT && fixedWeights != null) {
+                    convolveFixed(source, target, width, height, top, bottom);
+                } else {
+                    convolveFloat(source, target, width, height, top, bottom, method == Method.SEPARABLE);
+                }
+            });
+        }
+
+        target.commit();
+        return output;
+    }
+
+    /**
+     * <p>
+     * Choose the method expected to convolve an image of a given size quickest.
+     * </p>
+     *
+     * <p>
+     * The direct method costs in proportion to the number of non-zero weights, the
+     * separable one to the width plus the height of the kernel, and the FFT method to the
+     * logarithm of the size of the tiles it transforms, whatever the kernel. Small kernels
+     * are best applied directly, especially in fixed point, and large ones by FFT unless
+     * they are separable. The FFT method also pays for the halo of each tile, which is
+     * wasted on images not much larger than the kernel.
+     * </p>
+     *
+     * <p>
+     * The methods round differently, so the choice never depends on whether {@link Simd}
+     * uses the vector units, which would make the same filter give different results in
+     * different Java runtimes. Vectors only make the chosen method faster.
+     * </p>
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @return The method with the lowest estimated cost.
+     */
+    Method choose(int width, int height) {
+        double pixels = (double) width * height;
+        double direct = pixels * (DIRECT_COST + taps * (fixedWeights != null ? FIXED_TAP_COST : FLOAT_TAP_COST));
+        double separable = horizontal == null ? Double.POSITIVE_INFINITY
+                : pixels * (SEPARABLE_COST + (kernelWidth + kernelHeight) * SEPARABLE_TAP_COST);
+        double fft = fftCost(width, height, fftSize(width, height));
+        if (direct <= separable && direct <= fft) {
+            return Method.DIRECT;
+        }
+        return separable <= fft ? Method.SEPARABLE : Method.FFT;
+    }
+
+    /**
+     * <p>
+     * Choose the size of tile to transform for the FFT method.
+     * </p>
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @return The power of two with the lowest estimated cost.
+     */
+    private int fftSize(int width, int height) {
+        int kernel = Math.max(kernelWidth, kernelHeight);
+        int best = Integer.highestOneBit(Math.max(MIN_FFT_SIZE, 2 * kernel - 1) - 1) * 2;
+        for (int size = best * 2; size <= MAX_FFT_SIZE; size *= 2) {
+            if (fftCost(width, height, size) < fftCost(width, height, best)) {
+                best = size;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * <p>
+     * Estimate the cost of the FFT method with tiles of a given size.
+     * </p>
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param size The size of the tiles transformed.
+     * @return The estimated cost, in the same units as for the other methods.
+     */
+    private double fftCost(int width, int height, int size) {
+        int tileWidth = size - kernelWidth + 1;
+        int tileHeight = size - kernelHeight + 1;
+        if (tileWidth < 1 || tileHeight < 1) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double tiles = Math.ceil((double) width / tileWidth) * Math.ceil((double) height / tileHeight);
+        int stages = Integer.numberOfTrailingZeros(size);
+        // Two pairs of channels, each transformed forwards and back, skipping rows known to be zero or unwanted.
+        double lines = 2 * (Math.min(size, tileHeight + kernelHeight - 1) + 2 * size + Math.min(size, tileHeight));
+        return tiles * (lines * size * stages * FFT_POINT_COST + 2 * size * size * FFT_POINT_COST);
+    }
+
+    /**
+     * <p>
+     * Convolve some rows of an image with fixed-point weights.
+     * </p>
+     *
+     * @param source The pixels to read.
+     * @param target The pixels to write.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param top The first row to convolve.
+     * @param bottom The row after the last one to convolve.
+     */
+    private void convolveFixed(PixelAccess source, PixelAccess target, int width, int height, int top, int bottom) {
+        int[] result = target.getPixels();
+        Rows<int[]> rows = new Rows<int[]>(source, width, height, new int[kernelHeight][4 * (width + kernelWidth - 1)]) {
+            void unpack(int argb, int[] row, int i) {
+                row[i] = argb >>> 24;
+                row[i + 1] = (argb >> 16) & 0xFF;
+                row[i + 2] = (argb >> 8) & 0xFF;
+                row[i + 3] = argb & 0xFF;
+            }
+        };
+        int[] sums = new int[4 * width];
+        int radiusX = kernelWidth / 2;
+        int radiusY = kernelHeight / 2;
+        int rounding = (1 << (FIXED_BITS - 1)) + (offset << FIXED_BITS);
+        for (int y = top; y < bottom; y++) {
+            OperationWorker.checkCancelled();
+            OperationWorker.reportProgress(y - top, bottom - top);
+
+            Arrays.fill(sums, rounding);
+            for (int j = 0; j < kernelHeight; j++) {
+                int[] row = rows.get(y + j - radiusY);
+                for (int i = 0; i < kernelWidth; i++) {
+                    int weight = fixedWeights[j * kernelWidth + i];
+                    if (weight == 0) {
+                        continue;
+                    }
+                    Simd.multiplyAdd(sums, weight, row, 4 * i, sums.length);
+                }
+            }
+
+            int[] centre = rows.get(y);
+            int out = target.getIndex(0, y);
+            for (int x = 0, k = 0; x < width; x++, k += 4) {
+                int alpha = keepAlpha ? centre[4 * radiusX + k] : clamp(sums[k] >> FIXED_BITS);
+                result[out + x] = (alpha << 24) | (clamp(sums[k + 1] >> FIXED_BITS) << 16)
+                        | (clamp(sums[k + 2] >> FIXED_BITS) << 8) | clamp(sums[k + 3] >> FIXED_BITS);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Convolve some rows of an image with floating point weights.
+     * </p>
+     *
+     * <p>
+     * A separable kernel is applied by summing the weighted rows around each output row
+     * into one row, then convolving that row with the horizontal weights. The intermediate
+     * values are not rounded.
+     * </p>
+     *
+     * @param source The pixels to read.
+     * @param target The pixels to write.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param top The first row to convolve.
+     * @param bottom The row after the last one to convolve.
+     * @param separable Whether to apply the kernel's factors rather than the whole kernel.
+     */
+    private void convolveFloat(PixelAccess source, PixelAccess target, int width, int height, int top, int bottom,
+            boolean separable) {
+        int[] result = target.getPixels();
+        int padded = 4 * (width + kernelWidth - 1);
+        Rows<float[]> rows = new Rows<float[]>(source, width, height, new float[kernelHeight][padded]) {
+            void unpack(int argb, float[] row, int i) {
+                row[i] = argb >>> 24;
+                row[i + 1] = (argb >> 16) & 0xFF;
+                row[i + 2] = (argb >> 8) & 0xFF;
+                row[i + 3] = argb & 0xFF;
+            }
+        };
+        float[] columns = separable ? new float[padded] : null;
+        float[] sums = new float[4 * width];
+        int radiusX = kernelWidth / 2;
+        int radiusY = kernelHeight / 2;
+        for (int y = top; y < bottom; y++) {
+            OperationWorker.checkCancelled();
+            OperationWorker.reportProgress(y - top, bottom - top);
+
+            if (separable) {
+                Arrays.fill(columns, 0);
+                for (int j = 0; j < kernelHeight; j++) {
+                    float[] row = rows.get(y + j - radiusY);
+                    Simd.multiplyAdd(columns, vertical[j], row, 0, padded);
+                }
+                Arrays.fill(sums, 0);
+                for (int i = 0; i < kernelWidth; i++) {
+                    Simd.multiplyAdd(sums, horizontal[i], columns, 4 * i, sums.length);
+                }
+            } else {
+                Arrays.fill(sums, 0);
+                for (int j = 0; j < kernelHeight; j++) {
+                    float[] row = rows.get(y + j - radiusY);
+                    for (int i = 0; i < kernelWidth; i++) {
+                        float weight = weights[j * kernelWidth + i];
+                        if (weight == 0) {
+                            continue;
+                        }
+                        Simd.multiplyAdd(sums, weight, row, 4 * i, sums.length);
+                    }
+                }
+            }
+
+            float[] centre = rows.get(y);
+            int out = target.getIndex(0, y);
+            for (int x = 0, k = 0; x < width; x++, k += 4) {
+                int alpha = keepAlpha ? (int) centre[4 * radiusX + k] : round(sums[k]);
+                result[out + x] = (alpha << 24) | (round(sums[k + 1] + offset) << 16)
+                        | (round(sums[k + 2] + offset) << 8) | round(sums[k + 3] + offset);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Convolve an image by multiplying Fourier transforms.
+     * </p>
+     *
+     * <p>
+     * The image is cut into tiles, each of which is read with the halo the kernel needs
+     * around it into a square of the transform size, transformed, multiplied by the
+     * transform of the kernel and transformed back. The halo makes the transform's
+     * wrap-around fall only on pixels that are thrown away. The kernel is real, so two
+     * channels are transformed at once as the real and imaginary parts of one square.
+     * Rows of tiles are shared among the processor cores.
+     * </p>
+     *
+     * @param source The pixels to read.
+     * @param target The pixels to write.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param size The size of the squares transformed.
+     */
+    private void convolveFFT(PixelAccess source, PixelAccess target, int width, int height, int size) {
+        FFT fft = FFT.of(size);
+        double[][] kernel = spectrum(fft);
+        int tileWidth = size - kernelWidth + 1;
+        int tileHeight = size - kernelHeight + 1;
+        int radiusX = kernelWidth / 2;
+        int radiusY = kernelHeight / 2;
+        int[] pixels = source.getPixels();
+        int[] result = target.getPixels();
+
+        TileExecutor.parallelFor((height + tileHeight - 1) / tileHeight, tileRow -> {
+            double[] re = new double[size * size];
+            double[] im = new double[size * size];
+            int[] columns = new int[size];
+            int[] rowStarts = new int[size];
+            int[][] channels = new int[4][tileWidth * tileHeight];
+            int top = tileRow * tileHeight;
+            int rows = Math.min(tileHeight, height - top);
+            int blockHeight = rows + kernelHeight - 1;
+            for (int j = 0; j < blockHeight; j++) {
+                rowStarts[j] = source.getIndex(0, border.index(top - radiusY + j, height));
+            }
+            for (int left = 0; left < width; left += tileWidth) {
+                OperationWorker.checkCancelled();
+                int cols = Math.min(tileWidth, width - left);
+                int blockWidth = cols + kernelWidth - 1;
+                for (int i = 0; i < blockWidth; i++) {
+                    columns[i] = border.index(left - radiusX + i, width);
+                }
+                for (int pair = 0; pair < 2; pair++) {
+                    int shiftRe = 24 - 16 * pair;
+                    int shiftIm = 16 - 16 * pair;
+                    Arrays.fill(re, 0);
+                    Arrays.fill(im, 0);
+                    for (int j = 0; j < blockHeight; j++) {
+                        for (int i = 0, k = j * size; i < blockWidth; i++, k++) {
+                            int argb = pixels[rowStarts[j] + columns[i]];
+                            re[k] = (argb >>> shiftRe) & 0xFF;
+                            im[k] = (argb >>> shiftIm) & 0xFF;
+                        }
+                    }
+                    fft.transform2D(re, im, 0, blockHeight, false);
+                    double[] kernelRe = kernel[0];
+                    double[] kernelIm = kernel[1];
+                    for (int k = 0; k < re.length; k++) {
+                        double r = re[k] * kernelRe[k] - im[k] * kernelIm[k];
+                        im[k] = re[k] * kernelIm[k] + im[k] * kernelRe[k];
+                        re[k] = r;
+                    }
+                    fft.transform2D(re, im, kernelHeight - 1, rows, true);
+                    // The wrap-around of the transform lands in the first kernelWidth - 1 columns and kernelHeight - 1 rows.
+                    int[] first = channels[2 * pair];
+                    int[] second = channels[2 * pair + 1];
+                    int channelOffset = pair == 0 ? 0 : offset;
+                    for (int j = 0; j < rows; j++) {
+                        for (int i = 0, k = (j + kernelHeight - 1) * size + kernelWidth - 1; i < cols; i++, k++) {
+                            first[j * cols + i] = clamp((int) Math.floor(re[k] + channelOffset + 0.5));
+                            second[j * cols + i] = clamp((int) Math.floor(im[k] + offset + 0.5));
+                        }
+                    }
+                }
+                for (int j = 0; j < rows; j++) {
+                    int out = target.getIndex(left, top + j);
+                    int in = source.getIndex(left, top + j);
+                    for (int i = 0, k = j * cols; i < cols; i++, k++) {
+                        int alpha = keepAlpha ? pixels[in + i] >>> 24 : channels[0][k];
+                        result[out + i] = (alpha << 24) | (channels[1][k] << 16) | (channels[2][k] << 8) | channels[3][k];
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * <p>
+     * Get the transform of the kernel, for tiles of a given size.
+     * </p>
+     *
+     * <p>
+     * The kernel is placed in the top left corner of a square of zeros, and its transform is
+     * scaled so that the inverse transform of the product with a tile needs no scaling.
+     * </p>
+     *
+     * @param fft The transform used for the tiles.
+     * @return The real and imaginary parts of the kernel's transform, row by row.
+     */
+    private synchronized double[][] spectrum(FFT fft) {
+        int size = fft.getSize();
+        if (spectrum == null || spectrum[0].length != size * size) {
+            double[] re = new double[size * size];
+            double[] im = new double[size * size];
+            double scale = 1.0 / ((double) size * size);
+            // The weights are held flipped, so flip them back.
+            for (int j = 0; j < kernelHeight; j++) {
+                for (int i = 0; i < kernelWidth; i++) {
+                    re[j * size + i] = weights[weights.length - 1 - (j * kernelWidth + i)] * scale;
+                }
+            }
+            fft.transform2D(re, im, 0, kernelHeight, false);
+            spectrum = new double[][] {re, im};
+        }
+        return spectrum;
+    }
+
+    /**
+     * <p>
+     * The rows of an image that the kernel currently covers, split into channels.
+     * </p>
+     *
+     * <p>
+     * Each row holds the alpha, red, green and blue values of each pixel in turn, with the
+     * columns beyond the border that the kernel reads added at each end. Rows are kept in
+     * a ring indexed by the row the kernel asks for, which may be beyond the border, so
+     * that the rows one output row needs never share a slot.
+     * </p>
+     *
+     * @param <T> The type of array holding a row.
+     */
+    private abstract class Rows<T> {
+
+        /** The pixels of the image. */
+        private final PixelAccess source;
+        /** The width of the image. */
+        private final int width;
+        /** The height of the image. */
+        private final int height;
+        /** The rows kept. */
+        private final T[] ring;
+        /** The row asked for that each slot of the ring holds. */
+        private final int[] held;
+
+        /**
+         * <p>
+         * Create an empty set of rows.
+         * </p>
+         *
+         * @param source The pixels of the image.
+         * @param width The width of the image.
+         * @param height The height of the image.
+         * @param ring One array for each row of the kernel, long enough for a padded row.
+         */
+        Rows(PixelAccess source, int width, int height, T[] ring) {
+            this.source = source;
+            this.width = width;
+            this.height = height;
+            this.ring = ring;
+            this.held = new int[ring.length];
+            Arrays.fill(held, Integer.MIN_VALUE);
+        }
+
+        /**
+         * <p>
+         * Get a row, splitting it into channels if it is not already held.
+         * </p>
+         *
+         * @param y The row, which may be beyond the border.
+         * @return The row's channel values.
+         */
+        T get(int y) {
+            int slot = Math.floorMod(y, ring.length);
+            T row = ring[slot];
+            if (held[slot] != y) {
+                int[] pixels = source.getPixels();
+                int start = source.getIndex(0, border.index(y, height));
+                int radius = kernelWidth / 2;
+                for (int x = -radius, i = 0; x < width + radius; x++, i += 4) {
+                    unpack(pixels[start + border.index(x, width)], row, i);
+                }
+                held[slot] = y;
+            }
+            return row;
+        }
+
+        /**
+         * <p>
+         * Split a pixel into its channel values.
+         * </p>
+         *
+         * @param argb The pixel.
+         * @param row Where to put the alpha, red, green and blue values.
+         * @param i The index of the alpha value.
+         */
+        abstract void unpack(int argb, T row, int i);
+    }
+
+    /**
+     * <p>
+     * Split a kernel into a row of weights and a column of weights whose product it is, if it can be.
+     * </p>
+     *
+     * <p>
+     * A kernel is separable when every row is a multiple of every other, which is checked
+     * against the row and column through its largest weight, allowing for the rounding
+     * of float weights.
+     * </p>
+     *
+     * @param width The width of the kernel.
+     * @param height The height of the kernel.
+     * @param weights The weights, row by row.
+     * @return The row of weights and the column of weights, in that order, or null if the
+     *         kernel is not separable.
+     */
+    private static float[][] factorise(int width, int height, float[] weights) {
+        int largest = 0;
+        for (int i = 1; i < weights.length; i++) {
+            if (Math.abs(weights[i]) > Math.abs(weights[largest])) {
+                largest = i;
+            }
+        }
+        float pivot = weights[largest];
+        if (pivot == 0) {
+            return null;
+        }
+        float[] row = new float[width];
+        float[] column = new float[height];
+        System.arraycopy(weights, largest - largest % width, row, 0, width);
+        for (int j = 0; j < height; j++) {
+            column[j] = weights[j * width + largest % width] / pivot;
+        }
+        float tolerance = Math.abs(pivot) * 1e-5f;
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                if (Math.abs(weights[j * width + i] - column[j] * row[i]) > tolerance) {
+                    return null;
+                }
+            }
+        }
+        return new float[][] {row, column};
+    }
+
+    /**
+     * <p>
+     * Reverse the order of a kernel's weights.
+     * </p>
+     *
+     * <p>
+     * A convolution applies the kernel flipped both ways, so the reversed weights line up
+     * with the pixels they are applied to.
+     * </p>
+     *
+     * @param weights The weights.
+     * @return A new array of the weights in reverse order.
+     */
+    private static float[] reversed(float[] weights) {
+        float[] flipped = new float[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            flipped[i] = weights[weights.length - 1 - i];
+        }
+        return flipped;
+    }
+
+    /**
+     * <p>
+     * Convert a kernel's weights to fixed point, if it is small enough for that to be exact enough.
+     * </p>
+     *
+     * @param weights The weights.
+     * @param offset The offset that will be added to the sums.
+     * @return The weights scaled by 2<sup>{@value #FIXED_BITS}</sup> and rounded, or null if
+     *         the kernel has too many weights or the sums could overflow.
+     */
+    private static int[] toFixed(float[] weights, int offset) {
+        if (weights.length > FIXED_MAX_WEIGHTS) {
+            return null;
+        }
+        int[] fixed = new int[weights.length];
+        long largest = (1L << (FIXED_BITS - 1)) + ((long) Math.abs(offset) << FIXED_BITS);
+        for (int i = 0; i < weights.length; i++) {
+            fixed[i] = Math.round(weights[i] * (1 << FIXED_BITS));
+            largest += 255L * Math.abs(fixed[i]);
+        }
+        return largest <= Integer.MAX_VALUE ? fixed : null;
+    }
+
+    /**
+     * <p>
+     * Round a channel value to the nearest level, clamped to the range 0 to 255.
+     * </p>
+     *
+     * @param value The channel value.
+     * @return The rounded value.
+     */
+    private static int round(float value) {
+        return clamp(Math.round(value));
+    }
+
+    /**
+     * <p>
+     * Clamp a channel value to the range 0 to 255.
+     * </p>
+     *
+     * @param value The channel value.
+     * @return The clamped value.
+     */
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
@@ -1,14 +1,25 @@
 package cosc202.andie;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 
 /**
  * <p>
  * A class to crop an image based on the region selected
  * </p>
+ * 
+ * <p>
+ * Crops are now made as {@link RectangleCrop}s. This class is kept so that operations
+ * saved by earlier releases can still be read, and hands all of its work to an
+ * equivalent RectangleCrop. Its {@link ImagePanel} superclass is never used, so nothing
+ * here builds Swing components, which matters since operations run on worker threads.
+ * </p>
  * @author Liam Walls
  * */
-public class Crop extends ImagePanel implements ImageOperation, java.io.Serializable  {
+public class Crop extends ImagePanel implements RegionOperation, ScalableOperation, java.io.Serializable  {
+
+    /** The serial version of earlier releases, so that operations they saved can still be read. */
+    private static final long serialVersionUID = 3867760730768497796L;
 
     /**
      * The starting point of the crop.
@@ -33,28 +44,52 @@ public class Crop extends ImagePanel implements ImageOperation, java.io.Serializ
 
     }
 
+    /**
+     * <p>
+     * Gets the equivalent crop that does not extend {@link ImagePanel}.
+     * </p>
+     * 
+     * @return a new RectangleCrop between the same points
+     */
+    RectangleCrop toRectangleCrop(){
+        return new RectangleCrop(startPoint, endPoint);
+    }
+
     /**
      * <p>
      * Applies the crop to the image.
      * </p>
      * 
      * @param input the image to crop
-     * @return the cropped image
+     * @return the cropped image, sharing the input's pixels
+     * @see RectangleCrop#apply(BufferedImage)
      */
     public BufferedImage apply(BufferedImage input){
-        int x = Math.min(startPoint.x, endPoint.x);
-        int y = Math.min(startPoint.y, endPoint.y);
-        int width = Math.abs(startPoint.x - endPoint.x);
-        int height = Math.abs(startPoint.y - endPoint.y);
-
-        if(width>0 && height>0){
-            BufferedImage output = input.getSubimage(x, y, width, height);
-//                    new BufferedImage(width, height, input.getType());
-//            int[] rgb = input.getRGB(x, y, width, height, null,0, width);
-//            output.setRGB(0, 0, width, height, rgb, 0, width);
-//            System.out.println("Cropped");
-            return output;
-        }
-        return input;
+        return toRectangleCrop().apply(input);
+    }
+
+    /**
+     * <p>
+     * Gets the part of the image kept by the crop.
+     * </p>
+     * 
+     * @param width the width of the image to be cropped
+     * @param height the height of the image to be cropped
+     * @return the selected rectangle, within the image bounds
+     */
+    public Rectangle getAffectedRegion(int width, int height){
+        return toRectangleCrop().getAffectedRegion(width, height);
+    }
+
+    /**
+     * <p>
+     * Gets the equivalent crop for a copy of the image scaled by a given factor.
+     * </p>
+     *
+     * @param factor the size of the scaled image relative to the full-size one
+     * @return a new RectangleCrop with its corners scaled
+     */
+    public ImageOperation scaled(double factor){
+        return toRectangleCrop().scaled(factor);
+    }
 }
-}
\ No newline at end of file
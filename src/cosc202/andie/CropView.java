@@ -0,0 +1,98 @@
+package cosc202.andie;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+
+/**
+ * <p>
+ * A rectangular part of another image, sharing its pixels.
+ * </p>
+ *
+ * <p>
+ * Cropping only needs to pick out part of an image, so a view reads the parent's pixel
+ * array in place and costs nothing to make, however large the image. The catch is that
+ * writing to a view writes to the parent too, and a view keeps the whole of the parent's
+ * pixel array alive. So a view must never be written in place: code that is about to
+ * change an image's own pixels asks {@link #writable(BufferedImage)} for an image it may
+ * change, which gives a compact copy of a view and any other image as it is. This is done
+ * by {@link PixelAccess#normalise(BufferedImage)}, which every in-place pixel operation
+ * goes through, and by the few operations that draw on their input.
+ * </p>
+ *
+ * <p>
+ * The first operation after a crop usually makes a new image anyway, which drops the last
+ * reference to the parent. Snapshots kept by the {@link CheckpointStore} and
+ * {@link HistoryCache} are {@link TiledImage}s, which copy the view's pixels, so history
+ * never holds on to a parent either.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @see Crop
+ * @version 1.0
+ */
+final class CropView extends BufferedImage {
+
+    /**
+     * <p>
+     * Create a view of part of an image.
+     * </p>
+     *
+     * @param parent The image to view.
+     * @param region The part of the image to view, which must lie within it.
+     */
+    private CropView(BufferedImage parent, Rectangle region) {
+        super(parent.getColorModel(), parent.getRaster().createWritableChild(region.x, region.y,
+                region.width, region.height, 0, 0, null), parent.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * <p>
+     * Get a view of part of an image.
+     * </p>
+     *
+     * @param image The image to view.
+     * @param region The part of the image to view, which must lie within it and not be empty.
+     * @return A view of the region, of the same type as the image, sharing its pixels.
+     */
+    static BufferedImage of(BufferedImage image, Rectangle region) {
+        return new CropView(image, region);
+    }
+
+    /**
+     * <p>
+     * Check whether an image shares its pixels with a larger one.
+     * </p>
+     *
+     * <p>
+     * This holds for views, and for anything else made from part of another image's
+     * raster, such as the result of {@link BufferedImage#getSubimage}.
+     * </p>
+     *
+     * @param image The image to check.
+     * @return True if writing to the image could change another one.
+     */
+    static boolean isView(BufferedImage image) {
+        return image instanceof CropView || image.getRaster().getParent() != null;
+    }
+
+    /**
+     * <p>
+     * Get an image that may be written in place, with the same pixels as a given one.
+     * </p>
+     *
+     * @param image The image about to be written.
+     * @return A compact copy of the same type if the image is a view, otherwise the image itself.
+     */
+    static BufferedImage writable(BufferedImage image) {
+        if (!isView(image)) {
+            return image;
+        }
+        WritableRaster copy = image.getRaster().createCompatibleWritableRaster();
+        copy.setRect(image.getRaster());
+        return new BufferedImage(image.getColorModel(), copy, image.isAlphaPremultiplied(), null);
+    }
+}
@@ -1,8 +1,7 @@
 package cosc202.andie;
-import java.awt.BasicStroke;
 import java.awt.Color;
-import java.awt.Graphics2D;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 
 
@@ -13,9 +12,18 @@ import java.awt.image.BufferedImage;
  * This class is also serializable.
  * </p>
  *
+ * <p>
+ * Drawings are now made as {@link Drawing}s. This class is kept so that operations saved
+ * by earlier releases can still be read, and hands all of its work to an equivalent
+ * Drawing, so its ImagePanel superclass is never used.
+ * </p>
+ *
  * @author Liam Walls
  */
-public class Draw extends ImagePanel implements ImageOperation, java.io.Serializable{
+public class Draw extends ImagePanel implements RegionOperation, ScalableOperation, java.io.Serializable{
+
+    /** The serial version of earlier releases, so that operations they saved can still be read. */
+    private static final long serialVersionUID = 3774354393612295834L;
 
     private String shape;
     private Color colour;
@@ -45,6 +53,17 @@ public class Draw extends ImagePanel implements ImageOperation, java.io.Serializ
         this.endPoint = endPoint;
     }
 
+    /**
+     * <p>
+     * Gets the equivalent drawing that does not extend {@link ImagePanel}.
+     * </p>
+     *
+     * @return a new Drawing with the same shape, colour, thickness and points
+     */
+    Drawing toDrawing(){
+        return new Drawing(shape, colour, fill, size, startPoint, endPoint);
+    }
+
     /**
      * <p>
      * Applies the drawing operation to the input image and returns the resulting image.
@@ -52,44 +71,35 @@ public class Draw extends ImagePanel implements ImageOperation, java.io.Serializ
      * 
      * @param input the input image to apply the drawing operation to
      * @return the resulting image after applying the drawing operation
+     * @see Drawing#apply(BufferedImage)
      */
     public BufferedImage apply(BufferedImage input){
-        BufferedImage output = new BufferedImage(input.getColorModel(), input.copyData(null), input.isAlphaPremultiplied(), null);
-        Graphics2D g = output.createGraphics();
-        g.setColor(colour);
-        g.setStroke(new BasicStroke(size));
-        int x1 = Math.min(startPoint.x, endPoint.x);
-        int y1 = Math.min(startPoint.y, endPoint.y);
-        int x2 = Math.max(startPoint.x, endPoint.x);
-        int y2 = Math.max(startPoint.y, endPoint.y);
-
-        if (shape.equals(I18n.getKeyString("line"))){
-            g.drawLine(startPoint.x, startPoint.y, endPoint.x, endPoint.y);
-        }
-        else if (shape.equals(I18n.getKeyString("rectangle"))){
-            if (fill){
-                g.fillRect(x1, y1, x2-x1, y2-y1);
-            }
-            else{
-                g.drawRect(x1, y1, x2-x1, y2-y1);
-            }
-        }
-        else if (shape.equals(I18n.getKeyString("oval"))){
-            if (fill){
-                g.fillOval(x1, y1, x2-x1, y2-y1);
-            }
-            else{
-                g.drawOval(x1, y1, x2-x1, y2-y1);
-            }
-        }
-        g.dispose();
-        return output;
+        return toDrawing().apply(input);
     }
 
+    /**
+     * <p>
+     * Gets the part of the image the drawing can change.
+     * </p>
+     * 
+     * @param width the width of the image to be drawn on
+     * @param height the height of the image to be drawn on
+     * @return the rectangle containing every pixel that may be drawn
+     * @see Drawing#getAffectedRegion(int, int)
+     */
+    public Rectangle getAffectedRegion(int width, int height){
+        return toDrawing().getAffectedRegion(width, height);
+    }
 
-
-
-
-        
-
+    /**
+     * <p>
+     * Gets the equivalent drawing for a copy of the image scaled by a given factor.
+     * </p>
+     *
+     * @param factor the size of the scaled image relative to the full-size one
+     * @return a new Drawing with its points and line thickness scaled
+     */
+    public ImageOperation scaled(double factor){
+        return toDrawing().scaled(factor);
+    }
 }
@@ -0,0 +1,139 @@
+package cosc202.andie;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * <p>
+ * ImageOperation to draw a line, rectangle or oval on an image.
+ * </p>
+ *
+ * <p>
+ * The shape is drawn directly onto the input image, so only the pixels it covers are
+ * written, rather than copying the whole image first. The exception is a
+ * {@link CropView}, which is copied so that the image it views is left alone.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @see Draw
+ * @version 1.0
+ */
+public class Drawing implements RegionOperation, ScalableOperation, java.io.Serializable {
+
+    /** Fixed, so that saved operations can still be read after the class changes. */
+    private static final long serialVersionUID = 6021945317466083712L;
+
+    /** The name of the shape to draw, as given by {@link I18n} for "line", "rectangle" or "oval". */
+    private String shape;
+    /** The colour to draw in. */
+    private Color colour;
+    /** Whether a rectangle or oval is filled rather than outlined. */
+    private boolean fill;
+    /** The thickness of the line, in pixels. */
+    private int size;
+    /** The point the drawing starts from. */
+    private Point startPoint;
+    /** The point the drawing ends at. */
+    private Point endPoint;
+
+    /**
+     * <p>
+     * Create a new Drawing operation.
+     * </p>
+     *
+     * @param shape The name of the shape to draw, as given by {@link I18n}.
+     * @param colour The colour to draw in.
+     * @param fill Whether a rectangle or oval is filled rather than outlined.
+     * @param size The thickness of the line, in pixels.
+     * @param startPoint The point the drawing starts from, in image coordinates.
+     * @param endPoint The point the drawing ends at.
+     */
+    public Drawing(String shape, Color colour, boolean fill, int size, Point startPoint, Point endPoint) {
+        this.shape = shape;
+        this.colour = colour;
+        this.fill = fill;
+        this.size = size;
+        this.startPoint = startPoint;
+        this.endPoint = endPoint;
+    }
+
+    /**
+     * <p>
+     * Apply the drawing to an image.
+     * </p>
+     *
+     * @param input The image to draw on, which may be changed.
+     * @return The image with the shape drawn on it.
+     */
+    public BufferedImage apply(BufferedImage input) {
+        BufferedImage output = CropView.writable(input);
+        Graphics2D g = output.createGraphics();
+        g.setColor(colour);
+        g.setStroke(new BasicStroke(size));
+        int x1 = Math.min(startPoint.x, endPoint.x);
+        int y1 = Math.min(startPoint.y, endPoint.y);
+        int x2 = Math.max(startPoint.x, endPoint.x);
+        int y2 = Math.max(startPoint.y, endPoint.y);
+
+        if (shape.equals(I18n.getKeyString("line"))) {
+            g.drawLine(startPoint.x, startPoint.y, endPoint.x, endPoint.y);
+        } else if (shape.equals(I18n.getKeyString("rectangle"))) {
+            if (fill) {
+                g.fillRect(x1, y1, x2 - x1, y2 - y1);
+            } else {
+                g.drawRect(x1, y1, x2 - x1, y2 - y1);
+            }
+        } else if (shape.equals(I18n.getKeyString("oval"))) {
+            if (fill) {
+                g.fillOval(x1, y1, x2 - x1, y2 - y1);
+            } else {
+                g.drawOval(x1, y1, x2 - x1, y2 - y1);
+            }
+        }
+        g.dispose();
+        return output;
+    }
+
+    /**
+     * <p>
+     * Gets the part of the image the drawing can change.
+     * </p>
+     *
+     * <p>
+     * This is the rectangle between the start and end points, widened by the thickness of
+     * the line on every side so that it also covers square line ends and mitred corners.
+     * </p>
+     *
+     * @param width The width of the image to be drawn on.
+     * @param height The height of the image to be drawn on.
+     * @return The rectangle containing every pixel that may be drawn.
+     */
+    public Rectangle getAffectedRegion(int width, int height) {
+        int margin = size + 1;
+        Rectangle bounds = new Rectangle(Math.min(startPoint.x, endPoint.x) - margin,
+                Math.min(startPoint.y, endPoint.y) - margin,
+                Math.abs(startPoint.x - endPoint.x) + 2 * margin + 1,
+                Math.abs(startPoint.y - endPoint.y) + 2 * margin + 1);
+        return bounds.intersection(new Rectangle(0, 0, width, height));
+    }
+
+    /**
+     * <p>
+     * Gets the equivalent drawing for a copy of the image scaled by a given factor.
+     * </p>
+     *
+     * @param factor The size of the scaled image relative to the full-size one.
+     * @return A new Drawing with its points and line thickness scaled.
+     */
+    public ImageOperation scaled(double factor) {
+        return new Drawing(shape, colour, fill, Math.max(1, (int) Math.round(size * factor)),
+                RectangleCrop.scalePoint(startPoint, factor), RectangleCrop.scalePoint(endPoint, factor));
+    }
+}
@@ -120,7 +120,7 @@ public class EditActions {
      * Action to undo an {@link ImageOperation}.
      * </p>
      * 
-     * @see EditableImage#undo()
+     * @see ImagePanel#undo()
      */
     public class UndoAction extends ImageAction {
 
@@ -152,9 +152,7 @@ public class EditActions {
          * @param e The event triggering this callback.
          */
         public void actionPerformed(ActionEvent e) {
-            target.getImage().undo();
-            target.repaint();
-            target.getParent().revalidate();
+            target.undo();
         }
     }
 
@@ -163,7 +161,7 @@ public class EditActions {
      * Action to redo an {@link ImageOperation}.
      * </p>
      * 
-     * @see EditableImage#redo()
+     * @see ImagePanel#redo()
      */   
     public class RedoAction extends ImageAction {
 
@@ -196,9 +194,7 @@ public class EditActions {
          * @param e The event triggering this callback.
          */
         public void actionPerformed(ActionEvent e) {
-            target.getImage().redo();
-            target.repaint();
-            target.getParent().revalidate();
+            target.redo();
         }
     }
 
@@ -207,7 +203,7 @@ public class EditActions {
      * Action to reapply the previous {@link ImageAction}
      * </p>
      * 
-     * @see EditableImage#repeat()
+     * @see ImagePanel#repeat()
      */
     public class RepeatAction extends ImageAction {
 
@@ -239,9 +235,7 @@ public class EditActions {
          * @param e The event triggering this callback.
          */
         public void actionPerformed(ActionEvent e) {
-            target.getImage().repeat();
-            target.repaint();
-            target.getParent().revalidate();
+            target.repeat();
         }
 
     }
@@ -300,9 +294,7 @@ public class EditActions {
                 scalePercentage = scalePercentageModel.getNumber().intValue();
             }
 
-            target.getImage().apply(new ResizeImage(scalePercentage));
-            target.repaint();
-            target.getParent().revalidate();
+            target.applyInBackground(new ResizeImage(scalePercentage));
         }
 
     }
@@ -345,9 +337,7 @@ public class EditActions {
          */
         public void actionPerformed(ActionEvent e) {
 
-            target.getImage().apply(new FlipVertical());
-            target.repaint();
-            target.getParent().revalidate();
+            target.applyInBackground(new FlipVertical());
         }
 
     }
@@ -390,9 +380,7 @@ public class EditActions {
          */
         public void actionPerformed(ActionEvent e) {
 
-            target.getImage().apply(new FlipHorizontal());
-            target.repaint();
-            target.getParent().revalidate();
+            target.applyInBackground(new FlipHorizontal());
         }
 
     }
@@ -435,9 +423,7 @@ public class EditActions {
          */
         public void actionPerformed(ActionEvent e) {
 
-            target.getImage().apply(new RotateLeft());
-            target.repaint();
-            target.getParent().revalidate();
+            target.applyInBackground(new RotateLeft());
         }
 
     }
@@ -480,9 +466,7 @@ public class EditActions {
          */
         public void actionPerformed(ActionEvent e) {
 
-            target.getImage().apply(new RotateRight());
-            target.repaint();
-            target.getParent().revalidate();
+            target.applyInBackground(new RotateRight());
         }
 
     }
@@ -525,9 +509,7 @@ public class EditActions {
          */
         public void actionPerformed(ActionEvent e) {
 
-            target.getImage().apply(new Rotate180());
-            target.repaint();
-            target.getParent().revalidate();
+            target.applyInBackground(new Rotate180());
         }
 
     }
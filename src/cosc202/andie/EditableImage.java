@@ -1,14 +1,21 @@
 package cosc202.andie;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.awt.image.ColorModel;
-import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Stack;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
 
 import javax.imageio.ImageIO;
 
@@ -25,12 +32,45 @@ import javax.imageio.ImageIO;
  * </p>
  * 
  * <p>
- * Internally the EditableImage has two {@link BufferedImage}s - the original image 
- * and the result of applying the current set of operations to it. 
+ * Internally the EditableImage has the original image, held as a {@link TiledImage} snapshot,
+ * and a {@link BufferedImage} holding the result of applying the current set of operations to it. 
  * The operations themselves are stored on a {@link Stack}, with a second {@link Stack} 
  * being used to allow undone operations to be redone.
  * </p>
  * 
+ * <p>
+ * Intermediate results part way up the operation stack are kept in a {@link CheckpointStore},
+ * so that undoing an operation only needs to replay the operations above the nearest checkpoint
+ * rather than the whole history. Recently rendered results are also kept in a {@link HistoryCache},
+ * keyed by the operations that produced them, so that undo, redo, repeat and macro replays can
+ * often skip computation altogether.
+ * </p>
+ * 
+ * <p>
+ * The checkpoints and history caches of both resolutions share one budget, which can be
+ * set in megabytes with the <code>andie.historyMB</code> system property, for example
+ * <code>-Dandie.historyMB=2048</code>, and otherwise is a quarter of the heap. How well
+ * the caches are doing is logged when an image is saved or another one is opened.
+ * </p>
+ * 
+ * <p>
+ * Flips and rotations do not move any pixels when they are applied. They are composed
+ * into a pending {@link Orientation} that the {@link ImagePanel} applies as it draws, and
+ * the pixels are only moved when something needs them: another operation, an export, or
+ * a call to {@link #getCurrentImage()}. Spinning an image around, or undoing a rotation,
+ * therefore costs nothing however large the image is.
+ * </p>
+ * 
+ * <p>
+ * Very large images, such as high-resolution scans, are edited through a downsampled proxy.
+ * The operations are applied to the proxy interactively, scaled to match by any
+ * {@link ScalableOperation}, while the operation stack keeps them in full-resolution units.
+ * The full-resolution result is only rendered when it is needed, for export or when
+ * the proxy is switched off to view the image beyond actual size. Each resolution has its
+ * own checkpoints and history cache, kept while the other one is edited, and switching
+ * renders the other resolution in the background while the image stays as it was.
+ * </p>
+ * 
  * <p> 
  * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
  * </p>
@@ -40,10 +80,23 @@ import javax.imageio.ImageIO;
  */
 class EditableImage implements java.io.Serializable{
 
-    /** The original image. This should never be altered by ANDIE. */
-    private BufferedImage original;
-    /** The current image, the result of applying ops to original. */
+    /** The serial version of earlier releases, so that the image inside the crops and drawings they saved can still be read. */
+    private static final long serialVersionUID = -7903339015154585349L;
+
+    /** The original image, at the resolution being edited. This should never be altered by ANDIE. */
+    private TiledImage original;
+    /** The original image at full resolution. */
+    private TiledImage fullOriginal;
+    /** A downsampled copy of the original image, or null if it is small enough to edit directly. */
+    private TiledImage proxyOriginal;
+    /** The size of the proxy relative to the full-resolution image. */
+    private double proxyFactor;
+    /** The resolution of original and current relative to the full-resolution image. */
+    private double resolution;
+    /** The current image, the result of applying ops to original, apart from the pending orientation. */
     private BufferedImage current;
+    /** The flips and rotations applied since current was rendered, not yet applied to its pixels. */
+    private Orientation orientation;
     /** The sequence of operations currently applied to the image. */
     private Stack<ImageOperation> ops;
     /** The sequence of operations that can be saved to a macro. */
@@ -56,6 +109,45 @@ class EditableImage implements java.io.Serializable{
     private String imageFilename;
     /** The file where the operation sequence is stored. */
     private String opsFilename;
+    /** The default number of bytes of pixel data the checkpoints and history caches may hold between them. */
+    static final long DEFAULT_HISTORY_BUDGET = Runtime.getRuntime().maxMemory() / 4;
+    /** The system property giving the history's budget in megabytes, in place of the default. */
+    static final String HISTORY_BUDGET_PROPERTY = "andie.historyMB";
+    /** Where the history cache's statistics are logged. */
+    private static final Logger LOG = Logger.getLogger(EditableImage.class.getName());
+    /** Images with more pixels than this are edited through a proxy. */
+    static final long PROXY_THRESHOLD_PIXELS = 24_000_000L;
+    /** The approximate number of pixels in a proxy. */
+    static final long PROXY_TARGET_PIXELS = 6_000_000L;
+
+    /** Rendered images part way up the operation stack, to speed up replays. */
+    private transient CheckpointStore checkpoints;
+    /** Recently rendered images, keyed by the operations that produced them. */
+    private transient HistoryCache cache;
+    /** The checkpoints of the resolution not being edited, kept for switching back to it. */
+    private transient CheckpointStore idleCheckpoints;
+    /** The history cache of the resolution not being edited, kept for switching back to it. */
+    private transient HistoryCache idleCache;
+    /** The depth up to which the operation stack is unchanged since the idle checkpoints were last used. */
+    private transient int idleValidDepth;
+    /** Whether current is the result of applying ops to original, which a macro replay breaks. */
+    private boolean currentMatchesOps;
+    /** The operation running in the background whose result has not been published yet, if any. */
+    private transient OperationWorker pending;
+    /** The operation to push onto the stack once the pending worker's result is published, or null if it is switching resolution. */
+    private transient ImageOperation pendingOp;
+    /** The resolution the pending worker is rendering the image at, if it is switching resolution. */
+    private transient double pendingResolution;
+    /** Whether the pending worker is exporting the image rather than changing it. */
+    private transient boolean pendingExport;
+    /** Whether the pending operation is being redone, so comes off the redo stack once published. */
+    private transient boolean pendingRedo;
+    /** The number of operations popped for undos the pending worker is rendering, which current still shows. */
+    private transient int pendingUndos;
+    /** The checkpoints taken by the pending worker's replay for those undos, if any. */
+    private transient Replay pendingReplay;
+    /** The part of current changed by the last edit, or null if all of it may have changed. */
+    private transient Rectangle changed;
 
     /**
      * <p>
@@ -68,13 +160,25 @@ class EditableImage implements java.io.Serializable{
      */
     public EditableImage() {
         original = null;
+        fullOriginal = null;
+        proxyOriginal = null;
+        proxyFactor = 1.0;
+        resolution = 1.0;
         current = null;
+        orientation = Orientation.IDENTITY;
         ops = new Stack<ImageOperation>();
         macroOps = new Stack<ImageOperation>();
         recording = false;
         redoOps = new Stack<ImageOperation>();
         imageFilename = null;
         opsFilename = null;
+        checkpoints = new CheckpointStore();
+        cache = new HistoryCache(0, checkpoints);
+        shareBudget(checkpoints, cache, historyBudget());
+        idleCheckpoints = new CheckpointStore();
+        idleCache = new HistoryCache(0, idleCheckpoints);
+        idleValidDepth = Integer.MAX_VALUE;
+        currentMatchesOps = true;
     }
 
     /**
@@ -88,48 +192,6 @@ class EditableImage implements java.io.Serializable{
         return current != null;
     }
 
-    /**
-     * <p>
-     * Make a 'deep' copy of a BufferedImage. 
-     * </p>
-     * 
-     * <p>
-     * Object instances in Java are accessed via references, which means that assignment does
-     * not copy an object, it merely makes another reference to the original.
-     * In order to make an independent copy, the {@code clone()} method is generally used.
-     * {@link BufferedImage} does not implement {@link Cloneable} interface, and so the 
-     * {@code clone()} method is not accessible.
-     * </p>
-     * 
-     * <p>
-     * This method makes a cloned copy of a BufferedImage.
-     * This requires knowledge of some details about the internals of the BufferedImage,
-     * but essentially comes down to making a new BufferedImage made up of copies of
-     * the internal parts of the input.
-     * </p>
-     * 
-     * <p>
-     * This code is taken from StackOverflow:
-     * <a href="https://stackoverflow.com/a/3514297">https://stackoverflow.com/a/3514297</a>
-     * in response to 
-     * <a href="https://stackoverflow.com/questions/3514158/how-do-you-clone-a-bufferedimage">https://stackoverflow.com/questions/3514158/how-do-you-clone-a-bufferedimage</a>.
-     * Code by Klark used under the CC BY-SA 2.5 license.
-     * </p>
-     * 
-     * <p>
-     * This method (only) is released under <a href="https://creativecommons.org/licenses/by-sa/2.5/">CC BY-SA 2.5</a>
-     * </p>
-     * 
-     * @param bi The BufferedImage to copy.
-     * @return A deep copy of the input.
-     */
-    private static BufferedImage deepCopy(BufferedImage bi) {
-        ColorModel cm = bi.getColorModel();
-        boolean isAlphaPremultiplied = cm.isAlphaPremultiplied();
-        WritableRaster raster = bi.copyData(null);
-        return new BufferedImage(cm, raster, isAlphaPremultiplied, null);
-    }
-    
     /**
      * <p>
      * Open an image from a file.
@@ -142,15 +204,52 @@ class EditableImage implements java.io.Serializable{
      * read the operations from <code>some/path/to/image.png.ops</code>.
      * </p>
      * 
+     * <p>
+     * If the image has more than {@link #PROXY_THRESHOLD_PIXELS} pixels, a proxy of about
+     * {@link #PROXY_TARGET_PIXELS} pixels is made and editing starts on the proxy.
+     * </p>
+     * 
      * @param filePath The file to open the image from.
      * @throws Exception If something goes wrong.
      */
     public void open(String filePath) throws Exception {
+        cancelPending();
+        if (fullOriginal != null) {
+            logCacheUsage();
+        }
         imageFilename = filePath;
         opsFilename = imageFilename + ".ops";
         File imageFile = new File(imageFilename);
-        original = ImageIO.read(imageFile);
-        current = deepCopy(original);
+        BufferedImage image = ImageIO.read(imageFile);
+        if (fullOriginal != null) {
+            fullOriginal.release();
+        }
+        if (proxyOriginal != null) {
+            proxyOriginal.release();
+        }
+        fullOriginal = TiledImage.of(image);
+        long pixels = (long) image.getWidth() * image.getHeight();
+        if (pixels > PROXY_THRESHOLD_PIXELS) {
+            proxyFactor = Math.sqrt((double) PROXY_TARGET_PIXELS / pixels);
+            proxyOriginal = TiledImage.of(downsample(image, proxyFactor));
+            original = proxyOriginal;
+            resolution = proxyFactor;
+        } else {
+            proxyFactor = 1.0;
+            proxyOriginal = null;
+            original = fullOriginal;
+            resolution = 1.0;
+        }
+        current = original.toBufferedImage();
+        orientation = Orientation.IDENTITY;
+        checkpoints.reset(original);
+        cache.clear();
+        // A cancelled switch of resolution may still be using the old idle checkpoints and cache.
+        idleCheckpoints = new CheckpointStore();
+        idleCheckpoints.reset(fullOriginal);
+        idleCache = new HistoryCache(0, idleCheckpoints);
+        idleValidDepth = Integer.MAX_VALUE;
+        shareHistoryBudget();
         
         try {
             FileInputStream fileIn = new FileInputStream(this.opsFilename);
@@ -174,6 +273,7 @@ class EditableImage implements java.io.Serializable{
             ops.clear();
             redoOps.clear();
         }
+        checkpoints.setTop(ops.size());
         this.refresh();
     }
 
@@ -197,14 +297,14 @@ class EditableImage implements java.io.Serializable{
         }
         // Write image file based on file extension
         String extension = imageFilename.substring(1+imageFilename.lastIndexOf(".")).toLowerCase();
-        ImageIO.write(original, extension, new File(imageFilename));
+        ImageIO.write(fullOriginal.toBufferedImage(), extension, new File(imageFilename));
         // Write operations file
         FileOutputStream fileOut = new FileOutputStream(this.opsFilename);
         ObjectOutputStream objOut = new ObjectOutputStream(fileOut);
         objOut.writeObject(this.ops);
         objOut.close();
         fileOut.close();
-
+        logCacheUsage();
     }
 
 
@@ -236,188 +336,1536 @@ class EditableImage implements java.io.Serializable{
      * 
      * <p>
      * Also adds the operation to the macro stack, if recording a macro.
+     * Any operation still running in the background is cancelled first.
+     * </p>
+     * 
+     * <p>
+     * An {@link OrientationOperation} is only added to the pending orientation. Any other
+     * operation first applies the pending orientation to the pixels.
      * </p>
      * 
      * @param op The operation to apply.
      */
     public void apply(ImageOperation op) {
-        current = op.apply(current);
-        ops.add(op);
-        if(recording){
-            macroOps.add(op);
+        cancelPending();
+        if (op instanceof OrientationOperation) {
+            orientation = orientation.then(((OrientationOperation) op).getOrientation());
+            push(op);
+            changed = null;
+            return;
         }
+        materialise();
+        ImageOperation scaled = atResolution(op);
+        int width = current.getWidth();
+        int height = current.getHeight();
+        long began = System.nanoTime();
+        current = scaled.apply(current);
+        long elapsed = System.nanoTime() - began;
+        push(op);
+        remember(elapsed, changedRegion(scaled, width, height, current));
     }
 
     /**
      * <p>
-     * Undo the last {@link ImageOperation} applied to the image.
+     * Apply an {@link ImageOperation} to this image on a background thread.
      * </p>
+     * 
+     * <p>
+     * The operation runs on a copy of the current image in an {@link OperationWorker}, so
+     * the interface stays responsive while it works. Once it finishes, the result replaces
+     * the current image and the operation is added to the stack exactly as {@link #apply}
+     * would, all on the event dispatch thread. Until then the image is unchanged.
+     * </p>
+     * 
+     * <p>
+     * Only one operation runs at a time. Starting another operation, or undoing, redoing,
+     * repeating or opening anything, cancels the one that is running and its result is
+     * never published.
+     * </p>
+     * 
+     * <p>
+     * Flips and rotations need no work in the background, since {@link #apply} only adds
+     * them to the pending orientation, so they are applied straight away. For any other
+     * operation the pending orientation is applied to the pixels by the worker.
+     * </p>
+     * 
+     * @param op The operation to apply.
+     * @param progress Called on the event dispatch thread with the percentage complete (ignored if null).
+     * @param whenDone Called on the event dispatch thread once the operation has finished
+     *                 or been cancelled (ignored if null).
      */
-    public void undo() {
-        redoOps.push(ops.pop());
-        refresh();
+    public void applyInBackground(ImageOperation op, IntConsumer progress, Runnable whenDone) {
+        int undone = stopPending();
+        if (op instanceof OrientationOperation) {
+            if (undone > 0) {
+                refresh();
+            }
+            apply(op);
+            finished(whenDone);
+            return;
+        }
+        pendingUndos = undone;
+        pending = new OperationWorker(this, atResolution(op), currentInput(), progress, whenDone);
+        pendingOp = op;
+        pending.execute();
     }
 
     /**
      * <p>
-     * Reapply the most recently undone {@link ImageOperation} to the image.
+     * Get a private copy of the current image for a background worker to work on.
+     * </p>
+     * 
+     * <p>
+     * Where the current image is held as a snapshot, or needs the pending orientation
+     * applied, the worker makes the copy itself. Otherwise the current image is copied
+     * straight away, since an edit may change its pixels while the worker runs. If undos
+     * are still to be rendered, the worker replays the operation stack itself.
      * </p>
+     * 
+     * @return Supplies a copy of the current image, after any pending flips and rotations.
      */
-    public void redo()  {
-        apply(redoOps.pop());
+    private Supplier<BufferedImage> currentInput() {
+        if (pendingUndos > 0) {
+            List<ImageOperation> sequence = new ArrayList<ImageOperation>(ops);
+            Map.Entry<Integer, TiledImage> base = startOf(sequence);
+            double target = resolution;
+            return () -> {
+                BufferedImage image = replay(sequence, base.getKey(), base.getValue().toBufferedImage(), target, 0, null);
+                // The operation's own progress starts again from nothing.
+                OperationWorker.reportStage(0, 1, 1);
+                return image;
+            };
+        }
+        // Snapshots are immutable, so the worker can copy one itself rather than
+        // the event dispatch thread copying the current image up front.
+        TiledImage snapshot = null;
+        if (currentMatchesOps && ops.isEmpty()) {
+            snapshot = original;
+        } else if (currentMatchesOps) {
+            Map.Entry<Integer, TiledImage> cached = cache.lookup(ops);
+            if (cached != null && cached.getKey() == ops.size()) {
+                snapshot = cached.getValue();
+            }
+        }
+        Supplier<BufferedImage> input;
+        if (snapshot != null) {
+            input = snapshot::toBufferedImage;
+        } else if (orientation != Orientation.IDENTITY) {
+            // Transforming makes a new image, so there is no need to copy current first.
+            BufferedImage unoriented = current;
+            Orientation turn = orientation;
+            input = () -> turn.transform(unoriented);
+        } else {
+            BufferedImage copy = new BufferedImage(current.getColorModel(), current.copyData(null),
+                    current.isAlphaPremultiplied(), null);
+            input = () -> copy;
+        }
+        return input;
     }
 
     /**
      * <p>
-     * Repeat the last operation applied to the image.
+     * Publish the result of an operation that ran in the background.
      * </p>
-     * */
-    public void repeat() {
-        apply(ops.peek());
+     * 
+     * <p>
+     * Called by the {@link OperationWorker} on the event dispatch thread. The result is
+     * ignored unless the worker is still the one this image is waiting on.
+     * </p>
+     * 
+     * @param worker The worker that ran the operation.
+     * @param result The image the operation produced, or null if it failed.
+     */
+    void publish(OperationWorker worker, BufferedImage result) {
+        if (pending != worker) {
+            return;
+        }
+        pending = null;
+        if (pendingReplay != null) {
+            Replay replay = pendingReplay;
+            pendingReplay = null;
+            if (result == null) {
+                // The current image still shows the operations, so put them back.
+                replay.abandon();
+                for (; pendingUndos > 0; pendingUndos--) {
+                    ops.push(redoOps.pop());
+                }
+                checkpoints.setTop(ops.size());
+                return;
+            }
+            pendingUndos = 0;
+            current = result;
+            orientation = Orientation.IDENTITY;
+            currentMatchesOps = true;
+            changed = null;
+            for (Map.Entry<Integer, TiledImage> checkpoint: replay.take()) {
+                checkpoints.adopt(checkpoint.getKey(), checkpoint.getValue());
+            }
+            cache.put(ops, current, checkpoints.nearest(ops.size()), null);
+        } else if (pendingExport) {
+            pendingExport = false;
+            if (result != null && resolution != 1.0) {
+                // Nothing can have been pushed since the export started, or it would have been cancelled.
+                idleValidDepth = Integer.MAX_VALUE;
+            }
+        } else if (pendingOp == null) {
+            if (result != null) {
+                switchResolution(result);
+            }
+        } else if (result != null) {
+            // After undos still to be rendered, the operation was applied to the whole replayed image.
+            Rectangle region = pendingUndos > 0 ? null
+                    : changedRegion(worker.getOperation(), getWidth(), getHeight(), result);
+            current = result;
+            orientation = Orientation.IDENTITY;
+            if (pendingUndos > 0) {
+                currentMatchesOps = true;
+                pendingUndos = 0;
+            }
+            if (pendingRedo) {
+                redoOps.pop();
+            }
+            push(pendingOp);
+            remember(worker.getElapsedNanos(), region);
+        } else if (pendingUndos > 0) {
+            pendingUndos = 0;
+            refresh();
+        }
+        pendingOp = null;
+        pendingRedo = false;
     }
 
     /**
      * <p>
-     * Get the current image after the operations have been applied.
+     * Check whether an operation is still running in the background.
      * </p>
      * 
-     * @return The result of applying all the current operations to the original image.
+     * @return True if an operation has been started but its result not yet published.
      */
-    public BufferedImage getCurrentImage() {
-        return current;
+    public boolean isBusy() {
+        return pending != null;
     }
 
-   /**
+    /**
      * <p>
-     * Reapply the current list of operations to the original.
+     * Check whether this image is waiting on the result of a given worker.
      * </p>
      * 
+     * @param worker The worker to check.
+     * @return True if the worker's result would be published.
+     */
+    boolean isWaitingOn(OperationWorker worker) {
+        return pending == worker;
+    }
+
+    /**
      * <p>
-     * While the latest version of the image is stored in current, this
-     * method makes a fresh copy of the original and applies the operations to it in sequence.
-     * This is useful when undoing changes to the image, or in any other case where current
-     * cannot be easily incrementally updated. 
+     * Cancel the operation running in the background, if there is one.
+     * </p>
+     * 
+     * <p>
+     * If the current image is still waiting on undos rendered in the background, they are
+     * rendered straight away instead, so that the image matches the operation stack again.
      * </p>
+     * 
+     * @return True if an operation was cancelled.
      */
-    private void refresh()  {
-        current = deepCopy(original);
-        for (ImageOperation op: ops) {
-            current = op.apply(current);
+    private boolean cancelPending() {
+        boolean cancelled = pending != null;
+        if (stopPending() > 0) {
+            refresh();
         }
+        return cancelled;
     }
 
     /**
      * <p>
-     * Open a macro from a file.
+     * Cancel the operation running in the background, if there is one, leaving any undos
+     * it was rendering for the caller to render.
      * </p>
      * 
+     * @return The number of operations undone since the current image was rendered.
+     */
+    private int stopPending() {
+        if (pending != null) {
+            pending.cancel(true);
+        }
+        pending = null;
+        pendingOp = null;
+        pendingExport = false;
+        pendingRedo = false;
+        if (pendingReplay != null) {
+            pendingReplay.abandon();
+            pendingReplay = null;
+        }
+        int undone = pendingUndos;
+        pendingUndos = 0;
+        return undone;
+    }
+
+    /**
      * <p>
-     * Opens a macro from the specified file.
+     * Push an operation whose result is now the current image onto the operation stack.
      * </p>
-     *
-     * @author Steven Simpson
-     *
-     * @param filePath The file to open the macro from.
-     * @throws Exception If something goes wrong.
+     * 
+     * <p>
+     * Also adds the operation to the macro stack, if recording a macro. The checkpoints of
+     * the resolution not being edited are left alone, as a cancelled switch of resolution
+     * may still be using them; those above the new operation are discarded by the next switch.
+     * </p>
+     * 
+     * @param op The operation that was applied.
      */
-    public void openMacro(String filePath) throws Exception {
-                       
-        try {
-            FileInputStream fileIn = new FileInputStream(filePath);
-            ObjectInputStream objIn = new ObjectInputStream(fileIn);
+    private void push(ImageOperation op) {
+        checkpoints.discardAfter(ops.size());
+        cache.trim();
+        idleValidDepth = Math.min(idleValidDepth, ops.size());
+        ops.add(op);
+        checkpoints.setTop(ops.size());
+        if(recording){
+            macroOps.add(op);
+        }
+    }
 
-            // Silence the Java compiler warning about type casting.
-            // Understanding the cause of the warning is way beyond
-            // the scope of COSC202, but if you're interested, it has
-            // to do with "type erasure" in Java: the compiler cannot
-            // produce code that fails at this point in all cases in
-            // which there is actually a type mismatch for one of the
-            // elements within the Stack, i.e., a non-ImageOperation.
-            @SuppressWarnings("unchecked")
-            Stack<ImageOperation> opsFromFile = (Stack<ImageOperation>) objIn.readObject();
-            macroOps = opsFromFile;
-            redoOps.clear();
-            objIn.close();
-            fileIn.close();
-        } catch (Exception ex) {
-            // Could be no file or something else. Carry on for now.
-            macroOps.clear();
-            redoOps.clear();
-            System.out.println("Exception" + ex);
+    /**
+     * <p>
+     * Offer the current image to the checkpoint store and history cache.
+     * </p>
+     * 
+     * @param elapsedNanos How long the last operation took to apply, in nanoseconds.
+     * @param region The region the last operation changed, or null if unknown.
+     */
+    private void remember(long elapsedNanos, Rectangle region) {
+        changed = region;
+        if (currentMatchesOps) {
+            checkpoints.record(ops.size(), current, elapsedNanos, region);
+            cache.put(ops, current, checkpoints.nearest(ops.size()), region);
         }
-        this.macroRefresh();
     }
 
     /**
      * <p>
-     * Save a macro to file.
+     * Work out which part of an image an operation changed.
      * </p>
      * 
+     * @param op The operation that was applied.
+     * @param width The width of the image it was applied to.
+     * @param height The height of the image it was applied to.
+     * @param result The image it produced.
+     * @return The changed region, or null if the operation is not a {@link RegionOperation},
+     *         changed the size of the image, or may have changed all of it.
+     */
+    private static Rectangle changedRegion(ImageOperation op, int width, int height, BufferedImage result) {
+        if (!(op instanceof RegionOperation) || result.getWidth() != width || result.getHeight() != height) {
+            return null;
+        }
+        return ((RegionOperation) op).getAffectedRegion(width, height);
+    }
+
+    /**
      * <p>
-     * Saves a macro to the filename specified.
+     * Apply an {@link ImageOperation} whose result may already be in the history cache.
      * </p>
-     *
-     * @author Steven Simpson
-     *
-     * @throws Exception If something goes wrong.
-     * @param macroFilepath The filename for the macro
+     * 
+     * <p>
+     * Redo and repeat push an operation that may have been applied to the same
+     * operation stack before, in which case the cached result is used instead of
+     * computing it again. Flips and rotations are cheaper still to apply again.
+     * </p>
+     * 
+     * @param op The operation to apply.
      */
-    public void saveMacro(String macroFilepath) throws Exception {
-        String macroName = macroFilepath + ".macro";
-        
-        // Write operations file
-        FileOutputStream fileOut = new FileOutputStream(macroName);
-        ObjectOutputStream objOut = new ObjectOutputStream(fileOut);
-        objOut.writeObject(this.macroOps);
-        objOut.close();
-        fileOut.close();
+    private void applyCached(ImageOperation op) {
+        cancelPending();
+        if (!applyFromCache(op)) {
+            apply(op);
+        }
     }
 
     /**
      * <p>
-     * Reapply the current list of operations in the macro to the original.
+     * Apply an {@link ImageOperation} if its result is already in the history cache.
      * </p>
      * 
+     * @param op The operation to apply.
+     * @return True if the cached result was used, false if the operation still needs applying.
+     */
+    private boolean applyFromCache(ImageOperation op) {
+        if (!currentMatchesOps || op instanceof OrientationOperation) {
+            return false;
+        }
+        List<ImageOperation> sequence = new ArrayList<ImageOperation>(ops);
+        sequence.add(op);
+        Map.Entry<Integer, TiledImage> cached = cache.lookup(sequence);
+        if (cached == null || cached.getKey() != sequence.size()) {
+            return false;
+        }
+        int width = getWidth();
+        int height = getHeight();
+        current = cached.getValue().toBufferedImage();
+        orientation = Orientation.IDENTITY;
+        push(op);
+        changed = changedRegion(atResolution(op), width, height, current);
+        return true;
+    }
+
+    /**
      * <p>
-     * While the latest version of the image is stored in current, this
-     * method makes a fresh copy of the original and applies the operations to it in sequence.
-     * This is useful when undoing changes to the image, or in any other case where current
-     * cannot be easily incrementally updated. 
+     * Undo the last {@link ImageOperation} applied to the image.
+     * </p>
+     * 
+     * <p>
+     * If the operation is an {@link OrientationOperation} its inverse is added to the
+     * pending orientation. If it is an {@link InvertibleOperation} its inverse is applied
+     * to the current image directly. If it is a {@link RegionOperation} and the image before it is
+     * still held as a snapshot, only the region it changed is copied back. Otherwise the
+     * operation stack is replayed.
+     * </p>
+     * 
+     * <p>
+     * If an operation is still running in the background, undo cancels it instead,
+     * since that is the most recent operation from the user's point of view. A switch of
+     * resolution running in the background is cancelled too, but is not an edit, so the
+     * last operation is still undone.
      * </p>
-     *
-     * @author Steven Simpson
      */
-    private void macroRefresh()  {
-        current = deepCopy(original);
-        for (ImageOperation op: macroOps) {
-            current = op.apply(current);
+    public void undo() {
+        if (pending != null && pendingOp != null) {
+            // Set first, since cancelling may still have to render an earlier undo.
+            changed = new Rectangle();
+            cancelPending();
+            return;
+        }
+        cancelPending();
+        if (currentMatchesOps && !(ops.peek() instanceof OrientationOperation)) {
+            // Before popping, so that the result is remembered at the right depth.
+            materialise();
+        }
+        ImageOperation op = ops.pop();
+        checkpoints.setTop(ops.size());
+        redoOps.push(op);
+        if (!undoQuickly(op)) {
+            refresh();
         }
     }
 
     /**
      * <p>
-     * Sets the flag for recording operations to the Macro stack.
+     * Undo the last {@link ImageOperation} applied to the image, replaying the operation
+     * stack on a background thread if that is needed.
      * </p>
-     *
-     * @param recording The boolean flag for recording to a macro.
-     *
-     * @author Steven Simpson
+     * 
+     * <p>
+     * Flips, rotations, invertible operations and region operations are undone straight
+     * away, as by {@link #undo()}. Otherwise the operation comes off the stack at once, but
+     * the image below it is rendered in an {@link OperationWorker}, from the nearest
+     * checkpoint or cached state, and only replaces the current image once it is ready.
+     * The checkpoints the replay passes are kept when it is published, just as
+     * {@link #undo()} keeps them.
+     * </p>
+     * 
+     * <p>
+     * Undoing again while the replay runs restarts it further down the stack, redoing puts
+     * the operation back, and an operation applied in the background starts from the
+     * replayed image. Anything else that needs the current image renders it straight away.
+     * If an operation is still running in the background, this cancels it instead, as
+     * {@link #undo()} does.
+     * </p>
+     * 
+     * @param progress Called on the event dispatch thread with the percentage complete (ignored if null).
+     * @param whenDone Called on the event dispatch thread once the undo has finished or
+     *                 been cancelled (ignored if null).
      */
-    public void setRecording(boolean recording){
-        this.recording = recording;
+    public void undoInBackground(IntConsumer progress, Runnable whenDone) {
+        if (pendingReplay != null) {
+            int undone = stopPending();
+            redoOps.push(ops.pop());
+            checkpoints.setTop(ops.size());
+            pendingUndos = undone + 1;
+            replayInBackground(progress, whenDone);
+            return;
+        }
+        if (pending != null && pendingOp != null && pendingUndos > 0) {
+            // The operation was to start from an undo that has not been published yet.
+            pendingUndos = stopPending();
+            replayInBackground(progress, whenDone);
+            return;
+        }
+        if (pending != null && pendingOp != null) {
+            undo();
+            finished(whenDone);
+            return;
+        }
+        cancelPending();
+        if (currentMatchesOps && !(ops.peek() instanceof OrientationOperation)) {
+            materialise();
+        }
+        ImageOperation op = ops.pop();
+        checkpoints.setTop(ops.size());
+        redoOps.push(op);
+        if (undoQuickly(op)) {
+            finished(whenDone);
+            return;
+        }
+        pendingUndos = 1;
+        replayInBackground(progress, whenDone);
     }
-    
+
     /**
      * <p>
-     * Gets the flag for recording operations to the Macro stack.
+     * Undo an operation without replaying the operation stack, if that can be done.
      * </p>
-     *
-     * @author Steven Simpson
-     *
-     * @return The boolean flag for recording to a macro.
+     * 
+     * @param op The operation that has just been popped off the operation stack.
+     * @return True if the operation was undone, false if the stack needs to be replayed instead.
      */
-    public boolean getRecording(){
-        return this.recording;
+    private boolean undoQuickly(ImageOperation op) {
+        if (!currentMatchesOps) {
+            return false;
+        }
+        if (op instanceof OrientationOperation) {
+            orientation = orientation.then(((OrientationOperation) op).getOrientation().inverse());
+            changed = null;
+            return true;
+        }
+        ImageOperation scaled = atResolution(op);
+        if (scaled instanceof InvertibleOperation && hasExactPixels(current)) {
+            current = ((InvertibleOperation) scaled).inverse().apply(current);
+            changed = null;
+            return true;
+        }
+        return restoreRegion(scaled);
+    }
+
+    /**
+     * <p>
+     * Render the operation stack in an {@link OperationWorker}, for undos that have taken
+     * operations off the stack since the current image was rendered.
+     * </p>
+     * 
+     * <p>
+     * The replay starts from the same place {@link #refresh()} would. Since the event
+     * dispatch thread owns the checkpoint store, the worker only takes snapshots of the
+     * images the store would keep, and they are handed over when the result is published.
+     * </p>
+     * 
+     * @param progress Called on the event dispatch thread with the percentage complete (ignored if null).
+     * @param whenDone Called on the event dispatch thread once the replay has finished or
+     *                 been cancelled (ignored if null).
+     */
+    private void replayInBackground(IntConsumer progress, Runnable whenDone) {
+        List<ImageOperation> sequence = new ArrayList<ImageOperation>(ops);
+        Map.Entry<Integer, TiledImage> base = startOf(sequence);
+        int start = base.getKey();
+        TiledImage basis = base.getValue();
+        double target = resolution;
+        int interval = checkpoints.getInterval();
+        Replay replay = new Replay(checkpoints, start, basis);
+        ImageOperation rerender = ignored -> replay(sequence, start, basis.toBufferedImage(), target, interval, replay);
+        pending = new OperationWorker(this, rerender, () -> null, progress, whenDone);
+        pendingOp = null;
+        pendingReplay = replay;
+        pending.execute();
+    }
+
+    /**
+     * <p>
+     * Find where a replay of the operation stack would start.
+     * </p>
+     * 
+     * @param sequence The operation stack.
+     * @return The number of operations already applied, and the snapshot they produced.
+     */
+    private Map.Entry<Integer, TiledImage> startOf(List<ImageOperation> sequence) {
+        Map.Entry<Integer, TiledImage> start = checkpoints.nearest(sequence.size());
+        Map.Entry<Integer, TiledImage> cached = cache.lookup(sequence);
+        if (cached != null && cached.getKey() > start.getKey()) {
+            start = cached;
+        }
+        return start;
+    }
+
+    /**
+     * <p>
+     * Call a whenDone callback for work that finished without going to the background.
+     * </p>
+     * 
+     * @param whenDone The callback (ignored if null).
+     */
+    private static void finished(Runnable whenDone) {
+        if (whenDone != null) {
+            whenDone.run();
+        }
+    }
+
+    /**
+     * <p>
+     * Undo a {@link RegionOperation} by copying back the region it changed.
+     * </p>
+     * 
+     * <p>
+     * This needs a snapshot of the image from just before the operation, either a
+     * checkpoint or a history cache entry, with the same size and layout as the current image.
+     * </p>
+     * 
+     * @param op The operation that has just been popped off the operation stack, at the current resolution.
+     * @return True if the region was restored, false if the stack needs to be replayed instead.
+     */
+    private boolean restoreRegion(ImageOperation op) {
+        if (!(op instanceof RegionOperation)) {
+            return false;
+        }
+        TiledImage previous = null;
+        Map.Entry<Integer, TiledImage> checkpoint = checkpoints.nearest(ops.size());
+        if (checkpoint.getKey() == ops.size()) {
+            previous = checkpoint.getValue();
+        } else {
+            Map.Entry<Integer, TiledImage> cached = cache.lookup(ops);
+            if (cached != null && cached.getKey() == ops.size()) {
+                previous = cached.getValue();
+            }
+        }
+        if (previous == null || previous.getWidth() != current.getWidth() || previous.getHeight() != current.getHeight()) {
+            return false;
+        }
+        Rectangle region = ((RegionOperation) op).getAffectedRegion(current.getWidth(), current.getHeight());
+        current = CropView.writable(current);
+        if (region == null || !previous.copyInto(current, region)) {
+            return false;
+        }
+        changed = region;
+        return true;
+    }
+
+    /**
+     * <p>
+     * Check whether an image stores 8 bits per channel of direct colour.
+     * </p>
+     * 
+     * <p>
+     * Only for these image types is an {@link InvertibleOperation} guaranteed to be
+     * exactly undone by its inverse; other types may round colours on every write.
+     * </p>
+     * 
+     * @param image The image to check.
+     * @return True if the image's pixels survive an inverse operation exactly.
+     */
+    static boolean hasExactPixels(BufferedImage image) {
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_BGR:
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * <p>
+     * Reapply the most recently undone {@link ImageOperation} to the image.
+     * </p>
+     */
+    public void redo()  {
+        applyCached(redoOps.pop());
+    }
+
+    /**
+     * <p>
+     * Reapply the most recently undone {@link ImageOperation} to the image, on a background
+     * thread if its result is not already in the history cache.
+     * </p>
+     * 
+     * <p>
+     * Flips, rotations and cached results are redone straight away, as by {@link #redo()}.
+     * Otherwise the operation is applied as by {@link #applyInBackground}, and only comes
+     * off the redo stack once the result is published. If an undo is still being rendered in
+     * the background, the operation it undid is simply put back.
+     * </p>
+     * 
+     * @param progress Called on the event dispatch thread with the percentage complete (ignored if null).
+     * @param whenDone Called on the event dispatch thread once the redo has finished or
+     *                 been cancelled (ignored if null).
+     */
+    public void redoInBackground(IntConsumer progress, Runnable whenDone) {
+        if (pendingReplay != null) {
+            int undone = stopPending() - 1;
+            push(redoOps.pop());
+            if (undone == 0) {
+                // The current image already shows the operation.
+                changed = new Rectangle();
+                finished(whenDone);
+            } else {
+                pendingUndos = undone;
+                replayInBackground(progress, whenDone);
+            }
+            return;
+        }
+        ImageOperation op = redoOps.peek();
+        if (pendingUndos == 0) {
+            cancelPending();
+            if (op instanceof OrientationOperation) {
+                apply(redoOps.pop());
+                finished(whenDone);
+                return;
+            }
+            if (applyFromCache(op)) {
+                redoOps.pop();
+                finished(whenDone);
+                return;
+            }
+        }
+        applyInBackground(op, progress, whenDone);
+        pendingRedo = true;
+    }
+
+    /**
+     * <p>
+     * Repeat the last operation applied to the image.
+     * </p>
+     * */
+    public void repeat() {
+        applyCached(ops.peek());
+    }
+
+    /**
+     * <p>
+     * Repeat the last operation applied to the image, on a background thread if the result
+     * is not already in the history cache.
+     * </p>
+     * 
+     * <p>
+     * As for {@link #redoInBackground}, flips, rotations and cached results are applied
+     * straight away, and anything else as by {@link #applyInBackground}.
+     * </p>
+     * 
+     * @param progress Called on the event dispatch thread with the percentage complete (ignored if null).
+     * @param whenDone Called on the event dispatch thread once the operation has finished
+     *                 or been cancelled (ignored if null).
+     */
+    public void repeatInBackground(IntConsumer progress, Runnable whenDone) {
+        ImageOperation op = ops.peek();
+        if (pendingUndos == 0) {
+            cancelPending();
+            if (applyFromCache(op)) {
+                finished(whenDone);
+                return;
+            }
+        }
+        applyInBackground(op, progress, whenDone);
+    }
+
+    /**
+     * <p>
+     * Get the current image after the operations have been applied.
+     * </p>
+     * 
+     * <p>
+     * This applies any pending flips and rotations to the pixels. To draw the image without
+     * doing so, use {@link #getUnorientedImage()} and {@link #getOrientation()}.
+     * </p>
+     * 
+     * @return The result of applying all the current operations to the original image.
+     */
+    public BufferedImage getCurrentImage() {
+        materialise();
+        return current;
+    }
+
+    /**
+     * <p>
+     * Get the current image before the pending flips and rotations.
+     * </p>
+     * 
+     * @return The current image with {@link #getOrientation()} still to be applied.
+     */
+    BufferedImage getUnorientedImage() {
+        return current;
+    }
+
+    /**
+     * <p>
+     * Get the flips and rotations applied to the image but not yet to its pixels.
+     * </p>
+     * 
+     * @return The pending orientation, {@link Orientation#IDENTITY} if there is none.
+     */
+    Orientation getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * <p>
+     * Get the width of the current image.
+     * </p>
+     * 
+     * @return The width of the current image, after any pending flips and rotations.
+     */
+    public int getWidth() {
+        return orientation.swapsAxes() ? current.getHeight() : current.getWidth();
+    }
+
+    /**
+     * <p>
+     * Get the height of the current image.
+     * </p>
+     * 
+     * @return The height of the current image, after any pending flips and rotations.
+     */
+    public int getHeight() {
+        return orientation.swapsAxes() ? current.getWidth() : current.getHeight();
+    }
+
+    /**
+     * <p>
+     * Get the width of the current image at full resolution.
+     * </p>
+     * 
+     * <p>
+     * Operations are given their sizes and positions in full-resolution units, so this,
+     * rather than {@link #getWidth()}, is the width to offer and check them against.
+     * When editing a proxy it is the proxy's width scaled back up, so it may be a pixel out.
+     * </p>
+     * 
+     * @return The width of the full-resolution image, after any pending flips and rotations.
+     */
+    public int getFullWidth() {
+        return resolution == 1.0 ? getWidth() : (int) Math.round(getWidth() / resolution);
+    }
+
+    /**
+     * <p>
+     * Get the height of the current image at full resolution.
+     * </p>
+     * 
+     * @return The height of the full-resolution image, after any pending flips and rotations.
+     * @see #getFullWidth()
+     */
+    public int getFullHeight() {
+        return resolution == 1.0 ? getHeight() : (int) Math.round(getHeight() / resolution);
+    }
+
+    /**
+     * <p>
+     * Apply the pending flips and rotations to the pixels of the current image.
+     * </p>
+     * 
+     * <p>
+     * The result is offered to the checkpoint store and history cache as if the
+     * flips and rotations had just been applied.
+     * </p>
+     */
+    private void materialise() {
+        if (orientation == Orientation.IDENTITY) {
+            return;
+        }
+        long began = System.nanoTime();
+        current = orientation.transform(current);
+        long elapsed = System.nanoTime() - began;
+        orientation = Orientation.IDENTITY;
+        Rectangle region = changed;
+        remember(elapsed, null);
+        changed = region;
+    }
+
+   /**
+     * <p>
+     * Reapply the current list of operations to the original.
+     * </p>
+     * 
+     * <p>
+     * While the latest version of the image is stored in current, this
+     * method makes a fresh copy of the original and applies the operations to it in sequence.
+     * This is useful when undoing changes to the image, or in any other case where current
+     * cannot be easily incrementally updated. 
+     * </p>
+     * 
+     * <p>
+     * Rather than always starting from the original, the replay starts from the deepest
+     * checkpoint that is still on the operation stack, and records new checkpoints on the way up.
+     * </p>
+     */
+    private void refresh()  {
+        current = render(ops, true);
+        orientation = Orientation.IDENTITY;
+        currentMatchesOps = true;
+        changed = null;
+    }
+
+    /**
+     * <p>
+     * Render the result of applying a sequence of operations to the original.
+     * </p>
+     * 
+     * <p>
+     * The replay starts from whichever is deeper of the longest prefix of the sequence
+     * in the history cache and, for the operation stack itself, the nearest checkpoint.
+     * The result is added to the history cache.
+     * </p>
+     * 
+     * <p>
+     * The operations still to be applied are first rewritten by the {@link OperationPlanner},
+     * so that runs of flips, rotations and colour adjustments take a single pass. For the
+     * operation stack, runs are never fused across a multiple of the checkpoint interval,
+     * so the regular checkpoints are still recorded on the way up.
+     * </p>
+     * 
+     * @param sequence The operations to apply to the original, in order.
+     * @param onStack Whether the sequence is the operation stack, so checkpoints apply.
+     * @return A new image holding the result of the operations.
+     */
+    private BufferedImage render(List<ImageOperation> sequence, boolean onStack) {
+        return render(sequence, onStack, original, resolution, checkpoints, cache);
+    }
+
+    /**
+     * <p>
+     * Render the result of applying a sequence of operations to the original at a given resolution.
+     * </p>
+     * 
+     * <p>
+     * This only touches the image through its arguments, so it can render the resolution
+     * that is not being edited on a background thread, given that resolution's checkpoints
+     * and history cache to use. It stops early if that thread's {@link OperationWorker} is
+     * cancelled, between operations if the operations themselves do not check, and reports
+     * each operation it applies as a stage of the worker's progress.
+     * </p>
+     * 
+     * @param sequence The operations to apply to the original, in order.
+     * @param onStack Whether the sequence is the operation stack, so checkpoints apply.
+     * @param original The original image at the resolution to render.
+     * @param resolution The resolution to render at, relative to the full-resolution image.
+     * @param checkpoints The checkpoints for that resolution.
+     * @param cache The history cache for that resolution.
+     * @return A new image holding the result of the operations.
+     */
+    private static BufferedImage render(List<ImageOperation> sequence, boolean onStack, TiledImage original,
+            double resolution, CheckpointStore checkpoints, HistoryCache cache) {
+        int start = 0;
+        TiledImage base = original;
+        Map.Entry<Integer, TiledImage> cached = cache.lookup(sequence);
+        if (cached != null) {
+            start = cached.getKey();
+            base = cached.getValue();
+        }
+        if (onStack) {
+            Map.Entry<Integer, TiledImage> checkpoint = checkpoints.nearest(sequence.size());
+            if (checkpoint.getKey() > start) {
+                start = checkpoint.getKey();
+                base = checkpoint.getValue();
+            }
+        }
+
+        BufferedImage image = replay(sequence, start, base.toBufferedImage(), resolution,
+                onStack ? checkpoints.getInterval() : 0, !onStack ? null : (depth, reached, elapsed, changed) -> {
+                    checkpoints.record(depth, reached, elapsed, changed);
+                    cache.trim();
+                });
+        if (start < sequence.size()) {
+            Map.Entry<Integer, TiledImage> fallback = onStack ? checkpoints.nearest(sequence.size())
+                    : new AbstractMap.SimpleImmutableEntry<Integer, TiledImage>(0, original);
+            cache.put(sequence, image, fallback, null);
+        }
+        return image;
+    }
+
+    /**
+     * <p>
+     * Receives each state that a replay of the operation stack passes through.
+     * </p>
+     */
+    private interface ReplayListener {
+        /**
+         * <p>
+         * Called once an operation, or a fused run of them, has been applied.
+         * </p>
+         *
+         * @param depth The number of operations now applied to the original.
+         * @param image The image at that depth, which the replay goes on to use.
+         * @param elapsedNanos How long the operation took to apply, in nanoseconds.
+         * @param changed The region the operation changed, or null if unknown.
+         */
+        void reached(int depth, BufferedImage image, long elapsedNanos, Rectangle changed);
+    }
+
+    /**
+     * <p>
+     * The checkpoints taken by a replay running in an {@link OperationWorker}.
+     * </p>
+     *
+     * <p>
+     * The worker takes a snapshot of each image the checkpoint store would keep, sharing
+     * tiles with the last one taken, and the event dispatch thread hands them over to the
+     * store once the result is published. If the replay is abandoned the snapshots are
+     * released instead, including any the worker takes before it notices it was cancelled.
+     * </p>
+     */
+    private static class Replay implements ReplayListener {
+        /** The store the snapshots are meant for, which decides which images to keep. */
+        private final CheckpointStore store;
+        /** The snapshots taken so far, keyed by depth. */
+        private final List<Map.Entry<Integer, TiledImage>> taken = new ArrayList<Map.Entry<Integer, TiledImage>>();
+        /** The depth of the last snapshot taken, or of the state the replay started from. */
+        private int basisDepth;
+        /** The last snapshot taken, or the state the replay started from, to share tiles with. */
+        private TiledImage basis;
+        /** Whether the replay has been abandoned. */
+        private boolean abandoned;
+
+        /**
+         * <p>
+         * Create a new Replay.
+         * </p>
+         *
+         * @param store The checkpoint store the snapshots are meant for.
+         * @param start The number of operations applied to the state the replay starts from.
+         * @param base The snapshot the replay starts from.
+         */
+        Replay(CheckpointStore store, int start, TiledImage base) {
+            this.store = store;
+            this.basisDepth = start;
+            this.basis = base;
+        }
+
+        @Override
+        public synchronized void reached(int depth, BufferedImage image, long elapsedNanos, Rectangle changed) {
+            if (abandoned || !store.wants(depth, image, elapsedNanos)) {
+                return;
+            }
+            TiledImage snapshot = TiledImage.of(image, basis, basisDepth == depth - 1 ? changed : null);
+            taken.add(new AbstractMap.SimpleImmutableEntry<Integer, TiledImage>(depth, snapshot));
+            basisDepth = depth;
+            basis = snapshot;
+        }
+
+        /**
+         * <p>
+         * Take the snapshots for the checkpoint store, once the replay is finished.
+         * </p>
+         *
+         * @return The snapshots taken, with their depths.
+         */
+        synchronized List<Map.Entry<Integer, TiledImage>> take() {
+            List<Map.Entry<Integer, TiledImage>> snapshots = new ArrayList<Map.Entry<Integer, TiledImage>>(taken);
+            taken.clear();
+            return snapshots;
+        }
+
+        /**
+         * <p>
+         * Release the snapshots, and any the worker takes from now on.
+         * </p>
+         */
+        synchronized void abandon() {
+            abandoned = true;
+            for (Map.Entry<Integer, TiledImage> snapshot: taken) {
+                snapshot.getValue().release();
+            }
+            taken.clear();
+        }
+    }
+
+    /**
+     * <p>
+     * Apply the operations of a sequence from a given depth onwards to the image at that depth.
+     * </p>
+     *
+     * <p>
+     * The operations are rewritten by the {@link OperationPlanner} first, but runs are never
+     * fused across a multiple of the interval, if one is given, so the listener is always
+     * told about the depths on the interval. The replay stops early if the thread's
+     * {@link OperationWorker} is cancelled, and reports each step as a stage of its progress.
+     * </p>
+     *
+     * @param sequence The operations to apply to the original, in order.
+     * @param start The number of operations already applied to the image.
+     * @param image The image at that depth, which may be changed.
+     * @param resolution The resolution to apply the operations at, relative to the full-resolution image.
+     * @param interval The checkpoint interval not to fuse across, or 0 to fuse freely.
+     * @param listener Told about each state the replay passes through (ignored if null).
+     * @return The image with the whole sequence applied.
+     */
+    private static BufferedImage replay(List<ImageOperation> sequence, int start, BufferedImage image,
+            double resolution, int interval, ReplayListener listener) {
+        int depth = start;
+        while (depth < sequence.size()) {
+            int end = sequence.size();
+            if (interval > 0) {
+                end = Math.min(end, (depth / interval + 1) * interval);
+            }
+            List<ImageOperation> scaled = new ArrayList<ImageOperation>(end - depth);
+            for (ImageOperation op: sequence.subList(depth, end)) {
+                scaled.add(atResolution(op, resolution));
+            }
+            for (ImageOperation step: OperationPlanner.plan(scaled)) {
+                OperationWorker.checkCancelled();
+                int steps = step instanceof FusedOperation ? ((FusedOperation) step).size() : 1;
+                OperationWorker.reportStage(depth - start, depth + steps - start, sequence.size() - start);
+                int width = image.getWidth();
+                int height = image.getHeight();
+                long began = System.nanoTime();
+                image = step.apply(image);
+                long elapsed = System.nanoTime() - began;
+                depth += steps;
+                if (listener != null) {
+                    listener.reached(depth, image, elapsed, changedRegion(step, width, height, image));
+                }
+            }
+        }
+        return image;
+    }
+
+    /**
+     * <p>
+     * Get the version of an operation to apply at the resolution being edited.
+     * </p>
+     * 
+     * @param op An operation in full-resolution units, as kept on the operation stack.
+     * @return The operation scaled to the proxy, or the operation itself at full resolution.
+     */
+    private ImageOperation atResolution(ImageOperation op) {
+        return atResolution(op, resolution);
+    }
+
+    /**
+     * <p>
+     * Get the version of an operation to apply at a given resolution.
+     * </p>
+     * 
+     * @param op An operation in full-resolution units, as kept on the operation stack.
+     * @param resolution The resolution to apply it at, relative to the full-resolution image.
+     * @return The operation scaled to the resolution, or the operation itself at full resolution.
+     */
+    private static ImageOperation atResolution(ImageOperation op, double resolution) {
+        if (resolution != 1.0 && op instanceof ScalableOperation) {
+            return ((ScalableOperation) op).scaled(resolution);
+        }
+        return op;
+    }
+
+    /**
+     * <p>
+     * Make a downsampled copy of an image.
+     * </p>
+     * 
+     * <p>
+     * Every source pixel is averaged into the result, weighted by how much of each new
+     * pixel it covers, by a {@link Resampler} working on bands of the image in parallel.
+     * The copy has the same type as the image, unless that type does not hold colours
+     * exactly, in which case it holds 8-bit colours as before.
+     * </p>
+     * 
+     * @param image The image to downsample.
+     * @param factor The size of the result relative to the image, less than 1.
+     * @return A new, smaller image.
+     */
+    private static BufferedImage downsample(BufferedImage image, double factor) {
+        int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * factor));
+        int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * factor));
+        if (hasExactPixels(image)) {
+            return Resampler.resize(image, targetWidth, targetHeight, Resampler.Filter.BOX);
+        }
+        int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage result = new BufferedImage(targetWidth, targetHeight, type);
+        Resampler.resize(image, result, Resampler.Filter.BOX);
+        return result;
+    }
+
+    /**
+     * <p>
+     * Switch between editing the proxy and editing the full-resolution image.
+     * </p>
+     * 
+     * <p>
+     * The current image is rendered at the new resolution on a background thread, in an
+     * {@link OperationWorker}, starting from that resolution's own checkpoints and history
+     * cache, which were kept while the other resolution was edited. Until it is published
+     * the image stays at the old resolution and can be shown and edited as before. Any
+     * edit, or switching back before it is done, cancels the switch. Images small enough
+     * to have no proxy are always edited at full resolution.
+     * </p>
+     * 
+     * <p>
+     * The event dispatch thread never touches the idle checkpoints and cache, since a
+     * cancelled worker may still be rendering into them until its current operation stops.
+     * Workers hold the lock on those checkpoints while they render, so the next switch waits for the old
+     * worker rather than losing what it had rendered.
+     * </p>
+     * 
+     * @param enabled True to edit the proxy, false to edit at full resolution.
+     * @param whenDone Called on the event dispatch thread once the switch has finished
+     *                 or been cancelled, if one was started (ignored if null).
+     * @return True if a switch was started, false if the image is at that resolution already or on its way there.
+     */
+    public boolean setProxyEnabled(boolean enabled, Runnable whenDone) {
+        double target = enabled && proxyOriginal != null ? proxyFactor : 1.0;
+        boolean switching = pending != null && pendingOp == null && !pendingExport && pendingReplay == null;
+        if (current == null || (switching && target == pendingResolution)) {
+            return false;
+        }
+        cancelPending();
+        if (target == resolution) {
+            return false;
+        }
+        List<ImageOperation> sequence = new ArrayList<ImageOperation>(currentMatchesOps ? ops : macroOps);
+        boolean onStack = currentMatchesOps;
+        TiledImage targetOriginal = enabled ? proxyOriginal : fullOriginal;
+        CheckpointStore targetCheckpoints = idleCheckpoints;
+        HistoryCache targetCache = idleCache;
+        int valid = idleValidDepth;
+        ImageOperation rerender = input -> {
+            synchronized (targetCheckpoints) {
+                targetCheckpoints.discardAfter(valid);
+                targetCheckpoints.setTop(sequence.size());
+                targetCache.trim();
+                return render(sequence, onStack, targetOriginal, target, targetCheckpoints, targetCache);
+            }
+        };
+        pending = new OperationWorker(this, rerender, () -> null, null, whenDone);
+        pendingOp = null;
+        pendingResolution = target;
+        pending.execute();
+        return true;
+    }
+
+    /**
+     * <p>
+     * Start editing at the resolution a background worker has just rendered the image at.
+     * </p>
+     * 
+     * <p>
+     * The checkpoints and history cache of the two resolutions swap places, so the old
+     * resolution's are kept for switching back.
+     * </p>
+     * 
+     * @param result The current image rendered at the new resolution.
+     */
+    private void switchResolution(BufferedImage result) {
+        CheckpointStore previousCheckpoints = checkpoints;
+        HistoryCache previousCache = cache;
+        checkpoints = idleCheckpoints;
+        cache = idleCache;
+        idleCheckpoints = previousCheckpoints;
+        idleCache = previousCache;
+        idleValidDepth = Integer.MAX_VALUE;
+        resolution = pendingResolution;
+        original = resolution == 1.0 ? fullOriginal : proxyOriginal;
+        current = result;
+        orientation = Orientation.IDENTITY;
+        changed = null;
+    }
+
+    /**
+     * <p>
+     * Get the resolution the image is being edited at.
+     * </p>
+     * 
+     * @return The size of the current image relative to the full-resolution result, 1 unless editing a proxy.
+     */
+    public double getResolution() {
+        return resolution;
+    }
+
+    /**
+     * <p>
+     * Render the current image at full resolution and export it, on a background thread.
+     * </p>
+     * 
+     * <p>
+     * When editing at full resolution the exporter is just given a copy of the current
+     * image. When editing a proxy the operations are replayed on the full-resolution
+     * original in an {@link OperationWorker}, starting from the full-resolution checkpoints
+     * and history cache kept for switching to full resolution, and the rendered states are
+     * kept there for next time. The proxy, its checkpoints and its history cache are not
+     * disturbed, and the image can be shown as before while the export runs.
+     * </p>
+     * 
+     * <p>
+     * The exporter runs on the worker thread once the image is rendered, so that writing a
+     * large file does not block the interface either. Like any operation running in the
+     * background, the export is cancelled by an edit or by switching resolution before it
+     * is done, and then the exporter is not run.
+     * </p>
+     * 
+     * @param exporter Given the full-resolution image, on the worker thread.
+     * @param progress Called on the event dispatch thread with the percentage complete (ignored if null).
+     * @param whenDone Called on the event dispatch thread once the export has finished
+     *                 or been cancelled (ignored if null).
+     */
+    public void exportInBackground(Consumer<BufferedImage> exporter, IntConsumer progress, Runnable whenDone) {
+        cancelPending();
+        ImageOperation export;
+        Supplier<BufferedImage> input;
+        if (resolution == 1.0) {
+            input = currentInput();
+            export = image -> {
+                OperationWorker.checkCancelled();
+                exporter.accept(image);
+                return image;
+            };
+        } else {
+            List<ImageOperation> sequence = new ArrayList<ImageOperation>(currentMatchesOps ? ops : macroOps);
+            boolean onStack = currentMatchesOps;
+            TiledImage source = fullOriginal;
+            CheckpointStore fullCheckpoints = idleCheckpoints;
+            HistoryCache fullCache = idleCache;
+            int valid = idleValidDepth;
+            input = () -> null;
+            export = ignored -> {
+                BufferedImage image;
+                synchronized (fullCheckpoints) {
+                    fullCheckpoints.discardAfter(valid);
+                    fullCheckpoints.setTop(sequence.size());
+                    fullCache.trim();
+                    image = render(sequence, onStack, source, 1.0, fullCheckpoints, fullCache);
+                }
+                OperationWorker.checkCancelled();
+                exporter.accept(image);
+                return image;
+            };
+        }
+        pending = new OperationWorker(this, export, input, progress, whenDone);
+        pendingOp = null;
+        pendingExport = true;
+        pending.execute();
+    }
+
+    /**
+     * <p>
+     * Open a macro from a file.
+     * </p>
+     * 
+     * <p>
+     * Opens a macro from the specified file.
+     * </p>
+     *
+     * @author Steven Simpson
+     *
+     * @param filePath The file to open the macro from.
+     * @throws Exception If something goes wrong.
+     */
+    public void openMacro(String filePath) throws Exception {
+        cancelPending();
+                       
+        try {
+            FileInputStream fileIn = new FileInputStream(filePath);
+            ObjectInputStream objIn = new ObjectInputStream(fileIn);
+
+            // Silence the Java compiler warning about type casting.
+            // Understanding the cause of the warning is way beyond
+            // the scope of COSC202, but if you're interested, it has
+            // to do with "type erasure" in Java: the compiler cannot
+            // produce code that fails at this point in all cases in
+            // which there is actually a type mismatch for one of the
+            // elements within the Stack, i.e., a non-ImageOperation.
+            @SuppressWarnings("unchecked")
+            Stack<ImageOperation> opsFromFile = (Stack<ImageOperation>) objIn.readObject();
+            macroOps = opsFromFile;
+            redoOps.clear();
+            objIn.close();
+            fileIn.close();
+        } catch (Exception ex) {
+            // Could be no file or something else. Carry on for now.
+            macroOps.clear();
+            redoOps.clear();
+            System.out.println("Exception" + ex);
+        }
+        this.macroRefresh();
+    }
+
+    /**
+     * <p>
+     * Save a macro to file.
+     * </p>
+     * 
+     * <p>
+     * Saves a macro to the filename specified.
+     * </p>
+     *
+     * @author Steven Simpson
+     *
+     * @throws Exception If something goes wrong.
+     * @param macroFilepath The filename for the macro
+     */
+    public void saveMacro(String macroFilepath) throws Exception {
+        String macroName = macroFilepath + ".macro";
+        
+        // Write operations file
+        FileOutputStream fileOut = new FileOutputStream(macroName);
+        ObjectOutputStream objOut = new ObjectOutputStream(fileOut);
+        objOut.writeObject(this.macroOps);
+        objOut.close();
+        fileOut.close();
+    }
+
+    /**
+     * <p>
+     * Reapply the current list of operations in the macro to the original.
+     * </p>
+     * 
+     * <p>
+     * While the latest version of the image is stored in current, this
+     * method makes a fresh copy of the original and applies the operations to it in sequence.
+     * This is useful when undoing changes to the image, or in any other case where current
+     * cannot be easily incrementally updated. 
+     * </p>
+     *
+     * @author Steven Simpson
+     */
+    private void macroRefresh()  {
+        current = render(macroOps, false);
+        orientation = Orientation.IDENTITY;
+        currentMatchesOps = false;
+        changed = null;
+    }
+
+    /**
+     * <p>
+     * Sets the flag for recording operations to the Macro stack.
+     * </p>
+     *
+     * @param recording The boolean flag for recording to a macro.
+     *
+     * @author Steven Simpson
+     */
+    public void setRecording(boolean recording){
+        this.recording = recording;
+    }
+    
+    /**
+     * <p>
+     * Gets the flag for recording operations to the Macro stack.
+     * </p>
+     *
+     * @author Steven Simpson
+     *
+     * @return The boolean flag for recording to a macro.
+     */
+    public boolean getRecording(){
+        return this.recording;
+    }
+
+    /**
+     * <p>
+     * Get the history's budget.
+     * </p>
+     *
+     * <p>
+     * This is the number of megabytes given by the {@value #HISTORY_BUDGET_PROPERTY} system
+     * property, or {@link #DEFAULT_HISTORY_BUDGET} if it is not set or not a number of at
+     * least zero.
+     * </p>
+     *
+     * @return The number of bytes of pixel data the checkpoints and history caches of both resolutions may hold between them.
+     */
+    static long historyBudget() {
+        Long megabytes = Long.getLong(HISTORY_BUDGET_PROPERTY);
+        if (megabytes == null || megabytes < 0) {
+            return DEFAULT_HISTORY_BUDGET;
+        }
+        return megabytes * 1048576;
+    }
+
+    /**
+     * <p>
+     * Divide the history's budget between the two resolutions.
+     * </p>
+     *
+     * <p>
+     * Each resolution's share is in proportion to the number of pixels in its original, so
+     * an image with no proxy gives the whole budget to full resolution. Only the current
+     * checkpoints and cache and freshly made idle ones may be given a share, since a
+     * cancelled worker may still be using older idle ones.
+     * </p>
+     */
+    private void shareHistoryBudget() {
+        long budget = historyBudget();
+        double editing = (double) original.getWidth() * original.getHeight();
+        double idle = 0;
+        if (proxyOriginal != null) {
+            TiledImage other = original == fullOriginal ? proxyOriginal : fullOriginal;
+            idle = (double) other.getWidth() * other.getHeight();
+        }
+        long share = (long) (budget * (editing / (editing + idle)));
+        shareBudget(checkpoints, cache, share);
+        shareBudget(idleCheckpoints, idleCache, budget - share);
+    }
+
+    /**
+     * <p>
+     * Give one resolution's checkpoints and history cache their share of the budget.
+     * </p>
+     *
+     * <p>
+     * The cache's budget covers the checkpoints' tiles as well as its own. The checkpoints
+     * may only use half of it, so that the cache can always get back within the budget by
+     * evicting its own entries.
+     * </p>
+     *
+     * @param checkpoints The checkpoints of the resolution.
+     * @param cache The history cache of the resolution, sharing its budget with those checkpoints.
+     * @param budget The number of bytes they may hold between them.
+     */
+    private static void shareBudget(CheckpointStore checkpoints, HistoryCache cache, long budget) {
+        checkpoints.setBudget(budget / 2);
+        cache.setBudget(budget);
+    }
+
+    /**
+     * <p>
+     * Log how well the history caches have done for the image, for sizing their budget.
+     * </p>
+     */
+    private void logCacheUsage() {
+        LOG.info(imageFilename + ": " + cache);
+        if (proxyOriginal != null) {
+            LOG.info(imageFilename + " (" + (resolution == 1.0 ? "proxy" : "full resolution") + "): " + idleCache);
+        }
+    }
+
+    /**
+     * <p>
+     * Gets the checkpoints of the resolution being edited.
+     * </p>
+     *
+     * @return The checkpoint store for this image.
+     */
+    CheckpointStore getCheckpoints(){
+        return this.checkpoints;
+    }
+
+    /**
+     * <p>
+     * Gets the cache of rendered history states.
+     * </p>
+     * 
+     * <p>
+     * The cache reports its hit rate and the number of bytes it holds, and its
+     * budget can be changed to suit the memory available.
+     * </p>
+     *
+     * @return The history cache for this image.
+     */
+    HistoryCache getHistoryCache(){
+        return this.cache;
+    }
+
+    /**
+     * <p>
+     * Gets the part of the current image changed by the most recent edit.
+     * </p>
+     * 
+     * <p>
+     * Only the pixels in this region differ from the image before the last apply, undo,
+     * redo or repeat, so only that part of the display needs to be repainted.
+     * </p>
+     *
+     * @return The changed region, or null if the whole image may have changed.
+     */
+    Rectangle getChangedRegion(){
+        return this.changed;
     }
     
 }
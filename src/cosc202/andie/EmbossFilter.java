@@ -1,8 +1,6 @@
 package cosc202.andie;
 
 import java.awt.image.BufferedImage;
-import java.awt.image.ConvolveOp;
-import java.awt.image.Kernel;
 
 /**
  * <p>
@@ -19,12 +17,15 @@ import java.awt.image.Kernel;
  * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
  * </p>
  * 
- * @see java.awt.image.ConvolveOp
+ * @see Convolution
  * @author Neil Flores
  * @version 1.0
  */
 public class EmbossFilter implements ImageOperation, java.io.Serializable {
 
+    /** The serial version of earlier releases, so that operations they saved can still be read. */
+    private static final long serialVersionUID = -1826932939184094853L;
+
     private final float[] kernel;
 
     /**
@@ -43,17 +44,18 @@ public class EmbossFilter implements ImageOperation, java.io.Serializable {
      * Apply emboss filter to an image.
      * </p>
      * 
+     * <p>
+     * The kernel's response can be negative as well as positive, so it is offset to
+     * mid grey: flat areas come out grey, with edges lighter or darker depending on
+     * which way they face. The alpha channel is left as it was.
+     * </p>
      *
      * @param input The image to be embossed
      * @return The resulting embossed image.
      */
     @Override
     public BufferedImage apply(BufferedImage input) {
-        Kernel embossKernel = new Kernel(3, 3, kernel);
-        ConvolveOp convolveOp = new ConvolveOp(embossKernel);
-        BufferedImage output = new BufferedImage(input.getWidth(), input.getHeight(), input.getType());
-        convolveOp.filter(input, output);
-        return output;
+        return new Convolution(3, 3, kernel, Convolution.Border.CLAMP, 128).apply(input);
     }
 
     /**
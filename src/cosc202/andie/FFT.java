@@ -0,0 +1,180 @@
+package cosc202.andie;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * A fast Fourier transform of a fixed power-of-two size.
+ * </p>
+ *
+ * <p>
+ * This is the iterative radix-2 Cooley-Tukey algorithm. Everything that depends only on
+ * the size, the table of twiddle factors and the bit-reversal permutation, is worked out
+ * once when the transform is made, and transforms are kept for reuse by size, so
+ * filters applied again and again, such as when replaying the operations on an image,
+ * do not rebuild them. A transform holds no other state and may be used by several
+ * threads at once.
+ * </p>
+ *
+ * <p>
+ * Complex values are held as separate arrays of real and imaginary parts. Neither the
+ * forward nor the inverse transform is scaled, so applying both multiplies the data by
+ * the size, once for each dimension.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @see Convolution
+ * @version 1.0
+ */
+final class FFT {
+
+    /** The transforms made so far, by size. */
+    private static final Map<Integer, FFT> PLANS = new ConcurrentHashMap<Integer, FFT>();
+
+    /** The number of points transformed. */
+    private final int size;
+    /** The index each point is swapped with before the butterflies. */
+    private final int[] reversed;
+    /** The cosines of the twiddle factors, cos(2 pi k / size) for k up to size / 2. */
+    private final double[] cos;
+    /** The sines of the twiddle factors. */
+    private final double[] sin;
+
+    /**
+     * <p>
+     * Create a transform, working out its tables.
+     * </p>
+     *
+     * @param size The number of points, a power of two.
+     */
+    private FFT(int size) {
+        this.size = size;
+        this.reversed = new int[size];
+        int bits = Integer.numberOfTrailingZeros(size);
+        for (int i = 0; i < size; i++) {
+            reversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+        this.cos = new double[size / 2];
+        this.sin = new double[size / 2];
+        for (int k = 0; k < size / 2; k++) {
+            double angle = 2 * Math.PI * k / size;
+            cos[k] = Math.cos(angle);
+            sin[k] = Math.sin(angle);
+        }
+    }
+
+    /**
+     * <p>
+     * Get the transform of a given size.
+     * </p>
+     *
+     * @param size The number of points, a power of two.
+     * @return The transform, shared with any other user of the same size.
+     * @throws IllegalArgumentException If the size is not a power of two.
+     */
+    static FFT of(int size) {
+        if (size < 1 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two: " + size);
+        }
+        return PLANS.computeIfAbsent(size, FFT::new);
+    }
+
+    /**
+     * <p>
+     * Get the number of points transformed.
+     * </p>
+     *
+     * @return The size of the transform.
+     */
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * <p>
+     * Transform a run of consecutive points in place.
+     * </p>
+     *
+     * @param re The real parts.
+     * @param im The imaginary parts.
+     * @param start The index of the first point.
+     * @param inverse Whether to make the inverse transform rather than the forward one.
+     */
+    void transform(double[] re, double[] im, int start, boolean inverse) {
+        for (int i = 0; i < size; i++) {
+            int j = reversed[i];
+            if (j > i) {
+                double t = re[start + i];
+                re[start + i] = re[start + j];
+                re[start + j] = t;
+                t = im[start + i];
+                im[start + i] = im[start + j];
+                im[start + j] = t;
+            }
+        }
+        double sign = inverse ? 1 : -1;
+        for (int half = 1, step = size / 2; half < size; half *= 2, step /= 2) {
+            for (int k = 0; k < half; k++) {
+                double wr = cos[k * step];
+                double wi = sign * sin[k * step];
+                for (int a = start + k; a < start + size; a += 2 * half) {
+                    int b = a + half;
+                    double tr = wr * re[b] - wi * im[b];
+                    double ti = wr * im[b] + wi * re[b];
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Transform a square of size by size points in place, row by row and then column by
+     * column, or the other way round for the inverse.
+     * </p>
+     *
+     * <p>
+     * Rows known to be zero are skipped, since their transforms are zero too: only the
+     * first rows are transformed forwards, and only the rows wanted are transformed back.
+     * </p>
+     *
+     * @param re The real parts, row by row.
+     * @param im The imaginary parts, row by row.
+     * @param firstRow The first row that is non-zero, for the forward transform, or wanted,
+     *        for the inverse.
+     * @param rows The number of such rows.
+     * @param inverse Whether to make the inverse transform rather than the forward one.
+     */
+    void transform2D(double[] re, double[] im, int firstRow, int rows, boolean inverse) {
+        if (!inverse) {
+            for (int y = firstRow; y < firstRow + rows; y++) {
+                transform(re, im, y * size, false);
+            }
+        }
+        double[] columnRe = new double[size];
+        double[] columnIm = new double[size];
+        for (int x = 0; x < size; x++) {
+            for (int y = 0, i = x; y < size; y++, i += size) {
+                columnRe[y] = re[i];
+                columnIm[y] = im[i];
+            }
+            transform(columnRe, columnIm, 0, inverse);
+            for (int y = 0, i = x; y < size; y++, i += size) {
+                re[i] = columnRe[y];
+                im[i] = columnIm[y];
+            }
+        }
+        if (inverse) {
+            for (int y = firstRow; y < firstRow + rows; y++) {
+                transform(re, im, y * size, true);
+            }
+        }
+    }
+}
@@ -4,8 +4,8 @@ import java.util.*;
 import java.awt.event.*;
 import javax.swing.*;
 
-import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
 import javax.imageio.ImageIO;
 
 /**
@@ -131,7 +131,7 @@ public class FileActions {
          */
         public void actionPerformed(ActionEvent e) {
             //Added dialog box for saving prior to opening a new image
-            if (target.getImage().getCurrentImage() != null) {
+            if (target.getImage().hasImage()) {
 
                 int dialogButton = JOptionPane.YES_NO_OPTION;
                 int dialogOption = JOptionPane.showConfirmDialog(null, I18n.getKeyString("saveCurrEdits"), I18n.getKeyString("confirmCloseCurrImage"), dialogButton);
@@ -353,10 +353,16 @@ public class FileActions {
     
             if (result == JFileChooser.APPROVE_OPTION) {//if user clicks save than export in try block
                 try {
-                    String imageFilepath = fileChooser.getSelectedFile().getCanonicalPath(); // retrieves the selected file's path and gets the current image from the target (an ImagePanel).
-                    BufferedImage image = target.getImage().getCurrentImage(); 
+                    String imageFilepath = fileChooser.getSelectedFile().getCanonicalPath(); // retrieves the selected file's path.
                     File outputFile = new File(imageFilepath + ".png"); //  creates a File object representing the output file, appending ".png" to the file path to ensure that the image is exported as a PNG file.
-                    ImageIO.write(image, "png", outputFile); //writes the image data to the output file using ImageIO.write, exporting it as a PNG file.
+                    // The full-resolution image is rendered and written in the background, so large images do not freeze the interface.
+                    target.exportInBackground(image -> {
+                        try {
+                            ImageIO.write(image, "png", outputFile); //writes the image data to the output file using ImageIO.write, exporting it as a PNG file.
+                        } catch (IOException ex) {
+                            ex.printStackTrace(); // catches the exception and prints the stack trace for debugging purposes. 
+                        }
+                    });
                 } catch (Exception ex) {
                     ex.printStackTrace(); // catches the exception and prints the stack trace for debugging purposes. 
                 }
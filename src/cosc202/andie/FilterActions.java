@@ -7,6 +7,7 @@ import java.util.ArrayList;
 import javax.swing.Action;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
+import javax.swing.JComboBox;
 import javax.swing.JMenu;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
@@ -60,6 +61,7 @@ public class FilterActions {
         // Sobel filter actions
         actions.add(new SobelFilterAction(I18n.getKeyString("sobelHorizontal"), null, I18n.getKeyString("sobelHorizontalDesc"), Integer.valueOf(KeyEvent.VK_H), true));
         actions.add(new SobelFilterAction(I18n.getKeyString("sobelVertical"), null, I18n.getKeyString("sobelVerticalDesc"), Integer.valueOf(KeyEvent.VK_V), false));
+        actions.add(new GradientFilterAction(I18n.getKeyString("sobelGradient"), null, I18n.getKeyString("sobelGradientDesc"), Integer.valueOf(KeyEvent.VK_G)));
 
         // emboss filter actions
         actions.add(new EmbossFilterAction(I18n.getKeyString("embossNorth"), null, I18n.getKeyString("embossNorthDesc"), KeyEvent.VK_1, new float[]{0, 0, 0, 1, 0, -1, 0, 0, 0}));
@@ -181,9 +183,7 @@ public class FilterActions {
             }
 
             // Create and apply the filter
-            target.getImage().apply(new MeanFilter(radius));
-            target.repaint();
-            target.getParent().revalidate();
+            target.applyInBackground(new MeanFilter(radius));
         }
 
     }
@@ -228,9 +228,7 @@ public class FilterActions {
          */
         public void actionPerformed(ActionEvent e) { 
             // Create and apply the filter 
-            target.getImage().apply(new SoftBlur()); 
-            target.repaint(); 
-            target.getParent().revalidate(); 
+            target.applyInBackground(new SoftBlur());
         } 
     }
 
@@ -271,9 +269,7 @@ public class FilterActions {
          * @param e The event triggering this callback.
          */
         public void actionPerformed(ActionEvent e){
-            target.getImage().apply(new SharpenFilter());
-            target.repaint();
-            target.getParent().revalidate();
+            target.applyInBackground(new SharpenFilter());
         }
 
     }
@@ -332,9 +328,7 @@ public class FilterActions {
             }
 
             // Create and apply the filter
-            target.getImage().apply(new GaussianFilter(radius));
-            target.repaint();
-            target.getParent().revalidate();
+            target.applyInBackground(new GaussianFilter(radius));
         }
 
     }
@@ -412,9 +406,7 @@ public class FilterActions {
             }
 
             // Create and apply the filter
-            target.getImage().apply(new MedianFilter(radius));
-            target.repaint();
-            target.getParent().revalidate();
+            target.applyInBackground(new MedianFilter(radius));
         }
 
     }
@@ -459,9 +451,7 @@ public class FilterActions {
          * @param e The event triggering this callback.
          */
         public void actionPerformed(ActionEvent e) {
-            target.getImage().apply(new EmbossFilter(kernel));
-            target.repaint();
-            target.getParent().revalidate();
+            target.applyInBackground(new EmbossFilter(kernel));
         }
     }
 
@@ -507,12 +497,59 @@ public class FilterActions {
         public void actionPerformed(ActionEvent e) {
             // Create and apply the Sobel filter
             if (isHorizontal) {
-                target.getImage().apply(new SobelFilter(true)); 
+                target.applyInBackground(new SobelFilter(true)); 
             } else {
-                target.getImage().apply(new SobelFilter(false)); 
+                target.applyInBackground(new SobelFilter(false)); 
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Action to show the Sobel gradient of the image.
+     * </p>
+     * 
+     * @see GradientFilter
+     */
+    public class GradientFilterAction extends ImageAction {
+
+        /**
+         * <p>
+         * Create a new gradient-filter action.
+         * </p>
+         * 
+         * @param name The name of the action (ignored if null).
+         * @param icon An icon to use to represent the action (ignored if null).
+         * @param desc A brief description of the action  (ignored if null).
+         * @param mnemonic A mnemonic key to use as a shortcut  (ignored if null).
+         */
+        GradientFilterAction(String name, ImageIcon icon, String desc, Integer mnemonic) {
+            super(name, icon, desc, mnemonic);
+            if(mnemonic != null)  putValue(ACCELERATOR_KEY, KeyStroke.getKeyStroke(mnemonic, KeyEvent.CTRL_DOWN_MASK + KeyEvent.SHIFT_DOWN_MASK));
+        }
+
+        /**
+         * <p>
+         * Callback for when the gradient filter action is triggered.
+         * </p>
+         * 
+         * <p>
+         * This method is called whenever the GradientFilterAction is triggered.
+         * It asks what to show of the gradient, then applies the filter.
+         * </p>
+         * 
+         * @param e The event triggering this callback.
+         */
+        public void actionPerformed(ActionEvent e) {
+            String[] outputOptions = {I18n.getKeyString("gradientMagnitude"), I18n.getKeyString("gradientOrientation"), I18n.getKeyString("gradientSigned")};
+            JComboBox<String> outputBox = new JComboBox<String>(outputOptions);
+
+            int option = JOptionPane.showOptionDialog(null, outputBox, I18n.getKeyString("gradientOutput"), JOptionPane.OK_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE, null, null, null);
+
+            if (option == JOptionPane.OK_OPTION) {
+                GradientFilter.Output output = GradientFilter.Output.values()[outputBox.getSelectedIndex()];
+                target.applyInBackground(new GradientFilter(output));
             }
-            target.repaint();
-            target.getParent().revalidate();
         }
     }
 
@@ -570,9 +607,7 @@ public class FilterActions {
             }
 
             // Create and apply the filter
-            target.getImage().apply(new RandomScatter(radius));
-            target.repaint();
-            target.getParent().revalidate();
+            target.applyInBackground(new RandomScatter(radius));
         }
     }
 
@@ -616,8 +651,8 @@ public class FilterActions {
             int blockSizeX = 0;
             int blockSizeY = 0;
 
-            int width = target.getImage().getCurrentImage().getWidth();
-            int height = target.getImage().getCurrentImage().getHeight();
+            int width = target.getImage().getFullWidth();
+            int height = target.getImage().getFullHeight();
 
             SpinnerNumberModel blockModelX = new SpinnerNumberModel(1, 1, width, 1);
             SpinnerNumberModel blockModelY = new SpinnerNumberModel(1, 1, height, 1);
@@ -640,13 +675,11 @@ public class FilterActions {
                 blockSizeX = blockModelX.getNumber().intValue();
                 blockSizeY = blockModelY.getNumber().intValue();
 
-                if(target.getImage().getCurrentImage().getWidth()% blockSizeX != 0 || target.getImage().getCurrentImage().getHeight() % blockSizeX  != 0){
+                if(target.getImage().getFullWidth()% blockSizeX != 0 || target.getImage().getFullHeight() % blockSizeX  != 0){
                     JOptionPane.showMessageDialog(null, I18n.getKeyString("badBlock"));
                 } 
 
-                target.getImage().apply(new BlockAveraging(blockSizeX, blockSizeY));
-                target.repaint();
-                target.getParent().revalidate();
+                target.applyInBackground(new BlockAveraging(blockSizeX, blockSizeY));
             }
         }
     }
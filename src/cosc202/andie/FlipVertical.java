@@ -12,7 +12,10 @@ import java.awt.image.BufferedImage;
  * @author Steven Simpson
  * 
  */
-public class FlipVertical implements ImageOperation, java.io.Serializable  {
+public class FlipVertical implements InvertibleOperation, OrientationOperation, java.io.Serializable  {
+
+    /** The serial version of earlier releases, so that operations they saved can still be read. */
+    private static final long serialVersionUID = -9049903325740405587L;
 
     /**
      * <p>
@@ -32,18 +35,29 @@ public class FlipVertical implements ImageOperation, java.io.Serializable  {
      * @return The flipped image.
      */
     public BufferedImage apply(BufferedImage input){
+        return getOrientation().transform(input);
+    }
 
-        BufferedImage outputImage = new BufferedImage(input.getWidth(), input.getHeight(), BufferedImage.TYPE_INT_ARGB);
-        
-        for(int x = 0; x < input.getWidth(); x++){
-            for(int y = 0; y < input.getHeight(); y++){
-                int rgb = input.getRGB(x, y);
-                outputImage.setRGB(x, input.getHeight()-1-y, rgb);
-            }
-        }
-        return outputImage; 
-
+    /**
+     * <p>
+     * Get the operation that undoes this one.
+     * </p>
+     * 
+     * @return This operation, since flipping twice gives back the original.
+     */
+    public ImageOperation inverse() {
+        return this;
     }
 
+    /**
+     * <p>
+     * Get the orientation this operation applies.
+     * </p>
+     * 
+     * @return {@link Orientation#FLIP_VERTICAL}.
+     */
+    public Orientation getOrientation() {
+        return Orientation.FLIP_VERTICAL;
+    }
 
 }
\ No newline at end of file
@@ -125,9 +125,7 @@ public class FunActions {
          * @param e The event triggering this callback.
          */
         public void actionPerformed(ActionEvent e) {
-            target.getImage().apply(new RandomNoise());
-            target.repaint();
-            target.getParent().revalidate();
+            target.applyInBackground(new RandomNoise());
         }
 
     }
@@ -178,13 +176,13 @@ public class FunActions {
     
                 switch (filter) {
                     case 1:
-                        int wid = rand.nextInt(target.getImage().getCurrentImage().getWidth());
-                        int hei = rand.nextInt(target.getImage().getCurrentImage().getHeight());
+                        int wid = rand.nextInt(target.getImage().getFullWidth());
+                        int hei = rand.nextInt(target.getImage().getFullHeight());
                         Point s = new Point(wid, hei);
-                        wid = rand.nextInt(0-target.getImage().getCurrentImage().getWidth());
-                        hei = rand.nextInt(0-target.getImage().getCurrentImage().getHeight());
+                        wid = rand.nextInt(0-target.getImage().getFullWidth());
+                        hei = rand.nextInt(0-target.getImage().getFullHeight());
                         Point t = new Point(wid, hei);
-                        target.getImage().apply(new Crop(s, t));
+                        target.getImage().apply(new RectangleCrop(s, t));
                     case 2:
                         target.getImage().apply(new FlipVertical());
                     case 3:
@@ -212,7 +210,7 @@ public class FunActions {
                     case 14:
                         target.getImage().apply(new RandomScatter(rand.nextInt(0-10)));
                     case 15:
-                        target.getImage().apply(new BlockAveraging(rand.nextInt(1-target.getImage().getCurrentImage().getHeight()), 1-target.getImage().getCurrentImage().getWidth()));
+                        target.getImage().apply(new BlockAveraging(rand.nextInt(1-target.getImage().getFullHeight()), 1-target.getImage().getFullWidth()));
                     case 16:
                         target.getImage().apply(new ConvertToGrey());
                     case 17:
@@ -226,13 +224,13 @@ public class FunActions {
                     case 21:
                         target.getImage().apply(new RandomNoise());
                     case 22:
-                        int widt = rand.nextInt(target.getImage().getCurrentImage().getWidth());
-                        int heig = rand.nextInt(target.getImage().getCurrentImage().getHeight());
+                        int widt = rand.nextInt(target.getImage().getFullWidth());
+                        int heig = rand.nextInt(target.getImage().getFullHeight());
                         Point v = new Point(widt, heig);
-                        widt = rand.nextInt(target.getImage().getCurrentImage().getWidth());
-                        heig = rand.nextInt(target.getImage().getCurrentImage().getHeight());
+                        widt = rand.nextInt(target.getImage().getFullWidth());
+                        heig = rand.nextInt(target.getImage().getFullHeight());
                         Point w = new Point(widt, heig);
-                        target.getImage().apply(new OvalCrop(v, w));
+                        target.getImage().apply(ShapeCrop.oval(v, w));
                 }
                 try {
                     Thread.sleep(500); // Delay for half a second (500 milliseconds)
@@ -0,0 +1,167 @@
+package cosc202.andie;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * A run of flips, rotations and per-pixel colour operations applied as a single operation.
+ * </p>
+ *
+ * <p>
+ * Created by the {@link OperationPlanner}. All the {@link OrientationOperation}s in the run
+ * are combined into one {@link Orientation}, and all the {@link PixelOperation}s into one
+ * chain of pixel functions, so the whole run costs at most one transform and one pass over
+ * the image. The two can be separated because moving a pixel never changes its colour, and
+ * changing a pixel's colour never depends on where it is. Within the chain, neighbouring
+ * {@link ColourMatrixOperation}s are multiplied into a single {@link ColourMatrix} and
+ * neighbouring {@link LookupOperation}s composed into a single {@link LookupTable}, wherever
+ * that gives exactly the same result.
+ * </p>
+ *
+ * <p>
+ * The combined result is only guaranteed to match applying the operations one at a time on
+ * images that store 8 bits per channel of direct colour, because other image types may round
+ * colours every time a pixel is written. On any other image the operations are simply
+ * applied in order.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @version 1.0
+ */
+class FusedOperation implements ImageOperation {
+
+    /** The operations this one replaces, in order. */
+    private final List<ImageOperation> steps;
+    /** The combined orientation of the run, or null if it has no flips or rotations. */
+    private final Orientation orientation;
+    /** The per-pixel colour operations of the run, in order, with matrices and lookup tables combined. */
+    private final PixelOperation[] pixelOps;
+
+    /**
+     * <p>
+     * Create a new FusedOperation.
+     * </p>
+     *
+     * @param steps The operations to fuse, each either an {@link OrientationOperation} or a {@link PixelOperation}.
+     */
+    FusedOperation(List<ImageOperation> steps) {
+        this.steps = List.copyOf(steps);
+        Orientation combined = null;
+        for (ImageOperation op: steps) {
+            if (op instanceof OrientationOperation) {
+                Orientation next = ((OrientationOperation) op).getOrientation();
+                combined = combined == null ? next : combined.then(next);
+            }
+        }
+        this.orientation = combined;
+
+        List<PixelOperation> pixels = new ArrayList<PixelOperation>();
+        for (ImageOperation op: steps) {
+            if (op instanceof PixelOperation) {
+                addPixelOperation(pixels, (PixelOperation) op);
+            }
+        }
+        this.pixelOps = pixels.toArray(new PixelOperation[0]);
+    }
+
+    /**
+     * <p>
+     * Add a per-pixel colour operation to the end of a chain, combining it with the last
+     * one where they can be combined exactly.
+     * </p>
+     *
+     * <p>
+     * A {@link ColourMatrixOperation} is multiplied into a {@link ColourMatrix} before it
+     * where {@link ColourMatrix#then} allows, and a {@link LookupOperation} is composed
+     * with a {@link LookupTable} before it, or with a matrix that changes each channel
+     * on its own. Otherwise the operation's matrix or table, or the operation itself,
+     * starts a new link of the chain.
+     * </p>
+     *
+     * @param pixels The chain so far.
+     * @param op The operation to add.
+     */
+    private static void addPixelOperation(List<PixelOperation> pixels, PixelOperation op) {
+        int last = pixels.size() - 1;
+        PixelOperation previous = last < 0 ? null : pixels.get(last);
+        if (op instanceof ColourMatrixOperation && previous instanceof ColourMatrix) {
+            ColourMatrix combined = ((ColourMatrix) previous).then(((ColourMatrixOperation) op).getColourMatrix());
+            if (combined != null) {
+                pixels.set(last, combined);
+                return;
+            }
+        }
+        if (op instanceof LookupOperation) {
+            LookupTable table = ((LookupOperation) op).getLookupTable();
+            if (previous instanceof ColourMatrix) {
+                previous = ((ColourMatrix) previous).toLookupTable();
+            }
+            if (previous instanceof LookupTable) {
+                pixels.set(last, ((LookupTable) previous).then(table));
+                return;
+            }
+        }
+        if (op instanceof ColourMatrixOperation) {
+            pixels.add(((ColourMatrixOperation) op).getColourMatrix());
+        } else if (op instanceof LookupOperation) {
+            pixels.add(((LookupOperation) op).getLookupTable());
+        } else {
+            pixels.add(op);
+        }
+    }
+
+    /**
+     * <p>
+     * Apply the fused operations to an image.
+     * </p>
+     *
+     * <p>
+     * Flips and rotations keep the type of the image, as they do when applied one at a
+     * time, so when the orientations cancel out there is nothing to copy at all.
+     * </p>
+     *
+     * @param input The image to apply the operations to.
+     * @return The resulting image.
+     */
+    public BufferedImage apply(BufferedImage input) {
+        if (!EditableImage.hasExactPixels(input)) {
+            BufferedImage image = input;
+            for (ImageOperation op: steps) {
+                image = op.apply(image);
+            }
+            return image;
+        }
+
+        BufferedImage output = input;
+        if (orientation != null && orientation != Orientation.IDENTITY) {
+            output = orientation.transform(input);
+        }
+        if (pixelOps.length == 1) {
+            output = pixelOps[0].apply(output);
+        } else if (pixelOps.length > 1) {
+            output = PixelAccess.filter(output, argb -> {
+                for (PixelOperation op: pixelOps) {
+                    argb = op.filterRGB(argb);
+                }
+                return argb;
+            });
+        }
+        return output;
+    }
+
+    /**
+     * <p>
+     * Get the number of operations this one replaces.
+     * </p>
+     *
+     * @return The number of operations fused together.
+     */
+    int size() {
+        return steps.size();
+    }
+}
@@ -1,7 +1,7 @@
 package cosc202.andie;
 import java.awt.image.BufferedImage;
-import java.awt.image.ConvolveOp;
-import java.awt.image.Kernel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * <p>
@@ -10,14 +10,27 @@ import java.awt.image.Kernel;
  * 
  * <p>
  * A Gaussian Filter blurs an image by applying an equation to each pixel in a kernel, getting weaker
- * The further from the centre of the kernel you get.  It is implemented by convolution.
+ * The further from the centre of the kernel you get.  It is implemented as two one-dimensional
+ * passes, one down the columns and one along the rows.
  * </p>
  * 
- * @see java.awt.image.ConvolveOp
  * @author Liam Walls
  * @version 1.0
  */
-public class GaussianFilter implements ImageOperation, java.io.Serializable {
+public class GaussianFilter implements ScalableOperation, java.io.Serializable {
+
+    /** The serial version of earlier releases, so that operations they saved can still be read. */
+    private static final long serialVersionUID = -2231664300427344574L;
+
+    /** The smallest radius blurred with the recursive approximation rather than the exact kernel. */
+    static final int RECURSIVE_RADIUS = 8;
+    /** The number of rows blurred together as one part of the recursive row pass. */
+    private static final int RECURSIVE_ROWS = 64;
+    /** The width of the strips of columns blurred together in the recursive column pass. */
+    private static final int RECURSIVE_COLUMNS = 64;
+    /** The kernels made so far, by radius. */
+    private static final Map<Integer, float[]> KERNELS = new ConcurrentHashMap<Integer, float[]>();
+
     /**
      * The size of the filter to apply. A radius of 1 means a 3x3 filter.
      */
@@ -60,108 +73,245 @@ public class GaussianFilter implements ImageOperation, java.io.Serializable {
      * </p>
      * 
      * <p>
-     * The Gaussian filter is applied using convolution.
-     * The size of the Gaussian kernels is determined by radius
+     * A Gaussian blur is separable: blurring every column and then every row gives the same
+     * result as the full two-dimensional kernel, at a cost of 2(2r+1) multiplications per
+     * pixel rather than (2r+1)<sup>2</sup>. Small radii are blurred with the exact kernel in
+     * this way. From a radius of {@value #RECURSIVE_RADIUS} on, each pass is instead made with
+     * Young and van Vliet's recursive approximation, which costs the same for any radius.
+     * In both cases pixels beyond the border are treated as copies of the edge, and all four
+     * channels, including alpha, are blurred. The samples of an 8-bit grey image are blurred
+     * as they are stored, as {@link java.awt.image.ConvolveOp} did.
      * </p>
      * 
      * @param input the image to apply the Gaussian filter to
      * @return the blurred image
      */
     public BufferedImage apply(BufferedImage input){
-        int size = (2 * radius + 1) * (2 * radius + 1);
-        float t = radius / 3.0f;
-        float[] array = new float[size];
-        int count = 0;
-        for(int x = -(radius); x <= radius; x++){
-            for(int y = -(radius); y <= radius; y++){
-                array[count] = g(Math.abs(x), Math.abs(y), t);
-                count++;
-            }
-        }
-        
-        // Normalize the kernel
-        float total = 0;
-        for(int i = 0; i < size; i++){
-            total = total + array[i];
+        if (radius >= RECURSIVE_RADIUS) {
+            return recursive(input);
         }
-        for(int k = 0; k < size; k++){
-            array[k] = array[k] / total;
-        }
-        
-        // Create the kernel and convolution operation
-        Kernel kernel = new Kernel(2 * radius + 1, 2 * radius + 1, array);
-        ConvolveOp convOp = new ConvolveOp(kernel, ConvolveOp.EDGE_NO_OP, null);
-        
-        // Apply padding to the input image
-        BufferedImage paddedInput = addPadding(input, radius);
-        
-        // Apply convolution operation
-        BufferedImage output = new BufferedImage(input.getColorModel(), input.copyData(null), input.isAlphaPremultiplied(), null);
-        convOp.filter(paddedInput, output);
-        
-        return output;
+        float[] kernel = kernel(radius);
+        return Convolution.separable(kernel, kernel, Convolution.Border.CLAMP).apply(input);
     }
 
     /**
      * <p>
-     * Adds padding to an image.
+     * Apply the Gaussian blur filter with recursive passes, whose cost does not depend on the radius.
+     * </p>
+     *
+     * <p>
+     * Young and van Vliet approximate the Gaussian by running a third-order recursive filter
+     * forwards and then backwards along each row and column. Rows are blurred into the
+     * output image, which is then blurred in place in strips of columns, so that each strip
+     * reads and writes short runs of every row rather than one pixel per row. Rows and strips
+     * are independent, so they are shared among the processor cores.
      * </p>
      *
-     * @author Neil Flores
-     * @param input the image to add padding to
-     * @param paddingSize the size of the padding to add
-     * @return The padded image
+     * <p>
+     * The result is rounded between the two passes. It is an approximation: in smooth areas it
+     * differs from the exact kernel by at most three levels per channel, but across sharp,
+     * high-contrast edges the difference grows to several levels, up to about ten for radii
+     * from {@value #RECURSIVE_RADIUS} to 16.
+     * </p>
+     *
+     * @param input The image to filter.
+     * @return The filtered image.
      */
-    private BufferedImage addPadding(BufferedImage input, int paddingSize) {
+    private BufferedImage recursive(BufferedImage input) {
         int width = input.getWidth();
         int height = input.getHeight();
-        int paddedWidth = width + 2 * paddingSize;
-        int paddedHeight = height + 2 * paddingSize;
-        
-        BufferedImage paddedImage = new BufferedImage(paddedWidth, paddedHeight, input.getType());
-        
-        // Copy original image into padded image
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                paddedImage.setRGB(x + paddingSize, y + paddingSize, input.getRGB(x, y));
+        float[] coefficients = recursiveCoefficients(radius / 3.0);
+        PixelAccess pixels = PixelAccess.ofSamples(input);
+        int[] source = pixels.getPixels();
+
+        BufferedImage output = PixelAccess.blankLike(input);
+        PixelAccess target = PixelAccess.ofSamples(output);
+        int[] result = target.getPixels();
+
+        int pad = radius + 3;
+        TileExecutor.parallelFor((height + RECURSIVE_ROWS - 1) / RECURSIVE_ROWS, part -> {
+            float[] line = new float[4 * (width + 2 * pad)];
+            int bottom = Math.min(height, (part + 1) * RECURSIVE_ROWS);
+            for (int y = part * RECURSIVE_ROWS; y < bottom; y++) {
+                int in = pixels.getIndex(0, y);
+                for (int x = 0, i = 4 * pad; x < width; x++, i += 4) {
+                    unpack(source[in + x], line, i);
+                }
+                blurLine(line, width, 4, pad, coefficients);
+                int out = target.getIndex(0, y);
+                for (int x = 0, i = 4 * pad; x < width; x++, i += 4) {
+                    result[out + x] = pack(line[i], line[i + 1], line[i + 2], line[i + 3]);
+                }
             }
-        }
-        
-        // Fill top and bottom padding
-        for (int y = 0; y < paddingSize; y++) {
-            for (int x = 0; x < paddedWidth; x++) {
-                paddedImage.setRGB(x, y, input.getRGB(0, 0)); // Assuming top-left pixel value for padding
-                paddedImage.setRGB(x, paddedHeight - 1 - y, input.getRGB(0, height - 1)); // Assuming bottom-left pixel value for padding
+        });
+
+        TileExecutor.parallelFor((width + RECURSIVE_COLUMNS - 1) / RECURSIVE_COLUMNS, part -> {
+            int left = part * RECURSIVE_COLUMNS;
+            int columns = Math.min(width, left + RECURSIVE_COLUMNS) - left;
+            int lanes = 4 * columns;
+            float[] strip = new float[lanes * (height + 2 * pad)];
+            for (int y = 0, i = pad * lanes; y < height; y++) {
+                int at = target.getIndex(left, y);
+                for (int x = 0; x < columns; x++, i += 4) {
+                    unpack(result[at + x], strip, i);
+                }
             }
-        }
-        
-        // Fill left and right padding
-        for (int x = 0; x < paddingSize; x++) {
-            for (int y = paddingSize; y < paddedHeight - paddingSize; y++) {
-                paddedImage.setRGB(x, y, input.getRGB(0, y - paddingSize)); // Assuming left-most pixel value for padding
-                paddedImage.setRGB(paddedWidth - 1 - x, y, input.getRGB(width - 1, y - paddingSize)); // Assuming right-most pixel value for padding
+            blurLine(strip, height, lanes, pad, coefficients);
+            for (int y = 0, i = pad * lanes; y < height; y++) {
+                int at = target.getIndex(left, y);
+                for (int x = 0; x < columns; x++, i += 4) {
+                    result[at + x] = pack(strip[i], strip[i + 1], strip[i + 2], strip[i + 3]);
+                }
             }
+        });
+
+        target.commit();
+        return output;
+    }
+
+    /**
+     * <p>
+     * Blur a line of samples forwards and then backwards with the recursive filter.
+     * </p>
+     *
+     * <p>
+     * Each sample is a group of lanes that are blurred independently, such as the four
+     * channels of a pixel, or the channels of a run of pixels along a row when blurring
+     * down the columns. The samples are padded at each end with copies of the edge sample,
+     * long enough for the filter to settle before it reaches the samples themselves, as
+     * it would if the edge values carried on for ever.
+     * </p>
+     *
+     * @param data The samples, with room for the padding, which are replaced by their blurred values.
+     * @param count The number of samples, excluding the padding.
+     * @param lanes The number of values in each sample.
+     * @param pad The number of samples of padding at each end, at least 3.
+     * @param coefficients The filter's input weight and its three feedback weights.
+     */
+    private static void blurLine(float[] data, int count, int lanes, int pad, float[] coefficients) {
+        float scale = coefficients[0];
+        float a1 = coefficients[1];
+        float a2 = coefficients[2];
+        float a3 = coefficients[3];
+        int first = pad * lanes;
+        int end = first + count * lanes;
+        int length = end + first;
+        for (int i = 0; i < first; i++) {
+            data[i] = data[first + i % lanes];
+            data[end + i] = data[end - lanes + i % lanes];
+        }
+        // The first three samples of padding are already the filter's steady output.
+        for (int i = 3 * lanes; i < length; i++) {
+            data[i] = scale * data[i] + a1 * data[i - lanes] + a2 * data[i - 2 * lanes] + a3 * data[i - 3 * lanes];
+        }
+        for (int i = length - 3 * lanes - 1; i >= 0; i--) {
+            data[i] = scale * data[i] + a1 * data[i + lanes] + a2 * data[i + 2 * lanes] + a3 * data[i + 3 * lanes];
         }
-        
-        return paddedImage;
     }
 
     /**
      * <p>
-     * A method used to return a value after being run through the gaussian equation. 
-     * This results in a pixel being more blurred the closer to the center it is.
+     * Find the weights of Young and van Vliet's recursive approximation to a Gaussian.
      * </p>
-     * 
-     * @param x the x coordinate of the pixel in the kernel
-     * @param y the y coordinate of the pixel in the kernel
-     * @param t theta, which is equal to radius/3
-     * @return the returned value for input into the filter 
+     *
+     * @param sigma The standard deviation of the Gaussian.
+     * @return The weight of each input sample, followed by the weights of the previous three outputs.
      */
-    private float g(int x, int y, float t){
-        double ans = (1/(2*Math.PI*Math.pow(t,2))  *  Math.pow(Math.exp(1), - ((Math.pow(x,2)+Math.pow(y,2))/(2*Math.pow(t,2)))));
-        float f = (float)ans;
-        System.out.println();
-        return f;
+    private static float[] recursiveCoefficients(double sigma) {
+        double q = sigma >= 2.5 ? 0.98711 * sigma - 0.96330 : 3.97156 - 4.14554 * Math.sqrt(1 - 0.26891 * sigma);
+        double q2 = q * q;
+        double q3 = q2 * q;
+        double b0 = 1.57825 + 2.44413 * q + 1.4281 * q2 + 0.422205 * q3;
+        double b1 = 2.44413 * q + 2.85619 * q2 + 1.26661 * q3;
+        double b2 = -(1.4281 * q2 + 1.26661 * q3);
+        double b3 = 0.422205 * q3;
+        return new float[] {
+            (float) (1 - (b1 + b2 + b3) / b0), (float) (b1 / b0), (float) (b2 / b0), (float) (b3 / b0)
+        };
     }
 
+    /**
+     * <p>
+     * Get the one-dimensional Gaussian kernel for a radius.
+     * </p>
+     *
+     * <p>
+     * The standard deviation is a third of the radius, so the kernel covers three standard
+     * deviations either side of its centre. Kernels are made once and kept for reuse.
+     * </p>
+     *
+     * @param radius The radius of the kernel.
+     * @return The 2r+1 weights of the kernel, which sum to 1.
+     */
+    private static float[] kernel(int radius) {
+        return KERNELS.computeIfAbsent(radius, r -> {
+            double sigma = r / 3.0;
+            double[] weights = new double[r + 1];
+            double total = weights[0] = 1;
+            for (int k = 1; k <= r; k++) {
+                weights[k] = Math.exp(-k * k / (2 * sigma * sigma));
+                total += 2 * weights[k];
+            }
+            float[] kernel = new float[2 * r + 1];
+            for (int k = 0; k <= r; k++) {
+                kernel[r - k] = kernel[r + k] = (float) (weights[k] / total);
+            }
+            return kernel;
+        });
+    }
+
+    /**
+     * <p>
+     * Split an ARGB pixel into four floating point channel values.
+     * </p>
+     *
+     * @param argb The pixel.
+     * @param data Where to put the alpha, red, green and blue values.
+     * @param i The index of the alpha value.
+     */
+    private static void unpack(int argb, float[] data, int i) {
+        data[i] = argb >>> 24;
+        data[i + 1] = (argb >> 16) & 0xFF;
+        data[i + 2] = (argb >> 8) & 0xFF;
+        data[i + 3] = argb & 0xFF;
+    }
+
+    /**
+     * <p>
+     * Round four floating point channel values into an ARGB pixel.
+     * </p>
+     *
+     * @param a The alpha value.
+     * @param r The red value.
+     * @param g The green value.
+     * @param b The blue value.
+     * @return The pixel.
+     */
+    private static int pack(float a, float r, float g, float b) {
+        return (channel(a) << 24) | (channel(r) << 16) | (channel(g) << 8) | channel(b);
+    }
+
+    /**
+     * <p>
+     * Round a channel value to the nearest level from 0 to 255.
+     * </p>
+     *
+     * @param value The channel value.
+     * @return The rounded value.
+     */
+    private static int channel(float value) {
+        return Math.max(0, Math.min(255, (int) (value + 0.5f)));
+    }
+
+    /**
+     * <p>
+     * Get the equivalent of this filter for a copy of the image scaled by a given factor.
+     * </p>
+     *
+     * @param factor The size of the scaled image relative to the full-size one.
+     * @return A new GaussianFilter with its radius scaled, but at least 1.
+     */
+    public ImageOperation scaled(double factor) {
+        return new GaussianFilter(Math.max(1, (int) Math.round(radius * factor)));
+    }
 }
@@ -0,0 +1,139 @@
+package cosc202.andie;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+
+/**
+ * <p>
+ * ImageOperation to show the Sobel gradient of an image.
+ * </p>
+ *
+ * <p>
+ * Where {@link SobelFilter} convolves with one Sobel kernel at a time, this finds both
+ * components of the gradient together in a single pass with {@link SobelGradient}, and
+ * then shows one of three things about it: how strong the edges are, which way they
+ * face, or the two signed components themselves.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @see SobelGradient
+ * @version 1.0
+ */
+public class GradientFilter implements ImageOperation, java.io.Serializable {
+
+    /** Fixed, so that saved operations can still be read after the class changes. */
+    private static final long serialVersionUID = -65523608468837755L;
+
+    /** The largest gradient magnitude, reached where both components are at their limit. */
+    private static final double MAX_MAGNITUDE = 1020 * Math.sqrt(2);
+
+    /**
+     * <p>
+     * What the filter shows of the gradient.
+     * </p>
+     */
+    public enum Output {
+        /** The strength of the edges in grey, black where the image is flat. */
+        MAGNITUDE,
+        /**
+         * The direction the brightness increases in as a hue, from red for rightwards
+         * through yellow-green for downwards, with the strength of the edge as brightness.
+         */
+        ORIENTATION,
+        /**
+         * The X component in the red channel and the Y component in the green channel,
+         * offset to mid grey, so that flat areas come out grey.
+         */
+        SIGNED
+    }
+
+    /** What the filter shows of the gradient. */
+    private final Output output;
+
+    /**
+     * <p>
+     * Construct a gradient filter.
+     * </p>
+     *
+     * @param output What the filter shows of the gradient.
+     */
+    public GradientFilter(Output output) {
+        this.output = output;
+    }
+
+    /**
+     * <p>
+     * Construct a gradient filter that shows the strength of the edges.
+     * </p>
+     */
+    public GradientFilter() {
+        this(Output.MAGNITUDE);
+    }
+
+    /**
+     * <p>
+     * Apply the gradient filter to an image.
+     * </p>
+     *
+     * <p>
+     * Pixels beyond the border are taken to repeat the edge, as for {@link SobelFilter}.
+     * The magnitude and components are scaled down so that the strongest possible edge,
+     * a diagonal one in the magnitude, just reaches full brightness. The alpha channel is left as it was.
+     * </p>
+     *
+     * @param input The image to apply the filter to.
+     * @return The resulting image.
+     */
+    public BufferedImage apply(BufferedImage input) {
+        SobelGradient gradient = SobelGradient.of(input, Convolution.Border.CLAMP);
+        int width = gradient.getWidth();
+        int height = gradient.getHeight();
+        short[] x = gradient.getX();
+        short[] y = gradient.getY();
+
+        PixelAccess source = PixelAccess.of(input);
+        int[] alpha = source.getPixels();
+        BufferedImage result = PixelAccess.blankLike(input);
+        PixelAccess target = PixelAccess.of(result);
+        int[] pixels = target.getPixels();
+        for (int row = 0; row < height; row++) {
+            int from = source.getIndex(0, row);
+            int to = target.getIndex(0, row);
+            for (int column = 0, i = row * width; column < width; column++, i++) {
+                int rgb;
+                switch (output) {
+                    case ORIENTATION:
+                        float brightness = (float) Math.min(1, gradient.magnitude(i) / MAX_MAGNITUDE);
+                        float hue = (float) (gradient.orientation(i) / (2 * Math.PI));
+                        rgb = Color.HSBtoRGB(hue, 1, brightness) & 0xFFFFFF;
+                        break;
+                    case SIGNED:
+                        rgb = signed(x[i]) << 16 | signed(y[i]) << 8 | 128;
+                        break;
+                    default:
+                        int grey = (int) Math.min(255, Math.round(gradient.magnitude(i) * 255 / MAX_MAGNITUDE));
+                        rgb = grey << 16 | grey << 8 | grey;
+                        break;
+                }
+                pixels[to + column] = (alpha[from + column] & 0xFF000000) | rgb;
+            }
+        }
+        target.commit();
+        return result;
+    }
+
+    /**
+     * <p>
+     * Scale a signed gradient component to a channel value.
+     * </p>
+     *
+     * @param component The component, from -1020 to 1020.
+     * @return The channel value, 128 for zero.
+     */
+    private static int signed(int component) {
+        return Math.max(0, Math.min(255, 128 + Math.round(component / 8f)));
+    }
+}
@@ -0,0 +1,361 @@
+package cosc202.andie;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * A memory-budgeted cache of rendered images, keyed by the sequence of operations that produced them.
+ * </p>
+ *
+ * <p>
+ * Each entry maps a prefix of an operation sequence (the operations applied to the original
+ * image, in order) to a copy of the image that those operations produced. Before replaying a
+ * sequence, an {@link EditableImage} asks for the longest prefix that is already cached and only
+ * computes the operations after it.
+ * </p>
+ *
+ * <p>
+ * Entries are stored as {@link TiledImage}s that share unchanged tiles with the entry for
+ * their longest cached prefix, so the cost of an entry is roughly the area its last
+ * operations changed.
+ * </p>
+ *
+ * <p>
+ * Operations are compared by identity, so a key only matches the exact operation objects that
+ * were applied. The cache holds at most a fixed number of bytes of tile data; once that budget
+ * is exceeded the least recently used entries are evicted until enough tiles are no longer
+ * shared with any other entry. Hit rates and the number of bytes
+ * held are tracked so that the budget can be sized for a particular machine.
+ * </p>
+ *
+ * <p>
+ * The bytes held are every tile that only the cache keeps alive. A tile shared with a
+ * checkpoint costs the cache nothing while the checkpoint lasts, but once the
+ * {@link CheckpointStore} drops it the cache is charged for the tile at its next
+ * {@link #trim()}, since it is then the cache's memory that the tile occupies.
+ * </p>
+ *
+ * <p>
+ * A cache can instead share its budget with a {@link CheckpointStore}. The budget then
+ * bounds every tile that the cache and the checkpoints keep alive between them, shared
+ * or not, and the cache evicts entries until the two together are back within it. The
+ * checkpoints' own budget should be well below the shared one, so that there is always
+ * room left for the cache to give up.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @version 1.0
+ */
+class HistoryCache {
+
+    /** The cached images, in least- to most-recently used order. */
+    private final LinkedHashMap<List<ImageOperation>, TiledImage> entries;
+    /** The checkpoints the budget is shared with, or null if the cache has it to itself. */
+    private final CheckpointStore checkpoints;
+    /** The maximum number of bytes of tile data to hold. */
+    private long budget;
+    /** The number of bytes of tile data currently held. */
+    private long bytesHeld;
+    /** The number of lookups that found a cached prefix. */
+    private long hits;
+    /** The number of lookups that found nothing. */
+    private long misses;
+    /** The number of entries evicted to stay within the budget. */
+    private long evictions;
+
+    /**
+     * <p>
+     * Create a new, empty HistoryCache.
+     * </p>
+     *
+     * @param budget The maximum number of bytes of tile data to hold.
+     */
+    HistoryCache(long budget) {
+        this(budget, null);
+    }
+
+    /**
+     * <p>
+     * Create a new, empty HistoryCache that shares its budget with a set of checkpoints.
+     * </p>
+     *
+     * @param budget The maximum number of bytes of tile data for the cache and checkpoints to hold between them.
+     * @param checkpoints The checkpoints the budget is shared with, or null if the cache has it to itself.
+     */
+    HistoryCache(long budget, CheckpointStore checkpoints) {
+        this.entries = new LinkedHashMap<List<ImageOperation>, TiledImage>(16, 0.75f, true);
+        this.checkpoints = checkpoints;
+        this.budget = budget;
+    }
+
+    /**
+     * <p>
+     * Find the longest cached prefix of an operation sequence.
+     * </p>
+     *
+     * <p>
+     * The snapshot in the returned entry belongs to the cache and must not be released.
+     * </p>
+     *
+     * @param sequence The operations to be applied to the original image.
+     * @return The length of the longest cached prefix and its image, or null if no prefix is cached.
+     */
+    Map.Entry<Integer, TiledImage> lookup(List<ImageOperation> sequence) {
+        if (!entries.isEmpty()) {
+            for (int length = sequence.size(); length > 0; length--) {
+                TiledImage image = entries.get(sequence.subList(0, length));
+                if (image != null) {
+                    hits++;
+                    return new AbstractMap.SimpleImmutableEntry<Integer, TiledImage>(length, image);
+                }
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * <p>
+     * Store the image produced by an operation sequence.
+     * </p>
+     *
+     * <p>
+     * A snapshot of the image is stored, since {@link ImageOperation}s are free to modify their
+     * input in place. It shares unchanged tiles with the entry for the longest cached prefix of
+     * the sequence or, if there is none, with the given fallback. Images larger than the whole
+     * budget are not stored at all.
+     * </p>
+     *
+     * <p>
+     * When the tiles are shared with the state just before the last operation, or with a
+     * fallback taken of this very state, the region that operation changed tells the
+     * snapshot which tiles it can share without comparing them.
+     * </p>
+     *
+     * @param sequence The operations that were applied to the original image.
+     * @param image The image they produced.
+     * @param fallback An earlier state to share tiles with and the number of operations that produced it, or null.
+     * @param changed The region the last operation in the sequence changed, or null if unknown.
+     */
+    void put(List<ImageOperation> sequence, BufferedImage image, Map.Entry<Integer, TiledImage> fallback, Rectangle changed) {
+        if (sequence.isEmpty() || sizeOf(image) > budget) {
+            trim();
+            return;
+        }
+        TiledImage basis = fallback == null ? null : fallback.getValue();
+        int basisLength = fallback == null ? -1 : fallback.getKey();
+        for (int length = sequence.size() - 1; length > basisLength && length > 0; length--) {
+            TiledImage prefix = entries.get(sequence.subList(0, length));
+            if (prefix != null) {
+                basis = prefix;
+                basisLength = length;
+                break;
+            }
+        }
+        Rectangle hint = null;
+        if (basisLength == sequence.size()) {
+            hint = new Rectangle();
+        } else if (basisLength == sequence.size() - 1) {
+            hint = changed;
+        }
+        TiledImage snapshot = TiledImage.of(image, basis, hint);
+        TiledImage previous = entries.put(List.copyOf(sequence), snapshot);
+        if (previous != null) {
+            previous.release();
+        }
+        trim();
+    }
+
+    /**
+     * <p>
+     * Remove every entry from the cache.
+     * </p>
+     *
+     * <p>
+     * The hit and miss counts are kept, as they describe the cache rather than its contents.
+     * </p>
+     */
+    void clear() {
+        for (TiledImage image: entries.values()) {
+            image.release();
+        }
+        entries.clear();
+        bytesHeld = 0;
+    }
+
+    /**
+     * <p>
+     * Evict least recently used entries until the cache is within its budget.
+     * </p>
+     *
+     * <p>
+     * The bytes held are counted afresh first, as tiles shared with checkpoints become the
+     * cache's to pay for when those checkpoints are released. This should be called after
+     * releasing checkpoints, so that the cache never holds more than its budget for long.
+     * </p>
+     *
+     * <p>
+     * Evicting an entry only frees the tiles that no other entry shares, so
+     * several entries may need to go before the cache is back within budget.
+     * If the budget is shared with checkpoints, it is the tiles the cache and the
+     * checkpoints keep alive between them that must fit. Evicting entries can leave the
+     * checkpoints as the only holders of tiles they shared, and so over their own budget,
+     * in which case they are trimmed too.
+     * </p>
+     */
+    void trim() {
+        bytesHeld = TiledImage.retainedBytes(entries.values());
+        long held = bytesHeld;
+        if (checkpoints != null) {
+            Collection<TiledImage> history = new ArrayList<TiledImage>(entries.values());
+            history.addAll(checkpoints.snapshots());
+            held = TiledImage.retainedBytes(history);
+        }
+        Iterator<TiledImage> eldest = entries.values().iterator();
+        while (held > budget && eldest.hasNext()) {
+            long freed = eldest.next().release();
+            bytesHeld -= freed;
+            held -= freed;
+            eldest.remove();
+            evictions++;
+        }
+        if (checkpoints != null && checkpoints.getBytesHeld() > checkpoints.getBudget()) {
+            checkpoints.trim();
+            bytesHeld = TiledImage.retainedBytes(entries.values());
+        }
+    }
+
+    /**
+     * <p>
+     * Estimate the number of bytes of pixel data in an image.
+     * </p>
+     *
+     * @param image The image to measure.
+     * @return The size of the image's data buffer, in bytes.
+     */
+    static long sizeOf(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        long elements = (long) buffer.getSize() * buffer.getNumBanks();
+        return elements * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    /**
+     * <p>
+     * Set the maximum number of bytes of tile data to hold.
+     * </p>
+     *
+     * @param budget The new budget, in bytes.
+     */
+    void setBudget(long budget) {
+        this.budget = budget;
+        trim();
+    }
+
+    /**
+     * <p>
+     * Get the maximum number of bytes of tile data to hold.
+     * </p>
+     *
+     * @return The budget, in bytes.
+     */
+    long getBudget() {
+        return budget;
+    }
+
+    /**
+     * <p>
+     * Get the number of bytes of tile data currently held.
+     * </p>
+     *
+     * @return The number of bytes held.
+     */
+    long getBytesHeld() {
+        return bytesHeld;
+    }
+
+    /**
+     * <p>
+     * Get the number of entries currently held.
+     * </p>
+     *
+     * @return The number of entries.
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * <p>
+     * Get the number of lookups that found a cached prefix.
+     * </p>
+     *
+     * @return The number of hits.
+     */
+    long getHits() {
+        return hits;
+    }
+
+    /**
+     * <p>
+     * Get the number of lookups that found nothing.
+     * </p>
+     *
+     * @return The number of misses.
+     */
+    long getMisses() {
+        return misses;
+    }
+
+    /**
+     * <p>
+     * Get the number of entries evicted to stay within the budget.
+     * </p>
+     *
+     * @return The number of evictions.
+     */
+    long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * <p>
+     * Get the fraction of lookups that found a cached prefix.
+     * </p>
+     *
+     * @return The hit rate between 0 and 1, or 0 if there have been no lookups.
+     */
+    double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * <p>
+     * Summarise the cache's usage, for sizing the budget.
+     * </p>
+     *
+     * @return A one-line description of the cache statistics.
+     */
+    @Override
+    public String toString() {
+        String held = String.format("%.1f", bytesHeld / 1048576.0);
+        if (checkpoints != null) {
+            held += String.format(" + %.1f in %d checkpoints", checkpoints.getBytesHeld() / 1048576.0, checkpoints.size());
+        }
+        return String.format("HistoryCache[%d entries, %s/%.1f MB, hit rate %.1f%% (%d/%d), %d evictions]",
+                entries.size(), held, budget / 1048576.0,
+                100 * getHitRate(), hits, hits + misses, evictions);
+    }
+}
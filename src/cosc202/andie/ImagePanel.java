@@ -7,6 +7,9 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.image.BufferedImage;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 /**
  * <p>
@@ -26,6 +29,9 @@ import java.awt.image.BufferedImage;
  * @version 1.0
  */
 public class ImagePanel extends JPanel implements MouseListener, MouseMotionListener {
+
+    /** The serial version of earlier releases, so that the crops and drawings they saved, which extend this panel, can still be read. */
+    private static final long serialVersionUID = -3102426800630952588L;
     
     /**
      * The image to display in the ImagePanel.
@@ -71,6 +77,9 @@ public class ImagePanel extends JPanel implements MouseListener, MouseMotionList
     /** variable for selecting the thickness of the line to draw*/
     public int thickness = 0;
 
+    /** The percentage complete of the operation running in the background, or -1 if there is none. */
+    private int progress = -1;
+
     /**
      * <p>
      * Create a new ImagePanel.
@@ -131,6 +140,18 @@ public class ImagePanel extends JPanel implements MouseListener, MouseMotionList
             zoomPercent = 200;
         }
         scale = zoomPercent / 100;
+        // Very large images are edited through a proxy unless they are shown beyond actual size.
+        // The other resolution is rendered in the background, and the image is shown as it is until then.
+        boolean switching = image.setProxyEnabled(scale <= 1.0, () -> {
+            if (!image.isBusy()) {
+                setProgress(-1);
+            }
+            repaint();
+            getParent().revalidate();
+        });
+        if (switching) {
+            setProgress(0);
+        }
     }
 
 
@@ -141,6 +162,7 @@ public class ImagePanel extends JPanel implements MouseListener, MouseMotionList
      * 
      * <p>
      * The preferred size is the size of the image (scaled by zoom level), or a default size if no image is present.
+     * The size is that of the full-resolution image even when a smaller proxy is being edited.
      * </p>
      * 
      * @return The preferred size of this component.
@@ -148,13 +170,164 @@ public class ImagePanel extends JPanel implements MouseListener, MouseMotionList
     @Override
     public Dimension getPreferredSize() {
         if (image.hasImage()) {
-            return new Dimension((int) Math.round(image.getCurrentImage().getWidth()*scale), 
-                                 (int) Math.round(image.getCurrentImage().getHeight()*scale));
+            double displayScale = scale / image.getResolution();
+            return new Dimension((int) Math.round(image.getWidth()*displayScale), 
+                                 (int) Math.round(image.getHeight()*displayScale));
         } else {
             return new Dimension(450, 450);
         }
     }
 
+    /**
+     * <p>
+     * Apply an {@link ImageOperation} to the displayed image without blocking the interface.
+     * </p>
+     * 
+     * <p>
+     * The operation runs in the background via {@link EditableImage#applyInBackground}.
+     * While it runs a progress bar is drawn along the top of the panel and the wait
+     * cursor is shown; the panel is repainted with the result once it is published.
+     * </p>
+     * 
+     * @param op The operation to apply.
+     */
+    public void applyInBackground(ImageOperation op) {
+        setProgress(0);
+        image.applyInBackground(op, this::setProgress, () -> {
+            if (!image.isBusy()) {
+                setProgress(-1);
+            }
+            repaint();
+            getParent().revalidate();
+        });
+    }
+
+    /**
+     * <p>
+     * Undo the last operation on the displayed image without blocking the interface.
+     * </p>
+     * 
+     * <p>
+     * The undo runs via {@link EditableImage#undoInBackground}, with the same progress bar
+     * and wait cursor as {@link #applyInBackground(ImageOperation)} if the operation stack
+     * has to be replayed.
+     * </p>
+     */
+    public void undo() {
+        editInBackground(image::undoInBackground);
+    }
+
+    /**
+     * <p>
+     * Redo the last undone operation on the displayed image without blocking the interface.
+     * </p>
+     * 
+     * @see EditableImage#redoInBackground
+     * @see #undo()
+     */
+    public void redo() {
+        editInBackground(image::redoInBackground);
+    }
+
+    /**
+     * <p>
+     * Repeat the last operation on the displayed image without blocking the interface.
+     * </p>
+     * 
+     * @see EditableImage#repeatInBackground
+     * @see #undo()
+     */
+    public void repeat() {
+        editInBackground(image::repeatInBackground);
+    }
+
+    /**
+     * <p>
+     * Start an edit that may or may not have to go to the background.
+     * </p>
+     * 
+     * <p>
+     * The progress bar is only shown if the edit is still running once it has been started.
+     * Either way the changed part of the panel is repainted once it is done.
+     * </p>
+     * 
+     * @param edit Starts the edit, given the progress and whenDone callbacks.
+     */
+    private void editInBackground(BiConsumer<IntConsumer, Runnable> edit) {
+        edit.accept(this::setProgress, () -> {
+            if (!image.isBusy()) {
+                setProgress(-1);
+            }
+            repaintChanged();
+        });
+        if (image.isBusy()) {
+            setProgress(0);
+        }
+    }
+
+    /**
+     * <p>
+     * Export the displayed image at full resolution without blocking the interface.
+     * </p>
+     * 
+     * <p>
+     * The image is rendered and exported in the background via
+     * {@link EditableImage#exportInBackground}, with the same progress bar and wait cursor
+     * as {@link #applyInBackground(ImageOperation)}.
+     * </p>
+     * 
+     * @param exporter Given the full-resolution image, on the background thread.
+     */
+    public void exportInBackground(Consumer<BufferedImage> exporter) {
+        setProgress(0);
+        image.exportInBackground(exporter, this::setProgress, () -> {
+            if (!image.isBusy()) {
+                setProgress(-1);
+            }
+        });
+    }
+
+    /**
+     * <p>
+     * Repaint the part of the panel showing the most recent change to the image.
+     * </p>
+     * 
+     * <p>
+     * When the last edit only changed a region of the image, such as a drawn shape, only
+     * that region (scaled by the zoom level) is repainted rather than the whole panel.
+     * </p>
+     */
+    public void repaintChanged() {
+        Rectangle region = image.getChangedRegion();
+        if (region == null) {
+            repaint();
+        } else if (!region.isEmpty()) {
+            double displayScale = scale / image.getResolution();
+            int x1 = (int) Math.floor(region.x * displayScale) - 1;
+            int y1 = (int) Math.floor(region.y * displayScale) - 1;
+            int x2 = (int) Math.ceil((region.x + region.width) * displayScale) + 1;
+            int y2 = (int) Math.ceil((region.y + region.height) * displayScale) + 1;
+            repaint(x1, y1, x2 - x1, y2 - y1);
+        }
+        getParent().revalidate();
+    }
+
+    /**
+     * <p>
+     * Set the progress shown for the operation running in the background.
+     * </p>
+     * 
+     * @param percent The percentage complete, or -1 if no operation is running.
+     */
+    private void setProgress(int percent) {
+        if (percent == progress) {
+            return;
+        }
+        progress = percent;
+        setCursor(Cursor.getPredefinedCursor(percent < 0 ? Cursor.DEFAULT_CURSOR : Cursor.WAIT_CURSOR));
+        repaint();
+    }
+
     /** Add a mouse pressed method
      *
      * @param evt The mouse event
@@ -165,12 +338,13 @@ public class ImagePanel extends JPanel implements MouseListener, MouseMotionList
             return;
         }
 
-        startPoint = evt.getPoint();
+        startPoint = toImagePoint(evt.getPoint());
         endPoint = startPoint;
         if(image.hasImage()){
             pressed = true;
         }
         released =  false;
+        repaint();
     }
 
     /** Add a mouse released method
@@ -182,12 +356,56 @@ public class ImagePanel extends JPanel implements MouseListener, MouseMotionList
         if (!active){
             return;
         }
-        endPoint = evt.getPoint();
+        endPoint = toImagePoint(evt.getPoint());
         if(image.hasImage()){
             released = true;
         }
         pressed = false;
         active = false;
+        applySelection();
+    }
+
+    /**
+     * <p>
+     * Apply the crop or drawing that the user has just finished selecting.
+     * </p>
+     */
+    private void applySelection() {
+        boolean drawn = false;
+        if (released == true){
+            if (crop == true){
+                getImage().apply(new RectangleCrop(startPoint, endPoint));
+                crop = false;
+                active = false;
+                startPoint = null;
+                endPoint = null;
+            }
+            if (ovalcrop == true){
+                getImage().apply(ShapeCrop.oval(startPoint, endPoint));
+                ovalcrop = false;
+                active = false;
+                startPoint = null;
+                endPoint = null;
+            }
+
+            if (draw == true){
+                getImage().apply(new Drawing(shape, colour, fill, thickness, startPoint, endPoint));
+                drawn = true;
+                draw = false;
+                active = false;
+                startPoint = null;
+                endPoint = null;
+            }
+            pressed = false;
+            released = false;
+        }
+        if (drawn) {
+            // The preview of the shape lies within the region the drawing changed.
+            repaintChanged();
+        } else {
+            repaint();
+            getParent().revalidate();
+        }
     }
 
     /** Add a mouse dragged method
@@ -199,10 +417,27 @@ public class ImagePanel extends JPanel implements MouseListener, MouseMotionList
         if (!active){
             return;
         }
-        endPoint = evt.getPoint();
+        endPoint = toImagePoint(evt.getPoint());
         repaint();
     }
 
+    /**
+     * <p>
+     * Convert a point on the panel to full-resolution image coordinates.
+     * </p>
+     * 
+     * <p>
+     * Crops and drawings are recorded in these coordinates so that they land in the same
+     * place whatever the zoom level, and whether or not a proxy is being edited.
+     * </p>
+     * 
+     * @param p A point in panel coordinates.
+     * @return The corresponding point on the full-resolution image.
+     */
+    private Point toImagePoint(Point p) {
+        return new Point((int) Math.floor(p.x / scale), (int) Math.floor(p.y / scale));
+    }
+
     //Unused methods
     public void mouseEntered(MouseEvent evt){}
     public void mouseExited(MouseEvent evt){}
@@ -215,6 +450,11 @@ public class ImagePanel extends JPanel implements MouseListener, MouseMotionList
      * (Re)draw the component in the GUI.
      * </p>
      * 
+     * <p>
+     * Flips and rotations the image has not yet applied to its pixels are applied here,
+     * as part of the transform the image is drawn with.
+     * </p>
+     * 
      * @param g The Graphics component to draw the image on.
      */
     @Override
@@ -223,7 +463,16 @@ public class ImagePanel extends JPanel implements MouseListener, MouseMotionList
         if (image.hasImage()) {
             Graphics2D g2  = (Graphics2D) g.create();
             g2.scale(scale, scale);
-            g2.drawImage(image.getCurrentImage(), null, 0, 0);
+            Graphics2D pixels = (Graphics2D) g2.create();
+            if (image.getResolution() != 1.0) {
+                // A proxy is drawn at the size of the full-resolution image it stands in for.
+                pixels.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                pixels.scale(1 / image.getResolution(), 1 / image.getResolution());
+            }
+            BufferedImage unoriented = image.getUnorientedImage();
+            pixels.transform(image.getOrientation().toAffineTransform(unoriented.getWidth(), unoriented.getHeight()));
+            pixels.drawImage(unoriented, null, 0, 0);
+            pixels.dispose();
             //draws a rectangle for current temporary selection
             if (pressed == true && draw == false) {
                 g2.setColor(Color.RED);
@@ -256,38 +505,13 @@ public class ImagePanel extends JPanel implements MouseListener, MouseMotionList
                     }
                 }
             }
-            if (released == true){
-                if (crop == true){
-                    getImage().apply(new Crop(startPoint, endPoint));
-                    repaint();
-                    crop = false;
-                    active = false;
-                    startPoint = null;
-                    endPoint = null;
-                }
-                if (ovalcrop == true){
-                    getImage().apply(new OvalCrop(startPoint, endPoint));
-                    repaint();
-                    ovalcrop = false;
-                    active = false;
-                    startPoint = null;
-                    endPoint = null;
-                }
-
-                if (draw == true){
-                    getImage().apply(new Draw(shape, colour, fill, thickness, startPoint, endPoint));
-                    repaint();
-                    draw = false;
-                    active = false;
-                    startPoint = null;
-                    endPoint = null;
-                }
-                pressed = false;
-                released = false;
-            }
-            repaint();
-            getParent().revalidate();
             g2.dispose();
         }
+        if (progress >= 0) {
+            Rectangle visible = getVisibleRect();
+            Color bar = UIManager.getColor("ProgressBar.foreground");
+            g.setColor(bar != null ? bar : Color.BLUE);
+            g.fillRect(visible.x, visible.y, visible.width * progress / 100, 4);
+        }
     }
 }
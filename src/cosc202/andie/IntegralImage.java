@@ -0,0 +1,112 @@
+package cosc202.andie;
+
+/**
+ * <p>
+ * A summed-area table of an image's colour channels, for finding the sum of any box of pixels in constant time.
+ * </p>
+ *
+ * <p>
+ * Entry (x, y) of the table holds the sum of every pixel above and to the left of (x, y).
+ * The sum over any rectangle then takes just four table lookups, however large the
+ * rectangle is, which makes box filters and block averages cost the same for any size.
+ * </p>
+ *
+ * <p>
+ * A full table for a large photo would take several times the memory of the image itself,
+ * so only a sliding window of table rows is kept. The table is filled in from the top as
+ * rows are asked for, and boxes must be asked for with their bottom edges moving down the
+ * image and no taller than the window given when the table was made.
+ * </p>
+ *
+ * <p>
+ * Only the red, green and blue channels are summed. Sums are kept as longs, so they cannot
+ * overflow on any image that fits in memory.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @see PixelAccess
+ * @version 1.0
+ */
+final class IntegralImage {
+
+    /** The pixels being summed. */
+    private final PixelAccess pixels;
+    /** The width of the image. */
+    private final int width;
+    /** The table rows currently kept, three sums per entry, indexed by row modulo their number. */
+    private final long[][] rows;
+    /** The last table row filled in so far. */
+    private int filled;
+
+    /**
+     * <p>
+     * Create a summed-area table for an image.
+     * </p>
+     *
+     * @param pixels The pixels of the image.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param window The greatest height of box that will be asked for.
+     */
+    IntegralImage(PixelAccess pixels, int width, int height, int window) {
+        this.pixels = pixels;
+        this.width = width;
+        this.rows = new long[Math.min(window, height) + 1][3 * (width + 1)];
+        this.filled = 0;
+    }
+
+    /**
+     * <p>
+     * Add up the colour channels over a rectangle of pixels.
+     * </p>
+     *
+     * @param x1 The left edge of the rectangle.
+     * @param y1 The top edge of the rectangle.
+     * @param x2 The column after the right edge of the rectangle.
+     * @param y2 The row after the bottom edge of the rectangle.
+     * @param sums Set to the sums of the red, green and blue values, in that order.
+     */
+    void sum(int x1, int y1, int x2, int y2, long[] sums) {
+        fillTo(y2);
+        long[] top = rows[y1 % rows.length];
+        long[] bottom = rows[y2 % rows.length];
+        int left = 3 * x1;
+        int right = 3 * x2;
+        for (int c = 0; c < 3; c++) {
+            sums[c] = bottom[right + c] - bottom[left + c] - top[right + c] + top[left + c];
+        }
+    }
+
+    /**
+     * <p>
+     * Fill in the table down to a given row.
+     * </p>
+     *
+     * @param row The table row needed, from 0 to the height of the image.
+     */
+    private void fillTo(int row) {
+        int[] data = pixels.getPixels();
+        while (filled < row) {
+            long[] above = rows[filled % rows.length];
+            long[] next = rows[(filled + 1) % rows.length];
+            int start = pixels.getIndex(0, filled);
+            long red = 0;
+            long green = 0;
+            long blue = 0;
+            for (int x = 0; x < width; x++) {
+                int argb = data[start + x];
+                red += (argb >> 16) & 0xFF;
+                green += (argb >> 8) & 0xFF;
+                blue += argb & 0xFF;
+                int i = 3 * (x + 1);
+                next[i] = above[i] + red;
+                next[i + 1] = above[i + 1] + green;
+                next[i + 2] = above[i + 2] + blue;
+            }
+            filled++;
+        }
+    }
+}
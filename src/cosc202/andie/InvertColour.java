@@ -15,7 +15,21 @@ import java.awt.image.*;
  * @author Jarrad Marshall
  * @version 1.0
  */
-public class InvertColour implements ImageOperation, java.io.Serializable {
+public class InvertColour implements InvertibleOperation, LookupOperation, ColourMatrixOperation, java.io.Serializable {
+
+    /** The serial version of earlier releases, so that operations they saved can still be read. */
+    private static final long serialVersionUID = 4016386490890849631L;
+
+    /** Inversion as a lookup table, the same for every InvertColour. */
+    private static final LookupTable TABLE = LookupTable.of(value -> 255 - value);
+
+    /** Inversion as a colour matrix, so that it combines with other colour matrices too. */
+    private static final ColourMatrix MATRIX = new ColourMatrix(new int[] {
+        -1, 0, 0, 0, 255,
+        0, -1, 0, 0, 255,
+        0, 0, -1, 0, 255,
+        0, 0, 0, 1, 0
+    }, 1);
 
     /**
      * <p>
@@ -32,38 +46,61 @@ public class InvertColour implements ImageOperation, java.io.Serializable {
      * </p>
      *
      * <p>
-     * This method iterates over each pixel in the input image, extracts the ARGB values, 
-     * inverts the RGB components, and sets the new ARGB value back to the image.
+     * Each of the RGB components of every pixel is replaced by 255 minus its value,
+     * and alpha is left as it was. On the processor's vector units this is quickest done
+     * as a colour matrix, and otherwise by looking up a table.
      * </p>
      *
      * @param input The input image whose colours should be inverted
      * @return The image after inverting the colours
      */
     public BufferedImage apply(BufferedImage input) {
-  
-        for (int y = 0; y < input.getHeight(); ++y) {
-            for (int x = 0; x < input.getWidth(); ++x) {
-                // The ARGB value of the pixel at (x, y)
-                int argb = input.getRGB(x, y);
-                // The alpha component of the pixel
-                int a = (argb & 0xFF000000) >> 24;
-                // The red component of the pixel
-                int r = (argb & 0x00FF0000) >> 16;
-                // The green component of the pixel
-                int g = (argb & 0x0000FF00) >> 8;
-                // The blue component of the pixel
-                int b = (argb & 0x000000FF);
+        return Simd.isEnabled() ? MATRIX.apply(input) : TABLE.apply(input);
+    }
+
+    /**
+     * <p>
+     * Invert the colour of a single pixel.
+     * </p>
+     *
+     * @param argb The pixel's value, in the default ARGB colour model.
+     * @return The inverted pixel, with the same alpha.
+     */
+    public int filterRGB(int argb) {
+        return TABLE.filterRGB(argb);
+    }
+
+    /**
+     * <p>
+     * Get inversion as a lookup table.
+     * </p>
+     *
+     * @return The table giving each component's inverted value, leaving alpha alone.
+     */
+    public LookupTable getLookupTable() {
+        return TABLE;
+    }
 
-                r = 255-r;
-                g = 255-g;
-                b = 255-b;
+    /**
+     * <p>
+     * Get inversion as a colour matrix.
+     * </p>
+     *
+     * @return The matrix giving each colour channel 255 minus its value, leaving alpha alone.
+     */
+    public ColourMatrix getColourMatrix() {
+        return MATRIX;
+    }
 
-                argb = (a << 24) | (r << 16) | (g << 8) | b;
-                input.setRGB(x, y, argb);
-            }
-        }
-        
-        return input;
+    /**
+     * <p>
+     * Get the operation that undoes this one.
+     * </p>
+     * 
+     * @return This operation, since inverting twice gives back the original colours.
+     */
+    public ImageOperation inverse() {
+        return this;
     }
     
 }
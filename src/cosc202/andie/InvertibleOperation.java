@@ -0,0 +1,37 @@
+package cosc202.andie;
+
+/**
+ * <p>
+ * Interface for {@link ImageOperation}s that can be exactly undone.
+ * </p>
+ *
+ * <p>
+ * Some operations, such as flips, quarter-turn rotations and colour inversion, lose no
+ * information, so applying a matching inverse operation to their output gives back
+ * exactly the image they were applied to. Implementing this interface lets an
+ * {@link EditableImage} undo such an operation with a single pass over the current image
+ * rather than replaying the operation stack.
+ * </p>
+ *
+ * <p>
+ * The guarantee only holds for images that store 8 bits per channel of direct colour;
+ * for other image types the {@link EditableImage} falls back to a replay.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @version 1.0
+ */
+public interface InvertibleOperation extends ImageOperation {
+
+    /**
+     * <p>
+     * Get the operation that undoes this one.
+     * </p>
+     *
+     * @return An operation that, applied to the output of this one, gives back its input.
+     */
+    public ImageOperation inverse();
+}
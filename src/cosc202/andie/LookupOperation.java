@@ -0,0 +1,37 @@
+package cosc202.andie;
+
+/**
+ * <p>
+ * Interface for {@link PixelOperation}s that change each channel of a pixel by a function
+ * of that channel's value alone.
+ * </p>
+ *
+ * <p>
+ * Such an operation can be described completely by a {@link LookupTable}, which is much
+ * cheaper to apply than working out the function again for every pixel. A run of these
+ * operations is combined by the {@link OperationPlanner} into a single table, so replaying
+ * several tone adjustments costs one pass over the image with one lookup per channel.
+ * </p>
+ *
+ * <p>
+ * Implementations should build their table once and keep it, and must give the same
+ * result from {@link #apply} and {@link #filterRGB} as the table does.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @version 1.0
+ */
+interface LookupOperation extends PixelOperation {
+
+    /**
+     * <p>
+     * Get the lookup table equivalent to this operation.
+     * </p>
+     *
+     * @return The lookup table.
+     */
+    LookupTable getLookupTable();
+}
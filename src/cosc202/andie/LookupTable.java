@@ -0,0 +1,173 @@
+package cosc202.andie;
+
+import java.awt.image.BufferedImage;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * <p>
+ * A per-channel lookup table: a new value for every possible value of each channel.
+ * </p>
+ *
+ * <p>
+ * Tone adjustments such as brightness, contrast, inversion, levels or curves change each
+ * channel of a pixel by a function of that channel's value alone. There are only 256
+ * possible values, so the function need only be worked out 256 times, however large the
+ * image, and each pixel then costs four table lookups. Two tables applied one after the
+ * other also make a single table, so a whole run of such adjustments costs no more per
+ * pixel than one of them.
+ * </p>
+ *
+ * <p>
+ * Each entry is held already shifted to its channel's place in an ARGB int, so that a
+ * pixel's new value is just the four entries or-ed together. Tables never change once made
+ * and may be shared between threads.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @see LookupOperation
+ * @version 1.0
+ */
+final class LookupTable implements PixelOperation {
+
+    /** The table that leaves every pixel as it was. */
+    static final LookupTable IDENTITY = of(value -> value);
+
+    /** The number of rows processed together as one part of a pass. */
+    private static final int PART_ROWS = 64;
+
+    /** The new alpha for each alpha value, shifted into place. */
+    private final int[] alpha;
+    /** The new red for each red value, shifted into place. */
+    private final int[] red;
+    /** The new green for each green value, shifted into place. */
+    private final int[] green;
+    /** The new blue for each blue value, shifted into place. */
+    private final int[] blue;
+
+    /**
+     * <p>
+     * Create a lookup table from a table for each channel.
+     * </p>
+     *
+     * @param alpha The new alpha for each alpha value, from 0 to 255.
+     * @param red The new red for each red value.
+     * @param green The new green for each green value.
+     * @param blue The new blue for each blue value.
+     * @throws IllegalArgumentException If a table does not have 256 entries, or an entry is not from 0 to 255.
+     */
+    LookupTable(int[] alpha, int[] red, int[] green, int[] blue) {
+        this.alpha = shifted(alpha, 24);
+        this.red = shifted(red, 16);
+        this.green = shifted(green, 8);
+        this.blue = shifted(blue, 0);
+    }
+
+    /**
+     * <p>
+     * Create a lookup table that changes the colour channels alike and leaves alpha alone.
+     * </p>
+     *
+     * @param channel The new value of a colour channel for each value it may have. Results
+     *        beyond 0 to 255 are clamped.
+     * @return The lookup table.
+     */
+    static LookupTable of(IntUnaryOperator channel) {
+        int[] identity = new int[256];
+        int[] colour = new int[256];
+        for (int v = 0; v < 256; v++) {
+            identity[v] = v;
+            colour[v] = Math.max(0, Math.min(255, channel.applyAsInt(v)));
+        }
+        return new LookupTable(identity, colour, colour, colour);
+    }
+
+    /**
+     * <p>
+     * Check a channel's table and shift its entries into place.
+     * </p>
+     *
+     * @param table The new value for each value of the channel.
+     * @param shift The bit position of the channel in an ARGB int.
+     * @return The shifted entries.
+     */
+    private static int[] shifted(int[] table, int shift) {
+        if (table.length != 256) {
+            throw new IllegalArgumentException("Lookup table has " + table.length + " entries, not 256");
+        }
+        int[] result = new int[256];
+        for (int v = 0; v < 256; v++) {
+            if (table[v] < 0 || table[v] > 255) {
+                throw new IllegalArgumentException("Lookup table entry " + table[v] + " is not from 0 to 255");
+            }
+            result[v] = table[v] << shift;
+        }
+        return result;
+    }
+
+    /**
+     * <p>
+     * Combine this table with one applied after it.
+     * </p>
+     *
+     * @param next The table applied to the results of this one.
+     * @return A table giving the same result as this one followed by the next.
+     */
+    LookupTable then(LookupTable next) {
+        int[][] tables = new int[4][256];
+        for (int v = 0; v < 256; v++) {
+            tables[0][v] = next.alpha[alpha[v] >>> 24] >>> 24;
+            tables[1][v] = next.red[red[v] >> 16] >> 16;
+            tables[2][v] = next.green[green[v] >> 8] >> 8;
+            tables[3][v] = next.blue[blue[v]];
+        }
+        return new LookupTable(tables[0], tables[1], tables[2], tables[3]);
+    }
+
+    /**
+     * <p>
+     * Look up the new value of a single pixel.
+     * </p>
+     *
+     * @param argb The pixel's value, in the default ARGB colour model.
+     * @return The pixel's new value.
+     */
+    public int filterRGB(int argb) {
+        return alpha[argb >>> 24] | red[(argb >> 16) & 0xFF] | green[(argb >> 8) & 0xFF] | blue[argb & 0xFF];
+    }
+
+    /**
+     * <p>
+     * Apply the table to every pixel of an image in one pass.
+     * </p>
+     *
+     * <p>
+     * Like {@link PixelAccess#filter}, the image is normalised first and then changed in
+     * place, so the result may be a new image. Large images are processed in parallel.
+     * </p>
+     *
+     * @param input The image to change.
+     * @return The changed image.
+     */
+    public BufferedImage apply(BufferedImage input) {
+        BufferedImage output = PixelAccess.normalise(input);
+        PixelAccess pixels = PixelAccess.of(output);
+        int[] data = pixels.getPixels();
+        int width = output.getWidth();
+        int height = output.getHeight();
+        TileExecutor.parallelFor((height + PART_ROWS - 1) / PART_ROWS, part -> {
+            int bottom = Math.min(height, (part + 1) * PART_ROWS);
+            for (int y = part * PART_ROWS; y < bottom; y++) {
+                int start = pixels.getIndex(0, y);
+                for (int i = start; i < start + width; i++) {
+                    int argb = data[i];
+                    data[i] = alpha[argb >>> 24] | red[(argb >> 16) & 0xFF] | green[(argb >> 8) & 0xFF] | blue[argb & 0xFF];
+                }
+            }
+        });
+        pixels.commit();
+        return output;
+    }
+}
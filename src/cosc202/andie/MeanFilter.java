@@ -1,9 +1,6 @@
 package cosc202.andie;
 
 import java.awt.image.BufferedImage;
-import java.awt.image.ConvolveOp;
-import java.awt.image.Kernel;
-import java.util.Arrays;
 
 /**
  * <p>
@@ -19,11 +16,14 @@ import java.util.Arrays;
  * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
  * </p>
  * 
- * @see java.awt.image.ConvolveOp
+ * @see IntegralImage
  * @author Steven Mills
  * @version 1.0
  */
-public class MeanFilter implements ImageOperation, java.io.Serializable {
+public class MeanFilter implements ScalableOperation, java.io.Serializable {
+
+    /** The serial version of earlier releases, so that operations they saved can still be read. */
+    private static final long serialVersionUID = 1102959836111730873L;
     
     /**
      * The size of filter to apply. A radius of 1 is a 3x3 filter, a radius of 2 a 5x5 filter, and so forth.
@@ -68,9 +68,14 @@ public class MeanFilter implements ImageOperation, java.io.Serializable {
      * </p>
      * 
      * <p>
-     * As with many filters, the Mean filter is implemented via convolution.
-     * The size of the convolution kernel is specified by the radius.
-     * Larger radii lead to stronger blurring.
+     * The Mean filter is equivalent to a convolution whose kernel size is specified by
+     * the radius. Larger radii lead to stronger blurring.
+     * </p>
+     * 
+     * <p>
+     * Rather than convolving, each mean is found from a summed-area table in constant
+     * time, so large radii are as fast as small ones. As with a zero-filling convolution,
+     * pixels closer to the border than the radius are left at zero before the offset.
      * </p>
      * 
      * @param input The image to apply the Mean filter to.
@@ -79,49 +84,62 @@ public class MeanFilter implements ImageOperation, java.io.Serializable {
      * @return The resulting (blurred) image.
      */
     public BufferedImage apply(BufferedImage input, int offset) {
-        int size = (2*radius+1) * (2*radius+1);
-        float [] array = new float[size];
-        Arrays.fill(array, 1.0f/size);
-
-        Kernel kernel = new Kernel(2*radius+1, 2*radius+1, array);
-        ConvolveOp convOp = new ConvolveOp(kernel);
-        BufferedImage output = new BufferedImage(input.getColorModel(), input.copyData(null), input.isAlphaPremultiplied(), null);
-        convOp.filter(input, output);
-
-           // Apply the offset to adjust for negative values if necessary
-           applyOffsetAndNormalize(output, offset);
-
-
-        return output;
+        return TileExecutor.apply(input, radius, band -> filter(band, offset));
     }
 
     /**
      * <p>
-     * Apply an offset to an image and normalize the result.
+     * Apply the Mean filter and offset to a whole image or one band of it.
      * </p>
      *
-     * @param image The image to apply the offset and normalize to.
-     * @param offset The offset to apply to the image.
+     * @param input The image or band to filter.
+     * @param offset The offset to apply to the resulting image.
+     * @return The filtered image or band.
+     * @see TileExecutor
      */
-    private void applyOffsetAndNormalize(BufferedImage image, int offset) {
-        int width = image.getWidth();
-        int height = image.getHeight();
+    private BufferedImage filter(BufferedImage input, int offset) {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        int diameter = 2*radius+1;
+        long size = (long) diameter * diameter;
+        BufferedImage output = new BufferedImage(input.getColorModel(),
+                input.getRaster().createCompatibleWritableRaster(width, height), input.isAlphaPremultiplied(), null);
+        PixelAccess target = PixelAccess.of(output);
+        int[] result = target.getPixels();
+        IntegralImage table = new IntegralImage(PixelAccess.ofSamples(input), width, height, diameter);
+        long[] sums = new long[3];
+        // A grey image's samples are averaged as stored, as by ConvolveOp, and only then converted to add the offset.
+        int[] levels = PixelAccess.isGrey(input) ? PixelAccess.greyLevels(input) : null;
+
+        // The alpha channel is dropped, as it was when the offset was applied pixel by pixel.
+        int zero = normalizeColour(offset);
+        int border = (zero << 16) | (zero << 8) | zero;
         for (int y = 0; y < height; y++) {
+            OperationWorker.checkCancelled();
+            OperationWorker.reportProgress(y, height);
+            int start = target.getIndex(0, y);
+            boolean inside = y >= radius && y < height - radius;
             for (int x = 0; x < width; x++) {
-                int rgb = image.getRGB(x, y);
-                int red = ((rgb >> 16) & 0xFF) + offset;
-                int green = ((rgb >> 8) & 0xFF) + offset;
-                int blue = (rgb & 0xFF) + offset;
-
-                // Normalize to ensure values are within [0, 255]
-                red = normalizeColour(red);
-                green = normalizeColour(green);
-                blue = normalizeColour(blue);
-
-                image.setRGB(x, y, (red << 16) | (green << 8) | blue);
+                if (!inside || x < radius || x >= width - radius) {
+                    result[start + x] = border;
+                    continue;
+                }
+                table.sum(x - radius, y - radius, x + radius + 1, y + radius + 1, sums);
+                if (levels != null) {
+                    int grey = normalizeColour((levels[(int) (sums[1] / size)] & 0xFF) + offset);
+                    result[start + x] = (grey << 16) | (grey << 8) | grey;
+                    continue;
+                }
+                int red = normalizeColour((int) (sums[0] / size) + offset);
+                int green = normalizeColour((int) (sums[1] / size) + offset);
+                int blue = normalizeColour((int) (sums[2] / size) + offset);
+                result[start + x] = (red << 16) | (green << 8) | blue;
             }
         }
+        target.commit();
+        return output;
     }
+
     /**
      * <p>
      * Normalize a colour value to ensure it is within the range [0, 255].
@@ -145,5 +163,15 @@ public class MeanFilter implements ImageOperation, java.io.Serializable {
         return apply(input, 128);  // Assume an offset that centers around 128 for demonstration
     }
 
- 
+    /**
+     * <p>
+     * Get the equivalent of this filter for a copy of the image scaled by a given factor.
+     * </p>
+     *
+     * @param factor The size of the scaled image relative to the full-size one.
+     * @return A new MeanFilter with its radius scaled, but at least 1.
+     */
+    public ImageOperation scaled(double factor) {
+        return new MeanFilter(Math.max(1, (int) Math.round(radius * factor)));
+    }
 }
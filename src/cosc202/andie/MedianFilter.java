@@ -1,9 +1,7 @@
 package cosc202.andie;
 
-import java.awt.Color;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 /**
  * <p>
  * ImageOperation to apply a median blur to an image
@@ -17,7 +15,7 @@ import java.util.Collections;
  * @author Liam Walls
  * @version 1.0
  */
-public class MedianFilter implements ImageOperation{
+public class MedianFilter implements ScalableOperation{
     /**
      * The size of the sorted area applied to each pixel.  
      * A radius of 1 is a 3x3 area
@@ -60,56 +58,264 @@ public class MedianFilter implements ImageOperation{
      * The larger the supplied radius the more blurred the image
      * </p>
      * 
+     * <p>
+     * Each colour channel's median is found with sliding histograms, so the time taken
+     * hardly depends on the radius. Pixels near the border are filtered too, treating
+     * the pixels beyond the border as copies of the edge. As before, the result is opaque.
+     * </p>
+     * 
      * @param input the image to apply the median filter to
      * @return the blurred image
      */
     public BufferedImage apply(BufferedImage input) {
+        return TileExecutor.apply(input, radius, this::filter);
+    }
 
-        BufferedImage output = new BufferedImage(input.getColorModel(), input.copyData(null), input.isAlphaPremultiplied(), null);
-        for (int i = radius; i < output.getHeight() - radius; i++) {
-            for (int j = radius; j < output.getWidth() - radius; j++) {
-                output.setRGB(j, i, getMedianPixel(input, j, i, radius));
+    /**
+     * <p>
+     * Apply the median filter to a whole image or one band of it.
+     * </p>
+     *
+     * @param input The image or band to filter.
+     * @return The filtered image or band.
+     * @see TileExecutor
+     */
+    private BufferedImage filter(BufferedImage input) {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        PixelAccess pixels = PixelAccess.of(input);
+        int[] source = pixels.getPixels();
+        int sourceStart = pixels.getIndex(0, 0);
+        int sourceStride = pixels.getStride();
+
+        BufferedImage output = PixelAccess.blankLike(input);
+        PixelAccess target = PixelAccess.of(output);
+        int[] result = target.getPixels();
+
+        Channel[] channels = { new Channel(16, width, radius), new Channel(8, width, radius), new Channel(0, width, radius) };
+
+        // Rows and columns beyond the border repeat the edge pixels.
+        for (int i = -radius; i <= radius; i++) {
+            int row = sourceStart + clamp(i, height) * sourceStride;
+            for (Channel channel: channels) {
+                channel.addRow(source, row, 1);
             }
         }
-        
+        int threshold = (2 * radius + 1) * (2 * radius + 1) / 2;
+        for (int y = 0; y < height; y++) {
+            OperationWorker.checkCancelled();
+            OperationWorker.reportProgress(y, height);
+
+            for (Channel channel: channels) {
+                channel.startRow();
+            }
+            int out = target.getIndex(0, y);
+            for (int x = 0; x < width; x++) {
+                int argb = 0xFF000000;
+                for (Channel channel: channels) {
+                    argb |= channel.median(x, threshold) << channel.shift;
+                    channel.slide(x);
+                }
+                result[out + x] = argb;
+            }
+
+            int leaving = sourceStart + clamp(y - radius, height) * sourceStride;
+            int entering = sourceStart + clamp(y + radius + 1, height) * sourceStride;
+            for (Channel channel: channels) {
+                channel.addRow(source, leaving, -1);
+                channel.addRow(source, entering, 1);
+            }
+        }
+
+        target.commit();
         return output;
     }
 
     /**
      * <p>
-     * A function that takes a pixel and replaces it with a new pixel made of
-     * the median red, blue, green and alpha values in the pixels in a radius around it.
+     * Clamp a row or column index to the image, so that pixels beyond the border repeat the edge.
      * </p>
-     * @param input the image to supply the pixels around it
-     * @param j the coordinates of the pixel being altered
-     * @param i the coordinates of the pixel being altered
-     * @param radius the radius of the area being set to median around the pixel
-     * @return an int representing the colour of the new pixel
+     *
+     * @param i The index.
+     * @param size The width or height of the image.
+     * @return The nearest index within the image.
      */
-    private static int getMedianPixel(BufferedImage input, int j, int i, int radius) {
-        ArrayList<Integer> reds = new ArrayList<>();
-        ArrayList<Integer> greens = new ArrayList<>();
-        ArrayList<Integer> blues = new ArrayList<>();
-        ArrayList<Integer> alphas = new ArrayList<>();
-        for (int y = -radius; y <= radius; y++) {
-            for (int x = -radius; x <= radius; x++) {
-                Color color = new Color(input.getRGB(j + x, i + y));
-                reds.add(color.getRed());
-                greens.add(color.getGreen());
-                blues.add(color.getBlue());
-                alphas.add(color.getAlpha());
+    private static int clamp(int i, int size) {
+        return Math.max(0, Math.min(size - 1, i));
+    }
+
+    /**
+     * <p>
+     * The histograms used to find the median of one colour channel.
+     * </p>
+     *
+     * <p>
+     * This follows Perreault and H&eacute;bert's constant-time median filter. Every column
+     * of the image keeps a histogram of the 2r+1 pixels around the current row, updated by
+     * one pixel in and one out as the row moves down. The histogram of the square window
+     * around a pixel is the sum of 2r+1 column histograms, and moving one pixel right adds
+     * one column and removes another, so the cost per pixel does not depend on the radius.
+     * </p>
+     *
+     * <p>
+     * Each 256-bin histogram is paired with a coarse 16-bin histogram of the high four bits.
+     * Only the coarse window histogram is updated at every step. Each 16-bin segment of the
+     * fine window histogram is brought up to date only when the median falls in it, which
+     * is usually the same segment as for the previous pixel.
+     * </p>
+     */
+    private static class Channel {
+
+        /** The bit position of this channel in an ARGB pixel. */
+        final int shift;
+        /** The width of the image. */
+        private final int width;
+        /** The radius of the filter. */
+        private final int radius;
+        /** The fine histogram of each column, 256 bins per column. */
+        private final char[] columnFine;
+        /** The coarse histogram of each column, 16 bins per column. */
+        private final int[] columnCoarse;
+        /** The fine histogram of the window, valid segment by segment. */
+        private final int[] windowFine = new int[256];
+        /** The coarse histogram of the window around the current pixel. */
+        private final int[] windowCoarse = new int[16];
+        /** The column each segment of the fine window histogram is up to date for. */
+        private final int[] segmentColumn = new int[16];
+
+        /**
+         * <p>
+         * Create empty histograms for one channel.
+         * </p>
+         *
+         * @param shift The bit position of the channel in an ARGB pixel.
+         * @param width The width of the image.
+         * @param radius The radius of the filter.
+         */
+        Channel(int shift, int width, int radius) {
+            this.shift = shift;
+            this.width = width;
+            this.radius = radius;
+            this.columnFine = new char[width * 256];
+            this.columnCoarse = new int[width * 16];
+        }
+
+        /**
+         * <p>
+         * Add a row of pixels to, or remove it from, the column histograms.
+         * </p>
+         *
+         * @param pixels The ARGB pixels of the image.
+         * @param start The index of the first pixel of the row.
+         * @param delta 1 to add the row, -1 to remove it.
+         */
+        void addRow(int[] pixels, int start, int delta) {
+            for (int x = 0; x < width; x++) {
+                int value = (pixels[start + x] >> shift) & 0xFF;
+                columnFine[x * 256 + value] += delta;
+                columnCoarse[x * 16 + (value >> 4)] += delta;
+            }
+        }
+
+        /**
+         * <p>
+         * Set up the window histogram for the first pixel of a row.
+         * </p>
+         */
+        void startRow() {
+            Arrays.fill(windowCoarse, 0);
+            for (int i = -radius; i <= radius; i++) {
+                int column = clamp(i, width) * 16;
+                for (int k = 0; k < 16; k++) {
+                    windowCoarse[k] += columnCoarse[column + k];
+                }
+            }
+            // No fine segment is up to date yet.
+            Arrays.fill(segmentColumn, -1);
+        }
+
+        /**
+         * <p>
+         * Move the coarse window histogram from one pixel to the next along the row.
+         * </p>
+         *
+         * @param x The column the window is moving from.
+         */
+        void slide(int x) {
+            int leaving = clamp(x - radius, width) * 16;
+            int entering = clamp(x + radius + 1, width) * 16;
+            for (int k = 0; k < 16; k++) {
+                windowCoarse[k] += columnCoarse[entering + k] - columnCoarse[leaving + k];
+            }
+        }
+
+        /**
+         * <p>
+         * Find the median of the window around a pixel.
+         * </p>
+         *
+         * @param x The column of the pixel, whose coarse window histogram is current.
+         * @param threshold The number of window values that lie below the median.
+         * @return The median value.
+         */
+        int median(int x, int threshold) {
+            int below = 0;
+            int segment = 0;
+            while (below + windowCoarse[segment] <= threshold) {
+                below += windowCoarse[segment];
+                segment++;
+            }
+            updateSegment(segment, x);
+            int value = segment * 16;
+            while (below + windowFine[value] <= threshold) {
+                below += windowFine[value];
+                value++;
             }
+            return value;
         }
 
-        Collections.sort(reds);
-        Collections.sort(blues);
-        Collections.sort(greens);
-        Collections.sort(alphas);
-        int medianRed = reds.get(reds.size() / 2);
-        int medianBlue = blues.get(blues.size() /2);
-        int medianGreen = greens.get(greens.size() / 2);
-        int medianAlpha = alphas.get(alphas.size() /2);
-        return new Color(medianRed, medianGreen, medianBlue, medianAlpha).getRGB();
+        /**
+         * <p>
+         * Bring one segment of the fine window histogram up to date for a pixel.
+         * </p>
+         *
+         * @param segment The segment, the high four bits of the values it counts.
+         * @param x The column of the pixel.
+         */
+        private void updateSegment(int segment, int x) {
+            int from = segmentColumn[segment];
+            int base = segment * 16;
+            if (from < 0 || x - from > 2 * radius + 1) {
+                // Cheaper to sum the columns of the window afresh.
+                Arrays.fill(windowFine, base, base + 16, 0);
+                for (int i = -radius; i <= radius; i++) {
+                    int column = clamp(x + i, width) * 256 + base;
+                    for (int k = 0; k < 16; k++) {
+                        windowFine[base + k] += columnFine[column + k];
+                    }
+                }
+            } else {
+                for (int t = from; t < x; t++) {
+                    int leaving = clamp(t - radius, width) * 256 + base;
+                    int entering = clamp(t + radius + 1, width) * 256 + base;
+                    for (int k = 0; k < 16; k++) {
+                        windowFine[base + k] += columnFine[entering + k] - columnFine[leaving + k];
+                    }
+                }
+            }
+            segmentColumn[segment] = x;
+        }
     }
 
+    /**
+     * <p>
+     * Get the equivalent of this filter for a copy of the image scaled by a given factor.
+     * </p>
+     *
+     * @param factor The size of the scaled image relative to the full-size one.
+     * @return A new MedianFilter with its radius scaled, but at least 1.
+     */
+    public ImageOperation scaled(double factor) {
+        return new MedianFilter(Math.max(1, (int) Math.round(radius * factor)));
+    }
 }
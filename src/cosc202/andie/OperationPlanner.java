@@ -0,0 +1,93 @@
+package cosc202.andie;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Rewrites a sequence of {@link ImageOperation}s into fewer passes over the image before it is replayed.
+ * </p>
+ *
+ * <p>
+ * Replaying a long history or a recorded macro applies every operation in turn, and each one
+ * reads and writes the whole image. Many common operations can be combined, though: a run of
+ * flips and quarter-turn rotations always amounts to a single {@link Orientation}, often
+ * the identity, and a run of per-pixel colour adjustments can be applied to each pixel
+ * in turn during one pass. The planner finds such runs and replaces each with a
+ * {@link FusedOperation}; every other operation is left exactly where it was.
+ * </p>
+ *
+ * <p>
+ * The plan gives the same image as the original sequence, so it is only used for replays.
+ * The operation stack itself always keeps the operations the user applied, so that undo,
+ * redo and saved operation files are unaffected.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @version 1.0
+ */
+class OperationPlanner {
+
+    /**
+     * <p>
+     * OperationPlanner only has static methods, so should not be instantiated.
+     * </p>
+     */
+    private OperationPlanner() {
+    }
+
+    /**
+     * <p>
+     * Plan the replay of a sequence of operations.
+     * </p>
+     *
+     * @param sequence The operations to be applied, in order.
+     * @return An equivalent sequence in which each run of fusable operations is a single {@link FusedOperation}.
+     */
+    static List<ImageOperation> plan(List<ImageOperation> sequence) {
+        List<ImageOperation> plan = new ArrayList<ImageOperation>();
+        List<ImageOperation> run = new ArrayList<ImageOperation>();
+        for (ImageOperation op: sequence) {
+            if (isFusable(op)) {
+                run.add(op);
+            } else {
+                flush(run, plan);
+                plan.add(op);
+            }
+        }
+        flush(run, plan);
+        return plan;
+    }
+
+    /**
+     * <p>
+     * Check whether an operation can be part of a {@link FusedOperation}.
+     * </p>
+     *
+     * @param op The operation to check.
+     * @return True for flips, quarter-turn rotations and per-pixel colour operations.
+     */
+    static boolean isFusable(ImageOperation op) {
+        return op instanceof OrientationOperation || op instanceof PixelOperation;
+    }
+
+    /**
+     * <p>
+     * Add a run of fusable operations to a plan and empty it.
+     * </p>
+     *
+     * @param run The run of fusable operations.
+     * @param plan The plan being built.
+     */
+    private static void flush(List<ImageOperation> run, List<ImageOperation> plan) {
+        if (run.size() == 1) {
+            plan.add(run.get(0));
+        } else if (run.size() > 1) {
+            plan.add(new FusedOperation(run));
+        }
+        run.clear();
+    }
+}
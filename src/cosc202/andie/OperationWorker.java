@@ -0,0 +1,299 @@
+package cosc202.andie;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+import javax.swing.SwingWorker;
+
+/**
+ * <p>
+ * Applies an {@link ImageOperation} on a background thread.
+ * </p>
+ *
+ * <p>
+ * Slow operations such as a large {@link MedianFilter} would freeze the whole interface if
+ * they ran on the Swing event dispatch thread. An OperationWorker runs the operation on
+ * Swing's worker thread pool instead, on a private copy of the image, and hands the result
+ * back to its {@link EditableImage} on the event dispatch thread once it is finished.
+ * The image only publishes the result if this worker is still the one it is waiting on,
+ * so a cancelled or superseded operation never changes what is displayed.
+ * </p>
+ *
+ * <p>
+ * Operations can report their progress with {@link #reportProgress(long, long)}, and can
+ * stop early by calling {@link #checkCancelled()} regularly. Both do nothing when the
+ * operation is not running on an OperationWorker, so operations can call them freely.
+ * An operation that splits its work across other threads can run each part through
+ * {@link #runPart(Supplier)} so that the parts can still be cancelled.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @see EditableImage#applyInBackground(ImageOperation, IntConsumer, Runnable)
+ * @version 1.0
+ */
+class OperationWorker extends SwingWorker<BufferedImage, Void> {
+
+    /** The worker whose operation is running on the current thread, if any. */
+    private static final ThreadLocal<OperationWorker> ACTIVE = new ThreadLocal<OperationWorker>();
+    /** The worker that a part of an operation running on the current thread belongs to, if any. */
+    private static final ThreadLocal<OperationWorker> PART = new ThreadLocal<OperationWorker>();
+
+    /** The image the result will be published to. */
+    private final EditableImage owner;
+    /** The operation to apply. */
+    private final ImageOperation op;
+    /** Supplies a private copy of the image to apply the operation to. */
+    private final Supplier<BufferedImage> input;
+    /** Called on the event dispatch thread once the worker has finished or been cancelled. */
+    private final Runnable whenDone;
+    /** How long the operation took to apply, in nanoseconds. */
+    private long elapsed;
+    /** The share of the operation's work, from 0 to 1, done before its current stage. */
+    private volatile double stageStart;
+    /** The share of the operation's work that its current stage makes up. */
+    private volatile double stageShare = 1;
+
+    /**
+     * <p>
+     * Create a new OperationWorker.
+     * </p>
+     *
+     * @param owner The image the result will be published to.
+     * @param op The operation to apply.
+     * @param input Supplies a private copy of the image to apply the operation to.
+     * @param progress Called on the event dispatch thread with the percentage complete (ignored if null).
+     * @param whenDone Called on the event dispatch thread once the worker has finished or been cancelled (ignored if null).
+     */
+    OperationWorker(EditableImage owner, ImageOperation op, Supplier<BufferedImage> input, IntConsumer progress, Runnable whenDone) {
+        this.owner = owner;
+        this.op = op;
+        this.input = input;
+        this.whenDone = whenDone;
+        if (progress != null) {
+            addPropertyChangeListener(e -> {
+                if ("progress".equals(e.getPropertyName()) && owner.isWaitingOn(this)) {
+                    progress.accept((Integer) e.getNewValue());
+                }
+            });
+        }
+    }
+
+    /**
+     * <p>
+     * Apply the operation, on a worker thread.
+     * </p>
+     *
+     * @return The image resulting from the operation.
+     */
+    @Override
+    protected BufferedImage doInBackground() {
+        ACTIVE.set(this);
+        try {
+            BufferedImage image = input.get();
+            checkCancelled();
+            long began = System.nanoTime();
+            BufferedImage result = op.apply(image);
+            elapsed = System.nanoTime() - began;
+            setProgress(100);
+            return result;
+        } finally {
+            ACTIVE.remove();
+        }
+    }
+
+    /**
+     * <p>
+     * Publish the result to the image, on the event dispatch thread.
+     * </p>
+     *
+     * <p>
+     * Nothing is published if the worker was cancelled. An exception thrown by the operation
+     * is rethrown here, just as it would have been had the operation run on this thread.
+     * </p>
+     */
+    @Override
+    protected void done() {
+        try {
+            if (!isCancelled()) {
+                owner.publish(this, get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            owner.publish(this, null);
+            throw new RuntimeException(ex.getCause());
+        } finally {
+            if (whenDone != null) {
+                whenDone.run();
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Get the operation this worker applies.
+     * </p>
+     *
+     * @return The operation.
+     */
+    ImageOperation getOperation() {
+        return op;
+    }
+
+    /**
+     * <p>
+     * Get how long the operation took to apply.
+     * </p>
+     *
+     * @return The time taken, in nanoseconds.
+     */
+    long getElapsedNanos() {
+        return elapsed;
+    }
+
+    /**
+     * <p>
+     * Report how far through its work the running operation is.
+     * </p>
+     *
+     * <p>
+     * Nothing is reported from within a part of an operation run through
+     * {@link #runPart(Supplier)}, since a part only knows about its own share of the work.
+     * </p>
+     *
+     * @param done The number of units of work done, such as rows processed.
+     * @param total The total number of units of work.
+     */
+    static void reportProgress(long done, long total) {
+        if (PART.get() != null) {
+            return;
+        }
+        OperationWorker worker = ACTIVE.get();
+        if (worker != null) {
+            worker.progress(done, total);
+        }
+    }
+
+    /**
+     * <p>
+     * Report how far through its work this worker's operation is, from any thread.
+     * </p>
+     *
+     * @param done The number of units of work done, such as rows processed.
+     * @param total The total number of units of work.
+     */
+    void progress(long done, long total) {
+        if (total > 0) {
+            double fraction = stageStart + stageShare * Math.max(0, Math.min(1, (double) done / total));
+            setProgress((int) Math.min(99, 100 * fraction));
+        }
+    }
+
+    /**
+     * <p>
+     * Report that the running operation has started a new stage of its work.
+     * </p>
+     *
+     * <p>
+     * An operation made up of others, such as a replay of the operation stack, can run each
+     * of them as a stage. The progress they report is then taken as progress through their
+     * own stage, rather than through the whole operation. Like
+     * {@link #reportProgress(long, long)}, nothing is reported from within a part.
+     * </p>
+     *
+     * @param from The number of units of work done before the stage.
+     * @param to The number of units of work done once the stage is finished.
+     * @param total The total number of units of work.
+     */
+    static void reportStage(long from, long to, long total) {
+        OperationWorker worker = ACTIVE.get();
+        if (worker == null || PART.get() != null || total <= 0) {
+            return;
+        }
+        worker.stageStart = (double) from / total;
+        worker.stageShare = (double) (to - from) / total;
+        worker.progress(0, 1);
+    }
+
+    /**
+     * <p>
+     * Get the worker whose operation, or part of one, is running on the current thread.
+     * </p>
+     *
+     * @return The worker, or null if the current thread is not running an operation on a worker.
+     */
+    static OperationWorker active() {
+        OperationWorker worker = ACTIVE.get();
+        return worker != null ? worker : PART.get();
+    }
+
+    /**
+     * <p>
+     * Check whether the current thread is running a part of an operation.
+     * </p>
+     *
+     * <p>
+     * Work split up within a part should not report progress, since it is only a share of
+     * the part's work, which is itself only a share of the operation's.
+     * </p>
+     *
+     * @return True if the current thread is within {@link #runPart(Supplier)}.
+     */
+    static boolean inPart() {
+        return PART.get() != null;
+    }
+
+    /**
+     * <p>
+     * Run part of this worker's operation on the current thread.
+     * </p>
+     *
+     * <p>
+     * While the part runs {@link #checkCancelled()} stops it if the worker is cancelled.
+     * Progress reported by the part is ignored, since it only knows about its own share of
+     * the work; the operation should report overall progress with {@link #progress(long, long)}.
+     * Parts may be nested, and the current thread goes back to running the enclosing part,
+     * if any, once this one is finished.
+     * </p>
+     *
+     * @param <T> The type of the part's result.
+     * @param part The part to run.
+     * @return The part's result.
+     */
+    <T> T runPart(Supplier<T> part) {
+        OperationWorker enclosing = PART.get();
+        PART.set(this);
+        try {
+            return part.get();
+        } finally {
+            if (enclosing == null) {
+                PART.remove();
+            } else {
+                PART.set(enclosing);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Stop the running operation if its worker has been cancelled.
+     * </p>
+     *
+     * @throws CancellationException If the worker running the operation has been cancelled.
+     */
+    static void checkCancelled() {
+        OperationWorker worker = ACTIVE.get();
+        if (worker == null) {
+            worker = PART.get();
+        }
+        if (worker != null && worker.isCancelled()) {
+            throw new CancellationException();
+        }
+    }
+}
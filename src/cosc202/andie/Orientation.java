@@ -0,0 +1,399 @@
+package cosc202.andie;
+
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * The eight ways of flipping and quarter-turn rotating an image.
+ * </p>
+ *
+ * <p>
+ * Flips and rotations by multiples of 90 degrees form a small closed set: doing one after
+ * another always gives one of these eight orientations. This makes it possible to replace
+ * any run of such operations with a single transform, or with nothing at all when they
+ * cancel out, such as a left rotation followed by a right one.
+ * </p>
+ *
+ * <p>
+ * Each orientation is stored as a 2x2 matrix acting on pixel coordinates measured from the
+ * centre of the image, with y increasing downwards as it does on screen.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @see OrientationOperation
+ * @version 1.0
+ */
+public enum Orientation {
+
+    /** Leave the image as it is. */
+    IDENTITY(1, 0, 0, 1),
+    /** Rotate 90 degrees anticlockwise, as {@link RotateLeft} does. */
+    ROTATE_LEFT(0, 1, -1, 0),
+    /** Rotate 90 degrees clockwise, as {@link RotateRight} does. */
+    ROTATE_RIGHT(0, -1, 1, 0),
+    /** Rotate 180 degrees, as {@link Rotate180} does. */
+    ROTATE_180(-1, 0, 0, -1),
+    /** Mirror left to right, as {@link FlipHorizontal} does. */
+    FLIP_HORIZONTAL(-1, 0, 0, 1),
+    /** Mirror top to bottom, as {@link FlipVertical} does. */
+    FLIP_VERTICAL(1, 0, 0, -1),
+    /** Mirror about the diagonal from top left to bottom right. */
+    TRANSPOSE(0, 1, 1, 0),
+    /** Mirror about the diagonal from top right to bottom left. */
+    TRANSVERSE(0, -1, -1, 0);
+
+    /**
+     * The number of source rows copied together. A band this tall is small enough for the
+     * cache to hold a line of each of its rows while a quarter turn copies it column by column.
+     */
+    private static final int BLOCK = 64;
+
+    /** The matrix entries, in row-major order. */
+    private final int a, b, c, d;
+
+    /**
+     * <p>
+     * Create an orientation from its matrix.
+     * </p>
+     *
+     * @param a The top left entry.
+     * @param b The top right entry.
+     * @param c The bottom left entry.
+     * @param d The bottom right entry.
+     */
+    Orientation(int a, int b, int c, int d) {
+        this.a = a;
+        this.b = b;
+        this.c = c;
+        this.d = d;
+    }
+
+    /**
+     * <p>
+     * Get the orientation produced by applying this one and then another.
+     * </p>
+     *
+     * @param next The orientation applied afterwards.
+     * @return The combined orientation.
+     */
+    Orientation then(Orientation next) {
+        int pa = next.a * a + next.b * c;
+        int pb = next.a * b + next.b * d;
+        int pc = next.c * a + next.d * c;
+        int pd = next.c * b + next.d * d;
+        for (Orientation o: values()) {
+            if (o.a == pa && o.b == pb && o.c == pc && o.d == pd) {
+                return o;
+            }
+        }
+        throw new AssertionError("Orientations are closed under composition");
+    }
+
+    /**
+     * <p>
+     * Get the orientation that undoes this one.
+     * </p>
+     *
+     * @return The inverse orientation.
+     */
+    Orientation inverse() {
+        // Signed permutation matrices are orthogonal, so the inverse is the transpose.
+        for (Orientation o: values()) {
+            if (o.a == a && o.b == c && o.c == b && o.d == d) {
+                return o;
+            }
+        }
+        throw new AssertionError("Every orientation has an inverse");
+    }
+
+    /**
+     * <p>
+     * Check whether this orientation swaps the width and height of an image.
+     * </p>
+     *
+     * @return True for quarter turns and diagonal mirrors.
+     */
+    boolean swapsAxes() {
+        return a == 0;
+    }
+
+    /**
+     * <p>
+     * Get the transform that draws an image in this orientation.
+     * </p>
+     *
+     * <p>
+     * The transform maps the image's coordinates to those of the transformed image, so
+     * drawing through it shows exactly the pixels {@link #transform} would produce,
+     * without moving any of them.
+     * </p>
+     *
+     * @param width The width of the image before it is transformed.
+     * @param height The height of the image before it is transformed.
+     * @return The transform.
+     */
+    AffineTransform toAffineTransform(int width, int height) {
+        int outWidth = swapsAxes() ? height : width;
+        int outHeight = swapsAxes() ? width : height;
+        // The centre of the image stays at the centre.
+        return new AffineTransform(a, c, b, d, (outWidth - a * width - b * height) / 2.0,
+                (outHeight - c * width - d * height) / 2.0);
+    }
+
+    /**
+     * <p>
+     * Apply this orientation to an image.
+     * </p>
+     *
+     * <p>
+     * The result is a new image of the same type as the input, holding exactly the same
+     * pixel values, only moved. Images whose pixels are packed into ints or interleaved
+     * bytes, as most are, have their pixel arrays copied directly; other images have their
+     * samples copied through the raster a block at a time.
+     * </p>
+     *
+     * <p>
+     * The source rows are copied in bands of {@link #BLOCK} rows, in parallel. A flip or
+     * half turn keeps rows as rows, so each row is copied whole, or reversed. A quarter turn
+     * or diagonal mirror turns rows into columns, so each band is copied a column at a time:
+     * the few cache lines of the band's rows under the current column serve the next
+     * columns as well, and each column is written out as a run of consecutive pixels.
+     * </p>
+     *
+     * @param input The image to transform.
+     * @return A new image holding the transformed pixels.
+     */
+    BufferedImage transform(BufferedImage input) {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        int outWidth = swapsAxes() ? height : width;
+        int outHeight = swapsAxes() ? width : height;
+        WritableRaster source = input.getRaster();
+        WritableRaster target = source.createCompatibleWritableRaster(outWidth, outHeight);
+        BufferedImage output = new BufferedImage(input.getColorModel(), target, input.isAlphaPremultiplied(), null);
+
+        // Work in doubled coordinates about the centre so that every step is an exact integer.
+        // Source pixel (x, y) then lands at (originX + a x + b y, originY + c x + d y).
+        int originX = (a * -(width - 1) + b * -(height - 1) + outWidth - 1) / 2;
+        int originY = (c * -(width - 1) + d * -(height - 1) + outHeight - 1) / 2;
+
+        int bands = (height + BLOCK - 1) / BLOCK;
+        Plane from = Plane.of(source);
+        Plane to = Plane.of(target);
+        if (from != null && to != null && from.size == to.size) {
+            int start = to.start + originY * to.stride + originX * to.size;
+            TileExecutor.parallelFor(bands, band -> move(from.data, from.start, from.stride,
+                    to.data, start, to.stride, from.size, width, band * BLOCK, Math.min(height, (band + 1) * BLOCK)));
+            return output;
+        }
+
+        // Pixels packed several to a byte share bytes across the columns of a row. A quarter
+        // turn writes each band to a strip of columns, so where the strips run right to left,
+        // the bands are shifted to put their edges on multiples of BLOCK, always a whole byte.
+        int skew = b < 0 && swapsAxes() ? (BLOCK - height % BLOCK) % BLOCK : 0;
+        int size = source.getNumBands();
+        TileExecutor.parallelFor((height + skew + BLOCK - 1) / BLOCK, band -> {
+            int top = Math.max(0, band * BLOCK - skew);
+            int bottom = Math.min(height, (band + 1) * BLOCK - skew);
+            int[] samples = source.getPixels(0, top, width, bottom - top, (int[]) null);
+
+            // The part of the output the band lands in.
+            int x0 = originX + Math.min(0, a * (width - 1)) + Math.min(b * top, b * (bottom - 1));
+            int y0 = originY + Math.min(0, c * (width - 1)) + Math.min(d * top, d * (bottom - 1));
+            int w = swapsAxes() ? bottom - top : width;
+            int h = swapsAxes() ? width : bottom - top;
+            int[] moved = new int[w * h * size];
+            move(samples, -top * width * size, width * size,
+                    moved, ((originY - y0) * w + originX - x0) * size, w * size, size, width, top, bottom);
+            target.setPixels(x0, y0, w, h, moved);
+        });
+        return output;
+    }
+
+    /**
+     * <p>
+     * Copy some rows of pixels to where this orientation puts them.
+     * </p>
+     *
+     * <p>
+     * The arrays are either both int arrays or both byte arrays. Each pixel is a run of
+     * consecutive elements, which are copied as they are.
+     * </p>
+     *
+     * @param source The source pixel array.
+     * @param sourceStart The index of source pixel (0, 0).
+     * @param sourceStride The number of elements from one source row to the next.
+     * @param target The target pixel array.
+     * @param targetStart The index that source pixel (0, 0) is copied to.
+     * @param targetStride The number of elements from one target row to the next.
+     * @param size The number of elements in a pixel.
+     * @param width The width of the source.
+     * @param top The first source row to copy.
+     * @param bottom The source row after the last one to copy.
+     */
+    private void move(Object source, int sourceStart, int sourceStride, Object target, int targetStart, int targetStride,
+            int size, int width, int top, int bottom) {
+        int stepX = a * size + c * targetStride;
+        int stepY = b * size + d * targetStride;
+        if (a == 1) {
+            // Rows stay rows in the same order, so copy each one whole.
+            for (int y = top; y < bottom; y++) {
+                System.arraycopy(source, sourceStart + y * sourceStride, target, targetStart + y * stepY, width * size);
+            }
+            return;
+        }
+        // Otherwise walk along each source row (a == -1) or down each column of the band (a == 0).
+        int lines = a == 0 ? width : bottom - top;
+        int length = a == 0 ? bottom - top : width;
+        int along = a == 0 ? sourceStride : size;
+        int across = a == 0 ? size : sourceStride;
+        int step = a == 0 ? stepY : stepX;
+        int next = a == 0 ? stepX : stepY;
+        int s = sourceStart + top * sourceStride;
+        int o = targetStart + top * stepY;
+        for (int line = 0; line < lines; line++, s += across, o += next) {
+            if (source instanceof int[]) {
+                copy((int[]) source, s, along, (int[]) target, o, step, size, length);
+            } else {
+                copy((byte[]) source, s, along, (byte[]) target, o, step, size, length);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Copy a line of pixels held in int arrays, each array read or written with a fixed step.
+     * </p>
+     *
+     * @param source The source array.
+     * @param from The index of the first source pixel.
+     * @param sourceStep The distance between source pixels.
+     * @param target The target array.
+     * @param to The index of the first target pixel.
+     * @param targetStep The distance between target pixels.
+     * @param size The number of elements in a pixel.
+     * @param length The number of pixels to copy.
+     */
+    private static void copy(int[] source, int from, int sourceStep, int[] target, int to, int targetStep, int size, int length) {
+        if (size == 1) {
+            for (int i = 0; i < length; i++, from += sourceStep, to += targetStep) {
+                target[to] = source[from];
+            }
+            return;
+        }
+        for (int i = 0; i < length; i++, from += sourceStep, to += targetStep) {
+            for (int k = 0; k < size; k++) {
+                target[to + k] = source[from + k];
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Copy a line of pixels held in byte arrays, each array read or written with a fixed step.
+     * </p>
+     *
+     * @param source The source array.
+     * @param from The index of the first source pixel.
+     * @param sourceStep The distance between source pixels.
+     * @param target The target array.
+     * @param to The index of the first target pixel.
+     * @param targetStep The distance between target pixels.
+     * @param size The number of elements in a pixel.
+     * @param length The number of pixels to copy.
+     */
+    private static void copy(byte[] source, int from, int sourceStep, byte[] target, int to, int targetStep, int size, int length) {
+        for (int i = 0; i < length; i++, from += sourceStep, to += targetStep) {
+            for (int k = 0; k < size; k++) {
+                target[to + k] = source[from + k];
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * The pixel array behind a raster, where each pixel is a run of consecutive elements.
+     * </p>
+     *
+     * <p>
+     * This covers the usual layouts: pixels packed into one int each, as in
+     * {@link BufferedImage#TYPE_INT_ARGB}, and samples interleaved in bytes, as in
+     * {@link BufferedImage#TYPE_3BYTE_BGR}.
+     * </p>
+     */
+    private static final class Plane {
+
+        /** The int or byte array holding the pixels. */
+        final Object data;
+        /** The index of the first element of pixel (0, 0). */
+        final int start;
+        /** The number of elements from one row to the next. */
+        final int stride;
+        /** The number of elements in a pixel. */
+        final int size;
+
+        /**
+         * <p>
+         * Describe a pixel array.
+         * </p>
+         *
+         * @param data The int or byte array holding the pixels.
+         * @param start The index of the first element of pixel (0, 0).
+         * @param stride The number of elements from one row to the next.
+         * @param size The number of elements in a pixel.
+         */
+        private Plane(Object data, int start, int stride, int size) {
+            this.data = data;
+            this.start = start;
+            this.stride = stride;
+            this.size = size;
+        }
+
+        /**
+         * <p>
+         * Get the pixel array behind a raster, if it has one of the usual layouts.
+         * </p>
+         *
+         * @param raster The raster.
+         * @return The pixel array, or null if the raster's pixels are laid out some other way.
+         */
+        static Plane of(WritableRaster raster) {
+            DataBuffer buffer = raster.getDataBuffer();
+            SampleModel model = raster.getSampleModel();
+            if (buffer.getNumBanks() != 1) {
+                return null;
+            }
+            if (buffer instanceof DataBufferInt && model instanceof SinglePixelPackedSampleModel) {
+                int stride = ((SinglePixelPackedSampleModel) model).getScanlineStride();
+                int start = buffer.getOffset() - raster.getSampleModelTranslateY() * stride
+                        - raster.getSampleModelTranslateX();
+                return new Plane(((DataBufferInt) buffer).getData(), start, stride, 1);
+            }
+            if (buffer instanceof DataBufferByte && model instanceof PixelInterleavedSampleModel) {
+                PixelInterleavedSampleModel interleaved = (PixelInterleavedSampleModel) model;
+                int size = interleaved.getPixelStride();
+                int[] offsets = interleaved.getBandOffsets();
+                if (Arrays.stream(offsets).min().getAsInt() != 0 || Arrays.stream(offsets).max().getAsInt() >= size) {
+                    return null;
+                }
+                int stride = interleaved.getScanlineStride();
+                int start = buffer.getOffset() - raster.getSampleModelTranslateY() * stride
+                        - raster.getSampleModelTranslateX() * size;
+                return new Plane(((DataBufferByte) buffer).getData(), start, stride, size);
+            }
+            return null;
+        }
+    }
+}
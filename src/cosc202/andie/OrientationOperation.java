@@ -0,0 +1,35 @@
+package cosc202.andie;
+
+/**
+ * <p>
+ * Interface for {@link ImageOperation}s that flip or rotate an image by a multiple of 90 degrees.
+ * </p>
+ *
+ * <p>
+ * Such an operation only moves pixels around, so it is completely described by an
+ * {@link Orientation}. The {@link OperationPlanner} uses this to combine a run of them
+ * into a single pass over the image.
+ * </p>
+ *
+ * <p>
+ * Implementations must behave exactly like {@link Orientation#transform}, producing a
+ * new image of the same type as the input.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @version 1.0
+ */
+public interface OrientationOperation extends ImageOperation {
+
+    /**
+     * <p>
+     * Get the orientation this operation applies.
+     * </p>
+     *
+     * @return The flip or rotation performed by this operation.
+     */
+    public Orientation getOrientation();
+}
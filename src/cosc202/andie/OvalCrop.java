@@ -7,9 +7,19 @@ import java.awt.image.BufferedImage;
  *  A class to crop an image based on the region selected
  * </p>
  *
+ * <p>
+ *  Oval crops are now made as {@link ShapeCrop}s, through {@link ShapeCrop#oval(Point, Point)}.
+ *  This class is kept so that operations saved by earlier releases can still be read, and
+ *  hands all of its work to the equivalent ShapeCrop, without touching its {@link ImagePanel}
+ *  superclass.
+ * </p>
+ *
  * @author Steven Simpson
  * */
-public class OvalCrop extends ImagePanel implements ImageOperation, java.io.Serializable  {
+public class OvalCrop extends ImagePanel implements RegionOperation, ScalableOperation, java.io.Serializable  {
+
+    /** The serial version of earlier releases, so that operations they saved can still be read. */
+    private static final long serialVersionUID = -397587456933923857L;
 
     private Point startPoint;
     private Point endPoint;
@@ -35,44 +45,43 @@ public class OvalCrop extends ImagePanel implements ImageOperation, java.io.Seri
      *
      * @param input The image to apply the crop to
      * @return BufferedImage The cropped image
+     * @see ShapeCrop#apply(BufferedImage)
      */
     public BufferedImage apply(BufferedImage input){
-        int x = Math.min(startPoint.x, endPoint.x);
-        int y = Math.min(startPoint.y, endPoint.y);
-        int width = Math.abs(startPoint.x - endPoint.x);
-        int height = Math.abs(startPoint.y - endPoint.y);
-
-        if(width>0 && height>0){
-            //new image for the masking
-            BufferedImage mask = new BufferedImage(input.getWidth(), input.getHeight(), BufferedImage.TYPE_INT_ARGB);
-            Graphics2D g2d = mask.createGraphics();
-            //enabling smoother edges
-            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            //set background to transparent
-            g2d.setBackground(new Color(0, 0, 0, 0));
-            //clear the image with the transparent background
-            g2d.clearRect(0, 0, mask.getWidth(), mask.getHeight());
-            //set colour to Black (colour of oval)
-            g2d.setColor(Color.BLACK);
-            //draw and fill oval using start/end points of selection
-            g2d.fillOval(x, y, width, height);
-
-            BufferedImage output = new BufferedImage(input.getWidth(), input.getHeight(), BufferedImage.TYPE_INT_ARGB);
-
-            // Get the graphics object from the output image
-            g2d = output.createGraphics();
-
-            // Draw the original image onto the result image using the mask
-            g2d.drawImage(input, 0, 0, null);
-            g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.DST_IN));
-            g2d.drawImage(mask, 0, 0, null);
+        return ShapeCrop.oval(startPoint, endPoint).apply(input);
+    }
 
-            // Dispose the graphics object
-            g2d.dispose();
+    /**
+     * <p>
+     * Gets the part of the image the oval is cut from.
+     * </p>
+     * 
+     * <p>
+     * This is the bounding box of the oval; the pixels inside it but outside the oval
+     * become transparent.
+     * </p>
+     * 
+     * @param width the width of the image to be cropped
+     * @param height the height of the image to be cropped
+     * @return the selected rectangle, within the image bounds
+     */
+    public Rectangle getAffectedRegion(int width, int height){
+        return ShapeCrop.oval(startPoint, endPoint).getAffectedRegion(width, height);
+    }
 
-            output = output.getSubimage(x, y, width, height);
-            return output;
-        }
-        return input;
+    /**
+     * <p>
+     * Gets the equivalent crop for a copy of the image scaled by a given factor.
+     * </p>
+     *
+     * <p>
+     * The corners are rounded to whole pixels before the oval is made, as they are at full size.
+     * </p>
+     *
+     * @param factor the size of the scaled image relative to the full-size one
+     * @return a new ShapeCrop to the oval between the scaled corners
+     */
+    public ImageOperation scaled(double factor){
+        return ShapeCrop.oval(RectangleCrop.scalePoint(startPoint, factor), RectangleCrop.scalePoint(endPoint, factor));
+    }
 }
-}
\ No newline at end of file
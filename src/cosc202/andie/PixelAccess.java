@@ -0,0 +1,319 @@
+package cosc202.andie;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * <p>
+ * Direct access to an image's pixels as an array of ARGB ints.
+ * </p>
+ *
+ * <p>
+ * Reading and writing single pixels with {@link BufferedImage#getRGB(int, int)} and
+ * {@link BufferedImage#setRGB(int, int, int)} converts every pixel through the image's
+ * colour model, which costs far more than the arithmetic most operations do on it.
+ * For a {@link BufferedImage#TYPE_INT_ARGB} image no conversion is needed at all: each
+ * pixel is already stored as one ARGB int, so operations can loop over the image's own
+ * pixel array row by row.
+ * </p>
+ *
+ * <p>
+ * Other images with 8 bits per channel of direct colour are normalised to
+ * {@link BufferedImage#TYPE_INT_ARGB} first, which leaves every pixel's ARGB value the same.
+ * Images of any other type, whose pixels may be rounded when written, are read into a copy
+ * of their ARGB values and written back with one bulk call, so that operations behave
+ * exactly as they would pixel by pixel.
+ * </p>
+ *
+ * <p>
+ * Filters that {@link java.awt.image.ConvolveOp} used to apply to the stored samples can
+ * ask for them with {@link #ofSamples(BufferedImage)} instead. For an 8-bit grey image,
+ * such as ImageIO makes of a greyscale PNG, <code>getRGB</code> converts every sample from
+ * the image's linear grey to sRGB, so filtering its ARGB values would filter different
+ * numbers, and the result would be converted back again. Its samples are instead given
+ * as opaque grey pixels whose red, green and blue are the stored sample.
+ * </p>
+ *
+ * <p>
+ * Pixel <code>(x, y)</code> is at <code>getPixels()[getIndex(x, y)]</code>. Rows are
+ * <code>getStride()</code> ints apart, which may be more than the width for a subimage.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @version 1.0
+ */
+final class PixelAccess {
+
+    /** The image being accessed. */
+    private final BufferedImage image;
+    /** The pixels, either the image's own or a copy to write back. */
+    private final int[] pixels;
+    /** The index of the top left pixel. */
+    private final int offset;
+    /** The distance between the starts of consecutive rows. */
+    private final int stride;
+    /** Whether the pixels are a copy that must be written back to the image. */
+    private final boolean copied;
+    /** Whether the pixels are grey samples, to be written back as samples rather than converted. */
+    private final boolean samples;
+
+    /**
+     * <p>
+     * Create a new PixelAccess.
+     * </p>
+     *
+     * @param image The image being accessed.
+     * @param pixels The pixels.
+     * @param offset The index of the top left pixel.
+     * @param stride The distance between the starts of consecutive rows.
+     * @param copied Whether the pixels are a copy.
+     * @param samples Whether the pixels are grey samples rather than ARGB values.
+     */
+    private PixelAccess(BufferedImage image, int[] pixels, int offset, int stride, boolean copied, boolean samples) {
+        this.image = image;
+        this.pixels = pixels;
+        this.offset = offset;
+        this.stride = stride;
+        this.copied = copied;
+        this.samples = samples;
+    }
+
+    /**
+     * <p>
+     * Get access to an image's pixels.
+     * </p>
+     *
+     * <p>
+     * The image is not normalised, so for anything but a {@link BufferedImage#TYPE_INT_ARGB}
+     * image the pixels are a copy, and changes only reach the image through {@link #commit()}.
+     * </p>
+     *
+     * @param image The image to access.
+     * @return Access to the image's pixels.
+     */
+    static PixelAccess of(BufferedImage image) {
+        if (isDirect(image)) {
+            WritableRaster raster = image.getRaster();
+            DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+            int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+            int offset = buffer.getOffset() - raster.getSampleModelTranslateY() * stride
+                    - raster.getSampleModelTranslateX();
+            return new PixelAccess(image, buffer.getData(), offset, stride, false, false);
+        }
+        int width = image.getWidth();
+        int[] pixels = image.getRGB(0, 0, width, image.getHeight(), null, 0, width);
+        return new PixelAccess(image, pixels, 0, width, true, false);
+    }
+
+    /**
+     * <p>
+     * Get access to an image's pixels as they are stored, without converting their colour.
+     * </p>
+     *
+     * <p>
+     * For an image that {@link #isGrey} accepts, each pixel is an opaque grey whose red,
+     * green and blue are the stored sample, and {@link #commit()} stores each pixel's green
+     * value as its sample. Any other image is accessed as by {@link #of(BufferedImage)}.
+     * </p>
+     *
+     * @param image The image to access.
+     * @return Access to the image's stored pixels.
+     */
+    static PixelAccess ofSamples(BufferedImage image) {
+        if (!isGrey(image)) {
+            return of(image);
+        }
+        int width = image.getWidth();
+        int[] pixels = image.getRaster().getSamples(0, 0, width, image.getHeight(), 0, (int[]) null);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | pixels[i] * 0x010101;
+        }
+        return new PixelAccess(image, pixels, 0, width, true, true);
+    }
+
+    /**
+     * <p>
+     * Check whether an image stores one 8-bit grey sample per pixel.
+     * </p>
+     *
+     * @param image The image to check.
+     * @return True if the image has a single 8-bit band that is not an index into a palette,
+     *         such as a {@link BufferedImage#TYPE_BYTE_GRAY} image.
+     */
+    static boolean isGrey(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        return raster.getNumBands() == 1 && raster.getSampleModel().getSampleSize(0) == 8
+                && !(image.getColorModel() instanceof IndexColorModel);
+    }
+
+    /**
+     * <p>
+     * Find the ARGB value of each sample an 8-bit grey image can store.
+     * </p>
+     *
+     * @param image An image that {@link #isGrey} accepts.
+     * @return The 256 values that <code>getRGB</code> gives for a pixel holding each sample.
+     */
+    static int[] greyLevels(BufferedImage image) {
+        WritableRaster raster = image.getRaster().createCompatibleWritableRaster(256, 1);
+        for (int sample = 0; sample < 256; sample++) {
+            raster.setSample(sample, 0, 0, sample);
+        }
+        BufferedImage levels = new BufferedImage(image.getColorModel(), raster, image.isAlphaPremultiplied(), null);
+        return levels.getRGB(0, 0, 256, 1, null, 0, 256);
+    }
+
+    /**
+     * <p>
+     * Check whether an image's own pixel array can be used directly.
+     * </p>
+     *
+     * @param image The image to check.
+     * @return True if the image is a {@link BufferedImage#TYPE_INT_ARGB} image.
+     */
+    static boolean isDirect(BufferedImage image) {
+        return image.getType() == BufferedImage.TYPE_INT_ARGB
+                && image.getRaster().getDataBuffer() instanceof DataBufferInt
+                && image.getRaster().getSampleModel() instanceof SinglePixelPackedSampleModel;
+    }
+
+    /**
+     * <p>
+     * Normalise an image to {@link BufferedImage#TYPE_INT_ARGB} where that changes no pixel.
+     * </p>
+     *
+     * <p>
+     * The result may be written in place: an image that shares its pixels with another,
+     * such as a {@link CropView}, is copied rather than returned as it is.
+     * </p>
+     *
+     * @param image The image to normalise.
+     * @return The image itself if it is already of that type or could lose precision by
+     *         converting, otherwise a new {@link BufferedImage#TYPE_INT_ARGB} copy.
+     */
+    static BufferedImage normalise(BufferedImage image) {
+        if (isDirect(image) || !EditableImage.hasExactPixels(image)) {
+            return CropView.writable(image);
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = ((DataBufferInt) output.getRaster().getDataBuffer()).getData();
+        image.getRGB(0, 0, width, height, pixels, 0, width);
+        return output;
+    }
+
+    /**
+     * <p>
+     * Create a blank image to hold the result of processing an image pixel by pixel.
+     * </p>
+     *
+     * @param image The image being processed.
+     * @return A new image of the same size, of type {@link BufferedImage#TYPE_INT_ARGB} where
+     *         {@link #normalise} would convert the image, otherwise of the same type.
+     */
+    static BufferedImage blankLike(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (EditableImage.hasExactPixels(image)) {
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        }
+        return new BufferedImage(image.getColorModel(), image.getRaster().createCompatibleWritableRaster(width, height),
+                image.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * <p>
+     * Replace every pixel of an image by a function of its own ARGB value.
+     * </p>
+     *
+     * <p>
+     * This gives the same pixels as calling <code>setRGB(x, y, op.applyAsInt(getRGB(x, y)))</code>
+     * on every pixel, but the image is normalised first, so the result may be a new image.
+     * </p>
+     *
+     * @param image The image to change.
+     * @param op The function from a pixel's old ARGB value to its new one.
+     * @return The changed image.
+     */
+    static BufferedImage filter(BufferedImage image, IntUnaryOperator op) {
+        BufferedImage output = normalise(image);
+        PixelAccess access = of(output);
+        int width = output.getWidth();
+        int height = output.getHeight();
+        int[] pixels = access.pixels;
+        for (int y = 0; y < height; y++) {
+            int start = access.getIndex(0, y);
+            for (int i = start; i < start + width; i++) {
+                pixels[i] = op.applyAsInt(pixels[i]);
+            }
+        }
+        access.commit();
+        return output;
+    }
+
+    /**
+     * <p>
+     * Get the pixel array.
+     * </p>
+     *
+     * @return The ARGB values of the pixels, which may hold other data outside the image.
+     */
+    int[] getPixels() {
+        return pixels;
+    }
+
+    /**
+     * <p>
+     * Get where a pixel is in the pixel array.
+     * </p>
+     *
+     * @param x The pixel's column.
+     * @param y The pixel's row.
+     * @return The pixel's index.
+     */
+    int getIndex(int x, int y) {
+        return offset + y * stride + x;
+    }
+
+    /**
+     * <p>
+     * Get the distance between the starts of consecutive rows in the pixel array.
+     * </p>
+     *
+     * @return The row stride.
+     */
+    int getStride() {
+        return stride;
+    }
+
+    /**
+     * <p>
+     * Write any changes back to the image.
+     * </p>
+     *
+     * <p>
+     * This does nothing when the image's own pixels are being accessed, as changes are
+     * already in place.
+     * </p>
+     */
+    void commit() {
+        int width = image.getWidth();
+        if (samples) {
+            int[] values = new int[pixels.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = (pixels[i] >> 8) & 0xFF;
+            }
+            image.getRaster().setSamples(0, 0, width, image.getHeight(), 0, values);
+        } else if (copied) {
+            image.setRGB(0, 0, width, image.getHeight(), pixels, 0, width);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package cosc202.andie;
+
+/**
+ * <p>
+ * Interface for {@link ImageOperation}s that change each pixel independently of the others.
+ * </p>
+ *
+ * <p>
+ * Colour adjustments such as greyscale conversion or inversion compute each output pixel
+ * from the input pixel at the same position alone. Exposing that calculation lets the
+ * {@link OperationPlanner} chain several of them together and apply the whole chain in a
+ * single pass over the image, instead of reading and writing every pixel once per operation.
+ * </p>
+ *
+ * <p>
+ * Implementations must give the same result from {@link #apply} as calling
+ * {@link #filterRGB} on every pixel's {@link java.awt.image.BufferedImage#getRGB} value
+ * and writing it back, which {@link PixelAccess#filter} does efficiently. The pixels may be
+ * written to a normalised copy of the image rather than in place.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @version 1.0
+ */
+public interface PixelOperation extends ImageOperation {
+
+    /**
+     * <p>
+     * Compute the new value of a single pixel.
+     * </p>
+     *
+     * @param argb The pixel's value, in the default ARGB colour model.
+     * @return The pixel's new value, in the default ARGB colour model.
+     */
+    public int filterRGB(int argb);
+}
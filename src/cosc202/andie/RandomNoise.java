@@ -1,6 +1,7 @@
 package cosc202.andie;
 import java.awt.image.BufferedImage;
 import java.util.Random;
+import java.util.SplittableRandom;
 
 
 /**
@@ -8,39 +9,97 @@ import java.util.Random;
  * ImageOperation to apply a random pixel value filter to an image.
  * </p>
  *
+ * <p>
+ * The noise is drawn from a seed chosen when the operation is created, so applying the
+ * same operation again, as happens whenever the image is rebuilt after an undo, gives
+ * exactly the same image.
+ * </p>
+ *
  * @author Liam Walls
  */
 public class RandomNoise implements ImageOperation, java.io.Serializable{
 
+    /** The serial version of earlier releases, so that operations they saved can still be read. */
+    private static final long serialVersionUID = -5654008108224671087L;
+
+    /** The number of rows that share one random number generator. */
+    static final int TILE_ROWS = 64;
+
+    /** The seed the noise is drawn from. */
+    private final long seed;
+
     /**
      * <p>
-     * Create a new RandomNoise operation.
+     * Create a new RandomNoise operation with a random seed.
      * </p>
      */
-    public RandomNoise(){}
+    public RandomNoise(){
+        this(new Random().nextLong());
+    }
+
+    /**
+     * <p>
+     * Create a new RandomNoise operation with a given seed.
+     * </p>
+     *
+     * @param seed The seed the noise is drawn from.
+     */
+    public RandomNoise(long seed){
+        this.seed = seed;
+    }
 
     /**
      * <p>
      * Apply the random noise filter to an image.
      * </p>
      *
-     * @param input The image to be resized.
-     * @return The resized image.
+     * <p>
+     * Every pixel, alpha included, is replaced by random values. Each tile of
+     * {@link #TILE_ROWS} rows has a generator of its own, split from the seed in order,
+     * so the tiles can be filled in parallel and the result does not depend on how
+     * many cores there are.
+     * </p>
+     *
+     * @param input The image to fill with noise.
+     * @return A new image of the same size and type, filled with noise.
      */
     public BufferedImage apply(BufferedImage input){
-        BufferedImage output = new BufferedImage(input.getColorModel(), input.copyData(null), input.isAlphaPremultiplied(), null);
-        Random rand = new Random();
-        for (int x = 0; x < output.getWidth(); x++){
-            for (int y = 0; y < output.getHeight(); y++){
-                int r = rand.nextInt(256);
-                int g = rand.nextInt(256);
-                int b = rand.nextInt(256);
-                int a = rand.nextInt(256);
-                int pixel = (a << 24) | (r << 16) | (g << 8) | b;
-                output.setRGB(x, y, pixel);
+        BufferedImage output = new BufferedImage(input.getColorModel(), input.getRaster().createCompatibleWritableRaster(), input.isAlphaPremultiplied(), null);
+        PixelAccess pixels = PixelAccess.of(output);
+        int[] data = pixels.getPixels();
+        int width = output.getWidth();
+        int height = output.getHeight();
+        SplittableRandom[] tiles = split(seed, height);
+        TileExecutor.parallelFor(tiles.length, tile -> {
+            SplittableRandom rand = tiles[tile];
+            int bottom = Math.min(height, (tile + 1) * TILE_ROWS);
+            for (int y = tile * TILE_ROWS; y < bottom; y++){
+                int start = pixels.getIndex(0, y);
+                for (int i = start; i < start + width; i++){
+                    // All 32 bits are uniform, so one draw gives all four channels.
+                    data[i] = rand.nextInt();
+                }
             }
-        }
+        });
+        pixels.commit();
         return output;
     }
-    
+
+    /**
+     * <p>
+     * Make a random number generator for each tile of an image.
+     * </p>
+     *
+     * @param seed The seed to split the generators from.
+     * @param height The height of the image.
+     * @return One generator for each tile of {@link #TILE_ROWS} rows, top to bottom.
+     */
+    static SplittableRandom[] split(long seed, int height) {
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] tiles = new SplittableRandom[(height + TILE_ROWS - 1) / TILE_ROWS];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = root.split();
+        }
+        return tiles;
+    }
 }
@@ -1,28 +1,55 @@
 package cosc202.andie;
 
 import java.awt.image.*;
+import java.util.Random;
+import java.util.SplittableRandom;
 
 /**
  * <p>
  * This class implements the ImageOperation interface and provides a method to apply a random scatter operation to an image.
  * </p>
+ *
+ * <p>
+ * The scatter is drawn from a seed chosen when the operation is created, so applying the
+ * same operation again, as happens whenever the image is rebuilt after an undo, gives
+ * exactly the same image.
+ * </p>
  */
-public class RandomScatter implements ImageOperation, java.io.Serializable{
+public class RandomScatter implements ScalableOperation, java.io.Serializable{
+
+    /** The serial version of earlier releases, so that operations they saved can still be read. */
+    private static final long serialVersionUID = 4493942014945373404L;
 
     /**
      * The radius within which the scatter operation should be applied.
      */
     private int rad;
 
+    /** The seed the scatter is drawn from. */
+    private final long seed;
+
     /**
      * <p>
-     * Constructs a new RandomScatter with the specified radius.
+     * Constructs a new RandomScatter with the specified radius and a random seed.
      * </p>
      *
      * @param rad The radius within which the scatter operation should be applied
      */
     RandomScatter(int rad){
+        this(rad, new Random().nextLong());
+    }
+
+    /**
+     * <p>
+     * Constructs a new RandomScatter with the specified radius and seed.
+     * </p>
+     *
+     * @param rad The radius within which the scatter operation should be applied
+     * @param seed The seed the scatter is drawn from
+     */
+    RandomScatter(int rad, long seed){
         this.rad = rad;
+        this.seed = seed;
     }
 
     /**
@@ -30,10 +57,11 @@ public class RandomScatter implements ImageOperation, java.io.Serializable{
      * Picks a random target within the specified radius.
      * </p>
      *
+     * @param rand The random number generator to use
      * @return A random target within the specified radius
      */
-    private int pickTarget(){
-        return rad - (int) Math.round(Math.random()*rad*2);
+    private int pickTarget(SplittableRandom rand){
+        return rad - (int) Math.round(rand.nextDouble()*rad*2);
     }
 
     /**
@@ -42,30 +70,60 @@ public class RandomScatter implements ImageOperation, java.io.Serializable{
      * </p>
      *
      * <p>
-     * This method iterates over each pixel in the input image and applies the scatter operation to it.
+     * Each pixel is replaced by a random pixel of the input image within the radius.
+     * Pixels are always taken from the input as it was, never from pixels already
+     * scattered, and the input itself is left unchanged. Like {@link RandomNoise}, each
+     * tile of rows has a generator of its own split from the seed, so the tiles can be
+     * scattered in parallel and the result does not depend on how many cores there are.
      * </p>
      *
      * @param input The input image to which the scatter operation should be applied
      * @return The image after applying the scatter operation
      */
     public BufferedImage apply(BufferedImage input) {
-        BufferedImage output = input;
-        for (int y = 0; y < input.getHeight(); ++y) {
-            for(int x = 0; x < input.getWidth(); ++x) {
-                int tarX;
-                int tarY;
+        int width = input.getWidth();
+        int height = input.getHeight();
+        PixelAccess source = PixelAccess.of(input);
+        int[] pixels = source.getPixels();
+        BufferedImage output = PixelAccess.blankLike(input);
+        PixelAccess target = PixelAccess.of(output);
+        int[] result = target.getPixels();
+
+        SplittableRandom[] tiles = RandomNoise.split(seed, height);
+        TileExecutor.parallelFor(tiles.length, tile -> {
+            SplittableRandom rand = tiles[tile];
+            int bottom = Math.min(height, (tile + 1) * RandomNoise.TILE_ROWS);
+            for (int y = tile * RandomNoise.TILE_ROWS; y < bottom; ++y) {
+                int out = target.getIndex(0, y);
+                for(int x = 0; x < width; ++x) {
+                    int tarX;
+                    int tarY;
 
-                do{
-                    tarX = x + pickTarget();
-                } while(tarX < 0 || tarX >= input.getWidth());
+                    do{
+                        tarX = x + pickTarget(rand);
+                    } while(tarX < 0 || tarX >= width);
 
-                do{
-                    tarY = y + pickTarget();
-                } while(tarY < 0 || tarY >= input.getHeight());
+                    do{
+                        tarY = y + pickTarget(rand);
+                    } while(tarY < 0 || tarY >= height);
 
-                output.setRGB(x, y, input.getRGB(tarX, tarY));
+                    result[out + x] = pixels[source.getIndex(tarX, tarY)];
+                }
             }
-        }
+        });
+        target.commit();
         return output;
     }
+
+    /**
+     * <p>
+     * Get the equivalent of this operation for a copy of the image scaled by a given factor.
+     * </p>
+     *
+     * @param factor The size of the scaled image relative to the full-size one.
+     * @return A new RandomScatter with its radius scaled, but at least 1, and the same seed.
+     */
+    public ImageOperation scaled(double factor) {
+        return new RandomScatter(Math.max(1, (int) Math.round(rad * factor)), seed);
+    }
 }
@@ -0,0 +1,105 @@
+package cosc202.andie;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * <p>
+ * ImageOperation to crop an image to a rectangle.
+ * </p>
+ *
+ * <p>
+ * No pixels are copied: the result is a {@link CropView} of the input, which is copied
+ * only if something goes on to write to it. Any part of the rectangle outside the image
+ * is ignored, so a selection dragged past the edge of the image, or scaled onto a proxy
+ * with rounding, still crops cleanly.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @see Crop
+ * @version 1.0
+ */
+public class RectangleCrop implements RegionOperation, ScalableOperation, java.io.Serializable {
+
+    /** Fixed, so that saved operations can still be read after the class changes. */
+    private static final long serialVersionUID = -2407611385024157348L;
+
+    /** One corner of the rectangle to keep. */
+    private Point startPoint;
+    /** The opposite corner of the rectangle to keep. */
+    private Point endPoint;
+
+    /**
+     * <p>
+     * Create a new RectangleCrop operation.
+     * </p>
+     *
+     * @param startPoint One corner of the rectangle to keep, in image coordinates.
+     * @param endPoint The opposite corner of the rectangle to keep.
+     */
+    public RectangleCrop(Point startPoint, Point endPoint) {
+        this.startPoint = startPoint;
+        this.endPoint = endPoint;
+    }
+
+    /**
+     * <p>
+     * Apply the crop to an image.
+     * </p>
+     *
+     * @param input The image to crop.
+     * @return The cropped image, sharing the input's pixels, or the input itself if the
+     *         rectangle does not overlap it.
+     */
+    public BufferedImage apply(BufferedImage input) {
+        Rectangle selection = getAffectedRegion(input.getWidth(), input.getHeight());
+        if (selection.isEmpty()) {
+            return input;
+        }
+        return CropView.of(input, selection);
+    }
+
+    /**
+     * <p>
+     * Gets the part of the image kept by the crop.
+     * </p>
+     *
+     * @param width The width of the image to be cropped.
+     * @param height The height of the image to be cropped.
+     * @return The selected rectangle, within the image bounds.
+     */
+    public Rectangle getAffectedRegion(int width, int height) {
+        Rectangle selection = new Rectangle(Math.min(startPoint.x, endPoint.x), Math.min(startPoint.y, endPoint.y),
+                Math.abs(startPoint.x - endPoint.x), Math.abs(startPoint.y - endPoint.y));
+        return selection.intersection(new Rectangle(0, 0, width, height));
+    }
+
+    /**
+     * <p>
+     * Gets the equivalent crop for a copy of the image scaled by a given factor.
+     * </p>
+     *
+     * @param factor The size of the scaled image relative to the full-size one.
+     * @return A new RectangleCrop with its corners scaled.
+     */
+    public ImageOperation scaled(double factor) {
+        return new RectangleCrop(scalePoint(startPoint, factor), scalePoint(endPoint, factor));
+    }
+
+    /**
+     * <p>
+     * Scales a point by a given factor, rounding to the nearest pixel.
+     * </p>
+     *
+     * @param point The point to scale.
+     * @param factor The factor to scale by.
+     * @return A new scaled point.
+     */
+    static Point scalePoint(Point point, double factor) {
+        return new Point((int) Math.round(point.x * factor), (int) Math.round(point.y * factor));
+    }
+}
@@ -0,0 +1,49 @@
+package cosc202.andie;
+
+import java.awt.Rectangle;
+
+/**
+ * <p>
+ * Interface for {@link ImageOperation}s that can say which part of an image they change.
+ * </p>
+ *
+ * <p>
+ * Many operations only touch a small part of the image. Drawing a shape changes the pixels
+ * under it and nothing else, and a crop keeps one rectangle of the input. Knowing this lets
+ * an {@link EditableImage} snapshot, undo and repaint just that part instead of the whole
+ * image, which adds up in a session with dozens of annotations.
+ * </p>
+ *
+ * <p>
+ * Operations that do not implement this interface are assumed to change the whole image.
+ * The region of an operation is only used for the operation itself: an operation that
+ * follows it, such as a filter, is not told which part of its input changed, and is
+ * applied to the whole image.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @version 1.0
+ */
+public interface RegionOperation extends ImageOperation {
+
+    /**
+     * <p>
+     * Get the part of an image that this operation changes.
+     * </p>
+     *
+     * <p>
+     * For an operation whose output is the same size as its input, every pixel outside the
+     * returned rectangle is left exactly as it was. For an operation that crops the image,
+     * the rectangle is the part of the input that the output is cut from, and pixels
+     * outside it are discarded.
+     * </p>
+     *
+     * @param width The width of the image the operation will be applied to.
+     * @param height The height of the image the operation will be applied to.
+     * @return The affected rectangle, within the image bounds, or null if the whole image may change.
+     */
+    public Rectangle getAffectedRegion(int width, int height);
+}
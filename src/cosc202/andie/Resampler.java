@@ -0,0 +1,521 @@
+package cosc202.andie;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Separable resampling of images to a new size.
+ * </p>
+ *
+ * <p>
+ * Each output pixel is a weighted sum of the source pixels around the point it comes from,
+ * with the weights given by a {@link Filter}. The weights factor into one set across and
+ * one set down, so the image is resampled across each row and then down each column, and
+ * the weights for each axis are worked out once, since every row (or column) uses the
+ * same ones. When shrinking, the filter is stretched to cover all the source pixels that
+ * fall within each output pixel, so that nothing is skipped.
+ * </p>
+ *
+ * <p>
+ * The output is made in bands of {@link #BAND_ROWS} rows, in parallel. Each band resamples
+ * across just the source rows it needs, so the intermediate result never has to be held
+ * for the whole image. Colours are weighted by their alpha, so transparent pixels do not
+ * bleed their hidden colour into their neighbours, except in rows that are wholly opaque,
+ * where that makes no difference. The result has the same type as the
+ * input.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @see ResizeImage
+ * @version 1.0
+ */
+final class Resampler {
+
+    /** The number of output rows made together as one part of the work. */
+    private static final int BAND_ROWS = 64;
+
+    /**
+     * <p>
+     * The filters that can be used to resample an image.
+     * </p>
+     */
+    enum Filter {
+        /**
+         * Average the source pixels each output pixel covers, each weighted by the area it
+         * shares with the output pixel. This is the fastest filter for shrinking, and never
+         * overshoots.
+         */
+        BOX(0.5),
+        /** Interpolate linearly between the nearest two source pixels along each axis. */
+        BILINEAR(1),
+        /** Interpolate with the Catmull-Rom cubic through the nearest four source pixels. */
+        BICUBIC(2),
+        /** Interpolate with a windowed sinc over the nearest six source pixels, the sharpest of all. */
+        LANCZOS3(3);
+
+        /** How far from its centre the filter reaches, in source pixels before any stretching. */
+        final double support;
+
+        /**
+         * <p>
+         * Create a filter.
+         * </p>
+         *
+         * @param support How far from its centre the filter reaches.
+         */
+        Filter(double support) {
+            this.support = support;
+        }
+
+        /**
+         * <p>
+         * Get the weight of a source pixel at a given distance.
+         * </p>
+         *
+         * @param x The distance from the point being sampled, in source pixels.
+         * @return The unnormalised weight.
+         */
+        double weight(double x) {
+            x = Math.abs(x);
+            switch (this) {
+                case BOX:
+                    return x < 0.5 ? 1 : 0;
+                case BILINEAR:
+                    return x < 1 ? 1 - x : 0;
+                case BICUBIC:
+                    if (x < 1) {
+                        return (1.5 * x - 2.5) * x * x + 1;
+                    }
+                    return x < 2 ? ((-0.5 * x + 2.5) * x - 4) * x + 2 : 0;
+                default:
+                    if (x < 1e-9) {
+                        return 1;
+                    }
+                    if (x >= 3) {
+                        return 0;
+                    }
+                    double px = Math.PI * x;
+                    return 3 * Math.sin(px) * Math.sin(px / 3) / (px * px);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * The weights for resampling along one axis.
+     * </p>
+     *
+     * <p>
+     * Every output pixel takes the same number of taps from consecutive source pixels,
+     * padded with zero weights where it needs fewer. Weights that would fall beyond the
+     * edge are given to the edge pixel instead, so the edge is repeated.
+     * </p>
+     */
+    private static final class Axis {
+
+        /** The number of source pixels each output pixel takes. */
+        final int taps;
+        /** The first source pixel each output pixel takes. */
+        final int[] start;
+        /** The weights, taps for each output pixel in turn, each set adding up to 1. */
+        final float[] weights;
+
+        /**
+         * <p>
+         * Work out the weights for resampling along one axis.
+         * </p>
+         *
+         * @param from The number of source pixels.
+         * @param to The number of output pixels.
+         * @param filter The filter to resample with.
+         */
+        Axis(int from, int to, Filter filter) {
+            double ratio = (double) from / to;
+            double[][] raw = new double[to][];
+            int[] first = new int[to];
+            int widest = 1;
+            for (int i = 0; i < to; i++) {
+                int lo;
+                int hi;
+                double[] w;
+                if (filter == Filter.BOX) {
+                    // The share of each source pixel in the output pixel's footprint.
+                    double left = i * ratio;
+                    double right = (i + 1) * ratio;
+                    lo = (int) Math.floor(left);
+                    hi = Math.max(lo, (int) Math.ceil(right) - 1);
+                    w = new double[hi - lo + 1];
+                    for (int j = lo; j <= hi; j++) {
+                        w[j - lo] = Math.max(0, Math.min(j + 1, right) - Math.max(j, left));
+                    }
+                } else {
+                    double scale = Math.max(1, ratio);
+                    double centre = (i + 0.5) * ratio - 0.5;
+                    double reach = filter.support * scale;
+                    lo = (int) Math.ceil(centre - reach);
+                    hi = (int) Math.floor(centre + reach);
+                    w = new double[hi - lo + 1];
+                    for (int j = lo; j <= hi; j++) {
+                        w[j - lo] = filter.weight((j - centre) / scale);
+                    }
+                }
+                // Fold the weights beyond the edges onto the edge pixels.
+                int clampedLo = Math.max(0, Math.min(from - 1, lo));
+                int clampedHi = Math.max(0, Math.min(from - 1, hi));
+                double[] folded = new double[clampedHi - clampedLo + 1];
+                double total = 0;
+                for (int j = lo; j <= hi; j++) {
+                    folded[Math.max(0, Math.min(from - 1, j)) - clampedLo] += w[j - lo];
+                    total += w[j - lo];
+                }
+                for (int k = 0; k < folded.length; k++) {
+                    folded[k] = total == 0 ? (k == 0 ? 1 : 0) : folded[k] / total;
+                }
+                raw[i] = folded;
+                first[i] = clampedLo;
+                widest = Math.max(widest, folded.length);
+            }
+
+            this.taps = widest;
+            this.start = new int[to];
+            this.weights = new float[to * widest];
+            for (int i = 0; i < to; i++) {
+                // Move windows that would run off the end back, keeping the weights in place.
+                int s = Math.max(0, Math.min(first[i], from - widest));
+                start[i] = s;
+                for (int k = 0; k < raw[i].length; k++) {
+                    weights[i * widest + first[i] - s + k] = (float) raw[i][k];
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Resample an image to a new size.
+     * </p>
+     *
+     * @param input The image to resample.
+     * @param width The width of the result, at least 1.
+     * @param height The height of the result, at least 1.
+     * @param filter The filter to resample with.
+     * @return A new image of the given size and the same type as the input.
+     */
+    static BufferedImage resize(BufferedImage input, int width, int height, Filter filter) {
+        WritableRaster raster = input.getRaster().createCompatibleWritableRaster(width, height);
+        BufferedImage output = new BufferedImage(input.getColorModel(), raster, input.isAlphaPremultiplied(), null);
+        resize(input, output, filter);
+        return output;
+    }
+
+    /**
+     * <p>
+     * Resample an image into another image.
+     * </p>
+     *
+     * @param input The image to resample.
+     * @param output The image to hold the result, whose size and type may be any.
+     * @param filter The filter to resample with.
+     */
+    static void resize(BufferedImage input, BufferedImage output, Filter filter) {
+        int sourceWidth = input.getWidth();
+        int sourceHeight = input.getHeight();
+        int width = output.getWidth();
+        int height = output.getHeight();
+        Axis across = new Axis(sourceWidth, width, filter);
+        Axis down = new Axis(sourceHeight, height, filter);
+        boolean alpha = input.getColorModel().hasAlpha();
+
+        Rows source = new Rows(input);
+        Rows target = new Rows(output);
+
+        int bands = (height + BAND_ROWS - 1) / BAND_ROWS;
+        TileExecutor.parallelFor(bands, band -> {
+            int top = band * BAND_ROWS;
+            int bottom = Math.min(height, top + BAND_ROWS);
+            int firstRow = down.start[top];
+            int lastRow = down.start[bottom - 1] + down.taps;
+
+            // Resample across each source row the band needs.
+            int rowLength = width * 4;
+            float[] resampled = new float[(lastRow - firstRow) * rowLength];
+            int[] argb = new int[Math.max(sourceWidth, width)];
+            for (int y = firstRow; y < lastRow; y++) {
+                source.read(y, argb);
+                resampleRow(argb, across, !alpha || isOpaque(argb, sourceWidth), resampled, (y - firstRow) * rowLength);
+            }
+
+            // Then down each column, a whole row of sums at a time.
+            float[] sums = new float[rowLength];
+            for (int y = top; y < bottom; y++) {
+                Arrays.fill(sums, 0);
+                int from = (down.start[y] - firstRow) * rowLength;
+                for (int k = 0; k < down.taps; k++) {
+                    float weight = down.weights[y * down.taps + k];
+                    if (weight != 0) {
+                        Simd.multiplyAdd(sums, weight, resampled, from + k * rowLength, rowLength);
+                    }
+                }
+                for (int x = 0, i = 0; x < width; x++, i += 4) {
+                    argb[x] = pack(sums[i], sums[i + 1], sums[i + 2], sums[i + 3], alpha);
+                }
+                target.write(y, argb);
+            }
+        });
+    }
+
+    /**
+     * <p>
+     * Resample one row across.
+     * </p>
+     *
+     * <p>
+     * Each output pixel is stored as four sums: opacity, from 0 to 1, then red, green and
+     * blue each weighted by opacity. Where the row is opaque the weighting changes nothing,
+     * so it is skipped.
+     * </p>
+     *
+     * @param argb The source row.
+     * @param axis The weights across.
+     * @param opaque Whether every pixel of the row is opaque.
+     * @param out The array to store the sums in.
+     * @param offset The index to store the first output pixel's sums at.
+     */
+    private static void resampleRow(int[] argb, Axis axis, boolean opaque, float[] out, int offset) {
+        int taps = axis.taps;
+        float[] weights = axis.weights;
+        int width = axis.start.length;
+        for (int x = 0, w = 0, o = offset; x < width; x++, o += 4) {
+            float a = 0;
+            float r = 0;
+            float g = 0;
+            float b = 0;
+            int s = axis.start[x];
+            if (opaque) {
+                for (int k = 0; k < taps; k++, w++) {
+                    int p = argb[s + k];
+                    float weight = weights[w];
+                    r += weight * ((p >> 16) & 0xFF);
+                    g += weight * ((p >> 8) & 0xFF);
+                    b += weight * (p & 0xFF);
+                }
+                a = 1;
+            } else {
+                for (int k = 0; k < taps; k++, w++) {
+                    int p = argb[s + k];
+                    float opacity = weights[w] * (p >>> 24) * (1 / 255f);
+                    a += opacity;
+                    r += opacity * ((p >> 16) & 0xFF);
+                    g += opacity * ((p >> 8) & 0xFF);
+                    b += opacity * (p & 0xFF);
+                }
+            }
+            out[o] = a;
+            out[o + 1] = r;
+            out[o + 2] = g;
+            out[o + 3] = b;
+        }
+    }
+
+    /**
+     * <p>
+     * Check whether every pixel of a row is opaque.
+     * </p>
+     *
+     * @param argb The row.
+     * @param width The number of pixels in the row.
+     * @return True if every pixel has an alpha of 255.
+     */
+    private static boolean isOpaque(int[] argb, int width) {
+        int all = 0xFF000000;
+        for (int x = 0; x < width; x++) {
+            all &= argb[x];
+        }
+        return all == 0xFF000000;
+    }
+
+    /**
+     * <p>
+     * Turn the resampled sums for a pixel back into an ARGB value.
+     * </p>
+     *
+     * @param a The opacity sum.
+     * @param r The red sum.
+     * @param g The green sum.
+     * @param b The blue sum.
+     * @param alpha Whether the image has an alpha channel.
+     * @return The ARGB value, each channel rounded and clamped.
+     */
+    private static int pack(float a, float r, float g, float b, boolean alpha) {
+        if (!alpha) {
+            return 0xFF000000 | channel(r) << 16 | channel(g) << 8 | channel(b);
+        }
+        if (a <= 0) {
+            return 0;
+        }
+        float unweight = 1 / a;
+        return channel(a * 255) << 24 | channel(r * unweight) << 16 | channel(g * unweight) << 8 | channel(b * unweight);
+    }
+
+    /**
+     * <p>
+     * Round and clamp a channel value.
+     * </p>
+     *
+     * @param value The value, which sharp filters may take beyond the range.
+     * @return The nearest value from 0 to 255.
+     */
+    private static int channel(float value) {
+        int rounded = (int) (value + 0.5f);
+        return rounded < 0 ? 0 : rounded > 255 ? 255 : rounded;
+    }
+
+    /**
+     * <p>
+     * Reads and writes whole rows of an image as ARGB values.
+     * </p>
+     *
+     * <p>
+     * The usual image types are read and written straight from their pixel arrays; any
+     * other type goes through {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)}
+     * and {@link BufferedImage#setRGB(int, int, int, int, int[], int, int)}.
+     * </p>
+     */
+    private static final class Rows {
+
+        /** The image. */
+        private final BufferedImage image;
+        /** The image's int pixels, if it has them in ARGB order, otherwise null. */
+        private final int[] ints;
+        /** The image's interleaved byte samples, if it has them, otherwise null. */
+        private final byte[] bytes;
+        /** The index of the first element of pixel (0, 0). */
+        private final int start;
+        /** The number of elements from one row to the next. */
+        private final int stride;
+        /** The number of elements in a pixel. */
+        private final int size;
+        /** The offsets of the red, green, blue and, if there is one, alpha bytes in a pixel. */
+        private final int[] offsets;
+        /** Whether the image has an alpha channel. */
+        private final boolean alpha;
+
+        /**
+         * <p>
+         * Prepare to read and write the rows of an image.
+         * </p>
+         *
+         * @param image The image.
+         */
+        Rows(BufferedImage image) {
+            this.image = image;
+            WritableRaster raster = image.getRaster();
+            int type = image.getType();
+            int[] ints = null;
+            byte[] bytes = null;
+            int start = 0;
+            int stride = 0;
+            int size = 1;
+            int[] offsets = null;
+            if (type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB) {
+                stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+                ints = ((DataBufferInt) raster.getDataBuffer()).getData();
+            } else if (type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR) {
+                ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+                stride = model.getScanlineStride();
+                size = model.getPixelStride();
+                offsets = model.getBandOffsets();
+                bytes = ((DataBufferByte) raster.getDataBuffer()).getData();
+            }
+            if (ints != null || bytes != null) {
+                start = raster.getDataBuffer().getOffset() - raster.getSampleModelTranslateY() * stride
+                        - raster.getSampleModelTranslateX() * size;
+            }
+            this.ints = ints;
+            this.bytes = bytes;
+            this.start = start;
+            this.stride = stride;
+            this.size = size;
+            this.offsets = offsets;
+            this.alpha = image.getColorModel().hasAlpha();
+        }
+
+        /**
+         * <p>
+         * Read a row of the image.
+         * </p>
+         *
+         * @param y The row.
+         * @param argb Set to the ARGB value of each pixel of the row, from index 0.
+         */
+        void read(int y, int[] argb) {
+            int width = image.getWidth();
+            int i = start + y * stride;
+            if (ints != null) {
+                System.arraycopy(ints, i, argb, 0, width);
+                if (!alpha) {
+                    for (int x = 0; x < width; x++) {
+                        argb[x] |= 0xFF000000;
+                    }
+                }
+            } else if (bytes != null) {
+                int r = offsets[0];
+                int g = offsets[1];
+                int b = offsets[2];
+                int a = alpha ? offsets[3] : -1;
+                for (int x = 0; x < width; x++, i += size) {
+                    int opacity = a < 0 ? 0xFF : bytes[i + a] & 0xFF;
+                    argb[x] = opacity << 24 | (bytes[i + r] & 0xFF) << 16 | (bytes[i + g] & 0xFF) << 8 | (bytes[i + b] & 0xFF);
+                }
+            } else {
+                image.getRGB(0, y, width, 1, argb, 0, width);
+            }
+        }
+
+        /**
+         * <p>
+         * Write a row of the image.
+         * </p>
+         *
+         * @param y The row.
+         * @param argb The ARGB value of each pixel of the row, from index 0.
+         */
+        void write(int y, int[] argb) {
+            int width = image.getWidth();
+            int i = start + y * stride;
+            if (ints != null) {
+                System.arraycopy(argb, 0, ints, i, width);
+                if (!alpha) {
+                    for (int x = 0; x < width; x++, i++) {
+                        ints[i] &= 0xFFFFFF;
+                    }
+                }
+            } else if (bytes != null) {
+                int r = offsets[0];
+                int g = offsets[1];
+                int b = offsets[2];
+                int a = alpha ? offsets[3] : -1;
+                for (int x = 0; x < width; x++, i += size) {
+                    int p = argb[x];
+                    if (a >= 0) {
+                        bytes[i + a] = (byte) (p >>> 24);
+                    }
+                    bytes[i + r] = (byte) (p >> 16);
+                    bytes[i + g] = (byte) (p >> 8);
+                    bytes[i + b] = (byte) p;
+                }
+            } else {
+                image.setRGB(0, y, width, 1, argb, 0, width);
+            }
+        }
+    }
+}
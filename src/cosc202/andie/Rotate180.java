@@ -12,7 +12,10 @@ import java.awt.image.BufferedImage;
  * @author Steven Simpson
  * 
  */
-public class Rotate180 implements ImageOperation, java.io.Serializable  {
+public class Rotate180 implements InvertibleOperation, OrientationOperation, java.io.Serializable  {
+
+    /** The serial version of earlier releases, so that operations they saved can still be read. */
+    private static final long serialVersionUID = 5169221657030753840L;
 
     /**
      * Create a new Rotate180 operation.
@@ -30,13 +33,29 @@ public class Rotate180 implements ImageOperation, java.io.Serializable  {
      * @return The rotated image.
      */
     public BufferedImage apply(BufferedImage input){
+        return getOrientation().transform(input);
+    }
 
-        RotateLeft rL = new RotateLeft();
-        BufferedImage rotL90 = rL.apply(input);
-        BufferedImage rot180 = rL.apply(rotL90);
-
-        return rot180; 
+    /**
+     * <p>
+     * Get the operation that undoes this one.
+     * </p>
+     * 
+     * @return This operation, since rotating twice by 180 degrees gives back the original.
+     */
+    public ImageOperation inverse() {
+        return this;
     }
 
+    /**
+     * <p>
+     * Get the orientation this operation applies.
+     * </p>
+     * 
+     * @return {@link Orientation#ROTATE_180}.
+     */
+    public Orientation getOrientation() {
+        return Orientation.ROTATE_180;
+    }
 
 }
\ No newline at end of file
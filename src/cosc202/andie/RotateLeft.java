@@ -12,7 +12,10 @@ import java.awt.image.BufferedImage;
  * @author Steven Simpson
  * 
  */
-public class RotateLeft implements ImageOperation, java.io.Serializable  {
+public class RotateLeft implements InvertibleOperation, OrientationOperation, java.io.Serializable  {
+
+    /** The serial version of earlier releases, so that operations they saved can still be read. */
+    private static final long serialVersionUID = -8957514242517392834L;
 
     /**
      * <p>
@@ -31,18 +34,29 @@ public class RotateLeft implements ImageOperation, java.io.Serializable  {
      * @return The rotated image.
      */
     public BufferedImage apply(BufferedImage input){
+        return getOrientation().transform(input);
+    }
 
-        BufferedImage newImage = new BufferedImage(input.getHeight(), input.getWidth(), BufferedImage.TYPE_INT_ARGB);
-        
-        for(int x = 0; x < input.getWidth(); x++){
-            for(int y = 0; y < input.getHeight(); y++){
-                int rgb = input.getRGB(x, y);
-                newImage.setRGB(y, input.getWidth()-1-x, rgb);
-            }
-        }
-        return newImage; 
-
+    /**
+     * <p>
+     * Get the operation that undoes this one.
+     * </p>
+     * 
+     * @return A new RotateRight operation.
+     */
+    public ImageOperation inverse() {
+        return new RotateRight();
     }
 
+    /**
+     * <p>
+     * Get the orientation this operation applies.
+     * </p>
+     * 
+     * @return {@link Orientation#ROTATE_LEFT}.
+     */
+    public Orientation getOrientation() {
+        return Orientation.ROTATE_LEFT;
+    }
 
 }
\ No newline at end of file
@@ -12,7 +12,10 @@ import java.awt.image.BufferedImage;
  * @author Steven Simpson
  * 
  */
-public class RotateRight implements ImageOperation, java.io.Serializable  {
+public class RotateRight implements InvertibleOperation, OrientationOperation, java.io.Serializable  {
+
+    /** The serial version of earlier releases, so that operations they saved can still be read. */
+    private static final long serialVersionUID = 7143599968168364450L;
 
     /**
      * <p>
@@ -31,18 +34,29 @@ public class RotateRight implements ImageOperation, java.io.Serializable  {
      * @return The rotated image.
      */
     public BufferedImage apply(BufferedImage input){
+        return getOrientation().transform(input);
+    }
 
-        BufferedImage newImage = new BufferedImage(input.getHeight(), input.getWidth(), BufferedImage.TYPE_INT_ARGB);
-        
-        for(int x = 0; x < input.getWidth(); x++){
-            for(int y = 0; y < input.getHeight(); y++){
-                int rgb = input.getRGB(x, y);
-                newImage.setRGB(input.getHeight()-1-y, x, rgb);
-            }
-        }
-        return newImage; 
-
+    /**
+     * <p>
+     * Get the operation that undoes this one.
+     * </p>
+     * 
+     * @return A new RotateLeft operation.
+     */
+    public ImageOperation inverse() {
+        return new RotateLeft();
     }
 
+    /**
+     * <p>
+     * Get the orientation this operation applies.
+     * </p>
+     * 
+     * @return {@link Orientation#ROTATE_RIGHT}.
+     */
+    public Orientation getOrientation() {
+        return Orientation.ROTATE_RIGHT;
+    }
 
 }
\ No newline at end of file
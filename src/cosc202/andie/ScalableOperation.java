@@ -0,0 +1,44 @@
+package cosc202.andie;
+
+/**
+ * <p>
+ * Interface for {@link ImageOperation}s whose parameters are measured in pixels.
+ * </p>
+ *
+ * <p>
+ * A filter radius, a block size or a crop rectangle means something different on a
+ * reduced-size copy of an image than on the image itself. When an {@link EditableImage}
+ * works on a downsampled proxy of a very large image, it asks each such operation for a
+ * version of itself with its pixel measurements scaled to match, so that the proxy looks
+ * like a smaller copy of the final result. The operation stack always keeps the operations
+ * in full-resolution units, so the full-size image can be rendered from it exactly.
+ * </p>
+ *
+ * <p>
+ * Operations that do not implement this interface, such as flips or colour adjustments,
+ * are used unchanged at every resolution.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @version 1.0
+ */
+public interface ScalableOperation extends ImageOperation {
+
+    /**
+     * <p>
+     * Get the equivalent of this operation for a copy of the image scaled by a given factor.
+     * </p>
+     *
+     * <p>
+     * Positions and lengths are multiplied by the factor and rounded. Sizes that must be
+     * positive, such as radii, line widths and block sizes, are kept at least 1.
+     * </p>
+     *
+     * @param factor The size of the scaled image relative to the full-size one.
+     * @return An operation with its pixel measurements scaled; this operation itself is not changed.
+     */
+    public ImageOperation scaled(double factor);
+}
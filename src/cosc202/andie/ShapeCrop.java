@@ -0,0 +1,386 @@
+package cosc202.andie;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.PathIterator;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * ImageOperation to crop an image to an arbitrary shape.
+ * </p>
+ *
+ * <p>
+ * The image is cut down to the bounding box of the shape, and the pixels inside the box
+ * but outside the shape become transparent. Pixels on the outline are given the fraction
+ * of their area that the shape covers as their opacity, so the edge is smooth.
+ * </p>
+ *
+ * <p>
+ * Only the bounding box is ever allocated or visited. The outline is flattened into line
+ * segments, and each segment adds the area to its right, one scanline at a time, to a
+ * small buffer for a band of rows; a running sum along each row then gives the exact
+ * coverage of every pixel. Nothing is drawn through a full-size mask, so the cost follows
+ * the size of the selection, not of the image.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @see RectangleCrop
+ * @version 1.0
+ */
+public class ShapeCrop implements RegionOperation, ScalableOperation, java.io.Serializable {
+
+    /** Fixed, so that saved operations can still be read after the class changes. */
+    private static final long serialVersionUID = 9165929745488528357L;
+
+    /** The number of rows whose coverage is worked out together. */
+    private static final int BAND_ROWS = 64;
+
+    /** How far the flattened outline may stray from a curve, in pixels. */
+    private static final double FLATNESS = 0.05;
+
+    /** The shape to crop to, in image coordinates. */
+    private Shape shape;
+
+    /**
+     * <p>
+     * Create a new ShapeCrop operation.
+     * </p>
+     *
+     * @param shape The shape to crop to, in image coordinates, filled by its own winding rule.
+     */
+    public ShapeCrop(Shape shape) {
+        this.shape = shape;
+    }
+
+    /**
+     * <p>
+     * Create a crop to the oval that fills the rectangle between two points.
+     * </p>
+     *
+     * @param startPoint One corner of the oval's bounding box, in image coordinates.
+     * @param endPoint The opposite corner of the oval's bounding box.
+     * @return A new ShapeCrop to the oval.
+     */
+    static ShapeCrop oval(Point startPoint, Point endPoint) {
+        return new ShapeCrop(new Ellipse2D.Double(Math.min(startPoint.x, endPoint.x), Math.min(startPoint.y, endPoint.y),
+                Math.abs(startPoint.x - endPoint.x), Math.abs(startPoint.y - endPoint.y)));
+    }
+
+    /**
+     * <p>
+     * Apply the crop to an image.
+     * </p>
+     *
+     * @param input The image to crop.
+     * @return A new {@link BufferedImage#TYPE_INT_ARGB} image of the part of the shape's
+     *         bounding box within the input, or the input itself if they do not overlap.
+     */
+    public BufferedImage apply(BufferedImage input) {
+        Rectangle kept = getAffectedRegion(input.getWidth(), input.getHeight());
+        if (kept.isEmpty()) {
+            return input;
+        }
+        return cut(input, shape, kept);
+    }
+
+    /**
+     * <p>
+     * Gets the part of the image the shape is cut from.
+     * </p>
+     *
+     * @param width The width of the image to be cropped.
+     * @param height The height of the image to be cropped.
+     * @return The bounding box of the shape, within the image bounds.
+     */
+    public Rectangle getAffectedRegion(int width, int height) {
+        return shape.getBounds().intersection(new Rectangle(0, 0, width, height));
+    }
+
+    /**
+     * <p>
+     * Gets the equivalent crop for a copy of the image scaled by a given factor.
+     * </p>
+     *
+     * @param factor The size of the scaled image relative to the full-size one.
+     * @return A new ShapeCrop with its shape scaled.
+     */
+    public ImageOperation scaled(double factor) {
+        return new ShapeCrop(AffineTransform.getScaleInstance(factor, factor).createTransformedShape(shape));
+    }
+
+    /**
+     * <p>
+     * Cut a rectangle out of an image, keeping only the part covered by a shape.
+     * </p>
+     *
+     * <p>
+     * The input is read only within the rectangle, and the output is the size of the
+     * rectangle, so neither the memory nor the time depend on the size of the input.
+     * </p>
+     *
+     * <p>
+     * The samples of an 8-bit grey image become grey pixels of the same level, as when the
+     * image is drawn into an ARGB one, rather than being converted from linear grey to sRGB.
+     * </p>
+     *
+     * @param input The image to crop.
+     * @param shape The shape to keep, in image coordinates.
+     * @param kept The rectangle to cut out, which must lie within the image and not be empty.
+     * @return A new {@link BufferedImage#TYPE_INT_ARGB} image the size of the rectangle.
+     */
+    static BufferedImage cut(BufferedImage input, Shape shape, Rectangle kept) {
+        int width = kept.width;
+        int height = kept.height;
+        double[] edges = edges(shape, kept);
+        boolean evenOdd = shape.getPathIterator(null).getWindingRule() == PathIterator.WIND_EVEN_ODD;
+        PixelAccess source = PixelAccess.ofSamples(CropView.of(input, kept));
+        BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        PixelAccess target = PixelAccess.of(output);
+        int[] in = source.getPixels();
+        int[] out = target.getPixels();
+        int stride = width + 2;
+        int bands = (height + BAND_ROWS - 1) / BAND_ROWS;
+
+        TileExecutor.parallelFor(bands, band -> {
+            int top = band * BAND_ROWS;
+            int rows = Math.min(BAND_ROWS, height - top);
+            float[] area = new float[stride * rows];
+            for (int i = 0; i < edges.length; i += 4) {
+                accumulate(area, stride, rows, edges[i], edges[i + 1] - top, edges[i + 2], edges[i + 3] - top);
+            }
+            for (int row = 0; row < rows; row++) {
+                int from = source.getIndex(0, top + row);
+                int to = target.getIndex(0, top + row);
+                int line = row * stride;
+                float sum = 0;
+                for (int x = 0; x < width; x++) {
+                    sum += area[line + x];
+                    int argb = in[from + x];
+                    int coverage = Math.round(coverage(sum, evenOdd) * 255);
+                    if (coverage == 255) {
+                        out[to + x] = argb;
+                    } else if (coverage == 0) {
+                        out[to + x] = 0;
+                    } else {
+                        int alpha = ((argb >>> 24) * coverage + 127) / 255;
+                        out[to + x] = (alpha << 24) | (argb & 0x00ffffff);
+                    }
+                }
+            }
+        });
+
+        target.commit();
+        return output;
+    }
+
+    /**
+     * <p>
+     * Flatten the outline of a shape into the line segments that bound it within a rectangle.
+     * </p>
+     *
+     * @param shape The shape to flatten.
+     * @param kept The rectangle the coverage is wanted for.
+     * @return The segments as groups of four coordinates relative to the rectangle: x0, y0, x1, y1.
+     */
+    private static double[] edges(Shape shape, Rectangle kept) {
+        Edges edges = new Edges(kept.width);
+        double[] coords = new double[6];
+        double startX = 0, startY = 0, lastX = 0, lastY = 0;
+        for (PathIterator it = shape.getPathIterator(null, FLATNESS); !it.isDone(); it.next()) {
+            int segment = it.currentSegment(coords);
+            double x = coords[0] - kept.x;
+            double y = coords[1] - kept.y;
+            if (segment == PathIterator.SEG_CLOSE) {
+                x = startX;
+                y = startY;
+                edges.add(lastX, lastY, x, y);
+            } else if (segment == PathIterator.SEG_MOVETO) {
+                // A filled outline is closed whether or not the path says so
+                edges.add(lastX, lastY, startX, startY);
+                startX = x;
+                startY = y;
+            } else {
+                edges.add(lastX, lastY, x, y);
+            }
+            lastX = x;
+            lastY = y;
+        }
+        edges.add(lastX, lastY, startX, startY);
+        return Arrays.copyOf(edges.coords, edges.size);
+    }
+
+    /**
+     * <p>
+     * Add the signed area to the right of a line segment to a band of rows.
+     * </p>
+     *
+     * <p>
+     * Each pixel a segment passes through gets the part of the pixel to the right of the
+     * segment, and the next pixel gets the rest of the segment's height, so that a running
+     * sum along the row carries the full height on to every pixel further right. Segments
+     * going down add and segments going up subtract, so the sum is the winding number
+     * weighted by how much of each pixel is covered. Only the part of the segment within
+     * the band is added, and x must lie between 0 and the width.
+     * </p>
+     *
+     * @param area The coverage buffer for the band, with a stride of two more than the width.
+     * @param stride The distance between the starts of consecutive rows of the buffer.
+     * @param rows The number of rows in the band.
+     * @param x0 The x coordinate of the start of the segment.
+     * @param y0 The y coordinate of the start of the segment, relative to the top of the band.
+     * @param x1 The x coordinate of the end of the segment.
+     * @param y1 The y coordinate of the end of the segment, relative to the top of the band.
+     */
+    private static void accumulate(float[] area, int stride, int rows, double x0, double y0, double x1, double y1) {
+        double direction = 1;
+        if (y0 > y1) {
+            direction = -1;
+            double t = x0; x0 = x1; x1 = t;
+            t = y0; y0 = y1; y1 = t;
+        }
+        if (y1 <= 0 || y0 >= rows) {
+            return;
+        }
+        double slope = (x1 - x0) / (y1 - y0);
+        double x = x0;
+        if (y0 < 0) {
+            x = Math.max(0, Math.min(stride - 2, x - y0 * slope));
+            y0 = 0;
+        }
+        y1 = Math.min(y1, rows);
+
+        for (int y = (int) y0; y < y1; y++) {
+            int line = y * stride;
+            double height = Math.min(y + 1, y1) - Math.max(y, y0);
+            double next = Math.max(0, Math.min(stride - 2, x + slope * height));
+            double d = height * direction;
+            double left = Math.min(x, next);
+            double right = Math.max(x, next);
+            int first = (int) Math.floor(left);
+            int last = (int) Math.ceil(right);
+            if (last <= first + 1) {
+                // Within one pixel: it gets the part right of the segment's midpoint
+                double middle = 0.5 * (x + next) - first;
+                area[line + first] += d * (1 - middle);
+                area[line + first + 1] += d * middle;
+            } else {
+                // Across several pixels: the covered part grows linearly between the ends
+                double run = 1 / (right - left);
+                double start = left - first;
+                double inFirst = 0.5 * run * (1 - start) * (1 - start);
+                double end = right - last + 1;
+                double inLast = 0.5 * run * end * end;
+                area[line + first] += d * inFirst;
+                if (last == first + 2) {
+                    area[line + first + 1] += d * (1 - inFirst - inLast);
+                } else {
+                    double sofar = run * (1.5 - start);
+                    area[line + first + 1] += d * (sofar - inFirst);
+                    for (int i = first + 2; i < last - 1; i++) {
+                        area[line + i] += d * run;
+                    }
+                    sofar += (last - first - 3) * run;
+                    area[line + last - 1] += d * (1 - sofar - inLast);
+                }
+                area[line + last] += d * inLast;
+            }
+            x = next;
+        }
+    }
+
+    /**
+     * <p>
+     * Get the fraction of a pixel covered by a shape from its weighted winding number.
+     * </p>
+     *
+     * <p>
+     * Under the non-zero rule any winding counts as inside. Under the even-odd rule an
+     * even winding is outside, so the coverage rises and falls again between whole numbers.
+     * </p>
+     *
+     * @param winding The sum of the areas along the row up to the pixel.
+     * @param evenOdd Whether the shape is filled by the even-odd rule.
+     * @return The coverage, from 0 to 1.
+     */
+    private static float coverage(float winding, boolean evenOdd) {
+        float value = Math.abs(winding);
+        if (evenOdd) {
+            return Math.abs(value - 2 * Math.round(value / 2));
+        }
+        return Math.min(1f, value);
+    }
+
+    /**
+     * <p>
+     * A growing list of line segments, kept within the sides of a rectangle.
+     * </p>
+     *
+     * <p>
+     * Segments are split where they cross the left and right sides, and the parts outside
+     * are moved onto the nearest side. That changes nothing within the rectangle: to the
+     * left they still cover the whole width, and to the right they cover none of it.
+     * Horizontal segments cover nothing and are left out.
+     * </p>
+     */
+    private static final class Edges {
+
+        /** The width of the rectangle. */
+        private final int width;
+
+        /** The segments, as groups of four coordinates: x0, y0, x1, y1. */
+        private double[] coords = new double[64];
+
+        /** The number of coordinates in use. */
+        private int size;
+
+        /**
+         * <p>
+         * Create an empty list of segments.
+         * </p>
+         *
+         * @param width The width of the rectangle.
+         */
+        Edges(int width) {
+            this.width = width;
+        }
+
+        /**
+         * <p>
+         * Add a segment, split at the sides of the rectangle.
+         * </p>
+         *
+         * @param x0 The x coordinate of the start of the segment.
+         * @param y0 The y coordinate of the start of the segment.
+         * @param x1 The x coordinate of the end of the segment.
+         * @param y1 The y coordinate of the end of the segment.
+         */
+        void add(double x0, double y0, double x1, double y1) {
+            if (y0 == y1) {
+                return;
+            }
+            for (double side: new double[] {0, width}) {
+                if ((x0 < side && x1 > side) || (x0 > side && x1 < side)) {
+                    double y = y0 + (y1 - y0) * (side - x0) / (x1 - x0);
+                    add(x0, y0, side, y);
+                    add(side, y, x1, y1);
+                    return;
+                }
+            }
+            if (size + 4 > coords.length) {
+                coords = Arrays.copyOf(coords, coords.length * 2);
+            }
+            coords[size++] = Math.max(0, Math.min(width, x0));
+            coords[size++] = y0;
+            coords[size++] = Math.max(0, Math.min(width, x1));
+            coords[size++] = y1;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package cosc202.andie;
+
+/**
+ * <p>
+ * Hot per-pixel loops, run on the processor's vector units where Java allows it.
+ * </p>
+ *
+ * <p>
+ * The Java Vector API lets one instruction work on 4, 8 or 16 channel values at once,
+ * but it is still an incubator module, {@code jdk.incubator.vector}, which the Java
+ * runtime only makes available when started with
+ * {@code --add-modules jdk.incubator.vector}. The Gradle build passes that flag, but
+ * ANDIE may be started without it. So the vector code is kept in {@link VectorKernels},
+ * which is only loaded once the module is known to be there, and every loop here has a
+ * plain Java version that is used otherwise. Both give exactly the same results.
+ * </p>
+ *
+ * <p>
+ * Loops over pixels return how far they got: the vector code stops short of the end
+ * when fewer pixels are left than fill a vector, or does nothing at all without the
+ * module, and the caller finishes the rest one pixel at a time.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @see VectorKernels
+ * @version 1.0
+ */
+final class Simd {
+
+    /** Whether the Vector API can be used in this Java runtime. */
+    static final boolean AVAILABLE = detect();
+
+    /** Whether to use the Vector API, which can only be true if it is available. */
+    private static boolean enabled = AVAILABLE;
+
+    /**
+     * <p>
+     * Simd only has static methods.
+     * </p>
+     */
+    private Simd() {
+    }
+
+    /**
+     * <p>
+     * Check whether the Vector API can be used.
+     * </p>
+     *
+     * @return True if the incubator module is present and works on this processor.
+     */
+    private static boolean detect() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return false;
+        }
+        try {
+            return VectorKernels.isUseful();
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * <p>
+     * Check whether the Vector API is being used.
+     * </p>
+     *
+     * @return True if the loops run on the vector units.
+     */
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * <p>
+     * Choose whether to use the Vector API where it is available, to compare the two.
+     * </p>
+     *
+     * @param use Whether to use the Vector API.
+     */
+    static void setEnabled(boolean use) {
+        enabled = use && AVAILABLE;
+    }
+
+    /**
+     * <p>
+     * Add a multiple of part of one array to another.
+     * </p>
+     *
+     * @param sums The values added to, from index 0.
+     * @param weight What to multiply the values added by.
+     * @param values The values added.
+     * @param from The index of the first value added.
+     * @param length The number of values.
+     */
+    static void multiplyAdd(int[] sums, int weight, int[] values, int from, int length) {
+        int k = enabled ? VectorKernels.multiplyAdd(sums, weight, values, from, length) : 0;
+        for (; k < length; k++) {
+            sums[k] += weight * values[from + k];
+        }
+    }
+
+    /**
+     * <p>
+     * Add a multiple of part of one array to another.
+     * </p>
+     *
+     * <p>
+     * Each value is multiplied and then added, with each result rounded to a float, so
+     * the sums are the same as those of the plain loop.
+     * </p>
+     *
+     * @param sums The values added to, from index 0.
+     * @param weight What to multiply the values added by.
+     * @param values The values added.
+     * @param from The index of the first value added.
+     * @param length The number of values.
+     */
+    static void multiplyAdd(float[] sums, float weight, float[] values, int from, int length) {
+        int k = enabled ? VectorKernels.multiplyAdd(sums, weight, values, from, length) : 0;
+        for (; k < length; k++) {
+            sums[k] += weight * values[from + k];
+        }
+    }
+
+    /**
+     * <p>
+     * Reorder and invert the channels of a run of ARGB pixels in place.
+     * </p>
+     *
+     * @param pixels The pixels.
+     * @param start The index of the first pixel.
+     * @param end The index after the last pixel.
+     * @param shifts For each new channel, red, green, blue and alpha, the bit position of
+     *        the old channel it comes from.
+     * @param inverts For each new channel, 0xFF to invert it or 0 to copy it.
+     * @return The index of the first pixel not yet changed.
+     */
+    static int mapChannels(int[] pixels, int start, int end, int[] shifts, int[] inverts) {
+        return enabled ? VectorKernels.mapChannels(pixels, start, end, shifts, inverts) : start;
+    }
+
+    /**
+     * <p>
+     * Apply an affine colour transform to a run of ARGB pixels in place.
+     * </p>
+     *
+     * <p>
+     * Each new channel, red, green, blue and alpha in turn, is worked out from the old
+     * channels as <code>((w0 r + w1 g + w2 b + w3 a + add) * magic &gt;&gt; shift) - minus</code>,
+     * clamped to 0 to 255, where the multiplication and shift divide exactly by the
+     * matrix's divisor.
+     * </p>
+     *
+     * @param pixels The pixels.
+     * @param start The index of the first pixel.
+     * @param end The index after the last pixel.
+     * @param weights The weights, five for each new channel, of which the fifth is unused.
+     * @param add What to add to each new channel's sum.
+     * @param magic What to multiply each new channel's sum by.
+     * @param shift How far to shift each new channel's product down.
+     * @param minus What to subtract from each new channel's quotient.
+     * @return The index of the first pixel not yet changed.
+     */
+    static int transformColours(int[] pixels, int start, int end, int[] weights, int[] add, int[] magic,
+            int[] shift, int[] minus) {
+        return enabled ? VectorKernels.transformColours(pixels, start, end, weights, add, magic, shift, minus) : start;
+    }
+}
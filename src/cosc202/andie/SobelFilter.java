@@ -1,8 +1,6 @@
 package cosc202.andie;
 
 import java.awt.image.BufferedImage;
-import java.awt.image.ConvolveOp;
-import java.awt.image.Kernel;
 
 /**
  * <p>
@@ -19,12 +17,15 @@ import java.awt.image.Kernel;
  * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
  * </p>
  * 
- * @see java.awt.image.ConvolveOp
+ * @see Convolution
  * @author Neil Flores
  * @version 1.0
  */
 public class SobelFilter implements ImageOperation, java.io.Serializable {
 
+    /** The serial version of earlier releases, so that operations they saved can still be read. */
+    private static final long serialVersionUID = -873709810734885608L;
+
     private final float[] horizontalKernel = {-1, 0, 1, -2, 0, 2, -1, 0, 1};
     private final float[] verticalKernel = {-1, -2, -1, 0, 0, 0, 1, 2, 1};
     private final boolean isHorizontal;
@@ -45,30 +46,18 @@ public class SobelFilter implements ImageOperation, java.io.Serializable {
      * Applies the Sobel filter to the input image.
      * </p>
      *
+     * <p>
+     * The response is signed, so it is offset to mid grey: areas without edges come out
+     * grey, and edges lighter or darker depending on which way the brightness changes
+     * across them. The alpha channel is left as it was.
+     * </p>
+     *
      * @param input the image to apply the filter to.
      * @return the image with the Sobel filter applied.
      */
     @Override
     public BufferedImage apply(BufferedImage input) {
         float[] kernel = isHorizontal ? horizontalKernel : verticalKernel;
-        BufferedImage output = applyKernel(input, kernel);
-        return output;
-    }
-
-    /**
-     * <p>
-     * Applies the specified kernel to the input image.
-     * </p>
-     *
-     * @param input the image to apply the kernel to.
-     * @param kernel the kernel to apply to the image.
-     * @return the image with the kernel applied.
-     */
-    private BufferedImage applyKernel(BufferedImage input, float[] kernel) {
-        Kernel sobelKernel = new Kernel(3, 3, kernel);
-        ConvolveOp convolveOp = new ConvolveOp(sobelKernel);
-        BufferedImage output = new BufferedImage(input.getWidth(), input.getHeight(), input.getType());
-        convolveOp.filter(input, output);
-        return output;
+        return new Convolution(3, 3, kernel, Convolution.Border.CLAMP, 128).apply(input);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,206 @@
+package cosc202.andie;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * <p>
+ * The Sobel gradient of an image's brightness, held in primitive arrays.
+ * </p>
+ *
+ * <p>
+ * Both components of the gradient, across (X) and down (Y), are found in one sweep down
+ * the image. Each row's brightness is worked out once and kept only while the 3x3 Sobel
+ * kernels cover it, and both kernels are applied to the same three rows together, so an
+ * edge map costs half as much as convolving with each kernel in turn.
+ * </p>
+ *
+ * <p>
+ * Brightness is found with the same weights as {@link ConvertToGrey}. Each component is
+ * signed, positive where the image gets brighter to the right or downwards, and lies
+ * between -1020 and 1020. Pixels beyond the border are read as given by a
+ * {@link Convolution.Border}. Component values for pixel <code>(x, y)</code> are at index
+ * <code>y * width + x</code>.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @see GradientFilter
+ * @version 1.0
+ */
+final class SobelGradient {
+
+    /** The fewest rows a band may have, to keep the rows read twice by neighbouring bands few. */
+    private static final int MIN_BAND_HEIGHT = 64;
+
+    /** The width of the image. */
+    private final int width;
+    /** The height of the image. */
+    private final int height;
+    /** The component of the gradient across the image. */
+    private final short[] x;
+    /** The component of the gradient down the image. */
+    private final short[] y;
+
+    /**
+     * <p>
+     * Create an empty gradient.
+     * </p>
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     */
+    private SobelGradient(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.x = new short[width * height];
+        this.y = new short[width * height];
+    }
+
+    /**
+     * <p>
+     * Find the gradient of an image.
+     * </p>
+     *
+     * @param image The image.
+     * @param border How pixels beyond the border are read.
+     * @return The gradient.
+     */
+    static SobelGradient of(BufferedImage image, Convolution.Border border) {
+        SobelGradient gradient = new SobelGradient(image.getWidth(), image.getHeight());
+        PixelAccess pixels = PixelAccess.of(image);
+        int height = gradient.height;
+        int cores = TileExecutor.parallelism();
+        int bands = cores < 2 ? 1 : Math.max(1, Math.min(height / MIN_BAND_HEIGHT, cores * TileExecutor.BANDS_PER_CORE));
+        TileExecutor.parallelFor(bands, band -> gradient.sweep(pixels, border,
+                (int) ((long) height * band / bands), (int) ((long) height * (band + 1) / bands)));
+        return gradient;
+    }
+
+    /**
+     * <p>
+     * Find the gradient for some rows of the image.
+     * </p>
+     *
+     * @param pixels The pixels of the image.
+     * @param border How pixels beyond the border are read.
+     * @param top The first row.
+     * @param bottom The row after the last one.
+     */
+    private void sweep(PixelAccess pixels, Convolution.Border border, int top, int bottom) {
+        // The brightness of the rows above, at and below the current one, with a column beyond each edge.
+        int[][] rows = new int[3][width + 2];
+        brightness(pixels, border, top - 1, rows[0]);
+        brightness(pixels, border, top, rows[1]);
+        for (int row = top; row < bottom; row++) {
+            OperationWorker.checkCancelled();
+            OperationWorker.reportProgress(row - top, bottom - top);
+
+            int[] above = rows[(row - top) % 3];
+            int[] middle = rows[(row - top + 1) % 3];
+            int[] below = rows[(row - top + 2) % 3];
+            brightness(pixels, border, row + 1, below);
+            for (int i = 0, out = row * width; i < width; i++, out++) {
+                int left = above[i] + 2 * middle[i] + below[i];
+                int right = above[i + 2] + 2 * middle[i + 2] + below[i + 2];
+                int up = above[i] + 2 * above[i + 1] + above[i + 2];
+                int down = below[i] + 2 * below[i + 1] + below[i + 2];
+                x[out] = (short) (right - left);
+                y[out] = (short) (down - up);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Work out the brightness of a row of the image.
+     * </p>
+     *
+     * @param pixels The pixels of the image.
+     * @param border How pixels beyond the border are read.
+     * @param row The row, which may be beyond the border.
+     * @param values Set to the brightness of each pixel, with the column beyond each edge.
+     */
+    private void brightness(PixelAccess pixels, Convolution.Border border, int row, int[] values) {
+        int[] data = pixels.getPixels();
+        int start = pixels.getIndex(0, border.index(row, height));
+        for (int i = -1; i <= width; i++) {
+            int argb = data[start + border.index(i, width)];
+            int r = (argb >> 16) & 0xFF;
+            int g = (argb >> 8) & 0xFF;
+            int b = argb & 0xFF;
+            values[i + 1] = (3 * r + 6 * g + b + 5) / 10;
+        }
+    }
+
+    /**
+     * <p>
+     * Get the width of the image.
+     * </p>
+     *
+     * @return The width in pixels.
+     */
+    int getWidth() {
+        return width;
+    }
+
+    /**
+     * <p>
+     * Get the height of the image.
+     * </p>
+     *
+     * @return The height in pixels.
+     */
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * <p>
+     * Get the component of the gradient across the image.
+     * </p>
+     *
+     * @return The X component for each pixel, row by row. The array is not copied.
+     */
+    short[] getX() {
+        return x;
+    }
+
+    /**
+     * <p>
+     * Get the component of the gradient down the image.
+     * </p>
+     *
+     * @return The Y component for each pixel, row by row. The array is not copied.
+     */
+    short[] getY() {
+        return y;
+    }
+
+    /**
+     * <p>
+     * Get the magnitude of the gradient at a pixel.
+     * </p>
+     *
+     * @param i The index of the pixel.
+     * @return The length of the gradient vector, from 0 to about 1443.
+     */
+    double magnitude(int i) {
+        return Math.sqrt(x[i] * x[i] + y[i] * y[i]);
+    }
+
+    /**
+     * <p>
+     * Get the orientation of the gradient at a pixel.
+     * </p>
+     *
+     * @param i The index of the pixel.
+     * @return The angle of the direction the brightness increases in, in radians from
+     *         -pi to pi, measured clockwise from the right on screen, or 0 where the
+     *         gradient is zero.
+     */
+    double orientation(int i) {
+        return Math.atan2(y[i], x[i]);
+    }
+}
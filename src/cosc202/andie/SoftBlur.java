@@ -1,6 +1,6 @@
 package cosc202.andie;
 
-import java.awt.image.*;
+import java.awt.image.BufferedImage;
 
 /**
  * <p>
@@ -12,6 +12,9 @@ import java.awt.image.*;
  */
 public class SoftBlur implements ImageOperation, java.io.Serializable {
 
+    /** The serial version of earlier releases, so that operations they saved can still be read. */
+    private static final long serialVersionUID = 6363648596663514396L;
+
     /**
      * <p>
      * Construct a SoftBlur Filter
@@ -28,6 +31,7 @@ public class SoftBlur implements ImageOperation, java.io.Serializable {
      * 
      * <p>
      * The SoftBlur Filter is implemented using convolution.
+     * Pixels beyond the border are read as copies of the edge.
      * </p>
      * 
      * @param input The image to apply the softblur filter
@@ -38,19 +42,6 @@ public class SoftBlur implements ImageOperation, java.io.Serializable {
         float [] array = { 0 , 1/8.0f, 0 , 
                             1/8.0f, 1/2.0f, 1/8.0f, 
                             0 ,1/8.0f, 0 }; 
-        // Make a 3x3 filter from the array 
-        Kernel kernel = new Kernel(3, 3, array); 
-        // Apply this as a convolution- same code as in MeanFilter 
-        ConvolveOp convOp = new ConvolveOp(kernel);
-
-        BufferedImage output = new BufferedImage(input.getColorModel(), 
-                                    input.copyData(null), 
-                                    input.isAlphaPremultiplied(), null);
-         
-        convOp.filter(input, output); 
-        // And we're done 
-        return output; 
-    
-        }
-
+        return new Convolution(3, 3, array, Convolution.Border.CLAMP).apply(input);
+    }
 }
@@ -0,0 +1,222 @@
+package cosc202.andie;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * <p>
+ * Runs a neighbourhood filter across all processor cores.
+ * </p>
+ *
+ * <p>
+ * The image is split into horizontal bands, and the filter is applied to each band on the
+ * common {@link ForkJoinPool}. Every band is given a halo of extra rows above and below,
+ * as many as the filter's neighbourhood radius, so that the pixels it keeps are computed
+ * from exactly the same input pixels as they would be if the whole image were filtered at
+ * once. Only where a band meets the top or bottom of the image does it have no halo, and
+ * there the filter sees the true image border. The halo rows of each result are then
+ * discarded and the bands stitched back together.
+ * </p>
+ *
+ * <p>
+ * This relies on the filter's output pixels depending only on the input pixels within the
+ * radius it is given and on the image borders, and on the filter returning an image the
+ * same size as its input. The result is then
+ * bit-for-bit the same however many bands are used. Small images are filtered on the
+ * calling thread, where splitting would cost more than it saves.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @version 1.0
+ */
+final class TileExecutor {
+
+    /** Images with fewer pixels than this are filtered on the calling thread. */
+    static final long PARALLEL_THRESHOLD_PIXELS = 1L << 18;
+    /** The fewest rows a band may have, to keep the work of the halos small. */
+    static final int MIN_BAND_HEIGHT = 32;
+    /** How many bands to make per core, so that cores finishing early can take on more. */
+    static final int BANDS_PER_CORE = 4;
+
+    /** The number of cores to split work for in place of the common pool's, or 0 to use the common pool's. */
+    private static volatile int parallelismOverride;
+
+    /**
+     * <p>
+     * TileExecutor only has static methods.
+     * </p>
+     */
+    private TileExecutor() {
+    }
+
+    /**
+     * <p>
+     * Apply a filter to an image, in parallel bands where that is worthwhile.
+     * </p>
+     *
+     * <p>
+     * The filter is always given an image of its own, never a view of part of a larger
+     * image, so it may freely copy its input's raster.
+     * </p>
+     *
+     * @param input The image to filter. It is not changed.
+     * @param radius How far from each pixel the filter reads, or -1 if there is no bound.
+     * @param filter The filter, returning a new image the same size as its input.
+     * @return The filtered image.
+     */
+    static BufferedImage apply(BufferedImage input, int radius, UnaryOperator<BufferedImage> filter) {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        int parallelism = parallelism();
+        int bandHeight = Math.max(MIN_BAND_HEIGHT, 4 * radius);
+        int bands = Math.min(parallelism * BANDS_PER_CORE, height / bandHeight);
+        if (radius < 0 || parallelism < 2 || bands < 2 || (long) width * height < PARALLEL_THRESHOLD_PIXELS) {
+            // A subimage shares its parent's raster, which a filter copying its input would copy whole.
+            return filter.apply(input.getRaster().getParent() != null ? copyRows(input, 0, height) : input);
+        }
+
+        OperationWorker worker = OperationWorker.active();
+        boolean reports = worker != null && !OperationWorker.inPart();
+        AtomicLong rowsDone = new AtomicLong();
+        BufferedImage[] results = new BufferedImage[bands];
+        int[] tops = new int[bands + 1];
+        for (int b = 0; b <= bands; b++) {
+            tops[b] = (int) ((long) height * b / bands);
+        }
+        List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(bands);
+        for (int b = 0; b < bands; b++) {
+            int band = b;
+            tasks.add(ForkJoinTask.adapt(() -> {
+                int top = Math.max(0, tops[band] - radius);
+                int bottom = Math.min(height, tops[band + 1] + radius);
+                BufferedImage piece = copyRows(input, top, bottom);
+                results[band] = worker == null ? filter.apply(piece) : worker.runPart(() -> filter.apply(piece));
+                if (reports) {
+                    // Under the lock the totals are reported in order, so the progress never goes back.
+                    synchronized (rowsDone) {
+                        worker.progress(rowsDone.addAndGet(tops[band + 1] - tops[band]), height);
+                    }
+                }
+            }));
+        }
+        ForkJoinTask.invokeAll(tasks);
+
+        BufferedImage first = results[0];
+        WritableRaster raster = first.getRaster().createCompatibleWritableRaster(width, height);
+        for (int b = 0; b < bands; b++) {
+            int haloAbove = tops[b] - Math.max(0, tops[b] - radius);
+            raster.setDataElements(0, tops[b], results[b].getRaster()
+                    .createChild(0, haloAbove, width, tops[b + 1] - tops[b], 0, 0, null));
+        }
+        return new BufferedImage(first.getColorModel(), raster, first.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * <p>
+     * Run a number of independent parts of an operation in parallel.
+     * </p>
+     *
+     * <p>
+     * This suits operations that cannot be split into bands with a bounded halo, but
+     * whose work still divides into independent pieces, such as rows or strips of columns
+     * that are each processed from start to end. The parts may run in any order.
+     * </p>
+     *
+     * @param parts The number of parts.
+     * @param part Runs the part with the given index, from 0 to parts - 1.
+     */
+    static void parallelFor(int parts, IntConsumer part) {
+        OperationWorker worker = OperationWorker.active();
+        boolean reports = worker != null && !OperationWorker.inPart();
+        if (parallelism() < 2 || parts < 2) {
+            for (int i = 0; i < parts; i++) {
+                OperationWorker.checkCancelled();
+                OperationWorker.reportProgress(i, parts);
+                part.accept(i);
+            }
+            return;
+        }
+        AtomicLong partsDone = new AtomicLong();
+        List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(parts);
+        for (int i = 0; i < parts; i++) {
+            int index = i;
+            tasks.add(ForkJoinTask.adapt(() -> {
+                if (worker == null) {
+                    part.accept(index);
+                } else {
+                    worker.runPart(() -> {
+                        OperationWorker.checkCancelled();
+                        part.accept(index);
+                        return null;
+                    });
+                    if (reports) {
+                        synchronized (partsDone) {
+                            worker.progress(partsDone.incrementAndGet(), parts);
+                        }
+                    }
+                }
+            }));
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    /**
+     * <p>
+     * Get the number of cores that work is split for.
+     * </p>
+     *
+     * <p>
+     * This is the parallelism of the common {@link ForkJoinPool} unless it has been
+     * overridden. Work is only split when it is at least 2.
+     * </p>
+     *
+     * @return The number of cores to plan for.
+     */
+    static int parallelism() {
+        int override = parallelismOverride;
+        return override > 0 ? override : ForkJoinPool.getCommonPoolParallelism();
+    }
+
+    /**
+     * <p>
+     * Split work for a given number of cores, whatever the common pool has.
+     * </p>
+     *
+     * <p>
+     * The parts still run on the common pool, so on a machine with fewer cores they simply
+     * take turns. This lets the split paths be compared with the serial ones anywhere.
+     * </p>
+     *
+     * @param parallelism The number of cores to plan for, 1 to never split, or 0 to use the common pool's again.
+     */
+    static void setParallelism(int parallelism) {
+        parallelismOverride = parallelism;
+    }
+
+    /**
+     * <p>
+     * Copy some of the rows of an image into a new image of the same type.
+     * </p>
+     *
+     * @param image The image to copy from.
+     * @param top The first row to copy.
+     * @param bottom The row after the last one to copy.
+     * @return A new image holding just those rows.
+     */
+    private static BufferedImage copyRows(BufferedImage image, int top, int bottom) {
+        int width = image.getWidth();
+        WritableRaster raster = image.getRaster().createCompatibleWritableRaster(width, bottom - top);
+        raster.setDataElements(0, 0, image.getRaster().createChild(0, top, width, bottom - top, 0, 0, null));
+        return new BufferedImage(image.getColorModel(), raster, image.isAlphaPremultiplied(), null);
+    }
+}
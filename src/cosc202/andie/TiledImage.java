@@ -0,0 +1,391 @@
+package cosc202.andie;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * An immutable snapshot of an image, stored as reference-counted tiles that can be shared between snapshots.
+ * </p>
+ *
+ * <p>
+ * An {@link EditableImage} keeps several versions of its image at once: the original, and the
+ * rendered results held by its {@link CheckpointStore} and {@link HistoryCache}. Consecutive
+ * versions are often identical over most of their area, for example after drawing a shape or
+ * adjusting a small region. A TiledImage splits a snapshot into square tiles, and when a new
+ * snapshot is taken relative to an older one, every tile whose pixels are unchanged is shared
+ * rather than copied. Only the tiles that an operation actually wrote are stored again.
+ * </p>
+ *
+ * <p>
+ * Tiles are never modified once created, so sharing them is safe. Each tile counts the
+ * snapshots that refer to it, so that a store releasing a snapshot can tell how much memory
+ * was actually freed. Snapshots are turned back into a {@link BufferedImage} with
+ * {@link #toBufferedImage()}, which always makes a private copy that operations may modify.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @version 1.0
+ */
+class TiledImage {
+
+    /** The width and height of a tile, in pixels. */
+    static final int TILE_SIZE = 256;
+
+    /** The colour model shared by every tile. */
+    private final ColorModel colorModel;
+    /** Whether the colour components are premultiplied by alpha. */
+    private final boolean premultiplied;
+    /** The width of the whole image, in pixels. */
+    private final int width;
+    /** The height of the whole image, in pixels. */
+    private final int height;
+    /** The number of tile columns. */
+    private final int tilesAcross;
+    /** The tiles in row-major order. */
+    private final Tile[] tiles;
+    /** The number of bytes of tile data this snapshot allocated rather than shared. */
+    private final long allocatedBytes;
+    /** Whether this snapshot has already released its tiles. */
+    private boolean released;
+
+    /**
+     * <p>
+     * A single tile of pixel data, along with a count of the snapshots that use it.
+     * </p>
+     */
+    private static final class Tile {
+        /** The pixel data for the tile, which is never modified. */
+        final Raster raster;
+        /** The number of snapshots referring to this tile. */
+        final AtomicInteger references;
+
+        /**
+         * <p>
+         * Create a new tile, referred to by a single snapshot.
+         * </p>
+         *
+         * @param raster The pixel data for the tile.
+         */
+        Tile(Raster raster) {
+            this.raster = raster;
+            this.references = new AtomicInteger(1);
+        }
+    }
+
+    /**
+     * <p>
+     * Create a snapshot from its tiles.
+     * </p>
+     *
+     * @param image The image the snapshot is taken of.
+     * @param tiles The tiles making up the snapshot.
+     * @param allocatedBytes The number of bytes of tile data allocated rather than shared.
+     */
+    private TiledImage(BufferedImage image, Tile[] tiles, long allocatedBytes) {
+        this.colorModel = image.getColorModel();
+        this.premultiplied = image.isAlphaPremultiplied();
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.tilesAcross = (width + TILE_SIZE - 1) / TILE_SIZE;
+        this.tiles = tiles;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * <p>
+     * Take a snapshot of an image, copying all of its pixels.
+     * </p>
+     *
+     * @param image The image to take a snapshot of.
+     * @return A new snapshot of the image.
+     */
+    static TiledImage of(BufferedImage image) {
+        return of(image, null, null);
+    }
+
+    /**
+     * <p>
+     * Take a snapshot of an image, sharing any tiles that are unchanged from an earlier snapshot.
+     * </p>
+     *
+     * <p>
+     * Tiles can only be shared if the earlier snapshot has the same size and pixel layout as the
+     * image. Each candidate tile is compared row by row, so a tile that differs is usually
+     * rejected after reading its first row.
+     * </p>
+     *
+     * @param image The image to take a snapshot of.
+     * @param basis An earlier snapshot to share tiles with, or null to copy everything.
+     * @return A new snapshot of the image.
+     */
+    static TiledImage of(BufferedImage image, TiledImage basis) {
+        return of(image, basis, null);
+    }
+
+    /**
+     * <p>
+     * Take a snapshot of an image that is known to differ from an earlier snapshot only within a region.
+     * </p>
+     *
+     * <p>
+     * Tiles outside the changed region are shared with the earlier snapshot without reading
+     * them at all, so snapshotting after a small edit costs time in proportion to the edit
+     * rather than to the image. Tiles overlapping the region are compared as usual, since
+     * an edit often leaves parts of its region unchanged.
+     * </p>
+     *
+     * @param image The image to take a snapshot of.
+     * @param basis An earlier snapshot to share tiles with, or null to copy everything.
+     * @param changed The only part of the image that may differ from the basis, or null if unknown.
+     * @return A new snapshot of the image.
+     */
+    static TiledImage of(BufferedImage image, TiledImage basis, Rectangle changed) {
+        WritableRaster source = image.getRaster();
+        int tilesAcross = (image.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+        int tilesDown = (image.getHeight() + TILE_SIZE - 1) / TILE_SIZE;
+        Tile[] tiles = new Tile[tilesAcross * tilesDown];
+        boolean sharable = basis != null && basis.isCompatible(image);
+        long allocated = 0;
+
+        for (int ty = 0; ty < tilesDown; ty++) {
+            for (int tx = 0; tx < tilesAcross; tx++) {
+                int x = tx * TILE_SIZE;
+                int y = ty * TILE_SIZE;
+                int w = Math.min(TILE_SIZE, image.getWidth() - x);
+                int h = Math.min(TILE_SIZE, image.getHeight() - y);
+                Raster region = source.createChild(x, y, w, h, 0, 0, null);
+                int index = ty * tilesAcross + tx;
+
+                Tile previous = sharable ? basis.tiles[index] : null;
+                boolean unchanged = changed != null && !changed.intersects(x, y, w, h);
+                if (previous != null && (unchanged || sameContents(previous.raster, region))) {
+                    previous.references.incrementAndGet();
+                    tiles[index] = previous;
+                } else {
+                    WritableRaster copy = source.createCompatibleWritableRaster(w, h);
+                    copy.setDataElements(0, 0, region);
+                    tiles[index] = new Tile(copy);
+                    allocated += sizeOf(copy);
+                }
+            }
+        }
+        return new TiledImage(image, tiles, allocated);
+    }
+
+    /**
+     * <p>
+     * Check whether tiles of this snapshot can be shared with a snapshot of an image.
+     * </p>
+     *
+     * @param image The image that a new snapshot is being taken of.
+     * @return True if the image has the same size and pixel layout as this snapshot.
+     */
+    private boolean isCompatible(BufferedImage image) {
+        if (released || image.getWidth() != width || image.getHeight() != height
+                || image.isAlphaPremultiplied() != premultiplied || !image.getColorModel().equals(colorModel)) {
+            return false;
+        }
+        SampleModel ours = tiles[0].raster.getSampleModel();
+        SampleModel theirs = image.getSampleModel();
+        return ours.getClass() == theirs.getClass()
+                && ours.getTransferType() == theirs.getTransferType()
+                && ours.getNumDataElements() == theirs.getNumDataElements();
+    }
+
+    /**
+     * <p>
+     * Compare the pixel data of two rasters of the same size and layout.
+     * </p>
+     *
+     * @param a The first raster.
+     * @param b The second raster.
+     * @return True if every pixel holds the same data elements.
+     */
+    private static boolean sameContents(Raster a, Raster b) {
+        if (a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight()) {
+            return false;
+        }
+        Object rowA = null;
+        Object rowB = null;
+        for (int y = 0; y < a.getHeight(); y++) {
+            rowA = a.getDataElements(0, y, a.getWidth(), 1, rowA);
+            rowB = b.getDataElements(0, y, b.getWidth(), 1, rowB);
+            if (!Objects.deepEquals(rowA, rowB)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * <p>
+     * Estimate the number of bytes of pixel data held by a raster.
+     * </p>
+     *
+     * @param raster The raster to measure.
+     * @return The number of bytes of pixel data.
+     */
+    private static long sizeOf(Raster raster) {
+        SampleModel model = raster.getSampleModel();
+        long elements = (long) raster.getWidth() * raster.getHeight() * model.getNumDataElements();
+        return elements * DataBuffer.getDataTypeSize(model.getTransferType()) / 8;
+    }
+
+    /**
+     * <p>
+     * Make a new image holding a copy of this snapshot.
+     * </p>
+     *
+     * <p>
+     * The result has the same colour model and pixel layout as the image the snapshot was
+     * taken of, and belongs to the caller, so it can be modified freely.
+     * </p>
+     *
+     * @return A new image with the contents of this snapshot.
+     */
+    BufferedImage toBufferedImage() {
+        WritableRaster raster = tiles[0].raster.createCompatibleWritableRaster(width, height);
+        for (int i = 0; i < tiles.length; i++) {
+            int x = (i % tilesAcross) * TILE_SIZE;
+            int y = (i / tilesAcross) * TILE_SIZE;
+            raster.setDataElements(x, y, tiles[i].raster);
+        }
+        return new BufferedImage(colorModel, raster, premultiplied, null);
+    }
+
+    /**
+     * <p>
+     * Copy part of this snapshot into an image of the same size and layout.
+     * </p>
+     *
+     * <p>
+     * Only the tiles overlapping the region are read, so restoring a small area
+     * is much cheaper than {@link #toBufferedImage()}.
+     * </p>
+     *
+     * @param target The image to copy into.
+     * @param region The part of the image to copy.
+     * @return True if the pixels were copied, false if the target is not compatible with this snapshot.
+     */
+    boolean copyInto(BufferedImage target, Rectangle region) {
+        if (!isCompatible(target)) {
+            return false;
+        }
+        WritableRaster raster = target.getRaster();
+        for (int i = 0; i < tiles.length; i++) {
+            Raster tile = tiles[i].raster;
+            int x = (i % tilesAcross) * TILE_SIZE;
+            int y = (i / tilesAcross) * TILE_SIZE;
+            Rectangle overlap = region.intersection(new Rectangle(x, y, tile.getWidth(), tile.getHeight()));
+            if (!overlap.isEmpty()) {
+                Raster part = tile.createChild(overlap.x - x, overlap.y - y, overlap.width, overlap.height, 0, 0, null);
+                raster.setDataElements(overlap.x, overlap.y, part);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * <p>
+     * Give up this snapshot's references to its tiles.
+     * </p>
+     *
+     * <p>
+     * The snapshot must not be used afterwards. Tiles that are still shared with other
+     * snapshots remain alive, so the return value only counts tiles no longer used anywhere.
+     * </p>
+     *
+     * @return The number of bytes of tile data that are no longer referred to by any snapshot.
+     */
+    long release() {
+        if (released) {
+            return 0;
+        }
+        released = true;
+        long freed = 0;
+        for (Tile tile: tiles) {
+            if (tile.references.decrementAndGet() == 0) {
+                freed += sizeOf(tile.raster);
+            }
+        }
+        return freed;
+    }
+
+    /**
+     * <p>
+     * Measure the tile data that nothing but a group of snapshots keeps alive.
+     * </p>
+     *
+     * <p>
+     * A tile counts if every reference to it comes from the group, however it came to be
+     * there: tiles a snapshot allocated itself, and tiles it shared with a snapshot outside
+     * the group that has since been released. Tiles still shared with a live snapshot
+     * outside the group are left out, since releasing the group would not free them.
+     * </p>
+     *
+     * @param snapshots The group of snapshots, none of which has been released.
+     * @return The number of bytes of tile data that releasing the whole group would free.
+     */
+    static long retainedBytes(Collection<TiledImage> snapshots) {
+        IdentityHashMap<Tile, Integer> counts = new IdentityHashMap<Tile, Integer>();
+        for (TiledImage snapshot: snapshots) {
+            for (Tile tile: snapshot.tiles) {
+                counts.merge(tile, 1, Integer::sum);
+            }
+        }
+        long bytes = 0;
+        for (Map.Entry<Tile, Integer> count: counts.entrySet()) {
+            if (count.getKey().references.get() == count.getValue()) {
+                bytes += sizeOf(count.getKey().raster);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * <p>
+     * Get the number of bytes of tile data this snapshot allocated rather than shared.
+     * </p>
+     *
+     * @return The number of bytes allocated when the snapshot was taken.
+     */
+    long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * <p>
+     * Get the width of the image.
+     * </p>
+     *
+     * @return The width in pixels.
+     */
+    int getWidth() {
+        return width;
+    }
+
+    /**
+     * <p>
+     * Get the height of the image.
+     * </p>
+     *
+     * @return The height in pixels.
+     */
+    int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,166 @@
+package cosc202.andie;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * <p>
+ * The Vector API versions of the loops in {@link Simd}.
+ * </p>
+ *
+ * <p>
+ * This is the only class that uses the incubator module {@code jdk.incubator.vector}, and
+ * it must only be loaded through {@link Simd} once the module is known to be present.
+ * Each loop works on as many values at once as the processor's widest vectors hold, 8
+ * ints or floats with AVX2, and returns or finishes with plain Java code for the values
+ * left over.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @see Simd
+ * @version 1.0
+ */
+final class VectorKernels {
+
+    /** The widest vectors of ints the processor handles well. */
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    /** The widest vectors of floats the processor handles well. */
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    /** The bit position of each new channel, red, green, blue and alpha, in an ARGB int. */
+    private static final int[] PLACES = {16, 8, 0, 24};
+
+    /**
+     * <p>
+     * VectorKernels only has static methods.
+     * </p>
+     */
+    private VectorKernels() {
+    }
+
+    /**
+     * <p>
+     * Check whether the processor's vectors are wide enough to be worth using.
+     * </p>
+     *
+     * @return True if a vector holds at least four ints.
+     */
+    static boolean isUseful() {
+        return INTS.length() >= 4 && FLOATS.length() >= 4;
+    }
+
+    /**
+     * <p>
+     * Add a multiple of part of one array to another, as far as whole vectors go.
+     * </p>
+     *
+     * @param sums The values added to, from index 0.
+     * @param weight What to multiply the values added by.
+     * @param values The values added.
+     * @param from The index of the first value added.
+     * @param length The number of values.
+     * @return The number of values added.
+     */
+    static int multiplyAdd(int[] sums, int weight, int[] values, int from, int length) {
+        int bound = INTS.loopBound(length);
+        int k = 0;
+        for (; k < bound; k += INTS.length()) {
+            IntVector.fromArray(INTS, values, from + k).mul(weight)
+                    .add(IntVector.fromArray(INTS, sums, k)).intoArray(sums, k);
+        }
+        return k;
+    }
+
+    /**
+     * <p>
+     * Add a multiple of part of one array to another, as far as whole vectors go.
+     * </p>
+     *
+     * @param sums The values added to, from index 0.
+     * @param weight What to multiply the values added by.
+     * @param values The values added.
+     * @param from The index of the first value added.
+     * @param length The number of values.
+     * @return The number of values added.
+     */
+    static int multiplyAdd(float[] sums, float weight, float[] values, int from, int length) {
+        int bound = FLOATS.loopBound(length);
+        int k = 0;
+        for (; k < bound; k += FLOATS.length()) {
+            // Multiply then add, not fused, to round exactly as the plain loop does.
+            FloatVector.fromArray(FLOATS, sums, k)
+                    .add(FloatVector.fromArray(FLOATS, values, from + k).mul(weight)).intoArray(sums, k);
+        }
+        return k;
+    }
+
+    /**
+     * <p>
+     * Reorder and invert the channels of ARGB pixels in place, as far as whole vectors go.
+     * </p>
+     *
+     * @param pixels The pixels.
+     * @param start The index of the first pixel.
+     * @param end The index after the last pixel.
+     * @param shifts For each new channel the bit position of the old channel it comes from.
+     * @param inverts For each new channel, 0xFF to invert it or 0 to copy it.
+     * @return The index of the first pixel not changed.
+     */
+    static int mapChannels(int[] pixels, int start, int end, int[] shifts, int[] inverts) {
+        int bound = start + INTS.loopBound(end - start);
+        int i = start;
+        for (; i < bound; i += INTS.length()) {
+            IntVector argb = IntVector.fromArray(INTS, pixels, i);
+            IntVector result = IntVector.zero(INTS);
+            for (int c = 0; c < 4; c++) {
+                result = result.or(argb.lanewise(VectorOperators.LSHR, shifts[c]).and(0xFF)
+                        .lanewise(VectorOperators.XOR, inverts[c]).lanewise(VectorOperators.LSHL, PLACES[c]));
+            }
+            result.intoArray(pixels, i);
+        }
+        return i;
+    }
+
+    /**
+     * <p>
+     * Apply an affine colour transform to ARGB pixels in place, as far as whole vectors go.
+     * </p>
+     *
+     * @param pixels The pixels.
+     * @param start The index of the first pixel.
+     * @param end The index after the last pixel.
+     * @param weights The weights, five for each new channel, of which the fifth is unused.
+     * @param add What to add to each new channel's sum.
+     * @param magic What to multiply each new channel's sum by.
+     * @param shift How far to shift each new channel's product down.
+     * @param minus What to subtract from each new channel's quotient.
+     * @return The index of the first pixel not changed.
+     * @see Simd#transformColours
+     */
+    static int transformColours(int[] pixels, int start, int end, int[] weights, int[] add, int[] magic,
+            int[] shift, int[] minus) {
+        int bound = start + INTS.loopBound(end - start);
+        int i = start;
+        for (; i < bound; i += INTS.length()) {
+            IntVector argb = IntVector.fromArray(INTS, pixels, i);
+            IntVector r = argb.lanewise(VectorOperators.LSHR, 16).and(0xFF);
+            IntVector g = argb.lanewise(VectorOperators.LSHR, 8).and(0xFF);
+            IntVector b = argb.and(0xFF);
+            IntVector a = argb.lanewise(VectorOperators.LSHR, 24);
+            IntVector result = IntVector.zero(INTS);
+            for (int c = 0; c < 4; c++) {
+                int w = 5 * c;
+                IntVector sum = r.mul(weights[w]).add(g.mul(weights[w + 1])).add(b.mul(weights[w + 2]))
+                        .add(a.mul(weights[w + 3])).add(add[c]);
+                IntVector value = sum.mul(magic[c]).lanewise(VectorOperators.ASHR, shift[c]).sub(minus[c]);
+                result = result.or(value.max(0).min(255).lanewise(VectorOperators.LSHL, PLACES[c]));
+            }
+            result.intoArray(pixels, i);
+        }
+        return i;
+    }
+}
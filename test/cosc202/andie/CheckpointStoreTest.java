@@ -0,0 +1,220 @@
+package cosc202.andie;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.imageio.ImageIO;
+import javax.swing.SwingUtilities;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * <p>
+ * Tests that the {@link CheckpointStore} keeps undo cheap however long the history is.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @version 1.0
+ */
+public class CheckpointStoreTest {
+
+    /** The number of operations in the long history. */
+    private static final int HISTORY = 100;
+
+    /**
+     * <p>
+     * An operation that rewrites every pixel and counts how often it is applied.
+     * </p>
+     */
+    private static final class Rewrite implements ImageOperation, java.io.Serializable {
+        /** The number of times any Rewrite has been applied. */
+        static int applied;
+
+        public BufferedImage apply(BufferedImage input) {
+            applied++;
+            BufferedImage output = new BufferedImage(input.getWidth(), input.getHeight(), BufferedImage.TYPE_INT_ARGB);
+            for (int y = 0; y < input.getHeight(); y++) {
+                for (int x = 0; x < input.getWidth(); x++) {
+                    output.setRGB(x, y, input.getRGB(x, y) + 0x010203);
+                }
+            }
+            return output;
+        }
+    }
+
+    @Test
+    void undoingALongHistoryReplaysEachGapOnce(@TempDir Path folder) throws Exception {
+        File file = folder.resolve("image.png").toFile();
+        ImageIO.write(new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB), "png", file);
+        EditableImage image = new EditableImage();
+        image.open(file.getPath());
+        image.getHistoryCache().setBudget(0);
+        for (int i = 0; i < HISTORY; i++) {
+            image.apply(new Rewrite());
+        }
+
+        int longUndos = 0;
+        int longest = 0;
+        for (int depth = HISTORY - 1; depth >= 0; depth--) {
+            Rewrite.applied = 0;
+            image.undo();
+            if (Rewrite.applied > CheckpointStore.DEFAULT_INTERVAL) {
+                longUndos++;
+            }
+            longest = Math.max(longest, Rewrite.applied);
+        }
+        assertTrue(longUndos <= CheckpointStore.DEFAULT_CAPACITY, longUndos + " undos replayed more than the checkpoint interval");
+        assertTrue(longest <= HISTORY / 2, "one undo replayed " + longest + " operations");
+    }
+
+    @Test
+    void backgroundUndoAndRedoMatchUndoAndRedo(@TempDir Path folder) throws Exception {
+        File file = folder.resolve("image.png").toFile();
+        ImageIO.write(new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB), "png", file);
+        EditableImage expected = new EditableImage();
+        EditableImage image = new EditableImage();
+        for (EditableImage each: new EditableImage[] {expected, image}) {
+            each.open(file.getPath());
+            each.getHistoryCache().setBudget(0);
+            each.getCheckpoints().setInterval(4);
+            for (int i = 0; i < 30; i++) {
+                each.apply(new Rewrite());
+            }
+        }
+
+        // The second undo restarts the replay the first one started.
+        expected.undo();
+        expected.undo();
+        onEventThread(done -> {
+            image.undoInBackground(null, null);
+            assertTrue(image.isBusy());
+            image.undoInBackground(null, done);
+        });
+        assertSameHistory(expected, image);
+
+        expected.redo();
+        onEventThread(done -> {
+            image.redoInBackground(null, done);
+            assertTrue(image.isBusy());
+        });
+        assertSameHistory(expected, image);
+
+        // Redoing while the undo is rendered just puts the operation back.
+        onEventThread(done -> {
+            image.undoInBackground(null, null);
+            image.redoInBackground(null, done);
+            assertTrue(!image.isBusy());
+        });
+        assertSameHistory(expected, image);
+
+        expected.repeat();
+        onEventThread(done -> image.repeatInBackground(null, done));
+        assertSameHistory(expected, image);
+    }
+
+    /**
+     * <p>
+     * Start edits on the event dispatch thread and wait for the last of them to finish.
+     * </p>
+     *
+     * @param edits Starts the edits, given the whenDone callback for the last one.
+     * @throws Exception If the edits throw or do not finish.
+     */
+    private static void onEventThread(Consumer<Runnable> edits) throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        SwingUtilities.invokeAndWait(() -> edits.accept(done::countDown));
+        assertTrue(done.await(10, TimeUnit.SECONDS), "the edit did not finish");
+    }
+
+    /**
+     * <p>
+     * Check that two images show the same pixels and have checkpoints at the same depths.
+     * </p>
+     *
+     * @param expected The image edited on this thread.
+     * @param actual The image edited in the background.
+     */
+    private static void assertSameHistory(EditableImage expected, EditableImage actual) {
+        assertEquals(expected.getCurrentImage().getRGB(0, 0), actual.getCurrentImage().getRGB(0, 0));
+        assertEquals(expected.getCheckpoints().size(), actual.getCheckpoints().size());
+        for (int depth = 0; depth <= 30; depth++) {
+            assertEquals(expected.getCheckpoints().nearest(depth).getKey(), actual.getCheckpoints().nearest(depth).getKey());
+        }
+    }
+
+    @Test
+    void fullImageEditsStayWithinTheByteBudget(@TempDir Path folder) throws Exception {
+        int size = 2 * TiledImage.TILE_SIZE;
+        long imageBytes = 4L * size * size;
+        File file = folder.resolve("image.png").toFile();
+        ImageIO.write(new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB), "png", file);
+        EditableImage image = new EditableImage();
+        image.open(file.getPath());
+        image.getHistoryCache().setBudget(0);
+        image.getCheckpoints().setInterval(1);
+        image.getCheckpoints().setBudget(3 * imageBytes);
+        for (int i = 0; i < HISTORY; i++) {
+            image.apply(new Rewrite());
+            long held = image.getCheckpoints().getBytesHeld();
+            assertTrue(held <= 3 * imageBytes, "checkpoints hold " + held + " bytes after edit " + (i + 1));
+        }
+        assertEquals(3, image.getCheckpoints().size());
+        assertEquals(HISTORY, image.getCheckpoints().nearest(HISTORY).getKey());
+
+        for (int depth = HISTORY - 1; depth >= 0; depth--) {
+            image.undo();
+            assertTrue(image.getCheckpoints().getBytesHeld() <= 3 * imageBytes, "checkpoints over budget after undo to " + depth);
+        }
+        assertEquals(0, image.getCurrentImage().getRGB(0, 0));
+    }
+
+    @Test
+    void theDeepestCheckpointIsDroppedOnlyWhenItAloneIsOverBudget() {
+        BufferedImage image = new BufferedImage(TiledImage.TILE_SIZE, TiledImage.TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        long imageBytes = HistoryCache.sizeOf(image);
+        CheckpointStore checkpoints = new CheckpointStore(1, Long.MAX_VALUE, 10);
+        checkpoints.setBudget(imageBytes);
+        checkpoints.reset(TiledImage.of(image));
+        for (int depth = 1; depth <= 4; depth++) {
+            image.setRGB(0, 0, depth);
+            checkpoints.setTop(depth);
+            checkpoints.record(depth, image, 0, null);
+            assertEquals(1, checkpoints.size());
+            assertEquals(depth, checkpoints.nearest(depth).getKey());
+        }
+
+        checkpoints.setBudget(imageBytes - 1);
+        assertEquals(0, checkpoints.size());
+        checkpoints.record(5, image, 0, null);
+        assertEquals(0, checkpoints.size());
+    }
+
+    @Test
+    void checkpointsAboveTheTopAreDroppedFirst() {
+        BufferedImage image = new BufferedImage(4, 4, BufferedImage.TYPE_INT_ARGB);
+        CheckpointStore checkpoints = new CheckpointStore(1, Long.MAX_VALUE, 3);
+        checkpoints.reset(TiledImage.of(image));
+        for (int depth = 1; depth <= 6; depth++) {
+            checkpoints.setTop(depth);
+            checkpoints.record(depth, image, 0, null);
+        }
+        checkpoints.setTop(2);
+        checkpoints.record(1, image, 0, null);
+        checkpoints.record(2, image, 0, null);
+
+        assertEquals(3, checkpoints.size());
+        assertEquals(1, checkpoints.nearest(1).getKey());
+        assertEquals(2, checkpoints.nearest(2).getKey());
+    }
+}
@@ -0,0 +1,176 @@
+package cosc202.andie;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * <p>
+ * Tests that combined {@link ColourMatrix}es give exactly the same colours as applying them in turn.
+ * </p>
+ *
+ * <p>
+ * Every pair of a selection of matrices is combined with {@link ColourMatrix#then}, which must
+ * succeed whenever either is a channel map. The result is checked on random pixels, on every
+ * pixel whose channels are all 0 or 255, and on whole images of the types that
+ * {@link OperationPlannerTest} uses, where the vectorised pass must match the per-pixel one.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @version 1.0
+ */
+public class ColourMatrixTest {
+
+    /** The number of random pixels each combination is checked on. */
+    private static final int SAMPLES = 20000;
+
+    /**
+     * <p>
+     * Make a selection of matrices: the colour menu's, and some that round in other ways.
+     * </p>
+     *
+     * @return The matrices, with the channel maps first.
+     */
+    private static List<ColourMatrix> matrices() {
+        List<ColourMatrix> matrices = new ArrayList<ColourMatrix>();
+        matrices.add(ColourMatrix.IDENTITY);
+        for (int operation = 1; operation <= 5; operation++) {
+            matrices.add(new ColourChannelCycle(operation).getColourMatrix());
+        }
+        matrices.add(new InvertColour().getColourMatrix());
+        matrices.add(new ConvertToGrey().getColourMatrix());
+        // Sepia, rounding three different ways.
+        matrices.add(new ColourMatrix(new int[] {
+            393, 769, 189, 0, 0,
+            349, 686, 168, 0, 0,
+            272, 534, 131, 0, 0,
+            0, 0, 0, 1000, 0
+        }, 1000));
+        // Negative weights and offsets, and an alpha that depends on the colour.
+        matrices.add(new ColourMatrix(new int[] {
+            -2, 5, 0, 0, 300,
+            0, 3, -1, 0, -40,
+            1, 1, 1, 0, 0,
+            1, 0, 0, 2, -100
+        }, 3));
+        return matrices;
+    }
+
+    @Test
+    void combinedMatricesMatchApplyingBothInTurn() {
+        int[] pixels = testPixels();
+        for (ColourMatrix first : matrices()) {
+            for (ColourMatrix second : matrices()) {
+                ColourMatrix combined = first.then(second);
+                String pair = describe(first) + " then " + describe(second);
+                if (!first.isChannelMap() && !second.isChannelMap()) {
+                    assertNull(combined, pair + " cannot be combined exactly");
+                    continue;
+                }
+                assertNotNull(combined, pair + " should combine");
+                for (int argb : pixels) {
+                    assertEquals(second.filterRGB(first.filterRGB(argb)), combined.filterRGB(argb),
+                            pair + " on " + Integer.toHexString(argb));
+                }
+            }
+        }
+    }
+
+    @Test
+    void channelMapsCombineIntoChannelMaps() {
+        for (ColourMatrix first : matrices()) {
+            for (ColourMatrix second : matrices()) {
+                if (first.isChannelMap() && second.isChannelMap()) {
+                    assertTrue(first.then(second).isChannelMap(), describe(first) + " then " + describe(second));
+                }
+            }
+        }
+    }
+
+    @Test
+    void lookupTablesMatchTheirMatrices() {
+        int[] pixels = testPixels();
+        for (ColourMatrix matrix : matrices()) {
+            LookupTable table = matrix.toLookupTable();
+            if (table == null) {
+                continue;
+            }
+            for (int argb : pixels) {
+                assertEquals(matrix.filterRGB(argb), table.filterRGB(argb), describe(matrix) + " on " + Integer.toHexString(argb));
+            }
+        }
+    }
+
+    @Test
+    void wholeImagesMatchThePerPixelResult() {
+        List<ColourMatrix> matrices = matrices();
+        for (int type : OperationPlannerTest.TYPES) {
+            for (int i = 0; i < matrices.size(); i++) {
+                ColourMatrix first = matrices.get(i);
+                ColourMatrix second = matrices.get((i + 3) % matrices.size());
+                ColourMatrix matrix = first.then(second) != null ? first.then(second) : first;
+                String name = describe(matrix) + " on image type " + type;
+
+                BufferedImage expected = PixelAccess.filter(OperationPlannerTest.testImage(type), matrix::filterRGB);
+                BufferedImage actual = matrix.apply(OperationPlannerTest.testImage(type));
+                assertArrayEquals(OperationPlannerTest.pixels(expected), OperationPlannerTest.pixels(actual), name);
+
+                if (matrix != first && EditableImage.hasExactPixels(OperationPlannerTest.testImage(type))) {
+                    BufferedImage inTurn = second.apply(first.apply(OperationPlannerTest.testImage(type)));
+                    assertArrayEquals(OperationPlannerTest.pixels(inTurn), OperationPlannerTest.pixels(actual),
+                            name + ", applied in turn");
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Make the pixels to check matrices on: random ones, and every pixel whose channels are all 0 or 255.
+     * </p>
+     *
+     * @return The pixels, in the default ARGB colour model.
+     */
+    private static int[] testPixels() {
+        int[] pixels = new int[SAMPLES + 16];
+        Random random = new Random(19);
+        for (int i = 0; i < SAMPLES; i++) {
+            pixels[i] = random.nextInt();
+        }
+        for (int corner = 0; corner < 16; corner++) {
+            int argb = 0;
+            for (int channel = 0; channel < 4; channel++) {
+                if ((corner >> channel & 1) != 0) {
+                    argb |= 0xFF << (channel * 8);
+                }
+            }
+            pixels[SAMPLES + corner] = argb;
+        }
+        return pixels;
+    }
+
+    /**
+     * <p>
+     * Describe a matrix by what it does to a few pixels, to report.
+     * </p>
+     *
+     * @param matrix The matrix.
+     * @return The matrix's results for a dark red and a light translucent blue.
+     */
+    private static String describe(ColourMatrix matrix) {
+        return "matrix(" + Integer.toHexString(matrix.filterRGB(0xFF401020)) + ", "
+                + Integer.toHexString(matrix.filterRGB(0x80A0C0F0)) + ")";
+    }
+}
@@ -0,0 +1,152 @@
+package cosc202.andie;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * <p>
+ * Tests that the {@link HistoryCache} stays within its budget when it shares tiles with checkpoints.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @version 1.0
+ */
+public class HistoryCacheTest {
+
+    /** The number of bytes in one tile of a {@link BufferedImage#TYPE_INT_ARGB} image. */
+    private static final long TILE_BYTES = 4L * TiledImage.TILE_SIZE * TiledImage.TILE_SIZE;
+
+    /**
+     * <p>
+     * An operation that stands for one step of a history, compared by identity like any other.
+     * </p>
+     */
+    private static final class Step implements ImageOperation {
+        public BufferedImage apply(BufferedImage input) {
+            return input;
+        }
+    }
+
+    @Test
+    void retainedBytesCountsTilesLeftBehindByReleasedSnapshots() {
+        BufferedImage image = new BufferedImage(2 * TiledImage.TILE_SIZE, TiledImage.TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        TiledImage first = TiledImage.of(image);
+        paint(image, 0, 1);
+        TiledImage second = TiledImage.of(image, first);
+
+        assertEquals(TILE_BYTES, TiledImage.retainedBytes(List.of(second)));
+        assertEquals(3 * TILE_BYTES, TiledImage.retainedBytes(List.of(first, second)));
+        first.release();
+        assertEquals(2 * TILE_BYTES, TiledImage.retainedBytes(List.of(second)));
+    }
+
+    @Test
+    void cacheStaysWithinBudgetAcrossCheckpointTrims() {
+        int tilesAcross = 4;
+        long budget = 6 * TILE_BYTES;
+        BufferedImage image = new BufferedImage(tilesAcross * TiledImage.TILE_SIZE, TiledImage.TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        CheckpointStore checkpoints = new CheckpointStore(1, Long.MAX_VALUE, 2);
+        HistoryCache cache = new HistoryCache(budget);
+        checkpoints.reset(TiledImage.of(image));
+        List<ImageOperation> ops = new ArrayList<ImageOperation>();
+
+        for (int depth = 1; depth <= 40; depth++) {
+            int tile = depth % tilesAcross;
+            paint(image, tile, depth);
+            ops.add(new Step());
+            checkpoints.setTop(ops.size());
+            Rectangle changed = new Rectangle(tile * TiledImage.TILE_SIZE, 0, TiledImage.TILE_SIZE, TiledImage.TILE_SIZE);
+            checkpoints.record(ops.size(), image, 0, changed);
+            cache.put(ops, image, checkpoints.nearest(ops.size()), changed);
+
+            long retained = TiledImage.retainedBytes(cached(cache, ops));
+            assertEquals(retained, cache.getBytesHeld(), "bytes held after step " + depth);
+            assertTrue(retained <= budget, "cache holds " + retained + " bytes after step " + depth);
+        }
+        assertTrue(cache.getEvictions() > 0);
+        assertTrue(cache.size() > 0);
+    }
+
+    @Test
+    void sharedBudgetCoversTilesHeldWithCheckpoints() {
+        int tilesAcross = 4;
+        long budget = 10 * TILE_BYTES;
+        BufferedImage image = new BufferedImage(tilesAcross * TiledImage.TILE_SIZE, TiledImage.TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        CheckpointStore checkpoints = new CheckpointStore(1, Long.MAX_VALUE, 6);
+        checkpoints.setBudget(budget / 2);
+        HistoryCache cache = new HistoryCache(budget, checkpoints);
+        checkpoints.reset(TiledImage.of(image));
+        List<ImageOperation> ops = new ArrayList<ImageOperation>();
+
+        for (int depth = 1; depth <= 40; depth++) {
+            for (int tile = 0; tile < tilesAcross; tile++) {
+                paint(image, tile, depth + tile);
+            }
+            ops.add(new Step());
+            checkpoints.setTop(ops.size());
+            checkpoints.record(ops.size(), image, 0, null);
+            cache.put(ops, image, checkpoints.nearest(ops.size()), null);
+
+            List<TiledImage> history = new ArrayList<TiledImage>(cached(cache, ops));
+            history.addAll(checkpoints.snapshots());
+            long retained = TiledImage.retainedBytes(history);
+            assertTrue(retained <= budget, "cache and checkpoints hold " + retained + " bytes after step " + depth);
+            assertTrue(checkpoints.getBytesHeld() <= budget / 2, "checkpoints over their share after step " + depth);
+        }
+        assertTrue(checkpoints.size() > 0);
+        assertTrue(cache.getEvictions() > 0);
+    }
+
+    /**
+     * <p>
+     * Fill one tile of an image with a colour.
+     * </p>
+     *
+     * @param image The image to paint.
+     * @param tile The index of the tile across the image.
+     * @param shade A value that picks the colour.
+     */
+    private static void paint(BufferedImage image, int tile, int shade) {
+        Graphics2D g = image.createGraphics();
+        g.setColor(new Color(shade * 37 % 256, shade * 59 % 256, shade * 83 % 256));
+        g.fillRect(tile * TiledImage.TILE_SIZE, 0, TiledImage.TILE_SIZE, TiledImage.TILE_SIZE);
+        g.dispose();
+    }
+
+    /**
+     * <p>
+     * Collect the snapshots the cache holds for the prefixes of a sequence, oldest first so
+     * that looking them up leaves their order of use as it was.
+     * </p>
+     *
+     * @param cache The cache to look in.
+     * @param ops The sequence whose prefixes were cached.
+     * @return The distinct snapshots held.
+     */
+    private static Set<TiledImage> cached(HistoryCache cache, List<ImageOperation> ops) {
+        Set<TiledImage> snapshots = Collections.newSetFromMap(new IdentityHashMap<TiledImage, Boolean>());
+        for (int length = 1; length <= ops.size(); length++) {
+            Map.Entry<Integer, TiledImage> entry = cache.lookup(ops.subList(0, length));
+            if (entry != null && entry.getKey() == length) {
+                snapshots.add(entry.getValue());
+            }
+        }
+        return snapshots;
+    }
+}
@@ -0,0 +1,211 @@
+package cosc202.andie;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * <p>
+ * Tests that a planned replay gives exactly the same image as applying the operations one at a time.
+ * </p>
+ *
+ * <p>
+ * Each sequence is applied both ways to a fresh copy of a test image of each type: two that
+ * store 8 bits per channel, so that the {@link FusedOperation}s take their fused path, and a
+ * grey and an indexed image, on which they fall back to applying their operations in order.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @version 1.0
+ */
+public class OperationPlannerTest {
+
+    /** The width of the test images, odd and different from the height so quarter turns show. */
+    private static final int WIDTH = 97;
+    /** The height of the test images. */
+    private static final int HEIGHT = 61;
+    /** The image types to test, covering the fused path and the fallback. */
+    static final int[] TYPES = {BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR,
+            BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_BYTE_INDEXED};
+
+    /**
+     * <p>
+     * Make each of the flips and rotations on the Edit menu.
+     * </p>
+     *
+     * @return A new operation of each kind.
+     */
+    private static List<ImageOperation> orientations() {
+        return List.of(new RotateLeft(), new RotateRight(), new Rotate180(), new FlipHorizontal(), new FlipVertical());
+    }
+
+    /**
+     * <p>
+     * Make a selection of the per-pixel colour operations, covering matrices, lookup tables and both.
+     * </p>
+     *
+     * @return A new operation of each kind.
+     */
+    private static List<ImageOperation> colours() {
+        return List.of(new ConvertToGrey(), new InvertColour(), new BrightnessContrast(20, -30),
+                new BrightnessContrast(-45, 60), new ColourChannelCycle(1), new ColourChannelCycle(3),
+                new ColourChannelCycle(5));
+    }
+
+    @Test
+    void cancellingOrientationsLeaveTheImageAlone() {
+        List<List<ImageOperation>> runs = List.of(
+                List.of(new RotateLeft(), new RotateRight()),
+                List.of(new FlipVertical(), new FlipVertical()),
+                List.of(new RotateRight(), new RotateRight(), new RotateRight(), new RotateRight()),
+                List.of(new FlipHorizontal(), new FlipVertical(), new Rotate180()));
+        for (List<ImageOperation> run : runs) {
+            List<ImageOperation> plan = OperationPlanner.plan(run);
+            assertEquals(1, plan.size(), run + " should be one step");
+            for (int type : TYPES) {
+                BufferedImage image = testImage(type);
+                BufferedImage result = plan.get(0).apply(image);
+                if (EditableImage.hasExactPixels(image)) {
+                    assertSame(image, result, run + " should not copy an image of type " + type);
+                }
+                assertArrayEquals(pixels(testImage(type)), pixels(result), run + " of image type " + type);
+            }
+        }
+    }
+
+    @Test
+    void orientationRunsMatchOneAtATime() {
+        List<ImageOperation> all = orientations();
+        for (ImageOperation first : all) {
+            for (ImageOperation second : all) {
+                for (ImageOperation third : all) {
+                    assertMatchesOneAtATime(List.of(first, second, third));
+                }
+            }
+        }
+    }
+
+    @Test
+    void colourRunsMatchOneAtATime() {
+        List<ImageOperation> all = colours();
+        for (ImageOperation first : all) {
+            for (ImageOperation second : all) {
+                assertMatchesOneAtATime(List.of(first, second));
+                for (ImageOperation third : all) {
+                    assertMatchesOneAtATime(List.of(first, second, third));
+                }
+            }
+        }
+    }
+
+    @Test
+    void mixedRunsMatchOneAtATime() {
+        List<ImageOperation> sequence = List.of(new RotateRight(), new InvertColour(), new FlipHorizontal(),
+                new BrightnessContrast(10, 25), new MeanFilter(1), new ConvertToGrey(), new Rotate180(),
+                new ColourChannelCycle(2), new InvertColour(), new RandomNoise(7), new FlipVertical());
+        List<ImageOperation> plan = OperationPlanner.plan(sequence);
+        assertEquals(5, plan.size(), "only the runs either side of the filters should be fused");
+        assertTrue(plan.get(1) instanceof MeanFilter && plan.get(3) instanceof RandomNoise);
+        assertMatchesOneAtATime(sequence);
+
+        Random random = new Random(6);
+        List<ImageOperation> candidates = new ArrayList<ImageOperation>(orientations());
+        candidates.addAll(colours());
+        for (int trial = 0; trial < 40; trial++) {
+            List<ImageOperation> run = new ArrayList<ImageOperation>();
+            for (int i = 0; i < 6; i++) {
+                run.add(candidates.get(random.nextInt(candidates.size())));
+            }
+            assertMatchesOneAtATime(run);
+        }
+    }
+
+    /**
+     * <p>
+     * Check that the plan for a sequence gives the same image as applying it one operation
+     * at a time, on every test image type.
+     * </p>
+     *
+     * @param sequence The operations, in order.
+     */
+    private static void assertMatchesOneAtATime(List<ImageOperation> sequence) {
+        List<ImageOperation> plan = OperationPlanner.plan(sequence);
+        for (int type : TYPES) {
+            BufferedImage expected = testImage(type);
+            for (ImageOperation op : sequence) {
+                expected = op.apply(expected);
+            }
+            BufferedImage actual = testImage(type);
+            for (ImageOperation step : plan) {
+                actual = step.apply(actual);
+            }
+            assertArrayEquals(pixels(expected), pixels(actual), names(sequence) + " on image type " + type);
+        }
+    }
+
+    /**
+     * <p>
+     * Make an image of random pixels, with random alpha where the type has alpha.
+     * </p>
+     *
+     * @param type The type of image.
+     * @return A new image, with the same pixels every time for a given type.
+     */
+    static BufferedImage testImage(int type) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, type);
+        Random random = new Random(type);
+        if (type == BufferedImage.TYPE_INT_ARGB) {
+            int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            for (int i = 0; i < data.length; i++) {
+                data[i] = random.nextInt();
+            }
+        } else {
+            random.nextBytes(((DataBufferByte) image.getRaster().getDataBuffer()).getData());
+        }
+        return image;
+    }
+
+    /**
+     * <p>
+     * Get the colours of an image, along with its size and type.
+     * </p>
+     *
+     * @param image The image.
+     * @return The image's width, height and type followed by the ARGB value of every pixel.
+     */
+    static int[] pixels(BufferedImage image) {
+        int[] argb = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+        int[] result = new int[argb.length + 3];
+        result[0] = image.getWidth();
+        result[1] = image.getHeight();
+        result[2] = image.getType();
+        System.arraycopy(argb, 0, result, 3, argb.length);
+        return result;
+    }
+
+    /**
+     * <p>
+     * Name the operations of a sequence, to report.
+     * </p>
+     *
+     * @param sequence The operations.
+     * @return The simple class names of the operations, in order.
+     */
+    private static String names(List<ImageOperation> sequence) {
+        return Arrays.toString(sequence.stream().map(op -> op.getClass().getSimpleName()).toArray());
+    }
+}
@@ -0,0 +1,124 @@
+package cosc202.andie;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * <p>
+ * Tests that composing, inverting and drawing {@link Orientation}s agrees with moving the pixels.
+ * </p>
+ *
+ * <p>
+ * The pending orientation of an {@link EditableImage} is built up with {@link Orientation#then},
+ * undone with {@link Orientation#inverse} and drawn with {@link Orientation#toAffineTransform},
+ * so each of these must give exactly the pixels that {@link Orientation#transform} would after
+ * the same flips and rotations, on images of every type in {@link OperationPlannerTest}.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @version 1.0
+ */
+public class OrientationTest {
+
+    @Test
+    void operationsMoveEachPixelWhereExpected() {
+        // Where each operation sends source pixel (x, y) of a w by h image, as {x, y} coefficients of {1, x, y, w - 1, h - 1}.
+        Map<ImageOperation, int[][]> moves = Map.of(
+                new RotateLeft(), new int[][] {{0, 0, 1, 0, 0}, {0, -1, 0, 1, 0}},
+                new RotateRight(), new int[][] {{0, 0, -1, 0, 1}, {0, 1, 0, 0, 0}},
+                new Rotate180(), new int[][] {{0, -1, 0, 1, 0}, {0, 0, -1, 0, 1}},
+                new FlipHorizontal(), new int[][] {{0, -1, 0, 1, 0}, {0, 0, 1, 0, 0}},
+                new FlipVertical(), new int[][] {{0, 1, 0, 0, 0}, {0, 0, -1, 0, 1}});
+        for (Map.Entry<ImageOperation, int[][]> move : moves.entrySet()) {
+            for (int type : OperationPlannerTest.TYPES) {
+                BufferedImage image = OperationPlannerTest.testImage(type);
+                BufferedImage moved = move.getKey().apply(OperationPlannerTest.testImage(type));
+                int[][] m = move.getValue();
+                int w = image.getWidth() - 1;
+                int h = image.getHeight() - 1;
+                for (int y = 0; y <= h; y++) {
+                    for (int x = 0; x <= w; x++) {
+                        int toX = m[0][0] + m[0][1] * x + m[0][2] * y + m[0][3] * w + m[0][4] * h;
+                        int toY = m[1][0] + m[1][1] * x + m[1][2] * y + m[1][3] * w + m[1][4] * h;
+                        assertEquals(image.getRGB(x, y), moved.getRGB(toX, toY),
+                                move.getKey().getClass().getSimpleName() + " of image type " + type + " at " + x + ", " + y);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void composedOrientationsMatchTransformingInTurn() {
+        for (int type : OperationPlannerTest.TYPES) {
+            for (Orientation first : Orientation.values()) {
+                BufferedImage once = first.transform(OperationPlannerTest.testImage(type));
+                for (Orientation second : Orientation.values()) {
+                    BufferedImage expected = second.transform(once);
+                    BufferedImage actual = first.then(second).transform(OperationPlannerTest.testImage(type));
+                    assertArrayEquals(OperationPlannerTest.pixels(expected), OperationPlannerTest.pixels(actual),
+                            first + " then " + second + " on image type " + type);
+                }
+            }
+        }
+    }
+
+    @Test
+    void inversesUndoTheirOrientations() {
+        for (Orientation orientation : Orientation.values()) {
+            assertEquals(Orientation.IDENTITY, orientation.then(orientation.inverse()), orientation + " then its inverse");
+            assertEquals(Orientation.IDENTITY, orientation.inverse().then(orientation), "the inverse of " + orientation + " then it");
+            for (int type : OperationPlannerTest.TYPES) {
+                BufferedImage undone = orientation.inverse().transform(orientation.transform(OperationPlannerTest.testImage(type)));
+                assertArrayEquals(OperationPlannerTest.pixels(OperationPlannerTest.testImage(type)), OperationPlannerTest.pixels(undone),
+                        orientation + " undone on image type " + type);
+            }
+        }
+    }
+
+    @Test
+    void affineTransformsPutEachPixelWhereTransformDoes() {
+        for (int type : OperationPlannerTest.TYPES) {
+            BufferedImage image = OperationPlannerTest.testImage(type);
+            for (Orientation orientation : Orientation.values()) {
+                BufferedImage moved = orientation.transform(image);
+                AffineTransform transform = orientation.toAffineTransform(image.getWidth(), image.getHeight());
+                for (int y = 0; y < image.getHeight(); y++) {
+                    for (int x = 0; x < image.getWidth(); x++) {
+                        Point2D centre = transform.transform(new Point2D.Double(x + 0.5, y + 0.5), null);
+                        assertEquals(image.getRGB(x, y), moved.getRGB((int) Math.floor(centre.getX()), (int) Math.floor(centre.getY())),
+                                orientation + " of image type " + type + " at " + x + ", " + y);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void drawingThroughTheAffineTransformShowsTheTransformedPixels() {
+        // Opaque, because Java2D premultiplies translucent pixels when drawing through a transform, which rounds their colours.
+        BufferedImage image = OperationPlannerTest.testImage(BufferedImage.TYPE_3BYTE_BGR);
+        for (Orientation orientation : Orientation.values()) {
+            BufferedImage moved = orientation.transform(image);
+            BufferedImage drawn = new BufferedImage(moved.getWidth(), moved.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+            Graphics2D g = drawn.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+            g.transform(orientation.toAffineTransform(image.getWidth(), image.getHeight()));
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+            assertArrayEquals(OperationPlannerTest.pixels(moved), OperationPlannerTest.pixels(drawn), orientation + " drawn");
+        }
+    }
+}
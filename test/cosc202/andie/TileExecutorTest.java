@@ -0,0 +1,220 @@
+package cosc202.andie;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.UnaryOperator;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * <p>
+ * Tests that splitting work across cores never changes the result.
+ * </p>
+ *
+ * <p>
+ * Each filter is applied once with its work kept on one core and once split for several,
+ * and the two results must match bit for bit. The work is split whatever cores the machine
+ * running the tests has, through {@link TileExecutor#setParallelism(int)}, so the split
+ * paths are checked even where they would otherwise never run.
+ * </p>
+ *
+ * <p>
+ * <a href="https://creativecommons.org/licenses/by-nc-sa/4.0/">CC BY-NC-SA 4.0</a>
+ * </p>
+ *
+ * @version 1.0
+ */
+public class TileExecutorTest {
+
+    /** The width of the test images, which are large enough to be split. */
+    private static final int WIDTH = 701;
+    /** The height of the test images. */
+    private static final int HEIGHT = 503;
+    /** The numbers of cores to split work for, including one that does not divide the rows evenly. */
+    private static final int[] PARALLELISMS = {2, 3, 8};
+    /** The image types to test, covering packed, interleaved and single-channel storage. */
+    private static final int[] TYPES = {BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY};
+
+    @AfterEach
+    void restoreParallelism() {
+        TileExecutor.setParallelism(0);
+    }
+
+    @Test
+    void neighbourhoodFiltersMatchSerial() {
+        assertMatchesSerial("mean", new MeanFilter(3)::apply);
+        assertMatchesSerial("median", new MedianFilter(2)::apply);
+        assertMatchesSerial("small gaussian", new GaussianFilter(2)::apply);
+        assertMatchesSerial("large gaussian", new GaussianFilter(25)::apply);
+        assertMatchesSerial("sharpen", new SharpenFilter()::apply);
+        assertMatchesSerial("soft blur", new SoftBlur()::apply);
+        assertMatchesSerial("emboss", new EmbossFilter(new float[] {0, 0, 0, 1, 0, -1, 0, 0, 0})::apply);
+        assertMatchesSerial("sobel", new SobelFilter(true)::apply);
+        for (GradientFilter.Output output : GradientFilter.Output.values()) {
+            assertMatchesSerial("gradient " + output, new GradientFilter(output)::apply);
+        }
+        assertMatchesSerial("block averaging", new BlockAveraging(7, 5)::apply);
+    }
+
+    @Test
+    void pixelFiltersMatchSerial() {
+        assertMatchesSerial("brightness and contrast", new BrightnessContrast(20, -30)::apply);
+        assertMatchesSerial("greyscale", new ConvertToGrey()::apply);
+        assertMatchesSerial("invert", new InvertColour()::apply);
+        assertMatchesSerial("channel cycle", new ColourChannelCycle(1)::apply);
+        assertMatchesSerial("noise", new RandomNoise(42)::apply);
+        assertMatchesSerial("scatter", new RandomScatter(4, 42)::apply);
+    }
+
+    @Test
+    void geometryMatchesSerial() {
+        assertMatchesSerial("rotate", new RotateRight()::apply);
+        assertMatchesSerial("flip", new FlipHorizontal()::apply);
+        assertMatchesSerial("oval crop", new OvalCrop(new Point(30, 40), new Point(650, 470))::apply);
+        for (Resampler.Filter filter : Resampler.Filter.values()) {
+            assertMatchesSerial("shrink " + filter, new ResizeImage(37, filter)::apply);
+            assertMatchesSerial("enlarge " + filter, new ResizeImage(130, filter)::apply);
+        }
+    }
+
+    @Test
+    void packedOrientationsMatchSerial() {
+        BufferedImage[] images = {testImage(BufferedImage.TYPE_BYTE_BINARY), packedImage(2), packedImage(4)};
+        for (BufferedImage image : images) {
+            for (Orientation orientation : Orientation.values()) {
+                assertMatchesSerial(orientation + " of " + image.getColorModel().getPixelSize() + "-bit packed",
+                        image, orientation::transform);
+            }
+        }
+    }
+
+    @Test
+    void everyConvolutionMethodMatchesSerial() {
+        float[] row = {1, 4, 6, 4, 1};
+        float[] kernel = new float[25];
+        for (int i = 0; i < kernel.length; i++) {
+            kernel[i] = row[i / 5] * row[i % 5] / 256f;
+        }
+        float[] wide = new float[81];
+        Arrays.fill(wide, 1 / 81f);
+        Convolution fixed = new Convolution(5, 5, kernel, Convolution.Border.MIRROR);
+        Convolution floating = new Convolution(9, 9, wide, Convolution.Border.WRAP);
+        Convolution separable = Convolution.separable(row, row, Convolution.Border.CLAMP);
+        assertMatchesSerial("fixed point", image -> fixed.apply(image, Convolution.Method.DIRECT));
+        assertMatchesSerial("floating point", image -> floating.apply(image, Convolution.Method.DIRECT));
+        assertMatchesSerial("separable", image -> separable.apply(image, Convolution.Method.SEPARABLE));
+        assertMatchesSerial("fft", image -> floating.apply(image, Convolution.Method.FFT));
+    }
+
+    /**
+     * <p>
+     * Check that a filter gives the same result on one core as split across several.
+     * </p>
+     *
+     * @param name The name of the filter, to report.
+     * @param filter The filter, which is given a fresh copy of the test image each time.
+     */
+    private static void assertMatchesSerial(String name, UnaryOperator<BufferedImage> filter) {
+        for (int type : TYPES) {
+            assertMatchesSerial(name + " of image type " + type, testImage(type), filter);
+        }
+    }
+
+    /**
+     * <p>
+     * Check that a filter gives the same result on one core as split across several, for one image.
+     * </p>
+     *
+     * @param name The name of the filter and image, to report.
+     * @param image The image to filter.
+     * @param filter The filter, which is given a fresh copy of the image each time.
+     */
+    private static void assertMatchesSerial(String name, BufferedImage image, UnaryOperator<BufferedImage> filter) {
+        TileExecutor.setParallelism(1);
+        int[] serial = pixels(filter.apply(copy(image)));
+        for (int parallelism : PARALLELISMS) {
+            TileExecutor.setParallelism(parallelism);
+            assertArrayEquals(serial, pixels(filter.apply(copy(image))),
+                    name + " split for " + parallelism + " cores");
+        }
+    }
+
+    /**
+     * <p>
+     * Make an image of random pixels, with random alpha where the type has alpha.
+     * </p>
+     *
+     * @param type The type of image.
+     * @return The image, the same every time for a given type.
+     */
+    private static BufferedImage testImage(int type) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, type);
+        Random random = new Random(type);
+        if (type == BufferedImage.TYPE_INT_ARGB) {
+            int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            for (int i = 0; i < data.length; i++) {
+                data[i] = random.nextInt();
+            }
+        } else {
+            random.nextBytes(((DataBufferByte) image.getRaster().getDataBuffer()).getData());
+        }
+        return image;
+    }
+
+    /**
+     * <p>
+     * Make an indexed image of random pixels packed several to a byte.
+     * </p>
+     *
+     * @param bits The number of bits in a pixel, 1, 2 or 4.
+     * @return The image, the same every time for a given number of bits.
+     */
+    private static BufferedImage packedImage(int bits) {
+        byte[] greys = new byte[1 << bits];
+        for (int i = 0; i < greys.length; i++) {
+            greys[i] = (byte) (255 * i / (greys.length - 1));
+        }
+        IndexColorModel colours = new IndexColorModel(bits, greys.length, greys, greys, greys);
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_BINARY, colours);
+        new Random(bits).nextBytes(((DataBufferByte) image.getRaster().getDataBuffer()).getData());
+        return image;
+    }
+
+    /**
+     * <p>
+     * Copy an image, so that a filter that changes its input cannot affect the next run.
+     * </p>
+     *
+     * @param image The image to copy.
+     * @return A new image of the same type with the same pixels.
+     */
+    private static BufferedImage copy(BufferedImage image) {
+        return new BufferedImage(image.getColorModel(), image.copyData(null), image.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * <p>
+     * Get the stored samples of an image, along with its size and type.
+     * </p>
+     *
+     * @param image The image.
+     * @return The image's width, height and type followed by all of its samples.
+     */
+    private static int[] pixels(BufferedImage image) {
+        int[] samples = image.getRaster().getPixels(0, 0, image.getWidth(), image.getHeight(), (int[]) null);
+        int[] result = new int[samples.length + 3];
+        result[0] = image.getWidth();
+        result[1] = image.getHeight();
+        result[2] = image.getType();
+        System.arraycopy(samples, 0, result, 3, samples.length);
+        return result;
+    }
+}